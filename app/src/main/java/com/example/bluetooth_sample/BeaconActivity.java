@@ -0,0 +1,81 @@
+package com.example.bluetooth_sample;
+
+import android.content.ComponentName;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.Bundle;
+import android.os.IBinder;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.recyclerview.widget.DividerItemDecoration;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+/**
+ * Ranges the beacons nearby while shown, with the controller of the {@link ScanService}, and
+ * lists them with their estimated distance.
+ */
+public class BeaconActivity extends AppCompatActivity implements BeaconRanger.Listener {
+
+    private TextView summaryView;
+    private BeaconListAdapter adapter;
+
+    private ScanService scanService;
+    private BluetoothHelper bluetooth;
+
+    private final ServiceConnection scanServiceConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder binder) {
+            scanService = ((ScanService.LocalBinder) binder).getService();
+            bluetooth = scanService.getBluetooth();
+            if (bluetooth == null) {
+                // The Bluetooth and the location permission are checked by the main activity.
+                Toast.makeText(BeaconActivity.this, R.string.beacon_bluetooth_unavailable, Toast.LENGTH_SHORT).show();
+                finish();
+                return;
+            }
+            BeaconRanger ranger = bluetooth.startBeaconRanging(BeaconActivity.this);
+            if (ranger.getTable().size() > 0) {
+                // The beacons ranged by a previous visit, until the first cycle.
+                onBeaconsRanged(ranger.getTable());
+            }
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            scanService = null;
+            bluetooth = null;
+        }
+    };
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_beacon);
+        summaryView = findViewById(R.id.tvBeaconSummary);
+        RecyclerView recyclerView = findViewById(R.id.beacon_list);
+        recyclerView.setLayoutManager(new LinearLayoutManager(this));
+        recyclerView.addItemDecoration(new DividerItemDecoration(this, DividerItemDecoration.VERTICAL));
+        adapter = new BeaconListAdapter(this);
+        recyclerView.setAdapter(adapter);
+        bindService(new Intent(this, ScanService.class), scanServiceConnection, BIND_AUTO_CREATE);
+    }
+
+    @Override
+    protected void onDestroy() {
+        if (bluetooth != null) {
+            bluetooth.stopBeaconRanging();
+        }
+        unbindService(scanServiceConnection);
+        super.onDestroy();
+    }
+
+    @Override
+    public void onBeaconsRanged(BeaconTable table) {
+        summaryView.setText(getString(R.string.beacon_ranging_summary, table.getCycle(),
+                table.getRangedCount(), table.size()));
+        adapter.onBeaconsRanged(table);
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.bluetooth_sample;
+
+import android.content.Context;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import androidx.recyclerview.widget.RecyclerView;
+
+/**
+ * Lists the beacons of a {@link BeaconTable}, in order of first sighting, so that the rows never
+ * move. Each ranging cycle refreshes the list in a single update.
+ */
+public class BeaconListAdapter extends RecyclerView.Adapter<BeaconListAdapter.ViewHolder> implements BeaconRanger.Listener {
+
+    private final LayoutInflater inflater;
+    private final Context context;
+
+    private BeaconTable table;
+
+    /**
+     * Number of rows the list has been notified of.
+     */
+    private int publishedCount;
+
+    public BeaconListAdapter(Context context) {
+        this.context = context;
+        this.inflater = LayoutInflater.from(context);
+    }
+
+    @Override
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        View view = inflater.inflate(R.layout.beacon_row, parent, false);
+        return new ViewHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int position) {
+        holder.identifiersView.setText(table.formatIdentifiers(position));
+        int rssi = Math.round(table.getSmoothedRssi(position));
+        float distance = table.getDistance(position);
+        if (!table.isInRange(position)) {
+            holder.rangeView.setText(R.string.beacon_out_of_range);
+        } else if (distance == BeaconTable.UNKNOWN_DISTANCE) {
+            holder.rangeView.setText(context.getString(R.string.beacon_rssi, rssi));
+        } else {
+            holder.rangeView.setText(context.getString(R.string.beacon_distance, distance, rssi));
+        }
+    }
+
+    @Override
+    public int getItemCount() {
+        return publishedCount;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The beacons already listed are rebound at once, the new ones appended.
+     */
+    @Override
+    public void onBeaconsRanged(BeaconTable table) {
+        this.table = table;
+        int previousCount = publishedCount;
+        publishedCount = table.size();
+        if (previousCount > publishedCount) {
+            // The table was cleared.
+            notifyDataSetChanged();
+            return;
+        }
+        if (previousCount > 0) {
+            notifyItemRangeChanged(0, previousCount);
+        }
+        if (publishedCount > previousCount) {
+            notifyItemRangeInserted(previousCount, publishedCount - previousCount);
+        }
+    }
+
+    public class ViewHolder extends RecyclerView.ViewHolder {
+        TextView identifiersView;
+        TextView rangeView;
+
+        ViewHolder(View itemView) {
+            super(itemView);
+            identifiersView = itemView.findViewById(R.id.tvBeaconIdentifiers);
+            rangeView = itemView.findViewById(R.id.tvBeaconRange);
+        }
+    }
+}
@@ -0,0 +1,355 @@
+package com.example.bluetooth_sample;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.RemoteException;
+import android.util.Log;
+
+import org.altbeacon.beacon.Beacon;
+import org.altbeacon.beacon.BeaconConsumer;
+import org.altbeacon.beacon.BeaconManager;
+import org.altbeacon.beacon.BeaconParser;
+import org.altbeacon.beacon.Identifier;
+import org.altbeacon.beacon.RangeNotifier;
+import org.altbeacon.beacon.Region;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Ranges the iBeacon and Eddystone-UID beacons nearby with the AltBeacon library, and records
+ * each ranging cycle into a {@link BeaconTable}.
+ * <p>
+ * The library scans and parses the advertisements, then reports the beacons of a cycle at once.
+ * Their identifiers are copied into the table as primitives, and the listener is notified once
+ * per cycle, on the UI thread, so the beacon list is refreshed in a single update whatever the
+ * number of beacons. The library creates new identifiers at each cycle, whose bytes can only be
+ * read as copies: they are converted once per distinct value, then looked up by value, so the
+ * recording of a cycle allocates nothing once its beacons are known.
+ * <p>
+ * This class is not Thread Safe, it must only be used from the UI thread.
+ */
+public class BeaconRanger implements BeaconConsumer, RangeNotifier {
+
+    /**
+     * Callback receiving the ranging cycles.
+     */
+    public interface Listener {
+
+        /**
+         * Called on the UI thread at the end of each ranging cycle, once its beacons have been
+         * recorded.
+         *
+         * @param table the table of the beacons, {@link BeaconTable#getRangedCount()} of them
+         *              ranged in this cycle.
+         */
+        void onBeaconsRanged(BeaconTable table);
+    }
+
+    /**
+     * Tag string used for logging.
+     */
+    private static final String TAG = "BeaconRanger";
+
+    /**
+     * Layout of the iBeacon advertisements, which the library can't ship.
+     */
+    public static final String IBEACON_LAYOUT = "m:2-3=0215,i:4-19,i:20-21,i:22-23,p:24-24";
+
+    /**
+     * Beacon type code of the iBeacon advertisements, as matched by {@link #IBEACON_LAYOUT}.
+     */
+    private static final int IBEACON_TYPE_CODE = 0x0215;
+
+    /**
+     * Service UUID of the Eddystone advertisements.
+     */
+    private static final int EDDYSTONE_SERVICE_UUID = 0xFEAA;
+
+    /**
+     * Beacon type code of the Eddystone-UID frames, among the Eddystone ones.
+     */
+    private static final int EDDYSTONE_UID_TYPE_CODE = 0x00;
+
+    /**
+     * Number of identifiers converted before the cache is emptied, far more than the beacons of a
+     * venue.
+     */
+    private static final int MAX_CACHED_IDENTIFIERS = 4096;
+
+    /**
+     * Default duration of a ranging cycle, a bit longer than the usual advertising interval of
+     * the beacons.
+     */
+    public static final long DEFAULT_CYCLE_MILLIS = 1100;
+
+    /**
+     * Every beacon, whatever its identifiers.
+     */
+    private static final Region ALL_BEACONS = new Region("all-beacons", null, null, null);
+
+    private final Context context;
+    private final BeaconManager beaconManager;
+    private final BeaconTable table = new BeaconTable();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * The identifiers already converted, by value.
+     */
+    private final HashMap<Identifier, IdentifierBits> identifierBits = new HashMap<>();
+
+    private Listener listener;
+
+    /**
+     * True once bound to the scanning service of the library.
+     */
+    private boolean bound;
+
+    /**
+     * True while the library is ranging.
+     */
+    private boolean ranging;
+
+    /**
+     * Instantiates a new BeaconRanger.
+     *
+     * @param context the context binding to the scanning service of the library.
+     */
+    public BeaconRanger(Context context) {
+        this.context = context;
+        this.beaconManager = BeaconManager.getInstanceForApplication(context);
+        // Shared by the whole application, the parsers are only added by the first ranger.
+        List<BeaconParser> parsers = beaconManager.getBeaconParsers();
+        if (parsers.size() <= 1) {
+            parsers.add(new BeaconParser().setBeaconLayout(IBEACON_LAYOUT));
+            parsers.add(new BeaconParser().setBeaconLayout(BeaconParser.EDDYSTONE_UID_LAYOUT));
+        }
+        beaconManager.setForegroundScanPeriod(DEFAULT_CYCLE_MILLIS);
+        beaconManager.setForegroundBetweenScanPeriod(0);
+    }
+
+    /**
+     * Starts ranging, once bound to the scanning service of the library.
+     *
+     * @param listener the callback receiving the ranging cycles.
+     */
+    public void start(Listener listener) {
+        this.listener = listener;
+        if (!bound) {
+            bound = true;
+            beaconManager.bind(this);
+        } else {
+            startRanging();
+        }
+    }
+
+    /**
+     * Stops ranging and unbinds from the scanning service of the library. The table is kept.
+     */
+    public void stop() {
+        listener = null;
+        if (ranging) {
+            ranging = false;
+            try {
+                beaconManager.stopRangingBeaconsInRegion(ALL_BEACONS);
+            } catch (RemoteException e) {
+                Log.w(TAG, "Unable to stop ranging", e);
+            }
+        }
+        if (bound) {
+            bound = false;
+            beaconManager.removeRangeNotifier(this);
+            beaconManager.unbind(this);
+        }
+    }
+
+    /**
+     * Checks if the ranging is started, even if not yet bound to the scanning service.
+     *
+     * @return true between {@link #start(Listener)} and {@link #stop()}.
+     */
+    public boolean isRanging() {
+        return listener != null;
+    }
+
+    public BeaconTable getTable() {
+        return table;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onBeaconServiceConnect() {
+        beaconManager.addRangeNotifier(this);
+        if (listener != null) {
+            startRanging();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Records the beacons of the cycle, then notifies the listener.
+     */
+    @Override
+    public void didRangeBeaconsInRegion(Collection<Beacon> beacons, Region region) {
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            onCycle(beacons);
+        } else {
+            // Not expected from the library, which reports on the UI thread.
+            final List<Beacon> cycle = new ArrayList<>(beacons);
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    onCycle(cycle);
+                }
+            });
+        }
+    }
+
+    @Override
+    public Context getApplicationContext() {
+        return context.getApplicationContext();
+    }
+
+    @Override
+    public void unbindService(ServiceConnection connection) {
+        context.unbindService(connection);
+    }
+
+    @Override
+    public boolean bindService(Intent intent, ServiceConnection connection, int flags) {
+        return context.bindService(intent, connection, flags);
+    }
+
+    private void startRanging() {
+        if (ranging) {
+            return;
+        }
+        try {
+            beaconManager.startRangingBeaconsInRegion(ALL_BEACONS);
+            ranging = true;
+        } catch (RemoteException e) {
+            Log.w(TAG, "Unable to start ranging", e);
+        }
+    }
+
+    /**
+     * Records the beacons of a ranging cycle, and notifies the listener.
+     *
+     * @param beacons the beacons ranged in the cycle.
+     */
+    private void onCycle(Collection<Beacon> beacons) {
+        if (listener == null) {
+            // Stopped since the cycle was reported.
+            return;
+        }
+        recordCycle(beacons);
+        listener.onBeaconsRanged(table);
+    }
+
+    /**
+     * Records the beacons of a ranging cycle into the table, without notifying the listener.
+     *
+     * @param beacons the beacons ranged in the cycle.
+     */
+    public void recordCycle(Collection<Beacon> beacons) {
+        table.beginCycle();
+        for (Beacon beacon : beacons) {
+            record(beacon);
+        }
+    }
+
+    /**
+     * Records a beacon, ignoring the frames of other types, such as the AltBeacon ones the
+     * library parses by default.
+     *
+     * @param beacon the beacon ranged.
+     */
+    private void record(Beacon beacon) {
+        String address = beacon.getBluetoothAddress();
+        long packedAddress = address != null ? MacAddress.toKey(address) : 0;
+        // The layouts of both types set the number of identifiers.
+        if (beacon.getServiceUuid() == EDDYSTONE_SERVICE_UUID) {
+            if (beacon.getBeaconTypeCode() != EDDYSTONE_UID_TYPE_CODE) {
+                return;
+            }
+            IdentifierBits namespace = toBits(beacon.getId1());
+            IdentifierBits instance = toBits(beacon.getId2());
+            if (namespace.length != 10 || instance.length != 6) {
+                return;
+            }
+            // The namespace then the instance, as 16 bytes.
+            long low = namespace.low << 48 | instance.high;
+            table.record(BeaconTable.TYPE_EDDYSTONE_UID, namespace.high, low, 0, packedAddress,
+                    beacon.getRssi(), beacon.getTxPower());
+        } else if (beacon.getBeaconTypeCode() == IBEACON_TYPE_CODE) {
+            IdentifierBits uuid = toBits(beacon.getId1());
+            if (uuid.length != 16) {
+                return;
+            }
+            int majorMinor = beacon.getId2().toInt() << 16 | beacon.getId3().toInt();
+            table.record(BeaconTable.TYPE_IBEACON, uuid.high, uuid.low, majorMinor,
+                    packedAddress, beacon.getRssi(), beacon.getTxPower());
+        }
+    }
+
+    /**
+     * Converts an identifier, once per distinct value.
+     *
+     * @param identifier the identifier.
+     * @return its bytes as longs.
+     */
+    private IdentifierBits toBits(Identifier identifier) {
+        IdentifierBits bits = identifierBits.get(identifier);
+        if (bits == null) {
+            if (identifierBits.size() >= MAX_CACHED_IDENTIFIERS) {
+                identifierBits.clear();
+            }
+            bits = new IdentifierBits(identifier.toByteArray());
+            identifierBits.put(identifier, bits);
+        }
+        return bits;
+    }
+
+    /**
+     * The bytes of an identifier, up to 16, as two big endian longs.
+     */
+    private static class IdentifierBits {
+
+        final int length;
+
+        /**
+         * The first 8 bytes, or all of them if shorter.
+         */
+        final long high;
+
+        /**
+         * The bytes after the first 8, 0 if none.
+         */
+        final long low;
+
+        IdentifierBits(byte[] bytes) {
+            length = bytes.length;
+            high = toLong(bytes, 0, Math.min(length, 8));
+            low = length > 8 ? toLong(bytes, 8, Math.min(length - 8, 8)) : 0;
+        }
+    }
+
+    /**
+     * Reads big endian bytes as a long.
+     */
+    private static long toLong(byte[] bytes, int offset, int length) {
+        long value = 0;
+        for (int i = offset; i < offset + length; i++) {
+            value = value << 8 | (bytes[i] & 0xFF);
+        }
+        return value;
+    }
+}
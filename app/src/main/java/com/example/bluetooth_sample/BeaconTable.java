@@ -0,0 +1,357 @@
+package com.example.bluetooth_sample;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * Table of the beacons ranged, keyed by their identifiers: the proximity UUID, major and minor of
+ * an iBeacon, or the namespace and instance of an Eddystone-UID, held as primitives.
+ * <p>
+ * Each beacon gets a stable index, assigned in order of first sighting, which is also its row in
+ * the beacon list. The per beacon state is stored column by column in primitive arrays and the
+ * keys in an open addressing hash table of indexes, so that recording the hundreds of beacons of
+ * a ranging cycle allocates nothing once the table has grown to their number.
+ * <p>
+ * This class is not Thread Safe, it must only be used from the UI thread.
+ */
+public class BeaconTable {
+
+    /**
+     * Type of the beacons identified by a proximity UUID, a major and a minor.
+     */
+    public static final int TYPE_IBEACON = 1;
+
+    /**
+     * Type of the beacons identified by a 10 bytes namespace and a 6 bytes instance.
+     */
+    public static final int TYPE_EDDYSTONE_UID = 2;
+
+    /**
+     * Value of {@link #getDistance(int)} when the distance can't be estimated, without a
+     * calibrated transmission power.
+     */
+    public static final float UNKNOWN_DISTANCE = -1f;
+
+    /**
+     * Default number of cycles a beacon can be missed before being out of range: a cycle may miss
+     * a beacon advertising about once per second.
+     */
+    public static final int DEFAULT_MAX_MISSED_CYCLES = 3;
+
+    /**
+     * Weight of a new RSSI sample in the smoothed signal strength.
+     */
+    private static final float RSSI_SMOOTHING = 0.25f;
+
+    /**
+     * Path loss exponent of the distance estimate, 2 in free space, more indoors.
+     */
+    private static final double PATH_LOSS_EXPONENT = 2.0;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * Index plus one of the beacon in each slot, 0 for an empty slot. Twice the capacity of the
+     * columns, a power of two.
+     */
+    private int[] slots = new int[INITIAL_CAPACITY * 2];
+
+    /**
+     * The 16 bytes of the first identifier of each beacon, most significant first: the proximity
+     * UUID, or the namespace followed by the instance.
+     */
+    private long[] idHighs = new long[INITIAL_CAPACITY];
+    private long[] idLows = new long[INITIAL_CAPACITY];
+
+    /**
+     * Major in the high 16 bits and minor in the low 16 bits of each iBeacon, 0 for the others.
+     */
+    private int[] majorMinors = new int[INITIAL_CAPACITY];
+
+    private byte[] types = new byte[INITIAL_CAPACITY];
+
+    /**
+     * Packed address of the last advertiser of each beacon, which may rotate.
+     */
+    private long[] addresses = new long[INITIAL_CAPACITY];
+
+    /**
+     * Calibrated transmission power of each beacon, the RSSI at 1 meter in dBm, or 0 if unknown.
+     */
+    private byte[] txPowers = new byte[INITIAL_CAPACITY];
+
+    /**
+     * Smoothed signal strength of each beacon in dBm.
+     */
+    private float[] smoothedRssis = new float[INITIAL_CAPACITY];
+
+    /**
+     * Estimated distance of each beacon in meters, or {@link #UNKNOWN_DISTANCE}.
+     */
+    private float[] distances = new float[INITIAL_CAPACITY];
+
+    /**
+     * Last cycle in which each beacon was ranged.
+     */
+    private int[] lastCycles = new int[INITIAL_CAPACITY];
+
+    /**
+     * Number of beacons in the table.
+     */
+    private int size;
+
+    /**
+     * The current ranging cycle.
+     */
+    private int cycle;
+
+    /**
+     * Number of beacons ranged in the current cycle.
+     */
+    private int rangedCount;
+
+    private int maxMissedCycles = DEFAULT_MAX_MISSED_CYCLES;
+
+    /**
+     * Starts a new ranging cycle, whose beacons are then recorded.
+     *
+     * @return the number of the new cycle.
+     */
+    public int beginCycle() {
+        rangedCount = 0;
+        return ++cycle;
+    }
+
+    /**
+     * Records a beacon ranged in the current cycle.
+     *
+     * @param type       the type of the beacon, {@link #TYPE_IBEACON} or {@link #TYPE_EDDYSTONE_UID}.
+     * @param idHigh     the 8 most significant bytes of the first identifier.
+     * @param idLow      the 8 least significant bytes of the first identifier.
+     * @param majorMinor the major and minor of an iBeacon, as {@code major << 16 | minor}, or 0.
+     * @param address    the packed address of the advertiser.
+     * @param rssi       the signal strength of the beacon in dBm.
+     * @param txPower    the calibrated transmission power of the beacon, or 0 if unknown.
+     * @return the index of the beacon.
+     */
+    public int record(int type, long idHigh, long idLow, int majorMinor, long address, int rssi, int txPower) {
+        int index = indexOf(type, idHigh, idLow, majorMinor);
+        if (index < 0) {
+            index = add(type, idHigh, idLow, majorMinor);
+            smoothedRssis[index] = rssi;
+        } else {
+            float smoothed = smoothedRssis[index];
+            smoothedRssis[index] = smoothed + RSSI_SMOOTHING * (rssi - smoothed);
+        }
+        if (lastCycles[index] != cycle) {
+            lastCycles[index] = cycle;
+            rangedCount++;
+        }
+        addresses[index] = address;
+        txPowers[index] = (byte) txPower;
+        distances[index] = txPower != 0 ? (float) estimateDistance(txPower, smoothedRssis[index]) : UNKNOWN_DISTANCE;
+        return index;
+    }
+
+    /**
+     * Gets the index of a beacon.
+     *
+     * @param type       the type of the beacon.
+     * @param idHigh     the 8 most significant bytes of the first identifier.
+     * @param idLow      the 8 least significant bytes of the first identifier.
+     * @param majorMinor the major and minor of an iBeacon, or 0.
+     * @return the index of the beacon, or -1 if it has never been ranged.
+     */
+    public int indexOf(int type, long idHigh, long idLow, int majorMinor) {
+        int mask = slots.length - 1;
+        for (int slot = hash(type, idHigh, idLow, majorMinor) & mask; ; slot = (slot + 1) & mask) {
+            int index = slots[slot] - 1;
+            if (index < 0) {
+                return -1;
+            }
+            if (idLows[index] == idLow && idHighs[index] == idHigh && majorMinors[index] == majorMinor
+                    && types[index] == type) {
+                return index;
+            }
+        }
+    }
+
+    /**
+     * Estimates the distance of a beacon from its signal strength, with the log-distance path
+     * loss model.
+     *
+     * @param txPower the calibrated transmission power, the RSSI at 1 meter in dBm.
+     * @param rssi    the signal strength in dBm.
+     * @return the distance in meters.
+     */
+    public static double estimateDistance(int txPower, double rssi) {
+        return Math.pow(10, (txPower - rssi) / (10 * PATH_LOSS_EXPONENT));
+    }
+
+    /**
+     * Sets the number of cycles a beacon can be missed before being out of range.
+     *
+     * @param maxMissedCycles the number of cycles, 0 to only keep the beacons of the last cycle.
+     */
+    public void setMaxMissedCycles(int maxMissedCycles) {
+        this.maxMissedCycles = maxMissedCycles;
+    }
+
+    /**
+     * Checks if a beacon has been ranged recently enough to be in range.
+     *
+     * @param index the index of the beacon.
+     * @return true if ranged in the last {@link #setMaxMissedCycles(int)} cycles.
+     */
+    public boolean isInRange(int index) {
+        return cycle - lastCycles[checkIndex(index)] <= maxMissedCycles;
+    }
+
+    /**
+     * Gets the number of beacons in the table, in range or not.
+     *
+     * @return the {@link #size}.
+     */
+    public int size() {
+        return size;
+    }
+
+    public int getCycle() {
+        return cycle;
+    }
+
+    /**
+     * Gets the number of beacons ranged in the current cycle.
+     *
+     * @return the {@link #rangedCount}.
+     */
+    public int getRangedCount() {
+        return rangedCount;
+    }
+
+    /**
+     * Removes every beacon.
+     */
+    public void clear() {
+        Arrays.fill(slots, 0);
+        size = 0;
+    }
+
+    public int getType(int index) {
+        return types[checkIndex(index)];
+    }
+
+    public long getIdHigh(int index) {
+        return idHighs[checkIndex(index)];
+    }
+
+    public long getIdLow(int index) {
+        return idLows[checkIndex(index)];
+    }
+
+    public int getMajor(int index) {
+        return majorMinors[checkIndex(index)] >>> 16;
+    }
+
+    public int getMinor(int index) {
+        return majorMinors[checkIndex(index)] & 0xFFFF;
+    }
+
+    public long getAddress(int index) {
+        return addresses[checkIndex(index)];
+    }
+
+    public int getTxPower(int index) {
+        return txPowers[checkIndex(index)];
+    }
+
+    public float getSmoothedRssi(int index) {
+        return smoothedRssis[checkIndex(index)];
+    }
+
+    public float getDistance(int index) {
+        return distances[checkIndex(index)];
+    }
+
+    /**
+     * Formats the identifiers of a beacon, for display.
+     *
+     * @param index the index of the beacon.
+     * @return the proximity UUID, major and minor of an iBeacon, or the namespace and instance
+     * of an Eddystone-UID, in hexadecimal.
+     */
+    public String formatIdentifiers(int index) {
+        if (getType(index) == TYPE_IBEACON) {
+            return new UUID(idHighs[index], idLows[index]) + " " + getMajor(index) + " " + getMinor(index);
+        }
+        // 10 bytes of namespace, 6 bytes of instance.
+        String hex = String.format("%016x%016x", idHighs[index], idLows[index]);
+        return hex.substring(0, 20) + " " + hex.substring(20);
+    }
+
+    /**
+     * Adds a beacon not in the table.
+     *
+     * @return the index of the beacon.
+     */
+    private int add(int type, long idHigh, long idLow, int majorMinor) {
+        ensureCapacity(size + 1);
+        int index = size++;
+        idHighs[index] = idHigh;
+        idLows[index] = idLow;
+        majorMinors[index] = majorMinor;
+        types[index] = (byte) type;
+        lastCycles[index] = cycle - 1;
+        insertSlot(index);
+        return index;
+    }
+
+    private void insertSlot(int index) {
+        int mask = slots.length - 1;
+        int slot = hash(types[index], idHighs[index], idLows[index], majorMinors[index]) & mask;
+        while (slots[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = index + 1;
+    }
+
+    private static int hash(int type, long idHigh, long idLow, int majorMinor) {
+        long h = idHigh * 0x9E3779B97F4A7C15L ^ idLow;
+        h = h * 0x9E3779B97F4A7C15L ^ ((long) majorMinor << 8 | type);
+        h *= 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32);
+    }
+
+    private int checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+        }
+        return index;
+    }
+
+    /**
+     * Grows the columns so that they can hold at least the given number of beacons, rehashing
+     * the keys.
+     *
+     * @param capacity the number of beacons to hold.
+     */
+    private void ensureCapacity(int capacity) {
+        if (capacity <= idHighs.length) {
+            return;
+        }
+        int newCapacity = idHighs.length << 1;
+        idHighs = Arrays.copyOf(idHighs, newCapacity);
+        idLows = Arrays.copyOf(idLows, newCapacity);
+        majorMinors = Arrays.copyOf(majorMinors, newCapacity);
+        types = Arrays.copyOf(types, newCapacity);
+        addresses = Arrays.copyOf(addresses, newCapacity);
+        txPowers = Arrays.copyOf(txPowers, newCapacity);
+        smoothedRssis = Arrays.copyOf(smoothedRssis, newCapacity);
+        distances = Arrays.copyOf(distances, newCapacity);
+        lastCycles = Arrays.copyOf(lastCycles, newCapacity);
+        slots = new int[newCapacity * 2];
+        for (int index = 0; index < size; index++) {
+            insertSlot(index);
+        }
+    }
+}
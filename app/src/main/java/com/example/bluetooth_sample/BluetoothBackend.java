@@ -0,0 +1,113 @@
+package com.example.bluetooth_sample;
+
+/**
+ * The Bluetooth stack as seen by {@link BluetoothHelper}: the commands sent to the adapter, and
+ * the events coming back from it.
+ * <p>
+ * Devices are identified by their packed address (see {@link MacAddress}), so an implementation
+ * doesn't need {@link android.bluetooth.BluetoothDevice} objects, which can't be created outside
+ * of a device. Events are delivered into a {@link BluetoothEventQueue}, from any thread.
+ *
+ * @see SystemBluetoothBackend
+ * @see SimulatedBluetoothBackend
+ */
+public interface BluetoothBackend {
+
+    /**
+     * Starts delivering the events.
+     *
+     * @param events the queue receiving the events.
+     */
+    void start(BluetoothEventQueue events);
+
+    /**
+     * Stops delivering the events.
+     */
+    void stop();
+
+    /**
+     * Gets the state of the adapter.
+     *
+     * @return one of the {@code BluetoothAdapter.STATE_} constants.
+     */
+    int getState();
+
+    /**
+     * Checks if a device discovery is running.
+     *
+     * @return true if a discovery is running.
+     */
+    boolean isDiscovering();
+
+    /**
+     * Starts a device discovery. Its end is notified by a
+     * {@link BluetoothEvent#TYPE_DISCOVERY_FINISHED} event.
+     *
+     * @return false if the discovery could not be started.
+     */
+    boolean startDiscovery();
+
+    /**
+     * Cancels the running device discovery.
+     *
+     * @return false if the adapter is off.
+     */
+    boolean cancelDiscovery();
+
+    /**
+     * Starts a Bluetooth Low Energy scan, stopping the running one if any. Its results are
+     * delivered as {@link BluetoothEvent#TYPE_DEVICE_FOUND} events, and its end, after the
+     * duration of the settings or {@link #stopLeScan()}, by a
+     * {@link BluetoothEvent#TYPE_DISCOVERY_FINISHED} event.
+     *
+     * @param settings the settings of the scan.
+     * @return false if the scan could not be started, for example because the platform doesn't
+     * support it.
+     */
+    boolean startLeScan(LeScanSettings settings);
+
+    /**
+     * Stops the running Bluetooth Low Energy scan, if any.
+     */
+    void stopLeScan();
+
+    /**
+     * Checks if a Bluetooth Low Energy scan is running.
+     *
+     * @return true if a scan is running.
+     */
+    boolean isLeScanning();
+
+    /**
+     * Gets the bonded devices.
+     *
+     * @return the packed addresses of the bonded devices, or null if the adapter is off.
+     */
+    long[] getBondedAddresses();
+
+    /**
+     * Starts the bonding with a device. Its progress is notified by
+     * {@link BluetoothEvent#TYPE_BOND_STATE_CHANGED} events.
+     *
+     * @param address the packed address of the device.
+     * @return false if the bonding could not be started.
+     */
+    boolean createBond(long address);
+
+    /**
+     * Aborts a running bonding.
+     *
+     * @param address the packed address of the device.
+     * @return false if the bonding could not be aborted.
+     */
+    boolean cancelBond(long address);
+
+    /**
+     * Starts an SDP query for the services of a device. Its result is notified by a
+     * {@link BluetoothEvent#TYPE_UUIDS_FETCHED} event.
+     *
+     * @param address the packed address of the device.
+     * @return false if the query could not be started.
+     */
+    boolean fetchUuids(long address);
+}
@@ -0,0 +1,138 @@
+package com.example.bluetooth_sample;
+
+import android.bluetooth.BluetoothDevice;
+import android.os.Parcelable;
+
+/**
+ * A Bluetooth system event, already extracted from its broadcast Intent.
+ * <p>
+ * Instances are pooled by {@link BluetoothEventQueue} and reused once dispatched, so listeners
+ * must not keep a reference to them.
+ */
+public class BluetoothEvent {
+
+    /**
+     * A device has been found, see {@link BluetoothDevice#ACTION_FOUND}.
+     */
+    public static final int TYPE_DEVICE_FOUND = 1;
+
+    /**
+     * The device discovery has ended.
+     */
+    public static final int TYPE_DISCOVERY_FINISHED = 2;
+
+    /**
+     * The Bluetooth adapter state has changed.
+     */
+    public static final int TYPE_STATE_CHANGED = 3;
+
+    /**
+     * The bond state of a device has changed.
+     */
+    public static final int TYPE_BOND_STATE_CHANGED = 4;
+
+    /**
+     * The service UUIDs of a device have been fetched, see {@link BluetoothDevice#ACTION_UUID}.
+     */
+    public static final int TYPE_UUIDS_FETCHED = 5;
+
+    /**
+     * The type of this event, one of the TYPE_ constants.
+     */
+    int type;
+
+    /**
+     * The device this event refers to, or null if it's an adapter event or if the backend has no
+     * device object.
+     */
+    BluetoothDevice device;
+
+    /**
+     * The packed address of the device, or 0 if it's an adapter event.
+     */
+    long address;
+
+    /**
+     * The name of the device found, or null if not advertised.
+     */
+    String name;
+
+    /**
+     * The Bluetooth class of the device found, or {@link DeviceRegistry#UNKNOWN_CLASS}.
+     */
+    int deviceClass;
+
+    /**
+     * The signal strength of the device found in dBm, or {@link DeviceRegistry#UNKNOWN_RSSI}.
+     */
+    short rssi;
+
+    /**
+     * The new state carried by the event, for state change events.
+     */
+    int state;
+
+    /**
+     * The previous state carried by the event, for state change events.
+     */
+    int previousState;
+
+    /**
+     * The service UUIDs fetched, for {@link #TYPE_UUIDS_FETCHED} events. May be null.
+     */
+    Parcelable[] uuids;
+
+    /**
+     * The time this event has been received, from {@link System#nanoTime()}.
+     */
+    long receivedAtNanos;
+
+    public int getType() {
+        return type;
+    }
+
+    public BluetoothDevice getDevice() {
+        return device;
+    }
+
+    public long getAddress() {
+        return address;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getDeviceClass() {
+        return deviceClass;
+    }
+
+    public short getRssi() {
+        return rssi;
+    }
+
+    public int getState() {
+        return state;
+    }
+
+    public int getPreviousState() {
+        return previousState;
+    }
+
+    public Parcelable[] getUuids() {
+        return uuids;
+    }
+
+    public long getReceivedAtNanos() {
+        return receivedAtNanos;
+    }
+
+    /**
+     * Releases the references held by this event, before giving it back to the pool.
+     */
+    void reset() {
+        device = null;
+        name = null;
+        uuids = null;
+    }
+}
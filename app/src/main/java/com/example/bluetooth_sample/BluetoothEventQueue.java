@@ -0,0 +1,494 @@
+package com.example.bluetooth_sample;
+
+import android.bluetooth.BluetoothDevice;
+import android.os.Parcelable;
+
+import java.util.concurrent.Executor;
+
+/**
+ * A bounded queue moving {@link BluetoothEvent}s from the thread receiving the broadcasts to the
+ * thread consuming them.
+ * <p>
+ * Repeated sightings of the same device between two dispatches are coalesced into a single event.
+ * Events are handed to the {@link Dispatcher} in batches, one batch per task submitted to the
+ * dispatch executor, so a burst of broadcasts only costs the consumer thread one task. When the
+ * queue is full, new device sightings are dropped, while a few slots are kept for the other events
+ * since losing them would leave the UI in an inconsistent state.
+ * <p>
+ * The offer methods are Thread Safe. Events are always preallocated, so no garbage is created per
+ * event.
+ * <p>
+ * A batch held by {@link #beginBatch()} which fills the slots of the sightings is dispatched
+ * early rather than dropping the rest of it, so a large batch of scan results costs a few
+ * dispatches instead of devices.
+ */
+public class BluetoothEventQueue {
+
+    /**
+     * Callback receiving the events, on the thread of the dispatch executor.
+     */
+    public interface Dispatcher {
+
+        /**
+         * Called for each event of a batch.
+         *
+         * @param event the event, only valid for the duration of the call.
+         */
+        void dispatch(BluetoothEvent event);
+    }
+
+    /**
+     * Number of slots which can't be used by device sightings.
+     */
+    private static final int CONTROL_EVENTS_RESERVE = 16;
+
+    /**
+     * Lock guarding the pending batch and the metrics.
+     */
+    private final Object lock = new Object();
+
+    /**
+     * The executor running the dispatch of the batches.
+     */
+    private final Executor dispatchExecutor;
+
+    /**
+     * The callback receiving the events.
+     */
+    private final Dispatcher dispatcher;
+
+    /**
+     * Position of each device in the pending batch, used for coalescing.
+     */
+    private final LongIntHashMap pendingIndexByAddress;
+
+    /**
+     * Task dispatching the pending batch.
+     */
+    private final Runnable drainTask = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    /**
+     * Journal of the events offered, or null.
+     */
+    private volatile ScanJournal journal;
+
+    /**
+     * Events waiting to be dispatched.
+     */
+    private BluetoothEvent[] pending;
+
+    /**
+     * Events being dispatched. Swapped with {@link #pending} at each dispatch.
+     */
+    private BluetoothEvent[] draining;
+
+    /**
+     * Number of events in {@link #pending}.
+     */
+    private int pendingSize;
+
+    /**
+     * True if a dispatch task has been submitted and has not started yet.
+     */
+    private boolean drainScheduled;
+
+    /**
+     * Number of {@link #beginBatch()} calls not ended yet. The dispatch is held meanwhile.
+     */
+    private int openBatches;
+
+    /**
+     * True while a batch is being dispatched. Only used on the thread of the dispatch executor.
+     */
+    private boolean dispatching;
+
+    private long droppedCount;
+    private long coalescedCount;
+    private long dispatchedCount;
+    private long batchCount;
+    private int maxDepth;
+    private volatile long lastDispatchLatencyNanos;
+    private volatile long maxDispatchLatencyNanos;
+
+    /**
+     * Instantiates a new BluetoothEventQueue.
+     *
+     * @param capacity         the maximum number of events waiting to be dispatched.
+     * @param dispatchExecutor the executor running the dispatch of the batches.
+     * @param dispatcher       the callback receiving the events.
+     */
+    public BluetoothEventQueue(int capacity, Executor dispatchExecutor, Dispatcher dispatcher) {
+        if (capacity <= CONTROL_EVENTS_RESERVE) {
+            throw new IllegalArgumentException("Capacity too small: " + capacity);
+        }
+        this.dispatchExecutor = dispatchExecutor;
+        this.dispatcher = dispatcher;
+        this.pendingIndexByAddress = new LongIntHashMap(capacity);
+        this.pending = allocate(capacity);
+        this.draining = allocate(capacity);
+    }
+
+    /**
+     * Enqueues the sighting of a device, merging it with a pending sighting of the same device.
+     *
+     * @param address     the packed address of the device found.
+     * @param device      the device found, or null if the backend has no device object.
+     * @param name        the name advertised by the device, or null.
+     * @param deviceClass the Bluetooth class of the device, or {@link DeviceRegistry#UNKNOWN_CLASS}.
+     * @param rssi        the signal strength of the device, or {@link DeviceRegistry#UNKNOWN_RSSI}.
+     * @return false if the event has been dropped because the queue is full.
+     */
+    public boolean offerDeviceFound(long address, BluetoothDevice device, String name, int deviceClass, short rssi) {
+        long now = System.nanoTime();
+        ScanJournal journal = this.journal;
+        if (journal != null) {
+            journal.append(BluetoothEvent.TYPE_DEVICE_FOUND, address, deviceClass, rssi, 0, 0, now);
+        }
+        if (!enqueueDeviceFound(address, device, name, deviceClass, rssi, now)) {
+            boolean batchOpen;
+            synchronized (lock) {
+                batchOpen = openBatches > 0;
+            }
+            // Dispatches the part of the batch offered so far, then retries. With an executor
+            // running the drain later, the queue is still full and the sighting is dropped.
+            if (!batchOpen || !flushBatch() || !enqueueDeviceFound(address, device, name, deviceClass, rssi, now)) {
+                synchronized (lock) {
+                    droppedCount++;
+                }
+                return false;
+            }
+        }
+        scheduleDrain();
+        return true;
+    }
+
+    /**
+     * Adds a sighting to the pending batch, or merges it with a pending sighting of the same
+     * device.
+     *
+     * @return false if there is no slot left for a new device.
+     */
+    private boolean enqueueDeviceFound(long address, BluetoothDevice device, String name, int deviceClass,
+                                       short rssi, long now) {
+        synchronized (lock) {
+            int index = pendingIndexByAddress.get(address);
+            BluetoothEvent event;
+            if (index != LongIntHashMap.NO_VALUE) {
+                // Keeps the original receive time, so the latency accounts for the whole wait.
+                event = pending[index];
+                coalescedCount++;
+            } else {
+                if (pendingSize >= pending.length - CONTROL_EVENTS_RESERVE) {
+                    return false;
+                }
+                pendingIndexByAddress.put(address, pendingSize);
+                event = enqueue(BluetoothEvent.TYPE_DEVICE_FOUND, now);
+                event.address = address;
+                event.deviceClass = DeviceRegistry.UNKNOWN_CLASS;
+                event.rssi = DeviceRegistry.UNKNOWN_RSSI;
+            }
+            event.device = device;
+            if (name != null) {
+                event.name = name;
+            }
+            if (deviceClass != DeviceRegistry.UNKNOWN_CLASS) {
+                event.deviceClass = deviceClass;
+            }
+            // The latest signal strength is the most relevant one.
+            if (rssi != DeviceRegistry.UNKNOWN_RSSI) {
+                event.rssi = rssi;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Enqueues an event which is not a device sighting.
+     *
+     * @param type          the type of the event.
+     * @param address       the packed address of the device the event refers to, or 0.
+     * @param device        the device the event refers to, or null.
+     * @param state         the new state carried by the event.
+     * @param previousState the previous state carried by the event.
+     * @return false if the event has been dropped because the queue is full.
+     */
+    public boolean offer(int type, long address, BluetoothDevice device, int state, int previousState) {
+        long now = System.nanoTime();
+        ScanJournal journal = this.journal;
+        if (journal != null) {
+            journal.append(type, address, DeviceRegistry.UNKNOWN_CLASS, DeviceRegistry.UNKNOWN_RSSI,
+                    state, previousState, now);
+        }
+        synchronized (lock) {
+            if (pendingSize >= pending.length) {
+                droppedCount++;
+                return false;
+            }
+            BluetoothEvent event = enqueue(type, now);
+            event.device = device;
+            event.address = address;
+            event.state = state;
+            event.previousState = previousState;
+        }
+        scheduleDrain();
+        return true;
+    }
+
+    /**
+     * Enqueues the service UUIDs fetched for a device.
+     *
+     * @param address the packed address of the device.
+     * @param device  the device, or null if the backend has no device object.
+     * @param uuids   the UUIDs fetched, may be null if the query failed.
+     * @return false if the event has been dropped because the queue is full.
+     */
+    public boolean offerUuidsFetched(long address, BluetoothDevice device, Parcelable[] uuids) {
+        long now = System.nanoTime();
+        ScanJournal journal = this.journal;
+        if (journal != null) {
+            journal.append(BluetoothEvent.TYPE_UUIDS_FETCHED, address, DeviceRegistry.UNKNOWN_CLASS,
+                    DeviceRegistry.UNKNOWN_RSSI, uuids != null ? uuids.length : -1, 0, now);
+        }
+        synchronized (lock) {
+            if (pendingSize >= pending.length) {
+                droppedCount++;
+                return false;
+            }
+            BluetoothEvent event = enqueue(BluetoothEvent.TYPE_UUIDS_FETCHED, now);
+            event.device = device;
+            event.address = address;
+            event.uuids = uuids;
+        }
+        scheduleDrain();
+        return true;
+    }
+
+    /**
+     * Sets the journal recording every event offered from now on, before it is coalesced or
+     * dropped.
+     *
+     * @param journal the journal, or null to stop recording.
+     */
+    public void setJournal(ScanJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Holds the dispatch until {@link #endBatch()}, so that the events offered meanwhile, for
+     * example a batch of scan results, are dispatched together in a single task.
+     */
+    public void beginBatch() {
+        synchronized (lock) {
+            openBatches++;
+        }
+    }
+
+    /**
+     * Ends a {@link #beginBatch()}, dispatching the events offered meanwhile.
+     */
+    public void endBatch() {
+        synchronized (lock) {
+            if (--openBatches > 0 || pendingSize == 0) {
+                return;
+            }
+        }
+        scheduleDrain();
+    }
+
+    /**
+     * Gets the number of events waiting to be dispatched.
+     *
+     * @return the current depth of the queue.
+     */
+    public int getDepth() {
+        synchronized (lock) {
+            return pendingSize;
+        }
+    }
+
+    public int getMaxDepth() {
+        synchronized (lock) {
+            return maxDepth;
+        }
+    }
+
+    public long getDroppedCount() {
+        synchronized (lock) {
+            return droppedCount;
+        }
+    }
+
+    public long getCoalescedCount() {
+        synchronized (lock) {
+            return coalescedCount;
+        }
+    }
+
+    public long getDispatchedCount() {
+        synchronized (lock) {
+            return dispatchedCount;
+        }
+    }
+
+    public long getBatchCount() {
+        synchronized (lock) {
+            return batchCount;
+        }
+    }
+
+    /**
+     * Gets the time the last dispatched event waited between its reception and its dispatch.
+     *
+     * @return the latency in nanoseconds.
+     */
+    public long getLastDispatchLatencyNanos() {
+        return lastDispatchLatencyNanos;
+    }
+
+    /**
+     * Gets the longest time an event waited between its reception and its dispatch.
+     *
+     * @return the latency in nanoseconds.
+     */
+    public long getMaxDispatchLatencyNanos() {
+        return maxDispatchLatencyNanos;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        synchronized (lock) {
+            return "BluetoothEventQueue{depth=" + pendingSize + ", maxDepth=" + maxDepth
+                    + ", dispatched=" + dispatchedCount + ", batches=" + batchCount
+                    + ", coalesced=" + coalescedCount + ", dropped=" + droppedCount
+                    + ", maxLatencyMs=" + maxDispatchLatencyNanos / 1000000 + "}";
+        }
+    }
+
+    /**
+     * Takes the next free event of the pending batch. Must be called holding the lock.
+     *
+     * @param type       the type of the event.
+     * @param receivedAt the time the event has been received.
+     * @return the event to fill.
+     */
+    private BluetoothEvent enqueue(int type, long receivedAt) {
+        BluetoothEvent event = pending[pendingSize++];
+        event.type = type;
+        event.receivedAtNanos = receivedAt;
+        if (pendingSize > maxDepth) {
+            maxDepth = pendingSize;
+        }
+        return event;
+    }
+
+    /**
+     * Submits a dispatch task, unless one is already waiting or the dispatch is held.
+     */
+    private void scheduleDrain() {
+        synchronized (lock) {
+            if (drainScheduled || openBatches > 0) {
+                return;
+            }
+            drainScheduled = true;
+        }
+        dispatchExecutor.execute(drainTask);
+    }
+
+    /**
+     * Submits a dispatch task even though a batch is open, unless one is already waiting.
+     *
+     * @return false if a dispatch task was already waiting.
+     */
+    private boolean flushBatch() {
+        synchronized (lock) {
+            if (drainScheduled) {
+                return false;
+            }
+            drainScheduled = true;
+        }
+        dispatchExecutor.execute(drainTask);
+        return true;
+    }
+
+    /**
+     * Dispatches the pending batches. Runs on the thread of the dispatch executor.
+     */
+    private void drain() {
+        if (dispatching) {
+            // Offered by the dispatcher itself through an executor running the tasks inline: the
+            // running drain dispatches it next, swapping now would overwrite the current batch.
+            return;
+        }
+        dispatching = true;
+        try {
+            while (drainBatch()) {
+                // Dispatches the events offered during the previous batch.
+            }
+        } finally {
+            dispatching = false;
+        }
+    }
+
+    /**
+     * Dispatches the pending batch, if any.
+     *
+     * @return false if there was nothing to dispatch.
+     */
+    private boolean drainBatch() {
+        BluetoothEvent[] batch;
+        int batchSize;
+        synchronized (lock) {
+            drainScheduled = false;
+            if (pendingSize == 0) {
+                return false;
+            }
+            batch = pending;
+            batchSize = pendingSize;
+            pending = draining;
+            draining = batch;
+            pendingSize = 0;
+            pendingIndexByAddress.clear();
+        }
+
+        long maxLatency = maxDispatchLatencyNanos;
+        for (int i = 0; i < batchSize; i++) {
+            BluetoothEvent event = batch[i];
+            long latency = System.nanoTime() - event.receivedAtNanos;
+            lastDispatchLatencyNanos = latency;
+            if (latency > maxLatency) {
+                maxLatency = latency;
+            }
+            dispatcher.dispatch(event);
+            event.reset();
+        }
+        maxDispatchLatencyNanos = maxLatency;
+
+        synchronized (lock) {
+            dispatchedCount += batchSize;
+            batchCount++;
+        }
+        return true;
+    }
+
+    /**
+     * Allocates a batch of empty events.
+     *
+     * @param capacity the size of the batch.
+     * @return the events.
+     */
+    private static BluetoothEvent[] allocate(int capacity) {
+        BluetoothEvent[] events = new BluetoothEvent[capacity];
+        for (int i = 0; i < capacity; i++) {
+            events[i] = new BluetoothEvent();
+        }
+        return events;
+    }
+}
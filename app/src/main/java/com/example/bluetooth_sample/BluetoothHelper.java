@@ -1,15 +1,22 @@
 package com.example.bluetooth_sample;
 
 import java.io.Closeable;
-import android.app.Activity;
+import java.io.File;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 import android.widget.Toast;
 
 import com.afollestad.materialdialogs.MaterialDialog;
 
-public class BluetoothHelper implements Closeable {
+public class BluetoothHelper implements Closeable, PairingScheduler.Listener, DiscoveryScheduler.Scanner {
 
     /**
      * Tag string used for logging.
@@ -17,9 +24,20 @@ public class BluetoothHelper implements Closeable {
     private static final String TAG = "BluetoothHelper";
 
     /**
-     * Interface for Bluetooth OS services.
+     * Default maximum number of devices bonding at the same time.
+     */
+    private static final int DEFAULT_MAX_CONCURRENT_PAIRINGS = 1;
+
+    /**
+     * Default deadline of a pairing, in milliseconds. Leaves the user enough time to confirm the
+     * pairing on both devices.
+     */
+    public static final long DEFAULT_PAIRING_TIMEOUT_MILLIS = 30000;
+
+    /**
+     * The Bluetooth stack, the system one or a simulated one.
      */
-    private final BluetoothAdapter bluetooth;
+    private final BluetoothBackend bluetooth;
 
     /**
      * Class used to handle communication with OS about Bluetooth system events.
@@ -27,9 +45,14 @@ public class BluetoothHelper implements Closeable {
     private final BroadcastDelegate broadcastDelegate;
 
     /**
-     * The activity which is using this controller.
+     * Registry of the devices found, shared with the device list.
+     */
+    private final DeviceRegistry deviceRegistry;
+
+    /**
+     * The context which is using this controller, usually the {@link ScanService}.
      */
-    private final Activity context;
+    private final Context context;
 
     /**
      * Used as a simple way of synchronization between turning on the Bluetooth and starting a
@@ -38,69 +61,405 @@ public class BluetoothHelper implements Closeable {
     private boolean bluetoothDiscoveryScheduled;
 
     /**
-     * Used as a temporary field for the currently bounding device. This field makes this whole
-     * class not Thread Safe.
+     * Schedules the pairings started through this controller.
+     */
+    private final PairingScheduler pairingScheduler;
+
+    /**
+     * Callback for Bluetooth events.
+     */
+    private final BluetoothListener listener;
+
+    /**
+     * Cache of the service UUIDs of the remote devices.
+     */
+    private final ServiceUuidCache serviceUuidCache;
+
+    /**
+     * Index of the bonded devices, kept current from the bond state broadcasts.
      */
-    private BluetoothDevice boundingDevice;
+    private final BondedDeviceIndex bondedDevices = new BondedDeviceIndex();
 
     private ProgressListener progressListener;
 
+    /**
+     * Repeats the discoveries, for a continuous monitoring.
+     */
+    private final DiscoveryScheduler discoveryScheduler;
+
+    /**
+     * How {@link #startDiscovery()} finds the devices.
+     */
+    private DiscoveryMode discoveryMode = DiscoveryMode.CLASSIC;
+
+    /**
+     * Settings of the scans in the {@link DiscoveryMode#LE} mode.
+     */
+    private LeScanSettings leScanSettings = new LeScanSettings();
+
+    /**
+     * Ranges the beacons nearby, created by the first {@link #startBeaconRanging(BeaconRanger.Listener)}.
+     */
+    private BeaconRanger beaconRanger;
+
+    /**
+     * True if the scheduled discoveries were running when the beacon ranging started, so they
+     * resume once it stops.
+     */
+    private boolean resumeScanAfterRanging;
+
+    /**
+     * Instantiates a new BluetoothController.
+     *
+     * @param context          the context which is using this controller.
+     * @param listener         a callback for handling Bluetooth events.
+     * @param deviceRegistry   the registry where the devices found are recorded.
+     * @param serviceUuidCache the cache of the service UUIDs of the remote devices.
+     */
+    public BluetoothHelper(Context context,BluetoothAdapter adapter, BluetoothListener listener, ProgressListener progressListener, DeviceRegistry deviceRegistry, ServiceUuidCache serviceUuidCache) {
+        this(context, adapter, listener, progressListener, deviceRegistry, serviceUuidCache, false);
+    }
+
     /**
      * Instantiates a new BluetoothController.
      *
-     * @param context  the activity which is using this controller.
-     * @param listener a callback for handling Bluetooth events.
+     * @param context             the context which is using this controller.
+     * @param listener            a callback for handling Bluetooth events.
+     * @param deviceRegistry      the registry where the devices found are recorded.
+     * @param serviceUuidCache    the cache of the service UUIDs of the remote devices.
+     * @param receiveInBackground true to receive the system broadcasts on a dedicated thread.
+     * @see SystemBluetoothBackend#SystemBluetoothBackend(android.content.Context, BluetoothAdapter, boolean)
+     */
+    public BluetoothHelper(Context context,BluetoothAdapter adapter, BluetoothListener listener, ProgressListener progressListener, DeviceRegistry deviceRegistry, ServiceUuidCache serviceUuidCache, boolean receiveInBackground) {
+        this(context, new SystemBluetoothBackend(context, adapter, receiveInBackground), listener, progressListener, deviceRegistry, serviceUuidCache);
+    }
+
+    /**
+     * Instantiates a new BluetoothController over any Bluetooth stack.
+     *
+     * @param context          the context which is using this controller.
+     * @param backend          the Bluetooth stack.
+     * @param listener         a callback for handling Bluetooth events.
+     * @param deviceRegistry   the registry where the devices found are recorded.
+     * @param serviceUuidCache the cache of the service UUIDs of the remote devices.
      */
-    public BluetoothHelper(Activity context,BluetoothAdapter adapter, BluetoothListener listener, ProgressListener progressListener) {
+    public BluetoothHelper(Context context, BluetoothBackend backend, BluetoothListener listener, ProgressListener progressListener, DeviceRegistry deviceRegistry, ServiceUuidCache serviceUuidCache) {
         this.context = context;
-        this.bluetooth = adapter;
+        this.bluetooth = backend;
         this.progressListener = progressListener;
-        this.broadcastDelegate = new BroadcastDelegate(context, listener, this, progressListener);
+        this.deviceRegistry = deviceRegistry;
+        this.serviceUuidCache = serviceUuidCache;
+        this.listener = listener;
+        Timers timers = new Timers(new Handler(Looper.getMainLooper()));
+        this.pairingScheduler = new PairingScheduler(DEFAULT_MAX_CONCURRENT_PAIRINGS, timers, backend, this);
+        this.discoveryScheduler = new DiscoveryScheduler(this, deviceRegistry, timers);
+        // Loaded before the events are delivered, so no bond state change can be missed.
+        this.bondedDevices.resync(backend);
+        this.broadcastDelegate = new BroadcastDelegate(backend, listener, this, progressListener);
     }
     /**
-     * Starts the discovery of new Bluetooth devices nearby.
+     * Starts the discovery of new Bluetooth devices nearby, in the current {@link DiscoveryMode}.
+     * The results of both modes are notified through the same listener callbacks.
+     *
+     * @return false if the discovery could not be started.
      */
-    public void startDiscovery() {
+    public boolean startDiscovery() {
+        return startDiscovery(true);
+    }
+
+    /**
+     * Starts the discovery of new Bluetooth devices nearby, in the current {@link DiscoveryMode}.
+     *
+     * @param showError true to show a toast if the discovery could not be started.
+     * @return false if the discovery could not be started.
+     */
+    @Override
+    public boolean startDiscovery(boolean showError) {
         broadcastDelegate.onDeviceDiscoveryStarted();
 
+        // Stops the ranging first, since it may resume the scheduled discoveries, whose window
+        // is then cancelled below and replaced by this discovery.
+        stopBeaconRanging();
         // If another discovery is in progress, cancels it before starting the new one.
-        if (bluetooth.isDiscovering()) {
-            bluetooth.cancelDiscovery();
-        }
+        stopDiscoveries();
 
         // Tries to start the discovery. If the discovery returns false, this means that the
         // bluetooth has not started yet.
-        Log.d(TAG, "Bluetooth starting discovery.");
-        if (!bluetooth.startDiscovery()) {
-            Toast.makeText(context, "Error while starting device discovery!", Toast.LENGTH_SHORT)
-                    .show();
+        if (EventTrace.ENABLED) {
+            EventTrace.record(EventTrace.DISCOVERY_STARTED, 0, discoveryMode.ordinal());
+        }
+        boolean started = discoveryMode == DiscoveryMode.LE
+                ? bluetooth.startLeScan(leScanSettings)
+                : bluetooth.startDiscovery();
+        if (!started) {
+            if (showError) {
+                Toast.makeText(context, "Error while starting device discovery!", Toast.LENGTH_SHORT)
+                        .show();
+            }
             Log.d(TAG, "StartDiscovery returned false. Maybe Bluetooth isn't on?");
 
             // Ends the discovery.
             broadcastDelegate.onDeviceDiscoveryEnd();
+            return false;
+        }
+        BluetoothMetrics.get().onDiscoveryStarted();
+        return true;
+    }
+
+    /**
+     * Starts ranging the beacons nearby, in place of the device discoveries, which are cancelled.
+     * The scheduled discoveries resume at {@link #stopBeaconRanging()}. Each ranging cycle is
+     * recorded into the {@link BeaconTable} of the ranger, then notified at once to the listener.
+     *
+     * @param listener the callback receiving the ranging cycles.
+     * @return the ranger, whose table holds the beacons ranged so far.
+     */
+    public BeaconRanger startBeaconRanging(BeaconRanger.Listener listener) {
+        if (!isBeaconRanging()) {
+            resumeScanAfterRanging = discoveryScheduler.isRunning();
+        }
+        discoveryScheduler.stop();
+        stopDiscoveries();
+        if (beaconRanger == null) {
+            beaconRanger = new BeaconRanger(context);
+        }
+        beaconRanger.start(listener);
+        return beaconRanger;
+    }
+
+    /**
+     * Stops ranging the beacons, if running, and resumes the scheduled discoveries it replaced.
+     */
+    public void stopBeaconRanging() {
+        if (!isBeaconRanging()) {
+            return;
+        }
+        beaconRanger.stop();
+        if (resumeScanAfterRanging) {
+            resumeScanAfterRanging = false;
+            discoveryScheduler.start();
         }
     }
+
     /**
-     * Performs the device pairing.
+     * Checks if the beacons are being ranged.
+     *
+     * @return true between {@link #startBeaconRanging(BeaconRanger.Listener)} and
+     * {@link #stopBeaconRanging()}.
+     */
+    public boolean isBeaconRanging() {
+        return beaconRanger != null && beaconRanger.isRanging();
+    }
+
+    /**
+     * Sets the journal recording the events received from the Bluetooth stack, for replaying
+     * the session with a {@link ScanJournalReplayer}.
+     *
+     * @param journal the journal, or null to stop recording.
+     */
+    public void setScanJournal(ScanJournal journal) {
+        broadcastDelegate.getEventQueue().setJournal(journal);
+    }
+
+    /**
+     * Called when a discovery ended, before the listener is notified.
+     */
+    public void onDiscoveryFinished() {
+        BluetoothMetrics.get().onDiscoveryFinished();
+        discoveryScheduler.onDiscoveryFinished();
+    }
+
+    /**
+     * Gets the scheduler repeating the discoveries, for a continuous monitoring.
+     *
+     * @return the {@link #discoveryScheduler}.
+     */
+    public DiscoveryScheduler getDiscoveryScheduler() {
+        return discoveryScheduler;
+    }
+    /**
+     * Sets how the next discoveries find the devices.
+     *
+     * @param discoveryMode the new mode.
+     */
+    public void setDiscoveryMode(DiscoveryMode discoveryMode) {
+        this.discoveryMode = discoveryMode;
+    }
+
+    public DiscoveryMode getDiscoveryMode() {
+        return discoveryMode;
+    }
+
+    /**
+     * Sets the settings of the next scans in the {@link DiscoveryMode#LE} mode.
+     *
+     * @param leScanSettings the settings: scan mode, report delay and filters.
+     */
+    public void setLeScanSettings(LeScanSettings leScanSettings) {
+        this.leScanSettings = leScanSettings;
+    }
+
+    public LeScanSettings getLeScanSettings() {
+        return leScanSettings;
+    }
+
+    /**
+     * Performs the device pairing, with the {@link #DEFAULT_PAIRING_TIMEOUT_MILLIS} deadline.
      *
      * @param device the device to pair with.
-     * @return true if the pairing was successful, false otherwise.
+     * @return the outcome of the pairing.
+     */
+    public PairingFuture pair(BluetoothDevice device) {
+        return pair(device, DEFAULT_PAIRING_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Performs the device pairing. The outcome is also notified through
+     * {@link BluetoothListener#onDevicePairingEnded(long, BluetoothDevice, PairingResult)}.
+     *
+     * @param device        the device to pair with.
+     * @param timeoutMillis the deadline of the pairing, after which it's aborted.
+     * @return the outcome of the pairing.
      */
-    public boolean pair(BluetoothDevice device) {
+    public PairingFuture pair(BluetoothDevice device, long timeoutMillis) {
         // Stops the discovery and then creates the pairing.
+        stopDiscoveryForPairing();
+        if (EventTrace.ENABLED) {
+            EventTrace.record(EventTrace.PAIRING_REQUESTED, device.getAddress(), (int) timeoutMillis);
+        }
+        return pairingScheduler.submit(device, timeoutMillis);
+    }
+
+    /**
+     * Pairs a batch of devices, running at most {@link #setMaxConcurrentPairings(int)} bondings
+     * at the same time. The outcome of each pairing is also notified through
+     * {@link BluetoothListener#onDevicePairingEnded(long, BluetoothDevice, PairingResult)}.
+     *
+     * @param devices       the devices to pair with.
+     * @param timeoutMillis the deadline of each pairing, after which it's aborted.
+     * @return the outcome of each pairing, in the order of the devices.
+     */
+    public List<PairingFuture> pairAll(Collection<BluetoothDevice> devices, long timeoutMillis) {
+        stopDiscoveryForPairing();
+        Log.d(TAG, "Bluetooth bonding with " + devices.size() + " devices.");
+        return pairingScheduler.submit(devices, timeoutMillis);
+    }
+
+    /**
+     * Sets the maximum number of devices bonding at the same time.
+     *
+     * @param maxConcurrentPairings the new limit, at least 1.
+     */
+    public void setMaxConcurrentPairings(int maxConcurrentPairings) {
+        pairingScheduler.setMaxConcurrentBonds(maxConcurrentPairings);
+    }
+
+    /**
+     * Called when the bond state of a device changed.
+     *
+     * @param address       the packed address of the device.
+     * @param bondState     the new bond state.
+     * @param previousState the previous bond state.
+     */
+    public void onBondStateChanged(long address, int bondState, int previousState) {
+        bondedDevices.onBondStateChanged(address, bondState);
+        pairingScheduler.onBondStateChanged(address, bondState, previousState);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onPairingFinished(long address, BluetoothDevice device, PairingResult result) {
+        if (EventTrace.ENABLED) {
+            EventTrace.record(EventTrace.PAIRING_FINISHED, address, result.ordinal());
+        }
+        BluetoothMetrics.get().onPairingFinished(result, pairingScheduler.getBondingMillis(address));
+        if (result == PairingResult.BONDED) {
+            // Now that the device is bonded, its services can be queried in the background.
+            fetchServiceUuids(address);
+        }
+        listener.onDevicePairingEnded(address, device, result);
+    }
+
+    /**
+     * Queries the services of a device in the background, unless they are already cached.
+     *
+     * @param address the packed address of the device.
+     * @return true if a query has been started.
+     */
+    public boolean fetchServiceUuids(long address) {
+        return serviceUuidCache.fetch(address, bluetooth);
+    }
+
+    /**
+     * Opens an RFCOMM connection to a bonded device, cancelling the running discovery, which
+     * slows the connection down. The connection is established in the background, and notified
+     * through {@link RfcommConnection.Listener#onConnected(RfcommConnection)}.
+     *
+     * @param device      the device to connect to.
+     * @param serviceUuid the UUID of the service to connect to, for example
+     *                    {@link BluetoothSocketTransport#SERIAL_PORT_UUID}.
+     * @param listener    the listener of the connection, called on its reader thread.
+     * @return the connection, started.
+     */
+    public RfcommConnection connect(BluetoothDevice device, UUID serviceUuid, RfcommConnection.Listener listener) {
+        stopDiscoveries();
+        RfcommConnection connection = new RfcommConnection(new BluetoothSocketTransport(device, serviceUuid), listener);
+        connection.start();
+        return connection;
+    }
+
+    /**
+     * Opens an RFCOMM connection to a bonded device for sending and receiving files, cancelling
+     * the running discovery.
+     *
+     * @param device            the device to connect to.
+     * @param serviceUuid       the UUID of the service to connect to.
+     * @param incomingDirectory the directory where the files received are written.
+     * @param listener          the listener of the transfers.
+     * @return the endpoint, started.
+     * @see FileTransferEndpoint#sendFile(File, long)
+     */
+    public FileTransferEndpoint openFileTransfer(BluetoothDevice device, UUID serviceUuid, File incomingDirectory,
+                                                 FileTransferEndpoint.Listener listener) {
+        stopDiscoveries();
+        FileTransferEndpoint endpoint = new FileTransferEndpoint(new BluetoothSocketTransport(device, serviceUuid),
+                incomingDirectory, listener);
+        endpoint.start();
+        return endpoint;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onBatchFinished(int bonded, int failed, long elapsedMillis) {
+        float devicesPerSecond = elapsedMillis > 0 ? (bonded + failed) * 1000f / elapsedMillis : 0;
+        Log.d(TAG, "Pairing batch ended: " + bonded + " bonded, " + failed + " failed in "
+                + elapsedMillis + " ms (" + devicesPerSecond + " devices/s).");
+        discoveryScheduler.onPairingsFinished();
+    }
+
+    /**
+     * Cancels the discovery, which slows down the bonding, and pauses the scheduled ones until
+     * the pairings are done.
+     */
+    private void stopDiscoveryForPairing() {
+        discoveryScheduler.onPairingStarted();
+        stopDiscoveries();
+    }
+
+    /**
+     * Stops the running discoveries, of both modes.
+     */
+    private void stopDiscoveries() {
         if (bluetooth.isDiscovering()) {
-            Log.d(TAG, "Bluetooth cancelling discovery.");
             bluetooth.cancelDiscovery();
         }
-        Log.d(TAG, "Bluetooth bonding with device: " + deviceToString(device));
-        boolean outcome = device.createBond();
-        Log.d(TAG, "Bounding outcome : " + outcome);
-
-        // If the outcome is true, we are bounding with this device.
-        if (outcome) {
-            this.boundingDevice = device;
+        if (bluetooth.isLeScanning()) {
+            bluetooth.stopLeScan();
         }
-        return outcome;
     }
 
     /**
@@ -110,11 +469,38 @@ public class BluetoothHelper implements Closeable {
      * @return true if it is already paired, false otherwise.
      */
     public boolean isAlreadyPaired(BluetoothDevice device) {
-        return bluetooth.getBondedDevices().contains(device);
+        return isAlreadyPaired(MacAddress.toKey(device.getAddress()));
+    }
+
+    /**
+     * Checks if a device is already paired, without any call to the Bluetooth service.
+     *
+     * @param address the packed address of the device to check.
+     * @return true if it is already paired, false otherwise.
+     */
+    public boolean isAlreadyPaired(long address) {
+        return bondedDevices.isBonded(address);
+    }
+
+    /**
+     * Called when the state of the Bluetooth adapter changed, before the listener is notified.
+     *
+     * @param state the new state of the adapter.
+     */
+    public void onAdapterStateChanged(int state) {
+        // The bonded devices can only be read while the Bluetooth is on, and may have changed
+        // while it was off.
+        if (state == BluetoothAdapter.STATE_ON) {
+            bondedDevices.resync(bluetooth);
+        } else if (state == BluetoothAdapter.STATE_OFF) {
+            bondedDevices.clear();
+        }
     }
 
     /**
      * Converts a BluetoothDevice to its String representation.
+     * <p>
+     * Reads the name from the Bluetooth service, {@link DeviceSnapshot#toString()} doesn't.
      *
      * @param device the device to convert to String.
      * @return a String representation of the device.
@@ -128,6 +514,9 @@ public class BluetoothHelper implements Closeable {
      */
     @Override
     public void close() {
+        resumeScanAfterRanging = false;
+        stopBeaconRanging();
+        this.discoveryScheduler.stop();
         this.broadcastDelegate.close();
     }
 
@@ -136,16 +525,19 @@ public class BluetoothHelper implements Closeable {
      *
      * @return true if a deviceDiscovery is currently running, false otherwise.
      */
+    @Override
     public boolean isDiscovering() {
-        return bluetooth.isDiscovering();
+        return bluetooth.isDiscovering() || bluetooth.isLeScanning();
     }
 
     /**
      * Cancels a device discovery.
      */
+    @Override
     public void cancelDiscovery() {
         if(bluetooth != null) {
             bluetooth.cancelDiscovery();
+            bluetooth.stopLeScan();
             broadcastDelegate.onDeviceDiscoveryEnd();
         }
     }
@@ -180,26 +572,10 @@ public class BluetoothHelper implements Closeable {
         }
     }
 
-    /**
-     * Returns the status of the current pairing and cleans up the state if the pairing is done.
-     *
-     * @return the current pairing status.
-     * @see BluetoothDevice#getBondState()
-     */
-    public int getPairingDeviceStatus() {
-        if (this.boundingDevice == null) {
-            throw new IllegalStateException("No device currently bounding");
-        }
-        int bondState = this.boundingDevice.getBondState();
-        // If the new state is not BOND_BONDING, the pairing is finished, cleans up the state.
-        if (bondState != BluetoothDevice.BOND_BONDING) {
-            this.boundingDevice = null;
-        }
-        return bondState;
-    }
-
     /**
      * Gets the name of a device. If the device name is not available, returns the device address.
+     * <p>
+     * Reads the name from the Bluetooth service, {@link DeviceSnapshot#getDisplayName()} doesn't.
      *
      * @param device the device whose name to return.
      * @return the name of the device or its address if the name is not available.
@@ -218,15 +594,25 @@ public class BluetoothHelper implements Closeable {
      * @return true if a pairing is in progress through this app, false otherwise.
      */
     public boolean isPairingInProgress() {
-        return this.boundingDevice != null;
+        return pairingScheduler.isBusy();
     }
 
     /**
-     * Gets the currently bounding device.
+     * Gets the cache of the service UUIDs of the remote devices.
      *
-     * @return the {@link #boundingDevice}.
+     * @return the {@link #serviceUuidCache}.
      */
-    public BluetoothDevice getBoundingDevice() {
-        return boundingDevice;
+    public ServiceUuidCache getServiceUuidCache() {
+        return serviceUuidCache;
     }
+
+    /**
+     * Gets the registry of the devices found.
+     *
+     * @return the {@link #deviceRegistry}.
+     */
+    public DeviceRegistry getDeviceRegistry() {
+        return deviceRegistry;
+    }
+
 }
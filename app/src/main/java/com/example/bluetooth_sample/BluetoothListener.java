@@ -5,11 +5,11 @@ import android.bluetooth.BluetoothDevice;
 public interface BluetoothListener {
 
     /**
-     * Called when a new device has been found.
+     * Called when a device has been found, after it has been recorded in the registry.
      *
-     * @param device the device found.
+     * @param index the index of the device in the {@link DeviceRegistry}.
      */
-    void onDeviceDiscovered(BluetoothDevice device);
+    void onDeviceDiscovered(int index);
 
     /**
      * Called when device discovery starts.
@@ -39,7 +39,11 @@ public interface BluetoothListener {
 
     /**
      * Called when a device pairing ends.
+     *
+     * @param address the packed address of the device.
+     * @param device  the device, or null if the backend has no device object.
+     * @param result  the outcome of the pairing.
      */
-    void onDevicePairingEnded();
+    void onDevicePairingEnded(long address, BluetoothDevice device, PairingResult result);
 
 }
@@ -0,0 +1,243 @@
+package com.example.bluetooth_sample;
+
+import android.os.Build;
+import android.os.SystemClock;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Measures how long the discoveries and the bondings take on this handset: time to the first
+ * device, rate of new devices, ratio of duplicate sightings, bonding latency and failures.
+ * <p>
+ * Recorded at the boundaries of {@link BluetoothHelper} and {@link BroadcastDelegate}, with
+ * counters and fixed size {@link LatencyHistogram}s, so that a sample costs a few arithmetic
+ * operations and no allocation. A single instance is shared by the process, shown by
+ * {@link DiagnosticsActivity}.
+ * <p>
+ * This class is not Thread Safe, it must only be used from the UI thread.
+ */
+public class BluetoothMetrics {
+
+    /**
+     * The metrics of the process.
+     */
+    private static final BluetoothMetrics INSTANCE = new BluetoothMetrics();
+
+    private final LatencyHistogram timeToFirstDevice = new LatencyHistogram("time_to_first_device");
+    private final LatencyHistogram discoveryDuration = new LatencyHistogram("discovery_duration");
+    private final LatencyHistogram bondLatency = new LatencyHistogram("bond_latency");
+
+    /**
+     * The queue of the running controller, whose counters complete the sightings, or null.
+     */
+    private BluetoothEventQueue eventQueue;
+
+    /**
+     * The sightings already coalesced by the {@link #eventQueue} at the last reset.
+     */
+    private long coalescedBaseline;
+
+    private long startedAt = SystemClock.elapsedRealtime();
+    private int discoveryCount;
+    private boolean discovering;
+    private boolean firstDeviceSeen;
+    private long discoveryStartedAt;
+    private int discoveryNewDevices;
+    private float lastDevicesPerSecond;
+    private long totalDiscoveryMillis;
+    private long sightingCount;
+    private long newDeviceCount;
+    private int bondedCount;
+    private int bondFailedCount;
+    private int bondTimedOutCount;
+
+    /**
+     * Gets the metrics of the process.
+     *
+     * @return the shared instance.
+     */
+    public static BluetoothMetrics get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Sets the queue whose counters complete the sightings.
+     *
+     * @param eventQueue the queue of the running controller, or null.
+     */
+    public void setEventQueue(BluetoothEventQueue eventQueue) {
+        this.eventQueue = eventQueue;
+        coalescedBaseline = 0;
+    }
+
+    public BluetoothEventQueue getEventQueue() {
+        return eventQueue;
+    }
+
+    /**
+     * Called when a discovery has been started.
+     */
+    public void onDiscoveryStarted() {
+        discovering = true;
+        firstDeviceSeen = false;
+        discoveryStartedAt = SystemClock.elapsedRealtime();
+        discoveryNewDevices = 0;
+        discoveryCount++;
+    }
+
+    /**
+     * Called for each device sighting dispatched.
+     *
+     * @param isNew true if the device has never been seen before.
+     */
+    public void onDeviceFound(boolean isNew) {
+        sightingCount++;
+        if (isNew) {
+            newDeviceCount++;
+        }
+        if (!discovering) {
+            return;
+        }
+        if (!firstDeviceSeen) {
+            firstDeviceSeen = true;
+            timeToFirstDevice.record(SystemClock.elapsedRealtime() - discoveryStartedAt);
+        }
+        if (isNew) {
+            discoveryNewDevices++;
+        }
+    }
+
+    /**
+     * Called when a discovery ended.
+     */
+    public void onDiscoveryFinished() {
+        if (!discovering) {
+            return;
+        }
+        discovering = false;
+        long duration = SystemClock.elapsedRealtime() - discoveryStartedAt;
+        discoveryDuration.record(duration);
+        totalDiscoveryMillis += duration;
+        lastDevicesPerSecond = duration > 0 ? discoveryNewDevices * 1000f / duration : 0;
+    }
+
+    /**
+     * Called when a pairing ended.
+     *
+     * @param result        the outcome of the pairing.
+     * @param bondingMillis the time from {@code createBond()} to the end of the bonding, or -1 if
+     *                      the bonding never started.
+     */
+    public void onPairingFinished(PairingResult result, long bondingMillis) {
+        switch (result) {
+            case BONDED:
+                bondedCount++;
+                bondLatency.record(bondingMillis);
+                break;
+            case TIMEOUT:
+                bondTimedOutCount++;
+                break;
+            default:
+                bondFailedCount++;
+                break;
+        }
+    }
+
+    /**
+     * Gets the ratio of the sightings which were not a new device, including the ones coalesced
+     * by the event queue before being dispatched.
+     *
+     * @return the ratio, between 0 and 1.
+     */
+    public float getDuplicateRatio() {
+        long sightings = sightingCount + (eventQueue != null ? eventQueue.getCoalescedCount() - coalescedBaseline : 0);
+        return sightings > 0 ? 1 - (float) newDeviceCount / sightings : 0;
+    }
+
+    /**
+     * Gets the rate of new devices over all the discoveries.
+     *
+     * @return the number of new devices per second of discovery.
+     */
+    public float getDevicesPerSecond() {
+        return totalDiscoveryMillis > 0 ? newDeviceCount * 1000f / totalDiscoveryMillis : 0;
+    }
+
+    public LatencyHistogram getTimeToFirstDevice() {
+        return timeToFirstDevice;
+    }
+
+    public LatencyHistogram getDiscoveryDuration() {
+        return discoveryDuration;
+    }
+
+    public LatencyHistogram getBondLatency() {
+        return bondLatency;
+    }
+
+    /**
+     * Removes every sample.
+     */
+    public void reset() {
+        timeToFirstDevice.reset();
+        discoveryDuration.reset();
+        bondLatency.reset();
+        startedAt = SystemClock.elapsedRealtime();
+        discoveryCount = 0;
+        discovering = false;
+        lastDevicesPerSecond = 0;
+        totalDiscoveryMillis = 0;
+        sightingCount = 0;
+        newDeviceCount = 0;
+        bondedCount = 0;
+        bondFailedCount = 0;
+        bondTimedOutCount = 0;
+        coalescedBaseline = eventQueue != null ? eventQueue.getCoalescedCount() : 0;
+    }
+
+    /**
+     * Writes a snapshot of the metrics, one {@code key=value} per line.
+     *
+     * @param writer the writer to write to.
+     * @throws IOException if the writer fails.
+     */
+    public void writeSnapshot(Writer writer) throws IOException {
+        writer.write("device=" + Build.MANUFACTURER + " " + Build.MODEL + "\n");
+        writer.write("sdk=" + Build.VERSION.SDK_INT + "\n");
+        writer.write("uptime_ms=" + (SystemClock.elapsedRealtime() - startedAt) + "\n");
+        writer.write("discoveries=" + discoveryCount + "\n");
+        writer.write("sightings=" + sightingCount + "\n");
+        writer.write("new_devices=" + newDeviceCount + "\n");
+        writer.write("devices_per_second=" + getDevicesPerSecond() + "\n");
+        writer.write("last_devices_per_second=" + lastDevicesPerSecond + "\n");
+        writer.write("duplicate_ratio=" + getDuplicateRatio() + "\n");
+        if (eventQueue != null) {
+            writer.write("queue=" + eventQueue + "\n");
+        }
+        writer.write("bonded=" + bondedCount + "\n");
+        writer.write("bond_failed=" + bondFailedCount + "\n");
+        writer.write("bond_timed_out=" + bondTimedOutCount + "\n");
+        writeHistogram(writer, timeToFirstDevice);
+        writeHistogram(writer, discoveryDuration);
+        writeHistogram(writer, bondLatency);
+    }
+
+    /**
+     * Writes a histogram: its summary, then its non empty buckets.
+     *
+     * @param writer    the writer to write to.
+     * @param histogram the histogram.
+     * @throws IOException if the writer fails.
+     */
+    private static void writeHistogram(Writer writer, LatencyHistogram histogram) throws IOException {
+        writer.write(histogram + "\n");
+        for (int i = 0; i < LatencyHistogram.BUCKET_COUNT; i++) {
+            long count = histogram.getBucketCount(i);
+            if (count > 0) {
+                writer.write("  <" + (i == LatencyHistogram.BUCKET_COUNT - 1 ? "inf" : LatencyHistogram.upperBoundOf(i) + "ms")
+                        + "=" + count + "\n");
+            }
+        }
+    }
+}
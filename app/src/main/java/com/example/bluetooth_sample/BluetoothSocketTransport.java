@@ -0,0 +1,139 @@
+package com.example.bluetooth_sample;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothSocket;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.UUID;
+
+/**
+ * An {@link RfcommTransport} over an RFCOMM {@link BluetoothSocket} to a bonded device.
+ * <p>
+ * The socket only exposes streams, which are adapted to channels: the data goes through an
+ * intermediate array of the adapter, so the frames are copied once more than with a native
+ * channel.
+ */
+public class BluetoothSocketTransport implements RfcommTransport {
+
+    /**
+     * UUID of the Serial Port Profile, the service offered by most RFCOMM peers.
+     */
+    public static final UUID SERIAL_PORT_UUID = UUID.fromString("00001101-0000-1000-8000-00805F9B34FB");
+
+    /**
+     * The remote device.
+     */
+    private final BluetoothDevice device;
+
+    /**
+     * UUID of the service to connect to, looked up by SDP on the remote device.
+     */
+    private final UUID serviceUuid;
+
+    /**
+     * The socket, null until opened.
+     */
+    private volatile BluetoothSocket socket;
+
+    private volatile boolean closed;
+
+    /**
+     * Instantiates a new BluetoothSocketTransport.
+     *
+     * @param device      the remote device, which should be bonded.
+     * @param serviceUuid the UUID of the service to connect to, for example
+     *                    {@link #SERIAL_PORT_UUID}.
+     */
+    public BluetoothSocketTransport(BluetoothDevice device, UUID serviceUuid) {
+        this.device = device;
+        this.serviceUuid = serviceUuid;
+    }
+
+    /**
+     * Creates a factory of transports to the service of the devices, for a
+     * {@link ConnectionManager}.
+     *
+     * @param adapter     the Bluetooth adapter.
+     * @param serviceUuid the UUID of the service to connect to.
+     * @return the factory.
+     */
+    public static ConnectionManager.TransportFactory factory(final BluetoothAdapter adapter, final UUID serviceUuid) {
+        return new ConnectionManager.TransportFactory() {
+            @Override
+            public RfcommTransport create(long address) {
+                return new BluetoothSocketTransport(adapter.getRemoteDevice(MacAddress.toString(address)), serviceUuid);
+            }
+        };
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The discovery must not be running, since it slows the connection down a lot.
+     */
+    @Override
+    public void open() throws IOException {
+        BluetoothSocket newSocket = device.createRfcommSocketToServiceRecord(serviceUuid);
+        socket = newSocket;
+        if (closed) {
+            newSocket.close();
+            throw new IOException("Closed");
+        }
+        newSocket.connect();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ReadableByteChannel getInputChannel() throws IOException {
+        return Channels.newChannel(getSocket().getInputStream());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public WritableByteChannel getOutputChannel() throws IOException {
+        return Channels.newChannel(getSocket().getOutputStream());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int available() throws IOException {
+        return getSocket().getInputStream().available();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        BluetoothSocket current = socket;
+        if (current != null) {
+            // Also aborts a connect() in progress.
+            current.close();
+        }
+    }
+
+    /**
+     * Gets the opened socket.
+     *
+     * @return the socket.
+     * @throws IOException if the transport is not opened.
+     */
+    private BluetoothSocket getSocket() throws IOException {
+        BluetoothSocket current = socket;
+        if (current == null) {
+            throw new IOException("Not opened");
+        }
+        return current;
+    }
+}
@@ -0,0 +1,83 @@
+package com.example.bluetooth_sample;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+
+/**
+ * In memory index of the bonded devices, keyed by their packed address.
+ * <p>
+ * The index is loaded once from {@link BluetoothAdapter#getBondedDevices()}, which is a call to
+ * the Bluetooth service copying the whole set, and then kept current from the bond state
+ * broadcasts. Lookups never leave the process, so the device list can check every row at bind
+ * time.
+ * <p>
+ * This class is not Thread Safe, it must only be used from the UI thread.
+ */
+public class BondedDeviceIndex {
+
+    /**
+     * Value stored for each bonded address, the map is used as a set.
+     */
+    private static final int PRESENT = 0;
+
+    /**
+     * The addresses of the bonded devices.
+     */
+    private final LongIntHashMap bondedAddresses = new LongIntHashMap(16);
+
+    /**
+     * Reloads the whole index from the Bluetooth service.
+     *
+     * @param backend the Bluetooth stack.
+     */
+    public void resync(BluetoothBackend backend) {
+        bondedAddresses.clear();
+        long[] bonded = backend.getBondedAddresses();
+        // Null while the Bluetooth is off.
+        if (bonded != null) {
+            for (long address : bonded) {
+                bondedAddresses.put(address, PRESENT);
+            }
+        }
+    }
+
+    /**
+     * Forgets every bonded device.
+     */
+    public void clear() {
+        bondedAddresses.clear();
+    }
+
+    /**
+     * Updates the index from a bond state broadcast.
+     *
+     * @param address   the packed address of the device.
+     * @param bondState the new bond state of the device.
+     */
+    public void onBondStateChanged(long address, int bondState) {
+        if (bondState == BluetoothDevice.BOND_BONDED) {
+            bondedAddresses.put(address, PRESENT);
+        } else if (bondState == BluetoothDevice.BOND_NONE) {
+            bondedAddresses.remove(address);
+        }
+    }
+
+    /**
+     * Checks if a device is bonded.
+     *
+     * @param address the packed address of the device.
+     * @return true if the device is bonded, false otherwise.
+     */
+    public boolean isBonded(long address) {
+        return bondedAddresses.get(address) != LongIntHashMap.NO_VALUE;
+    }
+
+    /**
+     * Gets the number of bonded devices.
+     *
+     * @return the number of bonded devices.
+     */
+    public int size() {
+        return bondedAddresses.size();
+    }
+}
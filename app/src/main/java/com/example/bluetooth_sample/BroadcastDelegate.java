@@ -1,20 +1,13 @@
 package com.example.bluetooth_sample;
 
-import android.bluetooth.BluetoothAdapter;
-import android.bluetooth.BluetoothDevice;
-import android.content.BroadcastReceiver;
-import android.content.Context;
-import android.content.Intent;
-import android.content.IntentFilter;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
-import com.afollestad.materialdialogs.MaterialDialog;
-
 import java.io.Closeable;
+import java.util.concurrent.Executor;
 
-import androidx.localbroadcastmanager.content.LocalBroadcastManager;
-
-public class BroadcastDelegate extends BroadcastReceiver implements Closeable  {
+public class BroadcastDelegate implements Closeable, BluetoothEventQueue.Dispatcher {
     /**
      * Callback for Bluetooth events.
      */
@@ -26,62 +19,115 @@ public class BroadcastDelegate extends BroadcastReceiver implements Closeable  {
     private final String TAG = "BroadcastDelegate";
 
     /**
-     * The context of this object.
+     * Maximum number of events waiting to be dispatched to the UI thread.
+     */
+    private static final int EVENT_QUEUE_CAPACITY = 256;
+
+    /**
+     * The Bluetooth stack delivering the events.
+     */
+    private final BluetoothBackend backend;
+
+    /**
+     * Registry where the devices found are recorded before notifying the listener.
+     */
+    private final DeviceRegistry deviceRegistry;
+
+    /**
+     * The controller for the Bluetooth, which tracks the pairings.
      */
-    private final Context context;
+    private final BluetoothHelper bluetooth;
+
+    /**
+     * Queue moving the digested events to the UI thread.
+     */
+    private final BluetoothEventQueue eventQueue;
 
     private ProgressListener progressListener;
+
     /**
-     * Instantiates a new BroadcastReceiverDelegator.
+     * Instantiates a new BroadcastReceiverDelegator, and starts the delivery of the events of a
+     * backend.
      *
-     * @param context   the context of this object.
+     * @param backend   the Bluetooth stack delivering the events.
      * @param listener  a callback for handling Bluetooth events.
      * @param bluetooth a controller for the Bluetooth.
      */
-    public BroadcastDelegate(Context context, BluetoothListener listener, BluetoothHelper bluetooth, ProgressListener progressListener) {
+    public BroadcastDelegate(BluetoothBackend backend, BluetoothListener listener, BluetoothHelper bluetooth, ProgressListener progressListener) {
+        this.backend = backend;
         this.listener = listener;
-        this.context = context;
         this.listener.setBluetoothController(bluetooth);
+        this.deviceRegistry = bluetooth.getDeviceRegistry();
+        this.bluetooth = bluetooth;
         this.progressListener = progressListener;
-        // Register for broadcasts when a device is discovered.
-        IntentFilter filter = new IntentFilter();
-        filter.addAction(BluetoothDevice.ACTION_FOUND);
-        filter.addAction(BluetoothAdapter.ACTION_DISCOVERY_FINISHED);
-        filter.addAction(BluetoothAdapter.ACTION_STATE_CHANGED);
-        filter.addAction(BluetoothDevice.ACTION_BOND_STATE_CHANGED);
-        context.registerReceiver(this, filter);
+
+        // Dispatches right away the events received on the UI thread, posts the others.
+        final Handler mainHandler = new Handler(Looper.getMainLooper());
+        Executor dispatchExecutor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                if (Looper.myLooper() == Looper.getMainLooper()) {
+                    command.run();
+                } else {
+                    mainHandler.post(command);
+                }
+            }
+        };
+        this.eventQueue = new BluetoothEventQueue(EVENT_QUEUE_CAPACITY, dispatchExecutor, this);
+        BluetoothMetrics.get().setEventQueue(eventQueue);
+        backend.start(eventQueue);
     }
 
     /**
      * {@inheritDoc}
+     * <p>
+     * Runs on the UI thread.
      */
     @Override
-    public void onReceive(Context context, Intent intent) {
-        String action = intent.getAction();
-        Log.d(TAG, "Incoming intent : " + action);
-        switch (action) {
-            case BluetoothDevice.ACTION_FOUND :
-                // Discovery has found a device. Get the BluetoothDevice
-                // object and its info from the Intent.
-                BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
-                Log.d(TAG, "Device discovered! " + BluetoothHelper.deviceToString(device));
-                listener.onDeviceDiscovered(device);
+    public void dispatch(BluetoothEvent event) {
+        switch (event.getType()) {
+            case BluetoothEvent.TYPE_DEVICE_FOUND :
+                int knownDevices = deviceRegistry.size();
+                int index = deviceRegistry.record(event.getAddress(), event.getDevice(), event.getName(),
+                        event.getDeviceClass(), event.getRssi(), System.currentTimeMillis());
+                if (EventTrace.ENABLED) {
+                    EventTrace.record(EventTrace.DEVICE_FOUND, event.getAddress(), event.getRssi());
+                }
+                BluetoothMetrics.get().onDeviceFound(deviceRegistry.size() > knownDevices);
+                listener.onDeviceDiscovered(index);
                 break;
-            case BluetoothAdapter.ACTION_DISCOVERY_FINISHED :
+            case BluetoothEvent.TYPE_DISCOVERY_FINISHED :
                 // Discovery has ended.
                 progressListener.endLoading();
-                Log.d(TAG, "Discovery ended.");
+                if (EventTrace.ENABLED) {
+                    EventTrace.record(EventTrace.DISCOVERY_FINISHED, 0, (int) eventQueue.getDroppedCount());
+                    Log.d(TAG, "Discovery ended. " + eventQueue);
+                }
+                bluetooth.onDiscoveryFinished();
                 listener.onDeviceDiscoveryEnd();
                 break;
-            case BluetoothAdapter.ACTION_STATE_CHANGED :
+            case BluetoothEvent.TYPE_STATE_CHANGED :
                 // Discovery state changed.
-                Log.d(TAG, "Bluetooth state changed.");
+                if (EventTrace.ENABLED) {
+                    EventTrace.record(EventTrace.ADAPTER_STATE_CHANGED, 0, event.getState());
+                }
+                bluetooth.onAdapterStateChanged(event.getState());
                 listener.onBluetoothStatusChanged();
                 break;
-            case BluetoothDevice.ACTION_BOND_STATE_CHANGED :
+            case BluetoothEvent.TYPE_BOND_STATE_CHANGED :
                 // Pairing state has changed.
-                Log.d(TAG, "Bluetooth bonding state changed.");
-                listener.onDevicePairingEnded();
+                if (EventTrace.ENABLED) {
+                    EventTrace.record(EventTrace.BOND_STATE_CHANGED, event.getAddress(), event.getState());
+                }
+                bluetooth.onBondStateChanged(event.getAddress(), event.getState(), event.getPreviousState());
+                break;
+            case BluetoothEvent.TYPE_UUIDS_FETCHED :
+                // Service discovery of a device has ended.
+                if (EventTrace.ENABLED) {
+                    EventTrace.record(EventTrace.UUIDS_FETCHED, event.getAddress(),
+                            event.getUuids() != null ? event.getUuids().length : -1);
+                }
+                bluetooth.getServiceUuidCache().onUuidsFetched(event.getAddress(), event.getUuids());
                 break;
             default :
                 // Does nothing.
@@ -103,11 +149,26 @@ public class BroadcastDelegate extends BroadcastReceiver implements Closeable  {
         listener.onDeviceDiscoveryEnd();
     }
 
+    /**
+     * Gets the queue moving the events to the UI thread, whose metrics tell if the UI thread is
+     * keeping up with the broadcasts.
+     *
+     * @return the {@link #eventQueue}.
+     */
+    public BluetoothEventQueue getEventQueue() {
+        return eventQueue;
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     public void close() {
-        context.unregisterReceiver(this);
+        backend.stop();
+        // The metrics outlive the controller, they must not keep its queue and listeners.
+        BluetoothMetrics metrics = BluetoothMetrics.get();
+        if (metrics.getEventQueue() == eventQueue) {
+            metrics.setEventQueue(null);
+        }
     }
 }
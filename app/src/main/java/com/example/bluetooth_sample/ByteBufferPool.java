@@ -0,0 +1,96 @@
+package com.example.bluetooth_sample;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A fixed set of equally sized {@link ByteBuffer}s, allocated once and recycled.
+ * <p>
+ * Direct buffers are expensive to allocate and only freed by the garbage collector, so they are
+ * pooled rather than allocated per frame. Since the pool never grows, an exhausted pool makes
+ * {@link #acquire(long)} wait, which is how the producers are slowed down to the pace of the
+ * consumer.
+ * <p>
+ * This class is Thread Safe.
+ */
+public class ByteBufferPool {
+
+    /**
+     * The buffers available.
+     */
+    private final BlockingQueue<ByteBuffer> available;
+
+    /**
+     * Size of each buffer, in bytes.
+     */
+    private final int bufferSize;
+
+    /**
+     * Number of buffers of the pool.
+     */
+    private final int bufferCount;
+
+    /**
+     * Instantiates a new ByteBufferPool, allocating all of its buffers.
+     *
+     * @param bufferCount the number of buffers.
+     * @param bufferSize  the size of each buffer, in bytes.
+     * @param direct      true to allocate direct buffers, false for heap ones.
+     */
+    public ByteBufferPool(int bufferCount, int bufferSize, boolean direct) {
+        if (bufferCount < 1 || bufferSize < 1) {
+            throw new IllegalArgumentException("Invalid pool: " + bufferCount + " x " + bufferSize);
+        }
+        this.bufferCount = bufferCount;
+        this.bufferSize = bufferSize;
+        this.available = new ArrayBlockingQueue<>(bufferCount);
+        for (int i = 0; i < bufferCount; i++) {
+            available.add(direct ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize));
+        }
+    }
+
+    /**
+     * Takes a buffer, waiting for one to be released if none is available.
+     *
+     * @param timeoutMillis the longest time to wait, 0 not to wait.
+     * @return the buffer, cleared, or null if none became available in time.
+     * @throws InterruptedException if the calling thread is interrupted while waiting.
+     */
+    public ByteBuffer acquire(long timeoutMillis) throws InterruptedException {
+        ByteBuffer buffer = available.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+        if (buffer != null) {
+            buffer.clear();
+        }
+        return buffer;
+    }
+
+    /**
+     * Gives back a buffer taken from this pool.
+     *
+     * @param buffer the buffer, which must not be used anymore.
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer.capacity() != bufferSize || !available.offer(buffer)) {
+            throw new IllegalArgumentException("Not a buffer of this pool");
+        }
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public int getBufferCount() {
+        return bufferCount;
+    }
+
+    /**
+     * Gets the number of buffers which can be acquired without waiting.
+     *
+     * @return the number of buffers available.
+     */
+    public int getAvailableCount() {
+        return available.size();
+    }
+}
@@ -0,0 +1,825 @@
+package com.example.bluetooth_sample;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Keeps links to many devices at the same time, on a fixed number of threads whatever the number
+ * of links.
+ * <p>
+ * The links exchange the frames of {@link RfcommConnection}. Each link is served by one of a
+ * fixed set of I/O threads, which polls its links in turn: it reads the bytes already received,
+ * without blocking, then writes the queued frames for up to a quantum of bytes, the deficit
+ * round robin giving every busy link the same share of the thread whatever the size of its
+ * frames. An I/O thread with nothing to do backs off, polling less and less often, until a frame
+ * is queued. The RFCOMM sockets can't be selected like network sockets, so polling is what keeps
+ * the thread count bounded; it adds up to {@link #MAX_POLL_INTERVAL_NANOS} of latency to the
+ * first frame received by an idle thread.
+ * <p>
+ * The links are opened by a single connector thread, since the radio pages one device at a time
+ * anyway. A link which fails is reconnected after an exponential backoff with jitter, so links
+ * dropped together don't all retry at the same time. A link with no traffic for the idle timeout
+ * is closed to free its socket, and reopened by the next frame sent.
+ * <p>
+ * The writes of the sockets block while the device doesn't read, which would stall every link of
+ * the I/O thread. The connector thread checks the writes in progress: a frame not written within
+ * the write timeout fails its link, closing its transport, which unblocks the I/O thread.
+ * <p>
+ * This class is Thread Safe. The listener is called on the I/O threads and the connector thread,
+ * it must return quickly.
+ */
+public class ConnectionManager {
+
+    /**
+     * Callback for the links.
+     */
+    public interface Listener {
+
+        /**
+         * Called when a link is connected, or reconnected.
+         *
+         * @param link the link.
+         */
+        void onLinkConnected(Link link);
+
+        /**
+         * Called for each frame received.
+         *
+         * @param link    the link.
+         * @param payload the payload of the frame, between its position and its limit. Only
+         *                valid until this method returns.
+         */
+        void onFrameReceived(Link link, ByteBuffer payload);
+
+        /**
+         * Called when a link is disconnected.
+         *
+         * @param link      the link.
+         * @param cause     the failure, or null if the link has been closed or evicted.
+         * @param reconnect true if the link will be reconnected after a backoff.
+         */
+        void onLinkDisconnected(Link link, IOException cause, boolean reconnect);
+    }
+
+    /**
+     * Creates the transports of the links.
+     */
+    public interface TransportFactory {
+
+        /**
+         * Creates a transport to a device, not opened yet.
+         *
+         * @param address the packed address of the device.
+         * @return the transport.
+         * @throws IOException if the device can't be reached.
+         */
+        RfcommTransport create(long address) throws IOException;
+    }
+
+    public static final int STATE_CONNECTING = 0;
+    public static final int STATE_CONNECTED = 1;
+    public static final int STATE_RECONNECTING = 2;
+    public static final int STATE_IDLE = 3;
+    public static final int STATE_CLOSED = 4;
+
+    /**
+     * Tag string used for logging.
+     */
+    private static final String TAG = "ConnectionManager";
+
+    /**
+     * Default number of I/O threads.
+     */
+    public static final int DEFAULT_IO_THREADS = 2;
+
+    /**
+     * Default number of frames queued on a link before {@link Link#send(ByteBuffer, long)} waits.
+     */
+    public static final int DEFAULT_QUEUED_FRAMES = 8;
+
+    /**
+     * Default time without traffic after which a link is closed, in milliseconds.
+     */
+    public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 60000;
+
+    /**
+     * Default longest time to write a frame, in milliseconds.
+     */
+    public static final long DEFAULT_WRITE_TIMEOUT_MILLIS = 10000;
+
+    /**
+     * Default backoff before the first reconnection, doubled on each failure, in milliseconds.
+     */
+    public static final long DEFAULT_MIN_BACKOFF_MILLIS = 1000;
+
+    /**
+     * Default longest backoff before a reconnection, in milliseconds.
+     */
+    public static final long DEFAULT_MAX_BACKOFF_MILLIS = 60000;
+
+    /**
+     * Default number of failed reconnections after which a link is closed.
+     */
+    public static final int DEFAULT_MAX_RECONNECTIONS = 10;
+
+    /**
+     * Shortest and longest sleep of an I/O thread which found nothing to do.
+     */
+    static final long MIN_POLL_INTERVAL_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+    static final long MAX_POLL_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    /**
+     * A link to a device. The frames sent are queued, and written by its I/O thread.
+     */
+    public final class Link {
+        private final long address;
+        private final IoThread ioThread;
+
+        /**
+         * The frames waiting to be written, guarded by the link.
+         */
+        private final ArrayDeque<ByteBuffer> queue = new ArrayDeque<>();
+
+        /**
+         * Bytes received, holding the start of the next frame. Only used by the I/O thread.
+         */
+        private final ByteBuffer received;
+
+        private volatile int state = STATE_CONNECTING;
+        private volatile RfcommTransport transport;
+        private ReadableByteChannel input;
+        private WritableByteChannel output;
+
+        /**
+         * Bytes the link may still write in the current round. Only used by the I/O thread.
+         */
+        private int deficit;
+
+        /**
+         * Failed connections since the last successful one, guarded by the link.
+         */
+        private int failures;
+
+        private volatile long lastActivityNanos;
+
+        /**
+         * True while the I/O thread writes a frame, started at {@link #writeStartedNanos}.
+         */
+        private volatile boolean writing;
+        private volatile long writeStartedNanos;
+        private volatile long framesSent;
+        private volatile long framesReceived;
+        private volatile long bytesSent;
+        private volatile long bytesReceived;
+
+        Link(long address, IoThread ioThread) {
+            this.address = address;
+            this.ioThread = ioThread;
+            this.received = ByteBuffer.allocateDirect(pool.getBufferSize());
+        }
+
+        /**
+         * Queues a frame, waiting if the link already has its maximum of frames queued. A link
+         * evicted for being idle is reopened.
+         *
+         * @param payload       the payload, between its position and its limit. Consumed when
+         *                      queued.
+         * @param timeoutMillis the longest time to wait for room, 0 not to wait.
+         * @return false if there was no room in time, the frame wasn't queued.
+         * @throws IOException          if the link is closed.
+         * @throws InterruptedException if the calling thread is interrupted while waiting.
+         */
+        public boolean send(ByteBuffer payload, long timeoutMillis) throws IOException, InterruptedException {
+            int length = payload.remaining();
+            if (length > pool.getBufferSize() - RfcommConnection.HEADER_SIZE) {
+                throw new IllegalArgumentException("Frame too large: " + length);
+            }
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            synchronized (this) {
+                while (queue.size() >= maxQueuedFrames) {
+                    checkOpen();
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                }
+                checkOpen();
+            }
+            ByteBuffer frame = pool.acquire(Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+            if (frame == null) {
+                return false;
+            }
+            frame.putInt(length);
+            frame.put(payload);
+            frame.flip();
+            boolean reopen;
+            synchronized (this) {
+                if (state == STATE_CLOSED) {
+                    pool.release(frame);
+                    checkOpen();
+                }
+                queue.add(frame);
+                reopen = state == STATE_IDLE;
+                if (reopen) {
+                    state = STATE_CONNECTING;
+                }
+            }
+            if (reopen) {
+                scheduleConnect(this, 0);
+            } else {
+                ioThread.wakeUp();
+            }
+            return true;
+        }
+
+        /**
+         * Closes the link for good, dropping the frames not written yet.
+         */
+        public void close() {
+            ConnectionManager.this.close(this, null);
+        }
+
+        public long getAddress() {
+            return address;
+        }
+
+        /**
+         * Gets the state of the link.
+         *
+         * @return one of the {@code STATE_} constants.
+         */
+        public int getState() {
+            return state;
+        }
+
+        public long getFramesSent() {
+            return framesSent;
+        }
+
+        public long getFramesReceived() {
+            return framesReceived;
+        }
+
+        /**
+         * Gets the number of payload bytes written, without the length prefixes.
+         *
+         * @return the number of bytes.
+         */
+        public long getBytesSent() {
+            return bytesSent;
+        }
+
+        /**
+         * Gets the number of payload bytes received, without the length prefixes.
+         *
+         * @return the number of bytes.
+         */
+        public long getBytesReceived() {
+            return bytesReceived;
+        }
+
+        /**
+         * Gets the number of frames waiting to be written.
+         *
+         * @return the number of frames.
+         */
+        public synchronized int getQueuedFrameCount() {
+            return queue.size();
+        }
+
+        private void checkOpen() throws IOException {
+            if (state == STATE_CLOSED) {
+                throw new IOException("Link closed");
+            }
+        }
+
+        /**
+         * Reads the bytes received without blocking, and hands the complete frames over.
+         *
+         * @return true if anything was read.
+         * @throws IOException if the link failed.
+         */
+        boolean read() throws IOException {
+            int available = transport.available();
+            if (available <= 0) {
+                return false;
+            }
+            received.limit(Math.min(received.capacity(), received.position() + available));
+            int count = input.read(received);
+            if (count < 0) {
+                throw new IOException("Closed by the remote device");
+            }
+            received.flip();
+            while (received.remaining() >= RfcommConnection.HEADER_SIZE) {
+                int start = received.position();
+                int length = received.getInt(start);
+                if (length < 0 || length > received.capacity() - RfcommConnection.HEADER_SIZE) {
+                    throw new IOException("Invalid frame length: " + length);
+                }
+                int end = start + RfcommConnection.HEADER_SIZE + length;
+                if (end > received.limit()) {
+                    break;
+                }
+                int limit = received.limit();
+                received.position(start + RfcommConnection.HEADER_SIZE);
+                received.limit(end);
+                framesReceived++;
+                bytesReceived += length;
+                listener.onFrameReceived(this, received);
+                received.limit(limit);
+                received.position(end);
+            }
+            received.compact();
+            lastActivityNanos = System.nanoTime();
+            return count > 0;
+        }
+
+        /**
+         * Writes the queued frames, up to the quantum of the round.
+         *
+         * @return true if anything was written.
+         * @throws IOException if the link failed.
+         */
+        boolean write() throws IOException {
+            deficit += pool.getBufferSize();
+            boolean written = false;
+            while (true) {
+                ByteBuffer frame;
+                synchronized (this) {
+                    frame = queue.peek();
+                    if (frame == null) {
+                        // An idle link doesn't keep its credit for the next burst.
+                        deficit = 0;
+                        break;
+                    }
+                    if (frame.remaining() > deficit) {
+                        break;
+                    }
+                    queue.poll();
+                    notifyAll();
+                }
+                int length = frame.remaining();
+                writeStartedNanos = System.nanoTime();
+                writing = true;
+                try {
+                    while (frame.hasRemaining()) {
+                        output.write(frame);
+                    }
+                } finally {
+                    writing = false;
+                    pool.release(frame);
+                }
+                deficit -= length;
+                framesSent++;
+                bytesSent += length - RfcommConnection.HEADER_SIZE;
+                written = true;
+            }
+            if (written) {
+                lastActivityNanos = System.nanoTime();
+            }
+            return written;
+        }
+
+        /**
+         * Drops the frames not written yet.
+         */
+        synchronized void clearQueue() {
+            ByteBuffer frame;
+            while ((frame = queue.poll()) != null) {
+                pool.release(frame);
+            }
+            notifyAll();
+        }
+    }
+
+    /**
+     * A thread serving its share of the links in turn.
+     */
+    private final class IoThread extends Thread {
+        final List<Link> links = new CopyOnWriteArrayList<>();
+        private volatile boolean running = true;
+
+        IoThread(int index) {
+            super(TAG + "-io-" + index);
+        }
+
+        @Override
+        public void run() {
+            long pollInterval = MIN_POLL_INTERVAL_NANOS;
+            while (running) {
+                boolean busy = false;
+                long now = System.nanoTime();
+                for (Link link : links) {
+                    if (link.state != STATE_CONNECTED) {
+                        continue;
+                    }
+                    try {
+                        busy |= link.read();
+                        busy |= link.write();
+                    } catch (IOException e) {
+                        onLinkFailed(link, e);
+                        continue;
+                    } catch (RuntimeException e) {
+                        onLinkFailed(link, new IOException("Listener failed", e));
+                        continue;
+                    }
+                    if (idleTimeoutNanos > 0 && now - link.lastActivityNanos > idleTimeoutNanos) {
+                        evict(link);
+                    }
+                }
+                if (busy) {
+                    pollInterval = MIN_POLL_INTERVAL_NANOS;
+                } else {
+                    LockSupport.parkNanos(this, pollInterval);
+                    pollInterval = Math.min(pollInterval * 2, MAX_POLL_INTERVAL_NANOS);
+                }
+            }
+        }
+
+        /**
+         * Wakes the thread up if it's sleeping, when a frame has been queued.
+         */
+        void wakeUp() {
+            LockSupport.unpark(this);
+        }
+
+        void shutdown() {
+            running = false;
+            wakeUp();
+        }
+    }
+
+    private final TransportFactory transportFactory;
+    private final Listener listener;
+
+    /**
+     * Buffers of the frames queued, shared by the links.
+     */
+    private final ByteBufferPool pool;
+
+    private final IoThread[] ioThreads;
+
+    /**
+     * Opens the links and runs the backoffs.
+     */
+    private final ScheduledThreadPoolExecutor connector;
+
+    /**
+     * The links, by packed address of the device.
+     */
+    private final Map<Long, Link> links = new ConcurrentHashMap<>();
+
+    private final Random random = new Random();
+
+    /**
+     * Fails the links whose write is stuck, on the connector thread.
+     */
+    private final Runnable writeWatchdog = new Runnable() {
+        @Override
+        public void run() {
+            long now = System.nanoTime();
+            for (Link link : links.values()) {
+                if (link.writing && now - link.writeStartedNanos > writeTimeoutNanos) {
+                    onLinkFailed(link, new IOException("Write timed out"));
+                }
+            }
+        }
+    };
+
+    /**
+     * The periodic run of the {@link #writeWatchdog}, guarded by the manager.
+     */
+    private ScheduledFuture<?> writeWatchdogFuture;
+
+    private volatile int maxQueuedFrames = DEFAULT_QUEUED_FRAMES;
+    private volatile long idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_IDLE_TIMEOUT_MILLIS);
+    private volatile long writeTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_WRITE_TIMEOUT_MILLIS);
+    private volatile long minBackoffMillis = DEFAULT_MIN_BACKOFF_MILLIS;
+    private volatile long maxBackoffMillis = DEFAULT_MAX_BACKOFF_MILLIS;
+    private volatile int maxReconnections = DEFAULT_MAX_RECONNECTIONS;
+
+    /**
+     * Instantiates a new ConnectionManager with {@link #DEFAULT_IO_THREADS} and frames of up to
+     * {@link RfcommConnection#DEFAULT_MAX_PAYLOAD_SIZE} bytes, and starts its threads.
+     *
+     * @param transportFactory the factory of the transports of the links.
+     * @param listener         the listener of the links.
+     */
+    public ConnectionManager(TransportFactory transportFactory, Listener listener) {
+        this(transportFactory, listener, DEFAULT_IO_THREADS, new ByteBufferPool(64,
+                RfcommConnection.HEADER_SIZE + RfcommConnection.DEFAULT_MAX_PAYLOAD_SIZE, true));
+    }
+
+    /**
+     * Instantiates a new ConnectionManager, and starts its threads.
+     *
+     * @param transportFactory the factory of the transports of the links.
+     * @param listener         the listener of the links.
+     * @param ioThreadCount    the number of I/O threads.
+     * @param pool             the buffers of the frames queued, shared by the links. Its buffer
+     *                         size bounds the frames.
+     */
+    public ConnectionManager(TransportFactory transportFactory, Listener listener, int ioThreadCount,
+                             ByteBufferPool pool) {
+        if (ioThreadCount < 1 || pool.getBufferSize() <= RfcommConnection.HEADER_SIZE) {
+            throw new IllegalArgumentException("Invalid manager: " + ioThreadCount + " threads");
+        }
+        this.transportFactory = transportFactory;
+        this.listener = listener;
+        this.pool = pool;
+        this.connector = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, TAG + "-connector");
+            }
+        });
+        this.ioThreads = new IoThread[ioThreadCount];
+        for (int i = 0; i < ioThreadCount; i++) {
+            ioThreads[i] = new IoThread(i);
+            ioThreads[i].start();
+        }
+        setWriteTimeoutMillis(DEFAULT_WRITE_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Sets the number of frames queued on a link before {@link Link#send(ByteBuffer, long)}
+     * waits.
+     *
+     * @param maxQueuedFrames the number of frames, at least 1.
+     */
+    public void setMaxQueuedFrames(int maxQueuedFrames) {
+        this.maxQueuedFrames = Math.max(1, maxQueuedFrames);
+    }
+
+    /**
+     * Sets the time without traffic after which a link is closed, until a frame is sent again.
+     *
+     * @param idleTimeoutMillis the timeout, 0 to never close the idle links.
+     */
+    public void setIdleTimeoutMillis(long idleTimeoutMillis) {
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+    }
+
+    /**
+     * Sets the longest time to write a frame, after which its link fails. Checked every half of
+     * the timeout.
+     *
+     * @param writeTimeoutMillis the timeout, at least 1.
+     */
+    public synchronized void setWriteTimeoutMillis(long writeTimeoutMillis) {
+        writeTimeoutMillis = Math.max(1, writeTimeoutMillis);
+        this.writeTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(writeTimeoutMillis);
+        if (writeWatchdogFuture != null) {
+            writeWatchdogFuture.cancel(false);
+        }
+        long period = Math.max(1, writeTimeoutMillis / 2);
+        writeWatchdogFuture = connector.scheduleWithFixedDelay(writeWatchdog, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sets the backoff before the reconnections, doubled on each failure.
+     *
+     * @param minBackoffMillis the backoff before the first reconnection.
+     * @param maxBackoffMillis the longest backoff.
+     */
+    public void setReconnectBackoff(long minBackoffMillis, long maxBackoffMillis) {
+        this.minBackoffMillis = minBackoffMillis;
+        this.maxBackoffMillis = Math.max(minBackoffMillis, maxBackoffMillis);
+    }
+
+    /**
+     * Sets the number of failed reconnections after which a link is closed.
+     *
+     * @param maxReconnections the number of reconnections, 0 not to reconnect.
+     */
+    public void setMaxReconnections(int maxReconnections) {
+        this.maxReconnections = maxReconnections;
+    }
+
+    /**
+     * Opens a link to a device, or gets the existing one.
+     *
+     * @param address the packed address of the device.
+     * @return the link, connected in the background.
+     */
+    public Link open(long address) {
+        synchronized (links) {
+            Link link = links.get(address);
+            if (link == null) {
+                IoThread ioThread = ioThreads[0];
+                for (IoThread candidate : ioThreads) {
+                    if (candidate.links.size() < ioThread.links.size()) {
+                        ioThread = candidate;
+                    }
+                }
+                link = new Link(address, ioThread);
+                links.put(address, link);
+                ioThread.links.add(link);
+                scheduleConnect(link, 0);
+            }
+            return link;
+        }
+    }
+
+    /**
+     * Gets the link to a device.
+     *
+     * @param address the packed address of the device.
+     * @return the link, or null if not opened.
+     */
+    public Link getLink(long address) {
+        return links.get(address);
+    }
+
+    /**
+     * Gets the links, whatever their state.
+     *
+     * @return a copy of the links.
+     */
+    public List<Link> getLinks() {
+        return new ArrayList<>(links.values());
+    }
+
+    /**
+     * Gets the number of threads of this manager, which doesn't depend on the number of links.
+     *
+     * @return the number of threads.
+     */
+    public int getThreadCount() {
+        return ioThreads.length + 1;
+    }
+
+    /**
+     * Closes every link and stops the threads.
+     */
+    public void shutdown() {
+        for (Link link : getLinks()) {
+            close(link, null);
+        }
+        connector.shutdownNow();
+        for (IoThread ioThread : ioThreads) {
+            ioThread.shutdown();
+        }
+    }
+
+    /**
+     * Opens the transport of a link, after a delay.
+     *
+     * @param link        the link, in the connecting or reconnecting state.
+     * @param delayMillis the delay.
+     */
+    private void scheduleConnect(final Link link, long delayMillis) {
+        connector.schedule(new Runnable() {
+            @Override
+            public void run() {
+                connect(link);
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Opens the transport of a link, on the connector thread.
+     *
+     * @param link the link.
+     */
+    private void connect(Link link) {
+        synchronized (link) {
+            if (link.state != STATE_CONNECTING && link.state != STATE_RECONNECTING) {
+                return;
+            }
+            link.state = STATE_CONNECTING;
+        }
+        RfcommTransport transport = null;
+        try {
+            transport = transportFactory.create(link.address);
+            link.transport = transport;
+            transport.open();
+            ReadableByteChannel input = transport.getInputChannel();
+            WritableByteChannel output = transport.getOutputChannel();
+            synchronized (link) {
+                if (link.state != STATE_CONNECTING) {
+                    // Closed while connecting.
+                    closeQuietly(transport);
+                    return;
+                }
+                link.input = input;
+                link.output = output;
+                link.received.clear();
+                link.deficit = 0;
+                link.failures = 0;
+                link.lastActivityNanos = System.nanoTime();
+                link.state = STATE_CONNECTED;
+            }
+        } catch (IOException e) {
+            if (transport != null) {
+                closeQuietly(transport);
+            }
+            onLinkFailed(link, e);
+            return;
+        }
+        listener.onLinkConnected(link);
+        link.ioThread.wakeUp();
+    }
+
+    /**
+     * Closes the transport of a failed link, and schedules its reconnection unless it failed
+     * too many times.
+     *
+     * @param link  the link.
+     * @param cause the failure.
+     */
+    private void onLinkFailed(Link link, IOException cause) {
+        long backoffMillis;
+        synchronized (link) {
+            if (link.state == STATE_CLOSED || link.state == STATE_IDLE || link.state == STATE_RECONNECTING) {
+                return;
+            }
+            link.failures++;
+            if (link.failures > maxReconnections) {
+                backoffMillis = -1;
+            } else {
+                // Equal jitter: between half and all of the exponential backoff.
+                long backoff = Math.min(maxBackoffMillis, minBackoffMillis << Math.min(link.failures - 1, 30));
+                backoffMillis = backoff / 2 + (long) (random.nextDouble() * (backoff - backoff / 2));
+                link.state = STATE_RECONNECTING;
+            }
+        }
+        RfcommTransport transport = link.transport;
+        if (transport != null) {
+            closeQuietly(transport);
+        }
+        if (backoffMillis < 0) {
+            Log.w(TAG, "Link to " + MacAddress.toString(link.address) + " failed.", cause);
+            close(link, cause);
+            return;
+        }
+        listener.onLinkDisconnected(link, cause, true);
+        scheduleConnect(link, backoffMillis);
+    }
+
+    /**
+     * Closes a link which had no traffic for the idle timeout, keeping its queue.
+     *
+     * @param link the link.
+     */
+    private void evict(Link link) {
+        synchronized (link) {
+            if (link.state != STATE_CONNECTED || !link.queue.isEmpty()) {
+                return;
+            }
+            link.state = STATE_IDLE;
+        }
+        closeQuietly(link.transport);
+        listener.onLinkDisconnected(link, null, false);
+    }
+
+    /**
+     * Closes a link for good.
+     *
+     * @param link  the link.
+     * @param cause the failure which closed it, or null.
+     */
+    private void close(Link link, IOException cause) {
+        synchronized (link) {
+            if (link.state == STATE_CLOSED) {
+                return;
+            }
+            link.state = STATE_CLOSED;
+        }
+        synchronized (links) {
+            links.remove(link.address);
+            link.ioThread.links.remove(link);
+        }
+        RfcommTransport transport = link.transport;
+        if (transport != null) {
+            closeQuietly(transport);
+        }
+        link.clearQueue();
+        listener.onLinkDisconnected(link, cause, false);
+    }
+
+    private static void closeQuietly(RfcommTransport transport) {
+        try {
+            transport.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to close the transport.", e);
+        }
+    }
+}
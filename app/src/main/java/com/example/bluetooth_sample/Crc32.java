@@ -0,0 +1,46 @@
+package com.example.bluetooth_sample;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The CRC-32 of {@link java.util.zip.CRC32}, computed over a {@link ByteBuffer}.
+ * <p>
+ * {@code CRC32.update(ByteBuffer)} is only available from API 26, and the byte array variant
+ * would need the direct and mapped buffers to be copied to the heap first.
+ */
+final class Crc32 {
+
+    /**
+     * CRC of each byte value, for the reversed polynomial 0xEDB88320.
+     */
+    private static final int[] TABLE = new int[256];
+
+    static {
+        for (int i = 0; i < TABLE.length; i++) {
+            int crc = i;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 1) != 0 ? (crc >>> 1) ^ 0xEDB88320 : crc >>> 1;
+            }
+            TABLE[i] = crc;
+        }
+    }
+
+    private Crc32() {
+    }
+
+    /**
+     * Computes the CRC of the bytes of a buffer, between its position and its limit, without
+     * moving its position.
+     *
+     * @param buffer the buffer.
+     * @return the CRC, as {@link java.util.zip.CRC32#getValue()} would return it, truncated to
+     * an int.
+     */
+    static int compute(ByteBuffer buffer) {
+        int crc = 0xFFFFFFFF;
+        for (int i = buffer.position(), end = buffer.limit(); i < end; i++) {
+            crc = (crc >>> 8) ^ TABLE[(crc ^ buffer.get(i)) & 0xFF];
+        }
+        return ~crc;
+    }
+}
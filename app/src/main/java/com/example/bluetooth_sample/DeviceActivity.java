@@ -36,7 +36,7 @@ public class DeviceActivity extends AppCompatActivity {
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_device);
-        deviceModel = (DeviceModel) getIntent().getSerializableExtra(Variable.DEVICE.toString());
+        deviceModel = getIntent().getParcelableExtra(Variable.DEVICE.toString());
         deviceName = (TextView) findViewById(R.id.tvDeviceNameVal);
         deviceMac = (TextView) findViewById(R.id.tvDeviceMacVal);
         deviceUUID = (TextView) findViewById(R.id.tvDeviceUUIDVal);
@@ -46,7 +46,11 @@ public class DeviceActivity extends AppCompatActivity {
     private void initValues() {
         deviceName.setText(deviceModel.getName());
         deviceMac.setText(deviceModel.getMac());
-        deviceUUID.setText(deviceModel.getUUID());
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < deviceModel.getUuidCount(); i++) {
+            sb.append(deviceModel.getUuid(i)).append('\n');
+        }
+        deviceUUID.setText(sb);
     }
 
 }
@@ -1,20 +1,72 @@
 package com.example.bluetooth_sample;
 
 
-import java.io.Serializable;
+import android.os.Parcel;
+import android.os.Parcelable;
 
-public class DeviceModel implements Serializable {
+import java.util.Arrays;
+import java.util.UUID;
+
+public class DeviceModel implements Parcelable {
     private String name;
     private String mac;
-    private String UUID;
+    /**
+     * Service UUIDs of the device, as most/least significant bit pairs.
+     */
+    private long[] uuids = new long[0];
+    private int deviceClass = DeviceRegistry.UNKNOWN_CLASS;
+    /**
+     * Signal strengths of the device in dBm, oldest first.
+     */
+    private short[] rssiHistory = new short[0];
+
+    public static final Creator<DeviceModel> CREATOR = new Creator<DeviceModel>() {
+        @Override
+        public DeviceModel createFromParcel(Parcel in) {
+            return new DeviceModel(in);
+        }
+
+        @Override
+        public DeviceModel[] newArray(int size) {
+            return new DeviceModel[size];
+        }
+    };
 
     public DeviceModel() {
     }
 
-    public DeviceModel(String name, String mac, String UUID) {
+    public DeviceModel(String name, String mac, long[] uuids) {
         this.name = name;
         this.mac = mac;
-        this.UUID = UUID;
+        this.uuids = uuids;
+    }
+
+    protected DeviceModel(Parcel in) {
+        name = in.readString();
+        mac = in.readString();
+        deviceClass = in.readInt();
+        uuids = in.createLongArray();
+        rssiHistory = new short[in.readInt()];
+        for (int i = 0; i < rssiHistory.length; i++) {
+            rssiHistory[i] = (short) in.readInt();
+        }
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeString(name);
+        dest.writeString(mac);
+        dest.writeInt(deviceClass);
+        dest.writeLongArray(uuids);
+        dest.writeInt(rssiHistory.length);
+        for (short rssi : rssiHistory) {
+            dest.writeInt(rssi);
+        }
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
     }
 
     public String getName() {
@@ -33,12 +85,36 @@ public class DeviceModel implements Serializable {
         this.mac = mac;
     }
 
-    public String getUUID() {
-        return UUID;
+    public long[] getUuids() {
+        return uuids;
+    }
+
+    public void setUuids(long[] uuids) {
+        this.uuids = uuids;
+    }
+
+    public int getUuidCount() {
+        return uuids.length / 2;
+    }
+
+    public UUID getUuid(int index) {
+        return new UUID(uuids[index * 2], uuids[index * 2 + 1]);
+    }
+
+    public int getDeviceClass() {
+        return deviceClass;
+    }
+
+    public void setDeviceClass(int deviceClass) {
+        this.deviceClass = deviceClass;
+    }
+
+    public short[] getRssiHistory() {
+        return rssiHistory;
     }
 
-    public void setUUID(String UUID) {
-        this.UUID = UUID;
+    public void setRssiHistory(short[] rssiHistory) {
+        this.rssiHistory = rssiHistory;
     }
 
     @Override
@@ -46,7 +122,9 @@ public class DeviceModel implements Serializable {
         return "DeviceModel{" +
                 "name='" + name + '\'' +
                 ", mac='" + mac + '\'' +
-                ", UUID='" + UUID + '\'' +
+                ", uuids=" + getUuidCount() +
+                ", deviceClass=" + deviceClass +
+                ", rssiHistory=" + Arrays.toString(rssiHistory) +
                 '}';
     }
 }
@@ -0,0 +1,117 @@
+package com.example.bluetooth_sample;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Versioned binary encoding of a {@link DeviceModel}, used where a model has to be stored or
+ * sent as raw bytes.
+ * <p>
+ * Layout, big endian: version (byte), packed address (6 bytes), device class (int), name length
+ * (short, -1 if null) followed by the UTF-8 name, UUID count (unsigned short) followed by the
+ * UUIDs as most/least significant bit pairs, RSSI count (unsigned short) followed by the RSSIs
+ * (shorts).
+ */
+public final class DeviceModelCodec {
+
+    /**
+     * Version written by {@link #encode(DeviceModel, ByteBuffer)}.
+     */
+    public static final byte VERSION = 1;
+
+    /**
+     * Encoding of the device names.
+     */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private DeviceModelCodec() {
+    }
+
+    /**
+     * Computes the size of the encoding of a model.
+     *
+     * @param model the model.
+     * @return the number of bytes {@link #encode(DeviceModel, ByteBuffer)} writes.
+     */
+    public static int encodedSize(DeviceModel model) {
+        int nameSize = model.getName() != null ? model.getName().getBytes(UTF_8).length : 0;
+        return 1 + 6 + 4 + 2 + nameSize + 2 + model.getUuids().length * 8
+                + 2 + model.getRssiHistory().length * 2;
+    }
+
+    /**
+     * Encodes a model.
+     *
+     * @param model  the model.
+     * @param buffer the buffer to write to, with at least {@link #encodedSize(DeviceModel)}
+     *               bytes remaining.
+     */
+    public static void encode(DeviceModel model, ByteBuffer buffer) {
+        buffer.put(VERSION);
+        long address = MacAddress.toKey(model.getMac());
+        buffer.putShort((short) (address >>> 32));
+        buffer.putInt((int) address);
+        buffer.putInt(model.getDeviceClass());
+        if (model.getName() != null) {
+            byte[] name = model.getName().getBytes(UTF_8);
+            buffer.putShort((short) name.length);
+            buffer.put(name);
+        } else {
+            buffer.putShort((short) -1);
+        }
+        long[] uuids = model.getUuids();
+        buffer.putShort((short) (uuids.length / 2));
+        for (long value : uuids) {
+            buffer.putLong(value);
+        }
+        short[] rssiHistory = model.getRssiHistory();
+        buffer.putShort((short) rssiHistory.length);
+        for (short rssi : rssiHistory) {
+            buffer.putShort(rssi);
+        }
+    }
+
+    /**
+     * Decodes a model.
+     *
+     * @param buffer the buffer to read from.
+     * @return the model.
+     * @throws IllegalArgumentException if the encoding is not valid or has an unknown version.
+     */
+    public static DeviceModel decode(ByteBuffer buffer) {
+        try {
+            byte version = buffer.get();
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Unsupported version: " + version);
+            }
+            DeviceModel model = new DeviceModel();
+            long address = ((buffer.getShort() & 0xFFFFL) << 32) | (buffer.getInt() & 0xFFFFFFFFL);
+            model.setMac(MacAddress.toString(address));
+            model.setDeviceClass(buffer.getInt());
+            int nameLength = buffer.getShort();
+            if (nameLength < -1) {
+                throw new IllegalArgumentException("Invalid name length: " + nameLength);
+            }
+            if (nameLength >= 0) {
+                byte[] name = new byte[nameLength];
+                buffer.get(name);
+                model.setName(new String(name, UTF_8));
+            }
+            // The counts are unsigned, so a corrupt one can't be negative.
+            long[] uuids = new long[(buffer.getShort() & 0xFFFF) * 2];
+            for (int i = 0; i < uuids.length; i++) {
+                uuids[i] = buffer.getLong();
+            }
+            model.setUuids(uuids);
+            short[] rssiHistory = new short[buffer.getShort() & 0xFFFF];
+            for (int i = 0; i < rssiHistory.length; i++) {
+                rssiHistory[i] = buffer.getShort();
+            }
+            model.setRssiHistory(rssiHistory);
+            return model;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated DeviceModel", e);
+        }
+    }
+}
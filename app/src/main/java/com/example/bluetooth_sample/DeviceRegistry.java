@@ -0,0 +1,341 @@
+package com.example.bluetooth_sample;
+
+import android.bluetooth.BluetoothDevice;
+
+import java.util.Arrays;
+
+/**
+ * Registry of the devices seen during the discovery sessions, keyed by their MAC address.
+ * <p>
+ * Each device gets a stable index, assigned in order of first sighting, which is also its row in
+ * the device list. The per device records are stored column by column in primitive arrays, so
+ * that a session reaching tens of thousands of devices keeps both the memory per device and the
+ * lookup cost flat.
+ * <p>
+ * This class is not Thread Safe, it must only be used from the UI thread.
+ */
+public class DeviceRegistry {
+
+    /**
+     * Value of {@link #getDeviceClass(int)} when the class of the device is not known.
+     */
+    public static final int UNKNOWN_CLASS = -1;
+
+    /**
+     * Value of {@link #getRssi(int)} when the signal strength of the device is not known.
+     */
+    public static final short UNKNOWN_RSSI = Short.MIN_VALUE;
+
+    /**
+     * Default weight of a new RSSI sample in the smoothed signal strength.
+     */
+    public static final float DEFAULT_RSSI_SMOOTHING = 0.25f;
+
+    /**
+     * Initial number of devices the registry can hold without growing.
+     */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * Index of each device, keyed by its packed address.
+     */
+    private final LongIntHashMap indexByAddress = new LongIntHashMap(INITIAL_CAPACITY);
+
+    /**
+     * Packed address of each device.
+     */
+    private long[] addresses = new long[INITIAL_CAPACITY];
+
+    /**
+     * The device objects, used for pairing. Null for the devices restored from the discovery
+     * cache and not seen since, or reported by a backend without device objects.
+     */
+    private BluetoothDevice[] devices = new BluetoothDevice[INITIAL_CAPACITY];
+
+    /**
+     * Name of each device, as advertised in the discovery broadcast. May contain nulls.
+     */
+    private String[] names = new String[INITIAL_CAPACITY];
+
+    /**
+     * Bluetooth class of each device, or {@link #UNKNOWN_CLASS}.
+     */
+    private int[] deviceClasses = new int[INITIAL_CAPACITY];
+
+    /**
+     * Last signal strength of each device in dBm, or {@link #UNKNOWN_RSSI}.
+     */
+    private short[] rssis = new short[INITIAL_CAPACITY];
+
+    /**
+     * Smoothed signal strength of each device in dBm, an exponentially weighted moving average of
+     * its RSSI samples, or {@link #UNKNOWN_RSSI}.
+     */
+    private float[] smoothedRssis = new float[INITIAL_CAPACITY];
+
+    /**
+     * Weight of a new RSSI sample in the smoothed signal strength.
+     */
+    private float rssiSmoothing = DEFAULT_RSSI_SMOOTHING;
+
+    /**
+     * Time of the first sighting of each device, in milliseconds.
+     */
+    private long[] firstSeen = new long[INITIAL_CAPACITY];
+
+    /**
+     * Time of the last sighting of each device, in milliseconds.
+     */
+    private long[] lastSeen = new long[INITIAL_CAPACITY];
+
+    /**
+     * Number of sightings of each device.
+     */
+    private int[] hitCounts = new int[INITIAL_CAPACITY];
+
+    /**
+     * Snapshot of each device, built on the first read after its last change. May contain nulls.
+     */
+    private DeviceSnapshot[] snapshots = new DeviceSnapshot[INITIAL_CAPACITY];
+
+    /**
+     * Number of devices in the registry.
+     */
+    private int size;
+
+    /**
+     * Records a sighting of a device.
+     *
+     * @param address     the packed address of the device found.
+     * @param device      the device found, or null if the backend has no device object.
+     * @param name        the name advertised by the device, or null if not available.
+     * @param deviceClass the Bluetooth class of the device, or {@link #UNKNOWN_CLASS}.
+     * @param rssi        the signal strength of the device, or {@link #UNKNOWN_RSSI}.
+     * @param timestamp   the time of the sighting, in milliseconds.
+     * @return the index of the device.
+     */
+    public int record(long address, BluetoothDevice device, String name, int deviceClass, short rssi, long timestamp) {
+        int index = indexFor(address, timestamp);
+        if (device != null) {
+            devices[index] = device;
+        }
+        if (rssi != UNKNOWN_RSSI) {
+            rssis[index] = rssi;
+            float smoothed = smoothedRssis[index];
+            // The RSSI fluctuates by several dB between sightings, the average tells the distance.
+            smoothedRssis[index] = smoothed == UNKNOWN_RSSI ? rssi : smoothed + rssiSmoothing * (rssi - smoothed);
+        }
+        // Some sightings don't carry the name or the class, keeps the ones already known.
+        if (name != null) {
+            names[index] = name;
+        }
+        if (deviceClass != UNKNOWN_CLASS) {
+            deviceClasses[index] = deviceClass;
+        }
+        lastSeen[index] = timestamp;
+        hitCounts[index]++;
+        snapshots[index] = null;
+        return index;
+    }
+
+    /**
+     * Restores a device seen in a previous session. The device has no sighting in this session
+     * until {@link #record(long, BluetoothDevice, String, int, short, long)} is called for it.
+     *
+     * @param address     the packed address of the device.
+     * @param name        the last known name of the device, or null.
+     * @param deviceClass the Bluetooth class of the device, or {@link #UNKNOWN_CLASS}.
+     * @param rssi        the last known signal strength of the device, or {@link #UNKNOWN_RSSI}.
+     * @param timestamp   the time of the last sighting, in milliseconds.
+     * @return the index of the device.
+     */
+    public int restore(long address, String name, int deviceClass, short rssi, long timestamp) {
+        int index = indexFor(address, timestamp);
+        names[index] = name;
+        deviceClasses[index] = deviceClass;
+        rssis[index] = rssi;
+        smoothedRssis[index] = rssi;
+        lastSeen[index] = timestamp;
+        snapshots[index] = null;
+        return index;
+    }
+
+    /**
+     * Sets how fast the smoothed signal strength follows the RSSI samples.
+     *
+     * @param rssiSmoothing the weight of a new sample, between 0 (exclusive), the smoothest, and 1,
+     *                      no smoothing.
+     */
+    public void setRssiSmoothing(float rssiSmoothing) {
+        if (rssiSmoothing <= 0 || rssiSmoothing > 1) {
+            throw new IllegalArgumentException("Invalid smoothing: " + rssiSmoothing);
+        }
+        this.rssiSmoothing = rssiSmoothing;
+    }
+
+    /**
+     * Gets the index of a device.
+     *
+     * @param address the address of the device.
+     * @return the index of the device, or {@link LongIntHashMap#NO_VALUE} if it has never been
+     * seen.
+     */
+    public int indexOf(String address) {
+        return indexOf(MacAddress.toKey(address));
+    }
+
+    /**
+     * Gets the index of a device.
+     *
+     * @param address the packed address of the device.
+     * @return the index of the device, or {@link LongIntHashMap#NO_VALUE} if it has never been
+     * seen.
+     */
+    public int indexOf(long address) {
+        return indexByAddress.get(address);
+    }
+
+    /**
+     * Gets the number of devices in the registry.
+     *
+     * @return the {@link #size}.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Removes every device from the registry.
+     */
+    public void clear() {
+        indexByAddress.clear();
+        // Releases the references so that the devices can be collected.
+        Arrays.fill(devices, 0, size, null);
+        Arrays.fill(names, 0, size, null);
+        Arrays.fill(hitCounts, 0, size, 0);
+        Arrays.fill(snapshots, 0, size, null);
+        size = 0;
+    }
+
+    public long getAddress(int index) {
+        return addresses[checkIndex(index)];
+    }
+
+    public BluetoothDevice getDevice(int index) {
+        return devices[checkIndex(index)];
+    }
+
+    public String getName(int index) {
+        return names[checkIndex(index)];
+    }
+
+    public int getDeviceClass(int index) {
+        return deviceClasses[checkIndex(index)];
+    }
+
+    public short getRssi(int index) {
+        return rssis[checkIndex(index)];
+    }
+
+    /**
+     * Gets the smoothed signal strength of a device, which ranks its proximity.
+     *
+     * @param index the index of the device.
+     * @return the signal strength in dBm, or {@link #UNKNOWN_RSSI}.
+     */
+    public float getSmoothedRssi(int index) {
+        return smoothedRssis[checkIndex(index)];
+    }
+
+    public long getFirstSeen(int index) {
+        return firstSeen[checkIndex(index)];
+    }
+
+    public long getLastSeen(int index) {
+        return lastSeen[checkIndex(index)];
+    }
+
+    public int getHitCount(int index) {
+        return hitCounts[checkIndex(index)];
+    }
+
+    /**
+     * Gets an immutable snapshot of a device. The snapshot is built once per sighting and reused
+     * until the device is recorded again, so binding the same row repeatedly doesn't allocate.
+     *
+     * @param index     the index of the device.
+     * @param bondState the current bond state of the device, one of the
+     *                  {@code BluetoothDevice.BOND_*}.
+     * @return the snapshot of the device.
+     */
+    public DeviceSnapshot getSnapshot(int index, int bondState) {
+        DeviceSnapshot snapshot = snapshots[checkIndex(index)];
+        if (snapshot == null) {
+            snapshot = new DeviceSnapshot(addresses[index], devices[index], names[index],
+                    deviceClasses[index], bondState, rssis[index]);
+        } else {
+            // The bond state is tracked by the bonded devices index, not by the registry.
+            snapshot = snapshot.withBondState(bondState);
+        }
+        snapshots[index] = snapshot;
+        return snapshot;
+    }
+
+    /**
+     * Gets the index of a device, adding it if it's not in the registry yet.
+     *
+     * @param address   the packed address of the device.
+     * @param timestamp the time of the sighting, in milliseconds.
+     * @return the index of the device.
+     */
+    private int indexFor(long address, long timestamp) {
+        int index = indexByAddress.get(address);
+        if (index == LongIntHashMap.NO_VALUE) {
+            index = size;
+            ensureCapacity(size + 1);
+            indexByAddress.put(address, index);
+            addresses[index] = address;
+            deviceClasses[index] = UNKNOWN_CLASS;
+            rssis[index] = UNKNOWN_RSSI;
+            smoothedRssis[index] = UNKNOWN_RSSI;
+            firstSeen[index] = timestamp;
+            size++;
+        }
+        return index;
+    }
+
+    /**
+     * Checks that an index refers to a device in the registry.
+     *
+     * @param index the index to check.
+     * @return the index.
+     */
+    private int checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+        }
+        return index;
+    }
+
+    /**
+     * Grows the columns so that they can hold at least the given number of devices.
+     *
+     * @param capacity the number of devices to hold.
+     */
+    private void ensureCapacity(int capacity) {
+        if (capacity <= addresses.length) {
+            return;
+        }
+        int newCapacity = addresses.length << 1;
+        addresses = Arrays.copyOf(addresses, newCapacity);
+        devices = Arrays.copyOf(devices, newCapacity);
+        names = Arrays.copyOf(names, newCapacity);
+        deviceClasses = Arrays.copyOf(deviceClasses, newCapacity);
+        rssis = Arrays.copyOf(rssis, newCapacity);
+        smoothedRssis = Arrays.copyOf(smoothedRssis, newCapacity);
+        firstSeen = Arrays.copyOf(firstSeen, newCapacity);
+        lastSeen = Arrays.copyOf(lastSeen, newCapacity);
+        hitCounts = Arrays.copyOf(hitCounts, newCapacity);
+        snapshots = Arrays.copyOf(snapshots, newCapacity);
+    }
+}
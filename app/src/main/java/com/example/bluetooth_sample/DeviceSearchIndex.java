@@ -0,0 +1,538 @@
+package com.example.bluetooth_sample;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Search index over the devices of a {@link DeviceRegistry}, by name prefix, address prefix and
+ * major Bluetooth class.
+ * <p>
+ * The names and the addresses are indexed in two prefix tries, each node holding the sorted
+ * registry indexes of the devices under it, and the classes in one bucket per major class. The
+ * index is updated device by device as the sightings come, so a search never scans the registry:
+ * it walks at most {@link #MAX_PREFIX_LENGTH} nodes and merges their lists, in time proportional
+ * to the number of matches.
+ * <p>
+ * This class is not Thread Safe, it must only be used from the UI thread.
+ */
+public class DeviceSearchIndex {
+
+    /**
+     * Major class of {@link #search(String, int)} matching every device.
+     */
+    public static final int ANY_CLASS = -1;
+
+    /**
+     * Number of leading characters of a name indexed in the trie. Longer queries are checked
+     * against the names of the devices matching their first characters.
+     */
+    static final int MAX_PREFIX_LENGTH = 16;
+
+    /**
+     * Mask of the major class in a device class, as {@code BluetoothClass.Device.Major.BITMASK}.
+     */
+    private static final int MAJOR_CLASS_MASK = 0x1F00;
+
+    /**
+     * Bucket of the devices whose class is not known, after the 32 major classes.
+     */
+    private static final int UNKNOWN_CLASS_BUCKET = 32;
+
+    /**
+     * Number of hexadecimal digits of an address.
+     */
+    private static final int ADDRESS_DIGITS = 12;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * Sorted set of registry indexes.
+     */
+    static final class IndexList {
+        private int[] values = new int[4];
+        private int size;
+
+        void add(int value) {
+            // The new devices have the highest indexes, appending is the common case.
+            if (size == 0 || value > values[size - 1]) {
+                ensureCapacity(size + 1);
+                values[size++] = value;
+                return;
+            }
+            int position = Arrays.binarySearch(values, 0, size, value);
+            if (position < 0) {
+                position = -position - 1;
+                ensureCapacity(size + 1);
+                System.arraycopy(values, position, values, position + 1, size - position);
+                values[position] = value;
+                size++;
+            }
+        }
+
+        void remove(int value) {
+            int position = Arrays.binarySearch(values, 0, size, value);
+            if (position >= 0) {
+                System.arraycopy(values, position + 1, values, position, size - position - 1);
+                size--;
+            }
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity > values.length) {
+                values = Arrays.copyOf(values, values.length << 1);
+            }
+        }
+    }
+
+    /**
+     * Node of a prefix trie: the devices whose key starts with the path to the node.
+     */
+    private static final class Node {
+        private static final char[] NO_KEYS = new char[0];
+        private static final Node[] NO_CHILDREN = new Node[0];
+
+        final IndexList devices = new IndexList();
+        private char[] keys = NO_KEYS;
+        private Node[] children = NO_CHILDREN;
+        private int childCount;
+
+        /**
+         * Gets the child following a character.
+         *
+         * @param key    the character.
+         * @param create true to add the child if missing.
+         * @return the child, or null if missing and not created.
+         */
+        Node child(char key, boolean create) {
+            // A handful of children per node past the first levels, a scan is the fastest.
+            for (int i = 0; i < childCount; i++) {
+                if (keys[i] == key) {
+                    return children[i];
+                }
+            }
+            if (!create) {
+                return null;
+            }
+            if (childCount == keys.length) {
+                int capacity = Math.max(2, childCount << 1);
+                keys = Arrays.copyOf(keys, capacity);
+                children = Arrays.copyOf(children, capacity);
+            }
+            Node child = new Node();
+            keys[childCount] = key;
+            children[childCount] = child;
+            childCount++;
+            return child;
+        }
+    }
+
+    /**
+     * The devices matching a search, in the order of their first match, which the rows of a
+     * filtered list follow.
+     * <p>
+     * The devices starting to match after the search, as they are discovered or renamed, are
+     * appended by {@link #update(int)}. The rows already listed never move, and are kept even
+     * if their device stops matching.
+     */
+    public final class Result {
+        private final String namePrefix;
+        private final String addressPrefix;
+        private final int classBucket;
+        private int[] indexes;
+        private int size;
+
+        /**
+         * Number of devices matching at the time of the search, listed first in registry order.
+         */
+        private final int searchedCount;
+
+        /**
+         * Position of each registry index appended after the search.
+         */
+        private final LongIntHashMap appendedPositions = new LongIntHashMap(INITIAL_CAPACITY);
+
+        private Result(String namePrefix, String addressPrefix, int classBucket, IndexList matches) {
+            this.namePrefix = namePrefix;
+            this.addressPrefix = addressPrefix;
+            this.classBucket = classBucket;
+            this.indexes = Arrays.copyOf(matches.values, Math.max(INITIAL_CAPACITY, matches.size));
+            this.size = matches.size;
+            this.searchedCount = size;
+        }
+
+        /**
+         * Lists a device if it matches the search, after it has been updated in the index.
+         *
+         * @param index the registry index of the device.
+         * @return the position of the device in the result, or {@link LongIntHashMap#NO_VALUE}
+         * if it's not listed.
+         */
+        public int update(int index) {
+            int position = positionOf(index);
+            if (position == LongIntHashMap.NO_VALUE && matches(index)) {
+                if (size == indexes.length) {
+                    indexes = Arrays.copyOf(indexes, size << 1);
+                }
+                position = size++;
+                indexes[position] = index;
+                appendedPositions.put(index, position);
+            }
+            return position;
+        }
+
+        /**
+         * Gets the position of a device.
+         *
+         * @param index the registry index of the device.
+         * @return the position of its row, or {@link LongIntHashMap#NO_VALUE} if it's not listed.
+         */
+        public int positionOf(int index) {
+            // Sorted up to the searched count, so a search costs no more than copying its matches.
+            int position = Arrays.binarySearch(indexes, 0, searchedCount, index);
+            return position >= 0 ? position : appendedPositions.get(index);
+        }
+
+        /**
+         * Gets the registry index of the device at a position.
+         *
+         * @param position the position of the row.
+         * @return the index of the device in the registry.
+         */
+        public int indexAt(int position) {
+            if (position < 0 || position >= size) {
+                throw new IndexOutOfBoundsException("Position: " + position + ", size: " + size);
+            }
+            return indexes[position];
+        }
+
+        public int size() {
+            return size;
+        }
+
+        private boolean matches(int index) {
+            if (classBucket != ANY_CLASS && classBuckets[index] != classBucket) {
+                return false;
+            }
+            if (namePrefix == null) {
+                return true;
+            }
+            String name = names[index];
+            if (name != null && name.startsWith(namePrefix)) {
+                return true;
+            }
+            return addressPrefix != null && toHex(registry.getAddress(index)).startsWith(addressPrefix);
+        }
+    }
+
+    /**
+     * The registry of the devices indexed.
+     */
+    private final DeviceRegistry registry;
+
+    private final Node nameRoot = new Node();
+    private final Node addressRoot = new Node();
+
+    /**
+     * Devices of each major class, then of the unknown class.
+     */
+    private final IndexList[] buckets = new IndexList[UNKNOWN_CLASS_BUCKET + 1];
+
+    /**
+     * Name under which each device is indexed, in lower case, or null.
+     */
+    private String[] names = new String[INITIAL_CAPACITY];
+
+    /**
+     * Bucket in which each device is indexed.
+     */
+    private int[] classBuckets = new int[INITIAL_CAPACITY];
+
+    /**
+     * Number of devices indexed, the first ones of the registry.
+     */
+    private int size;
+
+    /**
+     * Instantiates a new DeviceSearchIndex.
+     *
+     * @param registry the registry of the devices indexed.
+     */
+    public DeviceSearchIndex(DeviceRegistry registry) {
+        this.registry = registry;
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new IndexList();
+        }
+    }
+
+    /**
+     * Indexes the new name or class of a device, after it has been recorded in the registry. The
+     * devices added to the registry before it are indexed as well.
+     *
+     * @param index the registry index of the device.
+     */
+    public void update(int index) {
+        if (index < size) {
+            refresh(index);
+            return;
+        }
+        while (size <= index) {
+            add(size);
+            refresh(size);
+            size++;
+        }
+    }
+
+    /**
+     * Indexes the devices added to the registry since the last update, like restored ones.
+     */
+    public void sync() {
+        if (registry.size() > size) {
+            update(registry.size() - 1);
+        }
+    }
+
+    /**
+     * Searches the devices whose name or address starts with a text, and of a major class.
+     *
+     * @param text       the beginning of the name, case insensitive, or of the address, with or
+     *                   without separators. Empty to match any device.
+     * @param majorClass the major class of the devices, as {@code BluetoothClass.Device.Major},
+     *                   or {@link #ANY_CLASS}.
+     * @return the devices matching, in registry order.
+     */
+    public Result search(String text, int majorClass) {
+        String namePrefix = normalize(text.trim());
+        String addressPrefix = namePrefix != null ? toAddressPrefix(namePrefix) : null;
+        int classBucket = majorClass == ANY_CLASS ? ANY_CLASS : bucketOf(majorClass);
+
+        IndexList matches;
+        if (namePrefix == null) {
+            matches = classBucket == ANY_CLASS ? allDevices() : buckets[classBucket];
+        } else {
+            matches = find(nameRoot, namePrefix);
+            if (namePrefix.length() > MAX_PREFIX_LENGTH) {
+                matches = filterByName(matches, namePrefix);
+            }
+            if (addressPrefix != null) {
+                matches = union(matches, find(addressRoot, addressPrefix));
+            }
+            if (classBucket != ANY_CLASS) {
+                matches = filterByBucket(matches, classBucket);
+            }
+        }
+        return new Result(namePrefix, addressPrefix, classBucket, matches);
+    }
+
+    /**
+     * Gets the number of devices indexed.
+     *
+     * @return the {@link #size}.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Removes every device, after the registry has been cleared.
+     */
+    public void clear() {
+        nameRoot.devices.clear();
+        nameRoot.childCount = 0;
+        addressRoot.devices.clear();
+        addressRoot.childCount = 0;
+        for (IndexList bucket : buckets) {
+            bucket.clear();
+        }
+        Arrays.fill(names, 0, size, null);
+        size = 0;
+    }
+
+    /**
+     * Indexes the address of a device new to the index, in the unknown class bucket until
+     * {@link #update(int)} reads its class.
+     *
+     * @param index the registry index of the device.
+     */
+    private void add(int index) {
+        if (index >= names.length) {
+            int capacity = Math.max(index + 1, names.length << 1);
+            names = Arrays.copyOf(names, capacity);
+            classBuckets = Arrays.copyOf(classBuckets, capacity);
+        }
+        insert(addressRoot, toHex(registry.getAddress(index)), index);
+        classBuckets[index] = UNKNOWN_CLASS_BUCKET;
+        buckets[UNKNOWN_CLASS_BUCKET].add(index);
+    }
+
+    /**
+     * Moves a device to the trie node of its current name and the bucket of its current class.
+     *
+     * @param index the registry index of the device.
+     */
+    private void refresh(int index) {
+        String name = normalize(registry.getName(index));
+        String indexedName = names[index];
+        if (name == null ? indexedName != null : !name.equals(indexedName)) {
+            if (indexedName != null) {
+                remove(nameRoot, indexedName, index);
+            }
+            if (name != null) {
+                insert(nameRoot, name, index);
+            }
+            names[index] = name;
+        }
+        int bucket = bucketOf(registry.getDeviceClass(index));
+        if (bucket != classBuckets[index]) {
+            buckets[classBuckets[index]].remove(index);
+            buckets[bucket].add(index);
+            classBuckets[index] = bucket;
+        }
+    }
+
+    private static void insert(Node root, String key, int index) {
+        Node node = root;
+        int length = Math.min(key.length(), MAX_PREFIX_LENGTH);
+        for (int i = 0; i < length; i++) {
+            node = node.child(key.charAt(i), true);
+            node.devices.add(index);
+        }
+    }
+
+    private static void remove(Node root, String key, int index) {
+        Node node = root;
+        int length = Math.min(key.length(), MAX_PREFIX_LENGTH);
+        for (int i = 0; i < length && node != null; i++) {
+            node = node.child(key.charAt(i), false);
+            if (node != null) {
+                node.devices.remove(index);
+            }
+        }
+    }
+
+    /**
+     * Gets the devices whose key starts with a prefix, or with its indexed part if longer.
+     *
+     * @param root   the root of the trie.
+     * @param prefix the prefix, not empty.
+     * @return the devices, not to be modified.
+     */
+    private static IndexList find(Node root, String prefix) {
+        Node node = root;
+        int length = Math.min(prefix.length(), MAX_PREFIX_LENGTH);
+        for (int i = 0; i < length; i++) {
+            node = node.child(prefix.charAt(i), false);
+            if (node == null) {
+                return new IndexList();
+            }
+        }
+        return node.devices;
+    }
+
+    private IndexList allDevices() {
+        IndexList devices = new IndexList();
+        devices.values = new int[Math.max(1, size)];
+        for (int i = 0; i < size; i++) {
+            devices.values[i] = i;
+        }
+        devices.size = size;
+        return devices;
+    }
+
+    private IndexList filterByName(IndexList devices, String namePrefix) {
+        IndexList filtered = new IndexList();
+        for (int i = 0; i < devices.size; i++) {
+            int index = devices.values[i];
+            if (names[index].startsWith(namePrefix)) {
+                filtered.add(index);
+            }
+        }
+        return filtered;
+    }
+
+    private IndexList filterByBucket(IndexList devices, int classBucket) {
+        IndexList filtered = new IndexList();
+        for (int i = 0; i < devices.size; i++) {
+            int index = devices.values[i];
+            if (classBuckets[index] == classBucket) {
+                filtered.add(index);
+            }
+        }
+        return filtered;
+    }
+
+    /**
+     * Merges two sorted lists of devices.
+     */
+    private static IndexList union(IndexList first, IndexList second) {
+        if (second.size == 0) {
+            return first;
+        }
+        if (first.size == 0) {
+            return second;
+        }
+        IndexList union = new IndexList();
+        union.values = new int[first.size + second.size];
+        int i = 0;
+        int j = 0;
+        while (i < first.size || j < second.size) {
+            int value;
+            if (j == second.size || (i < first.size && first.values[i] < second.values[j])) {
+                value = first.values[i++];
+            } else if (i == first.size || second.values[j] < first.values[i]) {
+                value = second.values[j++];
+            } else {
+                value = first.values[i++];
+                j++;
+            }
+            union.values[union.size++] = value;
+        }
+        return union;
+    }
+
+    private static int bucketOf(int deviceClass) {
+        return deviceClass == DeviceRegistry.UNKNOWN_CLASS
+                ? UNKNOWN_CLASS_BUCKET : (deviceClass & MAJOR_CLASS_MASK) >> 8;
+    }
+
+    private static String normalize(String text) {
+        return text == null || text.isEmpty() ? null : text.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Gets the hexadecimal digits of a text typed as the beginning of an address.
+     *
+     * @param text the text, in lower case.
+     * @return the digits, or null if the text can't be an address.
+     */
+    private static String toAddressPrefix(String text) {
+        StringBuilder digits = new StringBuilder(ADDRESS_DIGITS);
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if ((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f')) {
+                if (digits.length() == ADDRESS_DIGITS) {
+                    return null;
+                }
+                digits.append(c);
+            } else if (c != ':' && c != '-') {
+                return null;
+            }
+        }
+        return digits.length() > 0 ? digits.toString() : null;
+    }
+
+    /**
+     * Formats a packed address as its 12 lower case hexadecimal digits.
+     */
+    private static String toHex(long address) {
+        char[] digits = new char[ADDRESS_DIGITS];
+        for (int i = ADDRESS_DIGITS - 1; i >= 0; i--) {
+            digits[i] = Character.forDigit((int) (address & 0xF), 16);
+            address >>>= 4;
+        }
+        return new String(digits);
+    }
+}
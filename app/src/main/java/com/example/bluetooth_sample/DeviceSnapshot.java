@@ -0,0 +1,111 @@
+package com.example.bluetooth_sample;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+
+/**
+ * Immutable view of a device as it was when last recorded, built from the extras of the
+ * discovery broadcast.
+ * <p>
+ * Unlike the getters of {@link BluetoothDevice}, which may each be a call to the Bluetooth
+ * service, reading a snapshot never leaves the process, so the rows of the device list can be
+ * bound and clicked without any IPC.
+ */
+public final class DeviceSnapshot {
+
+    private final long address;
+    private final String name;
+    private final int deviceClass;
+    private final int bondState;
+    private final short rssi;
+
+    /**
+     * The device object, used for pairing. Null for the devices restored from the discovery cache
+     * and not seen since, or reported by a backend without device objects.
+     */
+    private final BluetoothDevice device;
+
+    /**
+     * Creates a snapshot.
+     *
+     * @param address     the packed address of the device.
+     * @param device      the device object, or null if not available.
+     * @param name        the name advertised by the device, or null if not available.
+     * @param deviceClass the Bluetooth class of the device, or {@link DeviceRegistry#UNKNOWN_CLASS}.
+     * @param bondState   the bond state of the device, one of the {@code BluetoothDevice.BOND_*}.
+     * @param rssi        the signal strength of the device, or {@link DeviceRegistry#UNKNOWN_RSSI}.
+     */
+    public DeviceSnapshot(long address, BluetoothDevice device, String name, int deviceClass, int bondState, short rssi) {
+        this.address = address;
+        this.device = device;
+        this.name = name;
+        this.deviceClass = deviceClass;
+        this.bondState = bondState;
+        this.rssi = rssi;
+    }
+
+    /**
+     * Creates a copy of this snapshot with another bond state.
+     *
+     * @param bondState the bond state of the device, one of the {@code BluetoothDevice.BOND_*}.
+     * @return this snapshot if the bond state is unchanged, a copy otherwise.
+     */
+    public DeviceSnapshot withBondState(int bondState) {
+        if (bondState == this.bondState) {
+            return this;
+        }
+        return new DeviceSnapshot(address, device, name, deviceClass, bondState, rssi);
+    }
+
+    public long getAddress() {
+        return address;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the name to show for the device.
+     *
+     * @return the name of the device, or its address if the name is not available.
+     */
+    public String getDisplayName() {
+        return name != null ? name : MacAddress.toString(address);
+    }
+
+    public int getDeviceClass() {
+        return deviceClass;
+    }
+
+    public int getBondState() {
+        return bondState;
+    }
+
+    public boolean isBonded() {
+        return bondState == BluetoothDevice.BOND_BONDED;
+    }
+
+    public short getRssi() {
+        return rssi;
+    }
+
+    /**
+     * Gets the device object, needed to pair or connect with the device.
+     *
+     * @param adapter the adapter creating the device object when the snapshot has none.
+     * @return the device.
+     */
+    public BluetoothDevice getDevice(BluetoothAdapter adapter) {
+        if (device != null) {
+            return device;
+        }
+        // Restored from the discovery cache and not seen yet, only the address is known.
+        return adapter.getRemoteDevice(MacAddress.toString(address));
+    }
+
+    @Override
+    public String toString() {
+        return "[Address: " + MacAddress.toString(address) + ", Name: " + name + "]";
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.bluetooth_sample;
+
+import android.os.Bundle;
+import android.util.Log;
+import android.view.View;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+
+import androidx.appcompat.app.AppCompatActivity;
+
+/**
+ * Shows the {@link BluetoothMetrics} of the process, and exports them as a snapshot file.
+ */
+public class DiagnosticsActivity extends AppCompatActivity implements View.OnClickListener {
+
+    private static final String TAG = "DiagnosticsActivity";
+
+    /**
+     * Directory of the snapshots, in the external files of the app so that they can be pulled
+     * without root.
+     */
+    private static final String SNAPSHOT_DIRECTORY = "diagnostics";
+
+    private TextView diagnosticsView;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_diagnostics);
+        diagnosticsView = (TextView) findViewById(R.id.tvDiagnostics);
+        findViewById(R.id.diagnostics_reset_button).setOnClickListener(this);
+        findViewById(R.id.diagnostics_export_button).setOnClickListener(this);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        refresh();
+    }
+
+    @Override
+    public void onClick(View view) {
+        switch (view.getId()) {
+            case R.id.diagnostics_reset_button:
+                BluetoothMetrics.get().reset();
+                refresh();
+                break;
+            case R.id.diagnostics_export_button:
+                exportSnapshot();
+                break;
+        }
+    }
+
+    /**
+     * Shows the current metrics.
+     */
+    private void refresh() {
+        StringWriter writer = new StringWriter();
+        try {
+            BluetoothMetrics.get().writeSnapshot(writer);
+        } catch (IOException e) {
+            // Can't happen with a StringWriter.
+        }
+        diagnosticsView.setText(writer.toString());
+    }
+
+    /**
+     * Writes the current metrics, followed by the event trace if compiled in, to a new file.
+     */
+    private void exportSnapshot() {
+        File directory = getExternalFilesDir(SNAPSHOT_DIRECTORY);
+        if (directory == null) {
+            // The external storage is not mounted.
+            directory = new File(getFilesDir(), SNAPSHOT_DIRECTORY);
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Toast.makeText(this, R.string.diagnostics_export_failed, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        File file = new File(directory, "snapshot-" + System.currentTimeMillis() + ".txt");
+        try (Writer writer = new BufferedWriter(new FileWriter(file))) {
+            BluetoothMetrics.get().writeSnapshot(writer);
+            if (EventTrace.ENABLED) {
+                writer.write("\n# Event trace\n");
+                EventTrace.dump(writer);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to export the diagnostics.", e);
+            Toast.makeText(this, R.string.diagnostics_export_failed, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        Toast.makeText(this, getString(R.string.diagnostics_exported, file.getAbsolutePath()), Toast.LENGTH_LONG).show();
+    }
+}
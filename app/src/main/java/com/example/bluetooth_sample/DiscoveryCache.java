@@ -0,0 +1,353 @@
+package com.example.bluetooth_sample;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * On disk cache of the recently seen devices, so that the device list can be shown at startup
+ * without waiting for the first discovery result.
+ * <p>
+ * The file is a compact binary sequence of records (address, class, RSSI, last seen time and
+ * name), memory mapped when read. Entries older than {@link #maxAgeMillis} are dropped, and only
+ * the {@link #maxEntries} most recently seen devices are written. The file is read and written on
+ * a background thread, the registry is only used on the UI thread.
+ */
+public class DiscoveryCache {
+
+    /**
+     * Tag string used for logging.
+     */
+    private static final String TAG = "DiscoveryCache";
+
+    /**
+     * First int of the file.
+     */
+    private static final int FILE_MAGIC = 0x42544443;
+
+    /**
+     * Version of the file format.
+     */
+    private static final int FILE_VERSION = 1;
+
+    /**
+     * Size of the header: magic, version and count.
+     */
+    private static final int HEADER_SIZE = 12;
+
+    /**
+     * Size of a record without its name: address, class, RSSI, last seen and name length.
+     */
+    private static final int RECORD_FIXED_SIZE = 8 + 4 + 2 + 8 + 2;
+
+    /**
+     * Default age after which a device is dropped from the cache: one week.
+     */
+    public static final long DEFAULT_MAX_AGE_MILLIS = 7L * 24 * 60 * 60 * 1000;
+
+    /**
+     * Default maximum number of devices in the cache.
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 1000;
+
+    /**
+     * Encoding of the device names.
+     */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * The file where the cache is persisted.
+     */
+    private final File file;
+
+    /**
+     * Age after which a device is dropped from the cache, in milliseconds.
+     */
+    private final long maxAgeMillis;
+
+    /**
+     * Maximum number of devices written to the cache.
+     */
+    private final int maxEntries;
+
+    /**
+     * Thread reading and writing the cache file.
+     */
+    private final ExecutorService writer = Executors.newSingleThreadExecutor();
+
+    /**
+     * True from {@link #loadInto(DeviceRegistry, Executor, ProgressListener)} until the devices
+     * are restored. Only used on the UI thread.
+     */
+    private boolean loading;
+
+    /**
+     * True once closed, the registry is no longer saved. Only used on the UI thread.
+     */
+    private boolean closed;
+
+    /**
+     * The devices read from the file, before being restored.
+     */
+    private static final class Entries {
+        int count;
+        long[] addresses = new long[16];
+        String[] names = new String[16];
+        int[] deviceClasses = new int[16];
+        short[] rssis = new short[16];
+        long[] lastSeen = new long[16];
+
+        void add(long address, String name, int deviceClass, short rssi, long seen) {
+            if (count == addresses.length) {
+                int capacity = count << 1;
+                addresses = Arrays.copyOf(addresses, capacity);
+                names = Arrays.copyOf(names, capacity);
+                deviceClasses = Arrays.copyOf(deviceClasses, capacity);
+                rssis = Arrays.copyOf(rssis, capacity);
+                lastSeen = Arrays.copyOf(lastSeen, capacity);
+            }
+            addresses[count] = address;
+            names[count] = name;
+            deviceClasses[count] = deviceClass;
+            rssis[count] = rssi;
+            lastSeen[count] = seen;
+            count++;
+        }
+    }
+
+    /**
+     * Instantiates a new DiscoveryCache with the default aging policy.
+     *
+     * @param file the file where the cache is persisted.
+     */
+    public DiscoveryCache(File file) {
+        this(file, DEFAULT_MAX_AGE_MILLIS, DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * Instantiates a new DiscoveryCache.
+     *
+     * @param file         the file where the cache is persisted.
+     * @param maxAgeMillis the age after which a device is dropped from the cache.
+     * @param maxEntries   the maximum number of devices written to the cache.
+     */
+    public DiscoveryCache(File file, long maxAgeMillis, int maxEntries) {
+        this.file = file;
+        this.maxAgeMillis = maxAgeMillis;
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Restores the cached devices which are not stale into a registry. The file is read in the
+     * background, then the devices are restored on the UI thread, except the ones seen again in
+     * the meantime, and the listener is notified once. Until then, {@link #save(DeviceRegistry)}
+     * keeps the file as it is.
+     *
+     * @param registry         the registry to fill.
+     * @param callbackExecutor the executor of the UI thread, restoring the devices.
+     * @param listener         the callback notified once the devices are restored.
+     */
+    public void loadInto(final DeviceRegistry registry, final Executor callbackExecutor,
+                         final ProgressListener listener) {
+        loading = true;
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Entries entries = read();
+                callbackExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        loading = false;
+                        int restored = 0;
+                        for (int i = 0; i < entries.count; i++) {
+                            if (registry.indexOf(entries.addresses[i]) == LongIntHashMap.NO_VALUE) {
+                                registry.restore(entries.addresses[i], entries.names[i],
+                                        entries.deviceClasses[i], entries.rssis[i], entries.lastSeen[i]);
+                                restored++;
+                            }
+                        }
+                        listener.devicesRestored(restored);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Reads the cached devices which are not stale. Runs on the {@link #writer} thread.
+     *
+     * @return the devices, none if the file is missing or unreadable.
+     */
+    private Entries read() {
+        long oldest = System.currentTimeMillis() - maxAgeMillis;
+        Entries entries = new Entries();
+        try (FileInputStream in = new FileInputStream(file)) {
+            FileChannel channel = in.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != FILE_MAGIC
+                    || buffer.getInt() != FILE_VERSION) {
+                return entries;
+            }
+            int count = buffer.getInt();
+            byte[] nameBytes = new byte[64];
+            for (int i = 0; i < count; i++) {
+                long address = buffer.getLong();
+                int deviceClass = buffer.getInt();
+                short rssi = buffer.getShort();
+                long lastSeen = buffer.getLong();
+                int nameLength = buffer.getShort();
+                String name = null;
+                if (nameLength >= 0) {
+                    if (nameLength > nameBytes.length) {
+                        nameBytes = new byte[nameLength];
+                    }
+                    buffer.get(nameBytes, 0, nameLength);
+                    name = new String(nameBytes, 0, nameLength, UTF_8);
+                }
+                if (lastSeen >= oldest) {
+                    entries.add(address, name, deviceClass, rssi, lastSeen);
+                }
+            }
+        } catch (FileNotFoundException e) {
+            // First launch, nothing cached yet.
+        } catch (IOException | BufferUnderflowException e) {
+            Log.w(TAG, "Unable to read " + file, e);
+        }
+        return entries;
+    }
+
+    /**
+     * Writes the most recently seen devices of a registry to disk, in the background. Must be
+     * called from the UI thread, since it reads the registry.
+     *
+     * @param registry the registry to save.
+     */
+    public void save(DeviceRegistry registry) {
+        if (loading || closed) {
+            // The file still holds devices which are not restored yet.
+            return;
+        }
+        // Copies what's needed, the registry can't be read from another thread.
+        final int size = registry.size();
+        final long[] addresses = new long[size];
+        final String[] names = new String[size];
+        final int[] deviceClasses = new int[size];
+        final short[] rssis = new short[size];
+        final long[] lastSeen = new long[size];
+        for (int i = 0; i < size; i++) {
+            addresses[i] = registry.getAddress(i);
+            names[i] = registry.getName(i);
+            deviceClasses[i] = registry.getDeviceClass(i);
+            rssis[i] = registry.getRssi(i);
+            lastSeen[i] = registry.getLastSeen(i);
+        }
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                write(size, addresses, names, deviceClasses, rssis, lastSeen);
+            }
+        });
+    }
+
+    /**
+     * Stops the thread of the cache, once the pending reads and writes are done. The registry is
+     * no longer saved afterwards. Must be called from the UI thread.
+     */
+    public void close() {
+        closed = true;
+        writer.shutdown();
+    }
+
+    /**
+     * Writes the cache file. Runs on the {@link #writer} thread.
+     */
+    private void write(int size, long[] addresses, String[] names, int[] deviceClasses, short[] rssis, long[] lastSeen) {
+        // Keeps the most recent entries which are not stale.
+        long oldest = System.currentTimeMillis() - maxAgeMillis;
+        int[] order = selectRecent(size, lastSeen, oldest);
+
+        byte[][] encodedNames = new byte[order.length][];
+        int fileSize = HEADER_SIZE;
+        for (int i = 0; i < order.length; i++) {
+            String name = names[order[i]];
+            encodedNames[i] = name != null ? name.getBytes(UTF_8) : null;
+            fileSize += RECORD_FIXED_SIZE + (name != null ? encodedNames[i].length : 0);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(fileSize);
+        buffer.putInt(FILE_MAGIC).putInt(FILE_VERSION).putInt(order.length);
+        for (int i = 0; i < order.length; i++) {
+            int index = order[i];
+            buffer.putLong(addresses[index])
+                    .putInt(deviceClasses[index])
+                    .putShort(rssis[index])
+                    .putLong(lastSeen[index]);
+            if (encodedNames[i] != null) {
+                buffer.putShort((short) encodedNames[i].length).put(encodedNames[i]);
+            } else {
+                buffer.putShort((short) -1);
+            }
+        }
+        buffer.flip();
+
+        // Writes to a temporary file first, so a crash can't leave a truncated cache.
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            FileChannel channel = out.getChannel();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to write " + tmp, e);
+            return;
+        }
+        if (!tmp.renameTo(file)) {
+            Log.w(TAG, "Unable to replace " + file);
+        }
+    }
+
+    /**
+     * Selects the indexes of the entries to write: the {@link #maxEntries} most recently seen,
+     * among the ones seen after a given time.
+     *
+     * @param size     the number of entries.
+     * @param lastSeen the last seen time of each entry.
+     * @param oldest   the oldest last seen time kept.
+     * @return the selected indexes, in their original order.
+     */
+    private int[] selectRecent(int size, long[] lastSeen, long oldest) {
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (lastSeen[i] >= oldest) {
+                count++;
+            }
+        }
+        long cutoff = oldest;
+        if (count > maxEntries) {
+            long[] sorted = Arrays.copyOf(lastSeen, size);
+            Arrays.sort(sorted);
+            cutoff = Math.max(oldest, sorted[size - maxEntries]);
+        }
+        int[] selected = new int[Math.min(count, maxEntries)];
+        int selectedCount = 0;
+        for (int i = 0; i < size && selectedCount < selected.length; i++) {
+            if (lastSeen[i] >= cutoff) {
+                selected[selectedCount++] = i;
+            }
+        }
+        return selected;
+    }
+}
@@ -0,0 +1,17 @@
+package com.example.bluetooth_sample;
+
+/**
+ * How the devices nearby are discovered.
+ */
+public enum DiscoveryMode {
+
+    /**
+     * Classic inquiry: finds the BR/EDR devices, about 12 seconds per run.
+     */
+    CLASSIC,
+
+    /**
+     * Bluetooth Low Energy scan: finds the advertising peripherals, available from Android 5.0.
+     */
+    LE
+}
@@ -0,0 +1,358 @@
+package com.example.bluetooth_sample;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Keeps discovering the devices nearby by repeating scan windows separated by idle periods, so
+ * that the radio stays available for the other connections.
+ * <p>
+ * The idle period adapts to the activity around: it doubles, up to a maximum, after each window
+ * which found no new device, and drops back to its minimum as soon as a window finds one. The
+ * scheduling pauses while a pairing is in progress, since a running inquiry slows the bonding
+ * down, and resumes once the pairings are done. A window which can't start, the Bluetooth being
+ * off, is retried after the longest idle period, the error being only shown for the first one.
+ * <p>
+ * Each window is a discovery of the {@link BluetoothHelper}, in its current
+ * {@link DiscoveryMode}. This class is not Thread Safe, it must only be used from the UI thread.
+ */
+public class DiscoveryScheduler {
+
+    /**
+     * Runs the discoveries of the windows.
+     */
+    public interface Scanner {
+
+        /**
+         * Checks if a discovery is running.
+         *
+         * @return true if a discovery is running.
+         */
+        boolean isDiscovering();
+
+        /**
+         * Starts a discovery.
+         *
+         * @param showError true to tell the user if the discovery could not be started.
+         * @return false if the discovery could not be started.
+         */
+        boolean startDiscovery(boolean showError);
+
+        /**
+         * Cancels the running discovery, notifying its end.
+         */
+        void cancelDiscovery();
+    }
+
+    /**
+     * Tag string used for logging.
+     */
+    private static final String TAG = "DiscoveryScheduler";
+
+    /**
+     * Default duration of a scan window, the one of a classic inquiry.
+     */
+    public static final long DEFAULT_SCAN_WINDOW_MILLIS = 12000;
+
+    /**
+     * Default idle period after a window which found new devices.
+     */
+    public static final long DEFAULT_MIN_IDLE_MILLIS = 5000;
+
+    /**
+     * Default longest idle period, reached after several windows without new devices.
+     */
+    public static final long DEFAULT_MAX_IDLE_MILLIS = 120000;
+
+    /**
+     * Default factor applied to the idle period after a window without new devices.
+     */
+    public static final float DEFAULT_BACKOFF_MULTIPLIER = 2f;
+
+    /**
+     * The controller running the discoveries.
+     */
+    private final Scanner scanner;
+
+    /**
+     * Registry of the devices found, telling if a window found new devices.
+     */
+    private final DeviceRegistry deviceRegistry;
+
+    /**
+     * Timers of the UI thread.
+     */
+    private final Timers timers;
+
+    private long scanWindowMillis = DEFAULT_SCAN_WINDOW_MILLIS;
+    private long minIdleMillis = DEFAULT_MIN_IDLE_MILLIS;
+    private long maxIdleMillis = DEFAULT_MAX_IDLE_MILLIS;
+    private float backoffMultiplier = DEFAULT_BACKOFF_MULTIPLIER;
+
+    /**
+     * True between {@link #start()} and {@link #stop()}.
+     */
+    private boolean running;
+
+    /**
+     * True while a pairing is in progress.
+     */
+    private boolean paused;
+
+    /**
+     * True while a scan window started by this scheduler is running.
+     */
+    private boolean windowOpen;
+
+    /**
+     * True once a window could not start, until one does.
+     */
+    private boolean startFailed;
+
+    /**
+     * Number of devices in the registry when the running window started.
+     */
+    private int windowStartDeviceCount;
+
+    /**
+     * Idle period before the next window.
+     */
+    private long idleMillis = DEFAULT_MIN_IDLE_MILLIS;
+
+    private int windowCount;
+    private long scanningMillis;
+    private long firstWindowStartedAt;
+    private long windowStartedAt;
+
+    /**
+     * Starts the next scan window.
+     */
+    private final Runnable startWindowTask = new Runnable() {
+        @Override
+        public void run() {
+            startWindow();
+        }
+    };
+
+    /**
+     * Ends the running scan window once its duration has elapsed.
+     */
+    private final Runnable endWindowTask = new Runnable() {
+        @Override
+        public void run() {
+            if (windowOpen) {
+                // The end of the discovery is notified to onDiscoveryFinished().
+                scanner.cancelDiscovery();
+            }
+        }
+    };
+
+    /**
+     * Instantiates a new DiscoveryScheduler.
+     *
+     * @param scanner        the controller running the discoveries.
+     * @param deviceRegistry the registry where the devices found are recorded.
+     * @param timers         the timers of the UI thread.
+     */
+    public DiscoveryScheduler(Scanner scanner, DeviceRegistry deviceRegistry, Timers timers) {
+        this.scanner = scanner;
+        this.deviceRegistry = deviceRegistry;
+        this.timers = timers;
+    }
+
+    /**
+     * Sets the longest duration of the scan windows. A discovery also ends on its own, after
+     * about 12 seconds for a classic inquiry or after the duration of the LE scan settings.
+     *
+     * @param scanWindowMillis the duration of a window.
+     */
+    public void setScanWindowMillis(long scanWindowMillis) {
+        this.scanWindowMillis = scanWindowMillis;
+    }
+
+    /**
+     * Sets the bounds of the idle period between two windows. Together with the scan window,
+     * the minimum sets the highest duty cycle.
+     *
+     * @param minIdleMillis the idle period after a window which found new devices.
+     * @param maxIdleMillis the longest idle period, after windows without new devices.
+     */
+    public void setIdleMillis(long minIdleMillis, long maxIdleMillis) {
+        if (minIdleMillis < 0 || maxIdleMillis < minIdleMillis) {
+            throw new IllegalArgumentException("Invalid idle periods: " + minIdleMillis + ", " + maxIdleMillis);
+        }
+        this.minIdleMillis = minIdleMillis;
+        this.maxIdleMillis = maxIdleMillis;
+        this.idleMillis = Math.max(minIdleMillis, Math.min(idleMillis, maxIdleMillis));
+    }
+
+    /**
+     * Sets how fast the idle period grows after the windows without new devices.
+     *
+     * @param backoffMultiplier the factor applied to the idle period, at least 1.
+     */
+    public void setBackoffMultiplier(float backoffMultiplier) {
+        if (backoffMultiplier < 1) {
+            throw new IllegalArgumentException("Invalid multiplier: " + backoffMultiplier);
+        }
+        this.backoffMultiplier = backoffMultiplier;
+    }
+
+    /**
+     * Starts the scan windows, the first one right away.
+     */
+    public void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        idleMillis = minIdleMillis;
+        startFailed = false;
+        if (!paused) {
+            startWindow();
+        }
+    }
+
+    /**
+     * Stops the scan windows, ending the running one.
+     */
+    public void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        cancelTimers();
+        if (windowOpen) {
+            closeWindow();
+            scanner.cancelDiscovery();
+        }
+    }
+
+    /**
+     * Checks if the scan windows are running.
+     *
+     * @return true between {@link #start()} and {@link #stop()}, even while paused.
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Called when a pairing starts. Pauses the windows, ending the running one.
+     */
+    public void onPairingStarted() {
+        if (paused) {
+            return;
+        }
+        paused = true;
+        cancelTimers();
+        if (windowOpen) {
+            // The discovery itself has already been cancelled for the pairing.
+            closeWindow();
+        }
+    }
+
+    /**
+     * Called when every pairing is done. Resumes the windows after the shortest idle period.
+     */
+    public void onPairingsFinished() {
+        if (!paused) {
+            return;
+        }
+        paused = false;
+        if (running) {
+            idleMillis = minIdleMillis;
+            timers.postDelayed(startWindowTask, idleMillis);
+        }
+    }
+
+    /**
+     * Called when a discovery ended, on its own, cancelled or because the Bluetooth turned off.
+     * Schedules the next window.
+     */
+    public void onDiscoveryFinished() {
+        if (!windowOpen) {
+            // Not one of the windows of this scheduler.
+            return;
+        }
+        closeWindow();
+        timers.removeCallbacks(endWindowTask);
+        int newDeviceCount = deviceRegistry.size() - windowStartDeviceCount;
+        if (newDeviceCount > 0) {
+            idleMillis = minIdleMillis;
+        } else {
+            idleMillis = Math.min((long) (idleMillis * backoffMultiplier), maxIdleMillis);
+        }
+        Log.d(TAG, "Window " + windowCount + " found " + newDeviceCount + " new devices, next one in "
+                + idleMillis + " ms (duty cycle " + getDutyCycle() + ").");
+        if (running && !paused) {
+            timers.postDelayed(startWindowTask, idleMillis);
+        }
+    }
+
+    /**
+     * Gets the idle period before the next window.
+     *
+     * @return the idle period in milliseconds.
+     */
+    public long getIdleMillis() {
+        return idleMillis;
+    }
+
+    /**
+     * Gets the fraction of the time spent scanning since the first window.
+     *
+     * @return the duty cycle, between 0 and 1.
+     */
+    public float getDutyCycle() {
+        long elapsed = SystemClock.elapsedRealtime() - firstWindowStartedAt;
+        return windowCount > 0 && elapsed > 0 ? Math.min(1f, (float) scanningMillis / elapsed) : 0;
+    }
+
+    /**
+     * Starts a scan window, unless a discovery is already running.
+     */
+    private void startWindow() {
+        if (!running || paused || windowOpen) {
+            return;
+        }
+        if (scanner.isDiscovering()) {
+            // Started by the user, waits for its end and retries.
+            timers.postDelayed(startWindowTask, minIdleMillis);
+            return;
+        }
+        windowStartDeviceCount = deviceRegistry.size();
+        windowStartedAt = SystemClock.elapsedRealtime();
+        if (windowCount == 0) {
+            firstWindowStartedAt = windowStartedAt;
+        }
+        windowOpen = true;
+        windowCount++;
+        if (!scanner.startDiscovery(!startFailed)) {
+            // Probably the Bluetooth is off, retries less often, without telling it again.
+            startFailed = true;
+            closeWindow();
+            idleMillis = maxIdleMillis;
+            timers.postDelayed(startWindowTask, idleMillis);
+            return;
+        }
+        startFailed = false;
+        timers.postDelayed(endWindowTask, scanWindowMillis);
+    }
+
+    /**
+     * Accounts for the end of the running window.
+     */
+    private void closeWindow() {
+        windowOpen = false;
+        scanningMillis += SystemClock.elapsedRealtime() - windowStartedAt;
+    }
+
+    /**
+     * Cancels the pending window start and end.
+     */
+    private void cancelTimers() {
+        timers.removeCallbacks(startWindowTask);
+        timers.removeCallbacks(endWindowTask);
+    }
+}
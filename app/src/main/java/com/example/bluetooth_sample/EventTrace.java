@@ -0,0 +1,143 @@
+package com.example.bluetooth_sample;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Structured tracing of the Bluetooth events, replacing the log messages on the hot paths.
+ * <p>
+ * Each event is recorded as a few primitives (event type, packed device address, an int value
+ * and a timestamp) into preallocated ring buffers, so recording never allocates nor formats
+ * anything. Formatting only happens when the buffer is dumped. The oldest events are overwritten
+ * once the buffer is full.
+ * <p>
+ * Call sites should be guarded by {@link #ENABLED}: it's a compile time constant, false in the
+ * release build, so the whole tracing code is compiled out there.
+ * <p>
+ * Recording is Thread Safe. A dump running while events are recorded may show a few torn
+ * entries, which is acceptable for diagnostics.
+ */
+public final class EventTrace {
+
+    /**
+     * True if tracing is compiled in, see the EVENT_TRACE field of the build types.
+     */
+    public static final boolean ENABLED = BuildConfig.EVENT_TRACE;
+
+    public static final int BROADCAST_RECEIVED = 1;
+    public static final int DEVICE_FOUND = 2;
+    public static final int DISCOVERY_STARTED = 3;
+    public static final int DISCOVERY_FINISHED = 4;
+    public static final int ADAPTER_STATE_CHANGED = 5;
+    public static final int BOND_STATE_CHANGED = 6;
+    public static final int UUIDS_FETCHED = 7;
+    public static final int PAIRING_REQUESTED = 8;
+    public static final int BOND_STARTED = 9;
+    public static final int PAIRING_FINISHED = 10;
+    public static final int PAIRING_TIMED_OUT = 11;
+    public static final int ITEM_CLICKED = 12;
+    public static final int LE_SCAN_BATCH = 13;
+
+    /**
+     * Names of the events, indexed by event type.
+     */
+    private static final String[] EVENT_NAMES = {
+            "?", "BROADCAST_RECEIVED", "DEVICE_FOUND", "DISCOVERY_STARTED", "DISCOVERY_FINISHED",
+            "ADAPTER_STATE_CHANGED", "BOND_STATE_CHANGED", "UUIDS_FETCHED", "PAIRING_REQUESTED",
+            "BOND_STARTED", "PAIRING_FINISHED", "PAIRING_TIMED_OUT", "ITEM_CLICKED",
+            "LE_SCAN_BATCH"
+    };
+
+    /**
+     * Number of events kept, a power of two.
+     */
+    private static final int CAPACITY = ENABLED ? 4096 : 1;
+
+    private static final int[] events = new int[CAPACITY];
+    private static final long[] addresses = new long[CAPACITY];
+    private static final int[] values = new int[CAPACITY];
+    private static final long[] timestamps = new long[CAPACITY];
+
+    /**
+     * Sequence number of the next event.
+     */
+    private static final AtomicLong sequence = new AtomicLong();
+
+    private EventTrace() {
+    }
+
+    /**
+     * Records an event.
+     *
+     * @param event   the type of the event.
+     * @param address the packed address of the device, or 0 if not relevant.
+     * @param value   a value depending on the event, for example a state or an RSSI.
+     */
+    public static void record(int event, long address, int value) {
+        if (!ENABLED) {
+            return;
+        }
+        int slot = (int) (sequence.getAndIncrement() & (CAPACITY - 1));
+        events[slot] = event;
+        addresses[slot] = address;
+        values[slot] = value;
+        timestamps[slot] = System.nanoTime();
+    }
+
+    /**
+     * Records an event for a device given by its textual address.
+     *
+     * @param event   the type of the event.
+     * @param address the address of the device, may be null.
+     * @param value   a value depending on the event.
+     */
+    public static void record(int event, String address, int value) {
+        if (!ENABLED) {
+            return;
+        }
+        record(event, address != null ? MacAddress.toKey(address) : 0, value);
+    }
+
+    /**
+     * Writes the recorded events, oldest first, one per line.
+     *
+     * @param writer the writer to write to.
+     * @throws IOException if the writer fails.
+     */
+    public static void dump(Writer writer) throws IOException {
+        if (!ENABLED) {
+            return;
+        }
+        long end = sequence.get();
+        long start = Math.max(0, end - CAPACITY);
+        for (long i = start; i < end; i++) {
+            int slot = (int) (i & (CAPACITY - 1));
+            int event = events[slot];
+            writer.write(timestamps[slot] / 1000 + "us " + (event < EVENT_NAMES.length ? EVENT_NAMES[event] : "?")
+                    + (addresses[slot] != 0 ? " " + MacAddress.toString(addresses[slot]) : "")
+                    + " " + values[slot] + "\n");
+        }
+    }
+
+    /**
+     * Writes the recorded events to the log.
+     *
+     * @param tag the tag of the log messages.
+     */
+    public static void dumpToLog(String tag) {
+        if (!ENABLED) {
+            return;
+        }
+        StringWriter writer = new StringWriter();
+        try {
+            dump(writer);
+        } catch (IOException e) {
+            // Can't happen with a StringWriter.
+        }
+        Log.d(tag, writer.toString());
+    }
+}
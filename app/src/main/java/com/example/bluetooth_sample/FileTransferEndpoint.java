@@ -0,0 +1,667 @@
+package com.example.bluetooth_sample;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends and receives files over an {@link RfcommConnection}, in chunks, with a sliding window
+ * of chunks in flight.
+ * <p>
+ * The sender offers a file, and the receiver answers with the offset to start from: the length
+ * of the partial file kept from a previous attempt, so a transfer interrupted by a dropped link
+ * resumes where it stopped once the file is offered again on a new connection. Each chunk
+ * carries its offset and its CRC-32. The receiver writes the chunks in order and acknowledges
+ * the written offset every half window; a chunk with a bad CRC, or out of order, is answered
+ * with a negative acknowledgement and the sender goes back to the last offset written.
+ * <p>
+ * The files are sent from memory mappings, so the chunks are copied once, from the page cache
+ * to the buffers of the connection. The received chunks are written from the buffer of the
+ * connection. A received file is kept with a {@link #PART_SUFFIX} name until complete.
+ * <p>
+ * Messages are handled on the reader thread of the connection. This class is Thread Safe, but
+ * {@link #sendFile(File, long)} blocks, so it must be called from a background thread.
+ */
+public class FileTransferEndpoint implements RfcommConnection.Listener {
+
+    /**
+     * Callback for the transfers, called on the reader thread of the connection, and for the
+     * progress of the files sent, on the thread sending them.
+     */
+    public interface Listener {
+
+        /**
+         * Called when a transfer progressed.
+         *
+         * @param name        the name of the file.
+         * @param transferred the number of bytes written by the receiver.
+         * @param size        the size of the file.
+         * @param incoming    true if the file is received, false if it's sent.
+         */
+        void onTransferProgress(String name, long transferred, long size, boolean incoming);
+
+        /**
+         * Called when a file has been completely received.
+         *
+         * @param file the file, in the incoming directory.
+         */
+        void onFileReceived(File file);
+
+        /**
+         * Called when the connection ended. The partial files are kept for the next attempt.
+         *
+         * @param cause the failure, or null if closed locally or by the remote device.
+         */
+        void onClosed(IOException cause);
+    }
+
+    /**
+     * Tag string used for logging.
+     */
+    private static final String TAG = "FileTransferEndpoint";
+
+    /**
+     * Suffix of the files being received.
+     */
+    public static final String PART_SUFFIX = ".part";
+
+    /**
+     * Default size of the chunks, in bytes.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 16 * 1024;
+
+    /**
+     * Default number of chunks sent ahead of the acknowledgements.
+     */
+    public static final int DEFAULT_WINDOW = 8;
+
+    private static final byte MSG_OFFER = 1;
+    private static final byte MSG_ACCEPT = 2;
+    private static final byte MSG_CHUNK = 3;
+    private static final byte MSG_ACK = 4;
+    private static final byte MSG_NAK = 5;
+    private static final byte MSG_CANCEL = 6;
+
+    /**
+     * Size of the header of a chunk: type, transfer id, offset and CRC.
+     */
+    private static final int CHUNK_HEADER_SIZE = 1 + 4 + 8 + 4;
+
+    /**
+     * Size of an offer without the name: type, transfer id, size, modification time, window.
+     */
+    private static final int OFFER_HEADER_SIZE = 1 + 4 + 8 + 8 + 4 + 2;
+
+    /**
+     * Size of the acceptances and acknowledgements: type, transfer id and offset.
+     */
+    private static final int OFFSET_MESSAGE_SIZE = 1 + 4 + 8;
+
+    /**
+     * Size of the regions of the files sent mapped at once.
+     */
+    private static final long MAP_SEGMENT_SIZE = 8 * 1024 * 1024;
+
+    /**
+     * Longest time to wait for sending a message from the reader thread, in milliseconds.
+     */
+    private static final long CONTROL_TIMEOUT_MILLIS = 5000;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * A file being sent, updated by the reader thread and waited for by the sending thread.
+     */
+    private static final class Outgoing {
+        final String name;
+        final long size;
+
+        /**
+         * Offset from which the receiver accepted the file, -1 until accepted.
+         */
+        long acceptedOffset = -1;
+
+        /**
+         * Offset up to which the receiver has written the file.
+         */
+        long ackedOffset;
+
+        /**
+         * Offset the receiver asked to go back to, -1 if none.
+         */
+        long rewindOffset = -1;
+
+        IOException failure;
+
+        Outgoing(String name, long size) {
+            this.name = name;
+            this.size = size;
+        }
+
+        synchronized void onAccepted(long offset) {
+            acceptedOffset = offset;
+            ackedOffset = offset;
+            notifyAll();
+        }
+
+        synchronized void onAcknowledged(long offset) {
+            ackedOffset = Math.max(ackedOffset, offset);
+            notifyAll();
+        }
+
+        synchronized void onRejected(long offset) {
+            ackedOffset = Math.max(ackedOffset, offset);
+            rewindOffset = offset;
+            notifyAll();
+        }
+
+        synchronized void fail(IOException cause) {
+            if (failure == null) {
+                failure = cause;
+            }
+            notifyAll();
+        }
+
+        /**
+         * Waits for the file to be accepted.
+         *
+         * @param timeoutMillis the longest time to wait.
+         * @return the offset to start from.
+         * @throws IOException          if the transfer failed or timed out.
+         * @throws InterruptedException if the calling thread is interrupted while waiting.
+         */
+        synchronized long awaitAccepted(long timeoutMillis) throws IOException, InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            while (acceptedOffset < 0) {
+                checkFailure();
+                awaitUntil(deadline);
+            }
+            return acceptedOffset;
+        }
+
+        /**
+         * Waits for the window to have room for the chunk at an offset.
+         *
+         * @param offset        the offset of the next chunk.
+         * @param windowBytes   the size of the window, in bytes.
+         * @param timeoutMillis the longest time to wait for an acknowledgement.
+         * @return the offset of the chunk to send, earlier than the one given if the receiver
+         * asked to go back, or -1 once the whole file has been acknowledged.
+         * @throws IOException          if the transfer failed or timed out.
+         * @throws InterruptedException if the calling thread is interrupted while waiting.
+         */
+        synchronized long awaitWindow(long offset, long windowBytes, long timeoutMillis)
+                throws IOException, InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            while (true) {
+                checkFailure();
+                if (ackedOffset >= size) {
+                    return -1;
+                }
+                if (rewindOffset >= 0) {
+                    long rewound = rewindOffset;
+                    rewindOffset = -1;
+                    return rewound;
+                }
+                if (offset < size && offset - ackedOffset < windowBytes) {
+                    return offset;
+                }
+                awaitUntil(deadline);
+            }
+        }
+
+        private void checkFailure() throws IOException {
+            if (failure != null) {
+                throw new IOException("Transfer of " + name + " failed", failure);
+            }
+        }
+
+        private void awaitUntil(long deadline) throws IOException, InterruptedException {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                throw new IOException("Transfer of " + name + " timed out");
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+    }
+
+    /**
+     * A file being received, only accessed by the reader thread.
+     */
+    private static final class Incoming {
+        final String name;
+        final long size;
+        final File partFile;
+        final File file;
+        final RandomAccessFile output;
+
+        /**
+         * Acknowledgements are sent every time this many bytes have been written.
+         */
+        final long ackBytes;
+
+        /**
+         * Offset of the next chunk expected.
+         */
+        long offset;
+
+        long ackedOffset;
+
+        /**
+         * True once a chunk has been rejected, until a chunk is accepted: the chunks already in
+         * flight after the expected offset are dropped silently.
+         */
+        boolean rejecting;
+
+        Incoming(String name, long size, File partFile, File file, RandomAccessFile output, long ackBytes) {
+            this.name = name;
+            this.size = size;
+            this.partFile = partFile;
+            this.file = file;
+            this.output = output;
+            this.ackBytes = ackBytes;
+        }
+    }
+
+    private final RfcommConnection connection;
+    private final File incomingDirectory;
+    private final Listener listener;
+    private final int chunkSize;
+    private final int window;
+
+    private final AtomicInteger lastTransferId = new AtomicInteger();
+
+    /**
+     * The files being sent, by transfer id.
+     */
+    private final Map<Integer, Outgoing> outgoing = new ConcurrentHashMap<>();
+
+    /**
+     * The files being received, by transfer id of the remote device.
+     */
+    private final Map<Integer, Incoming> incoming = new HashMap<>();
+
+    private volatile long rejectedChunks;
+
+    /**
+     * Instantiates a new FileTransferEndpoint with the default chunk size and window.
+     *
+     * @param transport         the transport, not opened yet.
+     * @param incomingDirectory the directory where the files received are written.
+     * @param listener          the listener of the transfers.
+     */
+    public FileTransferEndpoint(RfcommTransport transport, File incomingDirectory, Listener listener) {
+        this(transport, incomingDirectory, listener, DEFAULT_CHUNK_SIZE, DEFAULT_WINDOW);
+    }
+
+    /**
+     * Instantiates a new FileTransferEndpoint.
+     *
+     * @param transport         the transport, not opened yet.
+     * @param incomingDirectory the directory where the files received are written.
+     * @param listener          the listener of the transfers.
+     * @param chunkSize         the size of the chunks sent, in bytes.
+     * @param window            the number of chunks sent ahead of the acknowledgements.
+     */
+    public FileTransferEndpoint(RfcommTransport transport, File incomingDirectory, Listener listener,
+                                int chunkSize, int window) {
+        if (chunkSize < 1 || window < 1) {
+            throw new IllegalArgumentException("Invalid window: " + window + " x " + chunkSize);
+        }
+        this.incomingDirectory = incomingDirectory;
+        this.listener = listener;
+        this.chunkSize = chunkSize;
+        this.window = window;
+        // A few more buffers than the window, so the acknowledgements of the incoming files
+        // don't wait behind the chunks of the outgoing ones.
+        this.connection = new RfcommConnection(transport, this, new ByteBufferPool(window + 4,
+                RfcommConnection.HEADER_SIZE + CHUNK_HEADER_SIZE + chunkSize, true));
+    }
+
+    /**
+     * Starts the connection.
+     */
+    public void start() {
+        connection.start();
+    }
+
+    /**
+     * Closes the connection. The files being sent fail, and the partial files received are
+     * kept for the next attempt.
+     */
+    public void close() {
+        connection.close();
+    }
+
+    public RfcommConnection getConnection() {
+        return connection;
+    }
+
+    /**
+     * Gets the number of chunks received with a bad CRC or out of order.
+     *
+     * @return the number of chunks rejected.
+     */
+    public long getRejectedChunks() {
+        return rejectedChunks;
+    }
+
+    /**
+     * Sends a file, resuming from the part the remote device already has, and waits until it's
+     * been completely written by the remote device.
+     *
+     * @param file          the file to send.
+     * @param timeoutMillis the longest time to wait for the remote device to accept the file or
+     *                      acknowledge a chunk.
+     * @return the offset the transfer resumed from, 0 if the whole file has been sent.
+     * @throws IOException          if the file could not be read, the connection failed or the
+     *                              remote device stopped responding.
+     * @throws InterruptedException if the calling thread is interrupted while waiting.
+     */
+    public long sendFile(File file, long timeoutMillis) throws IOException, InterruptedException {
+        int id = lastTransferId.incrementAndGet();
+        try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+            FileChannel channel = input.getChannel();
+            long size = channel.size();
+            Outgoing transfer = new Outgoing(file.getName(), size);
+            outgoing.put(id, transfer);
+            if (connection.isClosed()) {
+                throw new IOException("Connection closed");
+            }
+
+            byte[] name = file.getName().getBytes(UTF_8);
+            ByteBuffer offer = ByteBuffer.allocate(OFFER_HEADER_SIZE + name.length);
+            offer.put(MSG_OFFER).putInt(id).putLong(size).putLong(file.lastModified())
+                    .putInt(window * chunkSize).putShort((short) name.length).put(name);
+            offer.flip();
+            send(offer, timeoutMillis);
+            long resumedFrom = transfer.awaitAccepted(timeoutMillis);
+
+            ByteBuffer header = ByteBuffer.allocate(CHUNK_HEADER_SIZE);
+            MappedByteBuffer segment = null;
+            long segmentStart = 0;
+            long offset = resumedFrom;
+            long reported = -1;
+            while ((offset = transfer.awaitWindow(offset, (long) window * chunkSize, timeoutMillis)) >= 0) {
+                int length = (int) Math.min(chunkSize, size - offset);
+                if (segment == null || offset < segmentStart || offset + length > segmentStart + segment.capacity()) {
+                    segmentStart = offset;
+                    segment = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(MAP_SEGMENT_SIZE, size - offset));
+                }
+                int position = (int) (offset - segmentStart);
+                segment.clear();
+                segment.position(position);
+                segment.limit(position + length);
+                header.clear();
+                header.put(MSG_CHUNK).putInt(id).putLong(offset).putInt(Crc32.compute(segment));
+                header.flip();
+                if (!connection.send(header, segment, timeoutMillis)) {
+                    throw new IOException("Transfer of " + file.getName() + " timed out");
+                }
+                offset += length;
+
+                long acked = getAckedOffset(transfer);
+                if (acked != reported) {
+                    reported = acked;
+                    listener.onTransferProgress(transfer.name, acked, size, false);
+                }
+            }
+            listener.onTransferProgress(transfer.name, size, size, false);
+            return resumedFrom;
+        } finally {
+            outgoing.remove(id);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onConnected(RfcommConnection connection) {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onFrameReceived(RfcommConnection connection, ByteBuffer frame) {
+        byte type = frame.get();
+        int id = frame.getInt();
+        try {
+            switch (type) {
+                case MSG_OFFER:
+                    onOffer(id, frame);
+                    break;
+                case MSG_CHUNK:
+                    onChunk(id, frame);
+                    break;
+                case MSG_ACCEPT:
+                case MSG_ACK:
+                case MSG_NAK:
+                    Outgoing transfer = outgoing.get(id);
+                    if (transfer != null) {
+                        long offset = frame.getLong();
+                        if (type == MSG_ACCEPT) {
+                            transfer.onAccepted(offset);
+                        } else if (type == MSG_ACK) {
+                            transfer.onAcknowledged(offset);
+                        } else {
+                            transfer.onRejected(offset);
+                        }
+                    }
+                    break;
+                case MSG_CANCEL:
+                    onCancel(id);
+                    break;
+                default:
+                    throw new IOException("Unknown message: " + type);
+            }
+        } catch (IOException e) {
+            // The partial file is kept, the transfer resumes on the next connection.
+            Log.w(TAG, "Transfer " + id + " failed.", e);
+            connection.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            connection.close();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onClosed(RfcommConnection connection, IOException cause) {
+        IOException failure = new IOException("Connection closed", cause);
+        for (Outgoing transfer : outgoing.values()) {
+            transfer.fail(failure);
+        }
+        for (Incoming transfer : incoming.values()) {
+            closeQuietly(transfer);
+        }
+        incoming.clear();
+        listener.onClosed(cause);
+    }
+
+    /**
+     * Starts receiving a file, from the end of its partial file if any.
+     *
+     * @param id    the transfer id.
+     * @param offer the rest of the offer.
+     * @throws IOException          if the file could not be opened.
+     * @throws InterruptedException if interrupted while answering.
+     */
+    private void onOffer(int id, ByteBuffer offer) throws IOException, InterruptedException {
+        long size = offer.getLong();
+        long modified = offer.getLong();
+        int windowBytes = offer.getInt();
+        byte[] nameBytes = new byte[offer.getShort() & 0xFFFF];
+        offer.get(nameBytes);
+        String name = new String(nameBytes, UTF_8);
+        if (!isIncomingName(name) || size < 0) {
+            sendCancel(id);
+            return;
+        }
+        Incoming previous = incoming.remove(id);
+        if (previous != null) {
+            closeQuietly(previous);
+        }
+
+        // The size and time are part of the name, so only the same file resumes.
+        File partFile = new File(incomingDirectory, name + "." + Long.toString(size, 36) + "-"
+                + Long.toString(modified, 36) + PART_SUFFIX);
+        RandomAccessFile output = new RandomAccessFile(partFile, "rw");
+        Incoming transfer = new Incoming(name, size, partFile, new File(incomingDirectory, name), output,
+                Math.max(1, windowBytes / 2));
+        transfer.offset = Math.min(output.length(), size);
+        transfer.ackedOffset = transfer.offset;
+        incoming.put(id, transfer);
+
+        sendOffset(MSG_ACCEPT, id, transfer.offset);
+        if (transfer.offset == size) {
+            finish(id, transfer);
+        }
+    }
+
+    /**
+     * Checks if the name of a file offered designates a file right inside the incoming
+     * directory: a path, or a name resolving to the directory itself or its parent, is refused.
+     *
+     * @param name the name offered.
+     * @return true if the file can be written under this name.
+     * @throws IOException if the name could not be resolved.
+     */
+    private boolean isIncomingName(String name) throws IOException {
+        if (name.isEmpty() || name.equals(".") || name.equals("..")
+                || name.indexOf('/') >= 0 || name.indexOf('\\') >= 0 || name.indexOf('\0') >= 0) {
+            return false;
+        }
+        File parent = new File(incomingDirectory, name).getCanonicalFile().getParentFile();
+        return incomingDirectory.getCanonicalFile().equals(parent);
+    }
+
+    /**
+     * Writes a chunk received, if it's the one expected and intact.
+     *
+     * @param id    the transfer id.
+     * @param chunk the rest of the chunk.
+     * @throws IOException          if the chunk could not be written.
+     * @throws InterruptedException if interrupted while answering.
+     */
+    private void onChunk(int id, ByteBuffer chunk) throws IOException, InterruptedException {
+        Incoming transfer = incoming.get(id);
+        if (transfer == null) {
+            return;
+        }
+        long offset = chunk.getLong();
+        int crc = chunk.getInt();
+        int length = chunk.remaining();
+        if (offset != transfer.offset || offset + length > transfer.size || Crc32.compute(chunk) != crc) {
+            rejectedChunks++;
+            // A bad chunk sent again is rejected again, or the sender would wait for its timeout.
+            if (!transfer.rejecting || offset == transfer.offset) {
+                transfer.rejecting = true;
+                sendOffset(MSG_NAK, id, transfer.offset);
+            }
+            return;
+        }
+        transfer.rejecting = false;
+        FileChannel channel = transfer.output.getChannel();
+        while (chunk.hasRemaining()) {
+            channel.write(chunk, offset + length - chunk.remaining());
+        }
+        transfer.offset += length;
+        listener.onTransferProgress(transfer.name, transfer.offset, transfer.size, true);
+        if (transfer.offset == transfer.size) {
+            finish(id, transfer);
+        } else if (transfer.offset - transfer.ackedOffset >= transfer.ackBytes) {
+            transfer.ackedOffset = transfer.offset;
+            sendOffset(MSG_ACK, id, transfer.offset);
+        }
+    }
+
+    /**
+     * Completes a file received: renames it, then acknowledges its end.
+     *
+     * @param id       the transfer id.
+     * @param transfer the file received.
+     * @throws IOException          if the file could not be renamed.
+     * @throws InterruptedException if interrupted while answering.
+     */
+    private void finish(int id, Incoming transfer) throws IOException, InterruptedException {
+        incoming.remove(id);
+        transfer.output.getChannel().force(false);
+        transfer.output.close();
+        if (transfer.file.exists() && !transfer.file.delete() || !transfer.partFile.renameTo(transfer.file)) {
+            throw new IOException("Unable to rename " + transfer.partFile);
+        }
+        sendOffset(MSG_ACK, id, transfer.size);
+        listener.onFileReceived(transfer.file);
+    }
+
+    /**
+     * Ends a transfer cancelled by the remote device, sending or receiving.
+     *
+     * @param id the transfer id.
+     */
+    private void onCancel(int id) {
+        Outgoing sending = outgoing.get(id);
+        if (sending != null) {
+            sending.fail(new IOException("Cancelled by the remote device"));
+        }
+        Incoming receiving = incoming.remove(id);
+        if (receiving != null) {
+            closeQuietly(receiving);
+        }
+    }
+
+    /**
+     * Gets the offset acknowledged by the receiver.
+     *
+     * @param transfer the file being sent.
+     * @return the offset.
+     */
+    private static long getAckedOffset(Outgoing transfer) {
+        synchronized (transfer) {
+            return transfer.ackedOffset;
+        }
+    }
+
+    private void sendOffset(byte type, int id, long offset) throws IOException, InterruptedException {
+        ByteBuffer message = ByteBuffer.allocate(OFFSET_MESSAGE_SIZE);
+        message.put(type).putInt(id).putLong(offset);
+        message.flip();
+        send(message, CONTROL_TIMEOUT_MILLIS);
+    }
+
+    private void sendCancel(int id) throws IOException, InterruptedException {
+        ByteBuffer message = ByteBuffer.allocate(1 + 4);
+        message.put(MSG_CANCEL).putInt(id);
+        message.flip();
+        send(message, CONTROL_TIMEOUT_MILLIS);
+    }
+
+    private void send(ByteBuffer message, long timeoutMillis) throws IOException, InterruptedException {
+        if (!connection.send(message, timeoutMillis)) {
+            throw new IOException("Timed out sending a message");
+        }
+    }
+
+    private static void closeQuietly(Incoming transfer) {
+        try {
+            transfer.output.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to close " + transfer.partFile, e);
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.example.bluetooth_sample;
+
+import android.view.Choreographer;
+
+import java.util.BitSet;
+
+import androidx.recyclerview.widget.RecyclerView;
+
+/**
+ * Coalesces the row updates of a {@link RecyclerView.Adapter} and hands them to the RecyclerView
+ * once per display frame, as a single range insert plus one change per modified row, followed by
+ * the moves of the rows whose proximity rank changed.
+ * <p>
+ * The adapter must report {@link #getPublishedCount()} as its item count, so the RecyclerView
+ * never sees rows that have not been notified yet. This class must only be used from the UI
+ * thread.
+ */
+public class FrameUpdateBatcher implements Choreographer.FrameCallback {
+
+    /**
+     * The adapter whose updates are being coalesced.
+     */
+    private final RecyclerView.Adapter<?> adapter;
+
+    /**
+     * Orders the rows, or null to keep them in arrival order.
+     */
+    private final ProximityRanking ranking;
+
+    /**
+     * Notifies the adapter about the moves of the ranking.
+     */
+    private final ProximityRanking.Listener moveListener = new ProximityRanking.Listener() {
+        @Override
+        public void onItemMoved(int fromPosition, int toPosition) {
+            adapter.notifyItemMoved(fromPosition, toPosition);
+        }
+    };
+
+    /**
+     * Positions, below {@link #publishedCount}, which changed since the last flush.
+     */
+    private final BitSet changedPositions = new BitSet();
+
+    /**
+     * Number of rows the RecyclerView has already been notified about.
+     */
+    private int publishedCount;
+
+    /**
+     * Number of rows in the backing data set, including the ones not yet notified.
+     */
+    private int pendingCount;
+
+    /**
+     * True if a frame callback is already posted.
+     */
+    private boolean frameScheduled;
+
+    /**
+     * Number of flushes performed, exposed for diagnostics.
+     */
+    private int flushCount;
+
+    /**
+     * Instantiates a new FrameUpdateBatcher.
+     *
+     * @param adapter the adapter whose updates are being coalesced.
+     */
+    public FrameUpdateBatcher(RecyclerView.Adapter<?> adapter) {
+        this(adapter, null);
+    }
+
+    /**
+     * Instantiates a new FrameUpdateBatcher reordering the rows at each flush.
+     *
+     * @param adapter the adapter whose updates are being coalesced.
+     * @param ranking the order of the rows, whose positions the updates refer to.
+     */
+    public FrameUpdateBatcher(RecyclerView.Adapter<?> adapter, ProximityRanking ranking) {
+        this.adapter = adapter;
+        this.ranking = ranking;
+    }
+
+    /**
+     * Called when rows have been appended to the backing data set.
+     *
+     * @param newCount the new size of the backing data set.
+     */
+    public void onItemsAppended(int newCount) {
+        pendingCount = newCount;
+        scheduleFrame();
+    }
+
+    /**
+     * Called when a row of the backing data set has changed.
+     *
+     * @param position the position of the changed row.
+     */
+    public void onItemChanged(int position) {
+        // Rows not published yet will be bound with fresh data anyway.
+        if (position >= 0 && position < publishedCount) {
+            changedPositions.set(position);
+            scheduleFrame();
+        }
+    }
+
+    /**
+     * Drops every pending update and forgets the published rows. The caller is responsible for
+     * notifying the adapter about the whole data set change.
+     */
+    public void reset() {
+        reset(0);
+    }
+
+    /**
+     * Drops every pending update and publishes a new data set at once. The caller is responsible
+     * for notifying the adapter about the whole data set change.
+     *
+     * @param count the size of the new data set.
+     */
+    public void reset(int count) {
+        if (frameScheduled) {
+            Choreographer.getInstance().removeFrameCallback(this);
+            frameScheduled = false;
+        }
+        changedPositions.clear();
+        publishedCount = count;
+        pendingCount = count;
+    }
+
+    /**
+     * Gets the number of rows the RecyclerView has been notified about.
+     *
+     * @return the {@link #publishedCount}.
+     */
+    public int getPublishedCount() {
+        return publishedCount;
+    }
+
+    /**
+     * Gets the number of flushes performed so far.
+     *
+     * @return the {@link #flushCount}.
+     */
+    public int getFlushCount() {
+        return flushCount;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        frameScheduled = false;
+        flush();
+    }
+
+    /**
+     * Notifies the adapter about every update collected since the last flush.
+     */
+    public void flush() {
+        // Changes first, since their positions refer to the rows already published.
+        for (int i = changedPositions.nextSetBit(0); i >= 0; i = changedPositions.nextSetBit(i + 1)) {
+            adapter.notifyItemChanged(i);
+        }
+        changedPositions.clear();
+
+        if (pendingCount > publishedCount) {
+            int start = publishedCount;
+            publishedCount = pendingCount;
+            adapter.notifyItemRangeInserted(start, pendingCount - start);
+        }
+
+        // Moves last, the new rows being inserted at the bottom and ranked with the others.
+        if (ranking != null) {
+            ranking.reorder(publishedCount, moveListener);
+        }
+        flushCount++;
+    }
+
+    /**
+     * Posts a frame callback, unless one is already pending.
+     */
+    private void scheduleFrame() {
+        if (!frameScheduled) {
+            frameScheduled = true;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.example.bluetooth_sample;
+
+import java.util.Arrays;
+
+/**
+ * A histogram of durations with a fixed set of buckets, so that recording a sample never
+ * allocates.
+ * <p>
+ * Bucket 0 counts the durations below 1 ms, and bucket i the ones in [2^(i-1), 2^i) ms, the last
+ * bucket also holding the longer ones. The percentiles are estimated as the upper bound of their
+ * bucket, which is accurate within a factor of two, enough to tell a 2 seconds bonding from a 20
+ * seconds one. The exact minimum, maximum and mean are kept aside.
+ * <p>
+ * This class is not Thread Safe.
+ */
+public class LatencyHistogram {
+
+    /**
+     * Number of buckets, the last one starting at about 73 minutes.
+     */
+    public static final int BUCKET_COUNT = 24;
+
+    /**
+     * Name of the histogram, used in the snapshots.
+     */
+    private final String name;
+
+    /**
+     * Number of samples in each bucket.
+     */
+    private final long[] counts = new long[BUCKET_COUNT];
+
+    private long count;
+    private long sumMillis;
+    private long minMillis = Long.MAX_VALUE;
+    private long maxMillis;
+
+    /**
+     * Instantiates a new LatencyHistogram.
+     *
+     * @param name the name of the histogram.
+     */
+    public LatencyHistogram(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Records a duration.
+     *
+     * @param millis the duration in milliseconds, negative values are ignored.
+     */
+    public void record(long millis) {
+        if (millis < 0) {
+            return;
+        }
+        counts[bucketOf(millis)]++;
+        count++;
+        sumMillis += millis;
+        if (millis < minMillis) {
+            minMillis = millis;
+        }
+        if (millis > maxMillis) {
+            maxMillis = millis;
+        }
+    }
+
+    /**
+     * Estimates a percentile of the durations recorded.
+     *
+     * @param percentile the percentile, between 0 and 100.
+     * @return the upper bound of the bucket holding the percentile in milliseconds, capped by the
+     * maximum, or 0 if there is no sample.
+     */
+    public long getPercentile(float percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(count * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if (seen >= rank && seen > 0) {
+                return Math.min(upperBoundOf(i), maxMillis);
+            }
+        }
+        return maxMillis;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getMinMillis() {
+        return count > 0 ? minMillis : 0;
+    }
+
+    public long getMaxMillis() {
+        return maxMillis;
+    }
+
+    public long getMeanMillis() {
+        return count > 0 ? sumMillis / count : 0;
+    }
+
+    /**
+     * Gets the number of samples of a bucket.
+     *
+     * @param bucket the index of the bucket.
+     * @return the number of samples.
+     */
+    public long getBucketCount(int bucket) {
+        return counts[bucket];
+    }
+
+    /**
+     * Removes every sample.
+     */
+    public void reset() {
+        Arrays.fill(counts, 0);
+        count = 0;
+        sumMillis = 0;
+        minMillis = Long.MAX_VALUE;
+        maxMillis = 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return name + ": count=" + count + ", min=" + getMinMillis() + "ms, mean=" + getMeanMillis()
+                + "ms, p50=" + getPercentile(50) + "ms, p90=" + getPercentile(90)
+                + "ms, p99=" + getPercentile(99) + "ms, max=" + maxMillis + "ms";
+    }
+
+    /**
+     * Gets the bucket of a duration.
+     *
+     * @param millis the duration, not negative.
+     * @return the index of the bucket.
+     */
+    static int bucketOf(long millis) {
+        return Math.min(64 - Long.numberOfLeadingZeros(millis), BUCKET_COUNT - 1);
+    }
+
+    /**
+     * Gets the exclusive upper bound of a bucket.
+     *
+     * @param bucket the index of the bucket.
+     * @return the bound in milliseconds.
+     */
+    static long upperBoundOf(int bucket) {
+        return bucket == BUCKET_COUNT - 1 ? Long.MAX_VALUE : 1L << bucket;
+    }
+}
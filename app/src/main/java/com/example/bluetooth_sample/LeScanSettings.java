@@ -0,0 +1,129 @@
+package com.example.bluetooth_sample;
+
+import android.bluetooth.le.ScanSettings;
+import android.os.ParcelUuid;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Settings of a Bluetooth Low Energy scan, see {@link BluetoothBackend#startLeScan(LeScanSettings)}.
+ * <p>
+ * The filters are alternatives: a device is reported if it matches any of them, and every device
+ * is reported if there is none. Filtered scans are offloaded to the controller where supported,
+ * and are the only ones kept running by the system while the screen is off.
+ */
+public class LeScanSettings {
+
+    /**
+     * Default delay of the batched reports: the controller buffers the results for a second, so
+     * the app wakes once per batch instead of once per advertisement.
+     */
+    public static final long DEFAULT_REPORT_DELAY_MILLIS = 1000;
+
+    /**
+     * Default duration of a scan, close to the one of a classic inquiry.
+     */
+    public static final long DEFAULT_DURATION_MILLIS = 12000;
+
+    /**
+     * One of the {@code ScanSettings.SCAN_MODE_} constants. They are inlined at compile time, so
+     * this class still loads before API 21.
+     */
+    private int scanMode = ScanSettings.SCAN_MODE_BALANCED;
+
+    private long reportDelayMillis = DEFAULT_REPORT_DELAY_MILLIS;
+    private long durationMillis = DEFAULT_DURATION_MILLIS;
+    private final List<ParcelUuid> serviceUuids = new ArrayList<>();
+    private final List<String> deviceNames = new ArrayList<>();
+    private final List<String> deviceAddresses = new ArrayList<>();
+
+    public int getScanMode() {
+        return scanMode;
+    }
+
+    /**
+     * Sets the trade-off between latency and power.
+     *
+     * @param scanMode one of the {@code ScanSettings.SCAN_MODE_} constants, the default is
+     *                 {@code SCAN_MODE_BALANCED}.
+     */
+    public void setScanMode(int scanMode) {
+        this.scanMode = scanMode;
+    }
+
+    public long getReportDelayMillis() {
+        return reportDelayMillis;
+    }
+
+    /**
+     * Sets how long the controller buffers the results before reporting them in a batch. Ignored
+     * if the controller doesn't support batching.
+     *
+     * @param reportDelayMillis the delay, 0 to report each result right away.
+     */
+    public void setReportDelayMillis(long reportDelayMillis) {
+        this.reportDelayMillis = reportDelayMillis;
+    }
+
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    /**
+     * Sets how long the scan runs before it finishes on its own.
+     *
+     * @param durationMillis the duration.
+     */
+    public void setDurationMillis(long durationMillis) {
+        this.durationMillis = durationMillis;
+    }
+
+    /**
+     * Adds a filter reporting the devices advertising a service.
+     *
+     * @param serviceUuid the UUID of the service.
+     */
+    public void addServiceUuidFilter(ParcelUuid serviceUuid) {
+        serviceUuids.add(serviceUuid);
+    }
+
+    /**
+     * Adds a filter reporting the devices advertising a name.
+     *
+     * @param deviceName the exact name of the device.
+     */
+    public void addDeviceNameFilter(String deviceName) {
+        deviceNames.add(deviceName);
+    }
+
+    /**
+     * Adds a filter reporting a device.
+     *
+     * @param deviceAddress the MAC address of the device, in upper case.
+     */
+    public void addDeviceAddressFilter(String deviceAddress) {
+        deviceAddresses.add(deviceAddress);
+    }
+
+    /**
+     * Removes all the filters.
+     */
+    public void clearFilters() {
+        serviceUuids.clear();
+        deviceNames.clear();
+        deviceAddresses.clear();
+    }
+
+    public List<ParcelUuid> getServiceUuids() {
+        return serviceUuids;
+    }
+
+    public List<String> getDeviceNames() {
+        return deviceNames;
+    }
+
+    public List<String> getDeviceAddresses() {
+        return deviceAddresses;
+    }
+}
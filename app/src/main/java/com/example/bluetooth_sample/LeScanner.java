@@ -0,0 +1,226 @@
+package com.example.bluetooth_sample;
+
+import android.annotation.TargetApi;
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.le.BluetoothLeScanner;
+import android.bluetooth.le.ScanCallback;
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanRecord;
+import android.bluetooth.le.ScanResult;
+import android.bluetooth.le.ScanSettings;
+import android.os.Build;
+import android.os.ParcelUuid;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs the Bluetooth Low Energy scans of {@link SystemBluetoothBackend}, feeding the results into
+ * the event queue like the discovery broadcasts.
+ * <p>
+ * Kept apart from the backend since it extends an API 21 class, which can't be loaded on older
+ * platforms. The results of a batch are offered as a single batch of the queue, so the UI thread
+ * is woken once per report.
+ * <p>
+ * This class is Thread Safe.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+class LeScanner extends ScanCallback {
+
+    /**
+     * Tag string used for logging.
+     */
+    private static final String TAG = "LeScanner";
+
+    /**
+     * Interface for Bluetooth OS services.
+     */
+    private final BluetoothAdapter adapter;
+
+    /**
+     * The scanner running the scan, null if not scanning.
+     */
+    private BluetoothLeScanner scanner;
+
+    /**
+     * The queue receiving the results. Kept once the scan is stopped, for the results flushed by
+     * the controller.
+     */
+    private BluetoothEventQueue events;
+
+    /**
+     * Instantiates a new LeScanner.
+     *
+     * @param adapter the Bluetooth adapter.
+     */
+    LeScanner(BluetoothAdapter adapter) {
+        this.adapter = adapter;
+    }
+
+    /**
+     * Starts a scan, stopping the running one if any.
+     *
+     * @param settings the settings of the scan.
+     * @param events   the queue receiving the results.
+     * @return false if the scan could not be started, for example because the adapter is off.
+     */
+    synchronized boolean start(LeScanSettings settings, BluetoothEventQueue events) {
+        stop();
+        // Null while the Bluetooth is off.
+        BluetoothLeScanner leScanner = adapter.getBluetoothLeScanner();
+        if (leScanner == null) {
+            return false;
+        }
+        long reportDelayMillis = settings.getReportDelayMillis();
+        if (reportDelayMillis > 0 && !adapter.isOffloadedScanBatchingSupported()) {
+            // The scan would fail with SCAN_FAILED_FEATURE_UNSUPPORTED.
+            Log.d(TAG, "Scan batching not supported, reporting each result.");
+            reportDelayMillis = 0;
+        }
+        ScanSettings scanSettings = new ScanSettings.Builder()
+                .setScanMode(settings.getScanMode())
+                .setReportDelay(reportDelayMillis)
+                .build();
+        this.events = events;
+        this.scanner = leScanner;
+        leScanner.startScan(toScanFilters(settings), scanSettings, this);
+        return true;
+    }
+
+    /**
+     * Stops the running scan. The results buffered by the controller are flushed first, on a best
+     * effort basis: they may arrive after the scan is stopped, or not at all on some stacks.
+     *
+     * @return false if no scan was running.
+     */
+    synchronized boolean stop() {
+        if (scanner == null) {
+            return false;
+        }
+        try {
+            scanner.flushPendingScanResults(this);
+            scanner.stopScan(this);
+        } catch (IllegalStateException e) {
+            // The adapter has been turned off meanwhile, which already stopped the scan.
+        }
+        scanner = null;
+        return true;
+    }
+
+    /**
+     * Forgets the running scan, when the adapter is turned off.
+     *
+     * @return false if no scan was running.
+     */
+    synchronized boolean abort() {
+        if (scanner == null) {
+            return false;
+        }
+        scanner = null;
+        return true;
+    }
+
+    /**
+     * Checks if a scan is running.
+     *
+     * @return true if a scan is running.
+     */
+    synchronized boolean isScanning() {
+        return scanner != null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onScanResult(int callbackType, ScanResult result) {
+        BluetoothEventQueue queue = getEvents();
+        if (queue != null) {
+            offer(queue, result);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onBatchScanResults(List<ScanResult> results) {
+        BluetoothEventQueue queue = getEvents();
+        if (queue == null) {
+            return;
+        }
+        if (EventTrace.ENABLED) {
+            EventTrace.record(EventTrace.LE_SCAN_BATCH, 0, results.size());
+        }
+        queue.beginBatch();
+        try {
+            for (int i = 0; i < results.size(); i++) {
+                offer(queue, results.get(i));
+            }
+        } finally {
+            queue.endBatch();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onScanFailed(int errorCode) {
+        Log.d(TAG, "LE scan failed: " + errorCode);
+        BluetoothEventQueue queue;
+        synchronized (this) {
+            queue = scanner != null ? events : null;
+            scanner = null;
+        }
+        if (queue != null) {
+            queue.offer(BluetoothEvent.TYPE_DISCOVERY_FINISHED, 0, null, 0, 0);
+        }
+    }
+
+    /**
+     * Gets the queue receiving the results.
+     *
+     * @return the queue, or null if no scan has been started.
+     */
+    private synchronized BluetoothEventQueue getEvents() {
+        return events;
+    }
+
+    /**
+     * Enqueues a scan result as a device sighting.
+     *
+     * @param queue  the queue receiving the result.
+     * @param result the result.
+     */
+    private static void offer(BluetoothEventQueue queue, ScanResult result) {
+        BluetoothDevice device = result.getDevice();
+        ScanRecord record = result.getScanRecord();
+        // The advertisements carry no Bluetooth class.
+        queue.offerDeviceFound(MacAddress.toKey(device.getAddress()), device,
+                record != null ? record.getDeviceName() : null, DeviceRegistry.UNKNOWN_CLASS,
+                (short) result.getRssi());
+    }
+
+    /**
+     * Converts the filters of the settings.
+     *
+     * @param settings the settings of the scan.
+     * @return the filters, empty to report every device.
+     */
+    private static List<ScanFilter> toScanFilters(LeScanSettings settings) {
+        List<ScanFilter> filters = new ArrayList<>();
+        for (ParcelUuid serviceUuid : settings.getServiceUuids()) {
+            filters.add(new ScanFilter.Builder().setServiceUuid(serviceUuid).build());
+        }
+        for (String deviceName : settings.getDeviceNames()) {
+            filters.add(new ScanFilter.Builder().setDeviceName(deviceName).build());
+        }
+        for (String deviceAddress : settings.getDeviceAddresses()) {
+            filters.add(new ScanFilter.Builder().setDeviceAddress(deviceAddress).build());
+        }
+        return filters;
+    }
+}
@@ -0,0 +1,192 @@
+package com.example.bluetooth_sample;
+
+import java.util.Arrays;
+
+/**
+ * An open addressing hash map from long keys to non negative int values, using linear probing.
+ * Unlike a {@code HashMap<Long, Integer>} it doesn't allocate anything per entry, which keeps
+ * lookups and memory usage flat when it holds tens of thousands of entries.
+ * <p>
+ * This class is not Thread Safe.
+ */
+public class LongIntHashMap {
+
+    /**
+     * Value returned by {@link #get(long)} when the key is not in the map. Also marks empty slots.
+     */
+    public static final int NO_VALUE = -1;
+
+    /**
+     * The map is grown when its size exceeds this fraction of the capacity.
+     */
+    private static final float LOAD_FACTOR = 0.5f;
+
+    /**
+     * The keys, indexed by slot.
+     */
+    private long[] keys;
+
+    /**
+     * The values, indexed by slot. A slot is empty if its value is {@link #NO_VALUE}.
+     */
+    private int[] values;
+
+    /**
+     * Number of entries in the map.
+     */
+    private int size;
+
+    /**
+     * Number of entries after which the map is grown.
+     */
+    private int resizeThreshold;
+
+    /**
+     * Instantiates a new LongIntHashMap.
+     *
+     * @param expectedSize the number of entries the map should hold without growing.
+     */
+    public LongIntHashMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        allocate(capacity);
+    }
+
+    /**
+     * Gets the value associated to a key.
+     *
+     * @param key the key to look for.
+     * @return the value associated to the key, or {@link #NO_VALUE} if the key is not in the map.
+     */
+    public int get(long key) {
+        int mask = keys.length - 1;
+        for (int slot = slotOf(key, mask); ; slot = (slot + 1) & mask) {
+            int value = values[slot];
+            if (value == NO_VALUE || keys[slot] == key) {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * Associates a value to a key, replacing the previous value if any.
+     *
+     * @param key   the key.
+     * @param value the value, which must not be negative.
+     * @return the previous value associated to the key, or {@link #NO_VALUE}.
+     */
+    public int put(long key, int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Negative value: " + value);
+        }
+        int mask = keys.length - 1;
+        int slot = slotOf(key, mask);
+        while (values[slot] != NO_VALUE) {
+            if (keys[slot] == key) {
+                int previous = values[slot];
+                values[slot] = value;
+                return previous;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size > resizeThreshold) {
+            grow();
+        }
+        return NO_VALUE;
+    }
+
+    /**
+     * Removes a key from the map.
+     *
+     * @param key the key to remove.
+     * @return the value which was associated to the key, or {@link #NO_VALUE}.
+     */
+    public int remove(long key) {
+        int mask = keys.length - 1;
+        int slot = slotOf(key, mask);
+        while (values[slot] != NO_VALUE && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        int removed = values[slot];
+        if (removed == NO_VALUE) {
+            return NO_VALUE;
+        }
+
+        // Shifts back the following entries of the probe sequence, so that no tombstone is needed.
+        int hole = slot;
+        for (int next = (hole + 1) & mask; values[next] != NO_VALUE; next = (next + 1) & mask) {
+            int home = slotOf(keys[next], mask);
+            // Moves the entry only if its home slot is not between the hole and its position.
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                keys[hole] = keys[next];
+                values[hole] = values[next];
+                hole = next;
+            }
+        }
+        values[hole] = NO_VALUE;
+        size--;
+        return removed;
+    }
+
+    /**
+     * Gets the number of entries in the map.
+     *
+     * @return the {@link #size}.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Removes every entry, keeping the current capacity.
+     */
+    public void clear() {
+        Arrays.fill(values, NO_VALUE);
+        size = 0;
+    }
+
+    /**
+     * Doubles the capacity of the map and reinserts every entry.
+     */
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(oldKeys.length << 1);
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != NO_VALUE) {
+                int slot = slotOf(oldKeys[i], mask);
+                while (values[slot] != NO_VALUE) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    /**
+     * Allocates empty tables.
+     *
+     * @param capacity the number of slots, which must be a power of two.
+     */
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new int[capacity];
+        Arrays.fill(values, NO_VALUE);
+        resizeThreshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    /**
+     * Computes the home slot of a key.
+     *
+     * @param key  the key.
+     * @param mask the capacity of the tables minus one.
+     * @return the first slot to probe for the key.
+     */
+    private static int slotOf(long key, int mask) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+}
@@ -0,0 +1,241 @@
+package com.example.bluetooth_sample;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A local stand-in for an RFCOMM socket: the two ends of a pair of in-memory byte rings, which
+ * block the writer once full like the buffers of a socket, so that the connections can be tested
+ * and benchmarked without radios.
+ */
+public class LoopbackTransport implements RfcommTransport {
+
+    /**
+     * Default capacity of each direction, in bytes, about the buffer of a socket.
+     */
+    public static final int DEFAULT_CAPACITY = 64 * 1024;
+
+    /**
+     * The bytes in flight in one direction.
+     */
+    private static final class Ring {
+        private final byte[] bytes;
+
+        /**
+         * Index of the first byte to read.
+         */
+        private int head;
+
+        /**
+         * Number of bytes to read.
+         */
+        private int count;
+
+        private boolean readerClosed;
+        private boolean writerClosed;
+
+        Ring(int capacity) {
+            bytes = new byte[capacity];
+        }
+
+        /**
+         * Reads the bytes available, waiting for at least one.
+         *
+         * @param destination the buffer to fill.
+         * @return the number of bytes read, or -1 at the end of the stream.
+         * @throws IOException if the reader is closed.
+         */
+        synchronized int read(ByteBuffer destination) throws IOException {
+            while (count == 0 && !writerClosed && !readerClosed) {
+                await();
+            }
+            if (readerClosed) {
+                throw new ClosedChannelException();
+            }
+            if (count == 0) {
+                return -1;
+            }
+            int length = Math.min(count, destination.remaining());
+            int first = Math.min(length, bytes.length - head);
+            destination.put(bytes, head, first);
+            destination.put(bytes, 0, length - first);
+            head = (head + length) % bytes.length;
+            count -= length;
+            notifyAll();
+            return length;
+        }
+
+        /**
+         * Writes all the bytes, waiting for room when full.
+         *
+         * @param source the bytes to write.
+         * @return the number of bytes written.
+         * @throws IOException if either end is closed.
+         */
+        synchronized int write(ByteBuffer source) throws IOException {
+            int written = source.remaining();
+            while (source.hasRemaining()) {
+                while (count == bytes.length && !writerClosed && !readerClosed) {
+                    await();
+                }
+                if (writerClosed || readerClosed) {
+                    throw new ClosedChannelException();
+                }
+                int length = Math.min(source.remaining(), bytes.length - count);
+                int tail = (head + count) % bytes.length;
+                int first = Math.min(length, bytes.length - tail);
+                source.get(bytes, tail, first);
+                source.get(bytes, 0, length - first);
+                count += length;
+                notifyAll();
+            }
+            return written;
+        }
+
+        synchronized int available() {
+            return count;
+        }
+
+        synchronized void closeReader() {
+            readerClosed = true;
+            notifyAll();
+        }
+
+        synchronized void closeWriter() {
+            writerClosed = true;
+            notifyAll();
+        }
+
+        synchronized boolean isReaderOpen() {
+            return !readerClosed;
+        }
+
+        synchronized boolean isWriterOpen() {
+            return !writerClosed;
+        }
+
+        private void await() throws InterruptedIOException {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+    }
+
+    private final Ring input;
+    private final Ring output;
+
+    private final ReadableByteChannel inputChannel = new ReadableByteChannel() {
+        @Override
+        public int read(ByteBuffer destination) throws IOException {
+            return input.read(destination);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return input.isReaderOpen();
+        }
+
+        @Override
+        public void close() {
+            input.closeReader();
+        }
+    };
+
+    private final WritableByteChannel outputChannel = new WritableByteChannel() {
+        @Override
+        public int write(ByteBuffer source) throws IOException {
+            return output.write(source);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return output.isWriterOpen();
+        }
+
+        @Override
+        public void close() {
+            output.closeWriter();
+        }
+    };
+
+    private LoopbackTransport(Ring input, Ring output) {
+        this.input = input;
+        this.output = output;
+    }
+
+    /**
+     * Creates two connected transports with the {@link #DEFAULT_CAPACITY}: the bytes written to
+     * one are read from the other.
+     *
+     * @return the two ends.
+     */
+    public static LoopbackTransport[] createPair() {
+        return createPair(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates two connected transports: the bytes written to one are read from the other.
+     *
+     * @param capacity the number of bytes each direction holds before blocking the writer.
+     * @return the two ends.
+     */
+    public static LoopbackTransport[] createPair(int capacity) {
+        Ring forward = new Ring(capacity);
+        Ring backward = new Ring(capacity);
+        return new LoopbackTransport[]{
+                new LoopbackTransport(backward, forward),
+                new LoopbackTransport(forward, backward)
+        };
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Already connected.
+     */
+    @Override
+    public void open() {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ReadableByteChannel getInputChannel() {
+        return inputChannel;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public WritableByteChannel getOutputChannel() {
+        return outputChannel;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int available() {
+        return input.available();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The other end reads the end of the stream once it has read the bytes in flight.
+     */
+    @Override
+    public void close() {
+        output.closeWriter();
+        input.closeReader();
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.bluetooth_sample;
+
+/**
+ * Conversions between the textual form of a Bluetooth MAC address ("AA:BB:CC:DD:EE:FF") and its
+ * 48 bit value packed into a long, which is used as a key by the primitive collections.
+ */
+public final class MacAddress {
+
+    /**
+     * Length of an address in its textual form.
+     */
+    private static final int ADDRESS_LENGTH = 17;
+
+    /**
+     * Hexadecimal digits used when formatting an address.
+     */
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    private MacAddress() {
+    }
+
+    /**
+     * Packs an address into a long.
+     *
+     * @param address the address in the "AA:BB:CC:DD:EE:FF" form.
+     * @return the 48 bit value of the address.
+     * @throws IllegalArgumentException if the address is not well formed.
+     */
+    public static long toKey(String address) {
+        if (address == null || address.length() != ADDRESS_LENGTH) {
+            throw new IllegalArgumentException("Invalid Bluetooth address: " + address);
+        }
+        long key = 0;
+        for (int i = 0; i < ADDRESS_LENGTH; i++) {
+            char c = address.charAt(i);
+            if (i % 3 == 2) {
+                if (c != ':') {
+                    throw new IllegalArgumentException("Invalid Bluetooth address: " + address);
+                }
+                continue;
+            }
+            int digit = Character.digit(c, 16);
+            if (digit < 0) {
+                throw new IllegalArgumentException("Invalid Bluetooth address: " + address);
+            }
+            key = (key << 4) | digit;
+        }
+        return key;
+    }
+
+    /**
+     * Formats a packed address back to its textual form.
+     *
+     * @param key the 48 bit value of the address.
+     * @return the address in the "AA:BB:CC:DD:EE:FF" form.
+     */
+    public static String toString(long key) {
+        char[] chars = new char[ADDRESS_LENGTH];
+        for (int octet = 0; octet < 6; octet++) {
+            int value = (int) (key >>> (40 - octet * 8)) & 0xFF;
+            int offset = octet * 3;
+            chars[offset] = HEX_DIGITS[value >>> 4];
+            chars[offset + 1] = HEX_DIGITS[value & 0x0F];
+            if (octet < 5) {
+                chars[offset + 2] = ':';
+            }
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Appends the textual form of a packed address, without creating a String.
+     *
+     * @param builder the builder to append to.
+     * @param key     the 48 bit value of the address.
+     * @return the builder.
+     */
+    public static StringBuilder appendTo(StringBuilder builder, long key) {
+        for (int octet = 0; octet < 6; octet++) {
+            int value = (int) (key >>> (40 - octet * 8)) & 0xFF;
+            builder.append(HEX_DIGITS[value >>> 4]).append(HEX_DIGITS[value & 0x0F]);
+            if (octet < 5) {
+                builder.append(':');
+            }
+        }
+        return builder;
+    }
+}
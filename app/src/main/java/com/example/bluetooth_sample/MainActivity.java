@@ -3,23 +3,31 @@ package com.example.bluetooth_sample;
 import android.Manifest;
 import android.app.AlertDialog;
 import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothClass;
 import android.bluetooth.BluetoothDevice;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
+import android.content.ServiceConnection;
 import android.content.pm.PackageManager;
 import android.os.Build;
 import android.os.Bundle;
-import android.os.ParcelUuid;
+import android.os.IBinder;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.util.Log;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
 import android.widget.Button;
+import android.widget.EditText;
 import android.widget.Toast;
 
 import com.afollestad.materialdialogs.MaterialDialog;
 import com.afollestad.materialdialogs.Theme;
 
-import java.lang.reflect.Method;
+import java.io.File;
 
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
@@ -30,14 +38,49 @@ import androidx.recyclerview.widget.RecyclerView;
 public class MainActivity extends AppCompatActivity implements RecyclerViewAdapter.ItemClickListener, View.OnClickListener, ProgressListener {
     private static final int PERMISSION_REQUEST_COARSE_LOCATION = 1;
     private static final String TAG = "MainActivity";
+
+    /**
+     * Items of the device class menu, and the major class each one filters.
+     */
+    private static final int[] DEVICE_CLASS_ITEMS = {
+            R.id.menu_class_any,
+            R.id.menu_class_phone,
+            R.id.menu_class_computer,
+            R.id.menu_class_audio_video,
+            R.id.menu_class_wearable,
+            R.id.menu_class_peripheral,
+            R.id.menu_class_health
+    };
+    private static final int[] DEVICE_CLASS_FILTERS = {
+            DeviceSearchIndex.ANY_CLASS,
+            BluetoothClass.Device.Major.PHONE,
+            BluetoothClass.Device.Major.COMPUTER,
+            BluetoothClass.Device.Major.AUDIO_VIDEO,
+            BluetoothClass.Device.Major.WEARABLE,
+            BluetoothClass.Device.Major.PERIPHERAL,
+            BluetoothClass.Device.Major.HEALTH
+    };
     private MaterialDialog progressDialog;
+
+    /**
+     * Shows the progress of an export of the scan sessions, in percent.
+     */
+    private MaterialDialog exportDialog;
+    private boolean exportGzip;
     private ProgressListener progressListener;
 
     private Context context = this;
     private RecyclerViewAdapter recyclerViewAdapter;
+    private DeviceRegistry deviceRegistry;
+    private ServiceUuidCache serviceUuidCache;
+    private ScanService scanService;
     private BluetoothHelper bluetooth;
+    private DiscoveryMode discoveryMode = DiscoveryMode.CLASSIC;
+    private boolean continuousScan;
     private Button detectButton;
+    private EditText searchField;
     private RecyclerView recyclerView;
+    private int deviceClassFilter = DeviceSearchIndex.ANY_CLASS;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -50,9 +93,23 @@ public class MainActivity extends AppCompatActivity implements RecyclerViewAdapt
         recyclerView = findViewById(R.id.main_wrapper);
         recyclerView.setLayoutManager(new LinearLayoutManager(this));
         recyclerView.addItemDecoration(new DividerItemDecoration(context, DividerItemDecoration.VERTICAL));
-        recyclerViewAdapter = new RecyclerViewAdapter(this, progressListener);
-        recyclerViewAdapter.setClickListener(this);
-        recyclerView.setAdapter(recyclerViewAdapter);
+        searchField = findViewById(R.id.main_search);
+        searchField.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                if (recyclerViewAdapter != null) {
+                    recyclerViewAdapter.setFilter(s.toString(), deviceClassFilter);
+                }
+            }
+        });
         progressDialog = new MaterialDialog.Builder(this)
                 .title(R.string.loading)
                 .cancelable(false)
@@ -60,58 +117,181 @@ public class MainActivity extends AppCompatActivity implements RecyclerViewAdapt
                 .progress(true, 0)
                 .theme(Theme.LIGHT)
                 .build();
+        exportDialog = new MaterialDialog.Builder(this)
+                .title(R.string.export_sessions)
+                .cancelable(false)
+                .content(R.string.wait)
+                .progress(false, 100, true)
+                .theme(Theme.LIGHT)
+                .build();
+
+        // The scanning outlives this activity: started, so that it survives the recreations, and
+        // bound to, to get its registry.
+        Intent intent = new Intent(this, ScanService.class);
+        startService(intent);
+        bindService(intent, scanServiceConnection, BIND_AUTO_CREATE);
     }
 
+    /**
+     * Attaches the device list to the scanning service once bound.
+     */
+    private final ServiceConnection scanServiceConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder binder) {
+            scanService = ((ScanService.LocalBinder) binder).getService();
+            deviceRegistry = scanService.getDeviceRegistry();
+            serviceUuidCache = scanService.getServiceUuidCache();
+            recyclerViewAdapter = new RecyclerViewAdapter(MainActivity.this, progressListener, deviceRegistry);
+            recyclerViewAdapter.setClickListener(MainActivity.this);
+            recyclerView.setAdapter(recyclerViewAdapter);
+            scanService.attach(recyclerViewAdapter, progressListener);
+
+            bluetooth = scanService.getBluetooth();
+            if (bluetooth != null) {
+                // Still scanning since the previous activity, or in the background.
+                discoveryMode = bluetooth.getDiscoveryMode();
+                continuousScan = bluetooth.getDiscoveryScheduler().isRunning();
+                invalidateOptionsMenu();
+            }
+            // Otherwise the cached devices are shown once restored, by devicesRestored().
+            if (scanService.isDiscoveryCacheRestored()) {
+                showRestoredDevices();
+            }
+            recyclerViewAdapter.setFilter(searchField.getText().toString(), deviceClassFilter);
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            // Only when the process of the service dies, which is also the one of the activity.
+            scanService = null;
+        }
+    };
+
     @Override
     protected void onDestroy() {
-        bluetooth.close();
+        if (scanService != null) {
+            scanService.detach(recyclerViewAdapter);
+            scanService = null;
+        }
+        unbindService(scanServiceConnection);
         super.onDestroy();
     }
 
     @Override
     protected void onStop() {
         super.onStop();
-        // Stoops the discovery.
-        if (this.bluetooth != null) {
-            this.bluetooth.cancelDiscovery();
+        // The scanning goes on in the service, saves what has been found in case it gets killed.
+        if (scanService != null) {
+            scanService.saveDiscoveryCache();
         }
     }
 
     @Override
-    protected void onRestart() {
-        super.onRestart();
-        // Stops the discovery.
-        if (this.bluetooth != null) {
-            this.bluetooth.cancelDiscovery();
+    public void onItemClick(final DeviceSnapshot snapshot) {
+        boolean paired = snapshot.isBonded();
+        if (EventTrace.ENABLED) {
+            EventTrace.record(EventTrace.ITEM_CLICKED, snapshot.getAddress(), paired ? 1 : 0);
+        }
+        if (bluetooth == null) {
+            // A device restored from the cache, listed before any discovery.
+            if (scanService == null || !permissionDetector()) {
+                return;
+            }
+            bluetooth = scanService.openBluetooth();
+            bluetooth.setDiscoveryMode(discoveryMode);
         }
-        // Cleans the view.
-        if (this.recyclerViewAdapter != null) {
-            this.recyclerViewAdapter.cleanView();
+        if (paired) {
+            Toast.makeText(this, "Device " + snapshot.getName() + " already paired!", Toast.LENGTH_SHORT).show();
+            bluetooth.fetchServiceUuids(snapshot.getAddress());
+            progressListener.connectedDeviceInfo(snapshot);
+        } else {
+            progressListener.startLoading();
+            bluetooth.pair(snapshot.getDevice(BluetoothAdapter.getDefaultAdapter())).addCallback(new PairingFuture.Callback() {
+                @Override
+                public void onPairingResult(BluetoothDevice device, PairingResult result) {
+                    progressListener.endLoading();
+                    if (result == PairingResult.BONDED) {
+                        progressListener.connectedDeviceInfo(snapshot.withBondState(BluetoothDevice.BOND_BONDED));
+                    } else {
+                        // Prints a message to the user.
+                        String deviceName = snapshot.getDisplayName();
+                        Log.d(TAG, "Error while pairing with device " + deviceName + ": " + result);
+                        Toast.makeText(context, "Error while pairing with device " + deviceName + "!", Toast.LENGTH_SHORT).show();
+                    }
+                }
+            });
         }
     }
 
     @Override
-    public void onItemClick(BluetoothDevice device) {
-        Log.d(TAG, "Item clicked : " + BluetoothHelper.deviceToString(device));
-        if (bluetooth.isAlreadyPaired(device)) {
-            Toast.makeText(this, "Device " + device.getName() + " already paired!", Toast.LENGTH_SHORT).show();
-            Log.d(TAG, "Device already paired!");
-        } else {
-            progressListener.startLoading();
-            Log.d(TAG, "Device not paired. Pairing.");
-            boolean outcome = bluetooth.pair(device);
-
-            // Prints a message to the user.
-            String deviceName = BluetoothHelper.getDeviceName(device);
-            if (outcome) {
-                // The pairing has started, shows a progress dialog.
-                Log.d(TAG, "Showing pairing dialog");
-            } else {
-                progressDialog.hide();
-                Log.d(TAG, "Error while pairing with device " + deviceName + "!");
-                Toast.makeText(this, "Error while pairing with device " + deviceName + "!", Toast.LENGTH_SHORT).show();
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.main, menu);
+        MenuItem leScanItem = menu.findItem(R.id.menu_le_scan);
+        // The LE scanner API is only available from Android 5.0.
+        leScanItem.setVisible(Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP);
+        leScanItem.setChecked(discoveryMode == DiscoveryMode.LE);
+        menu.findItem(R.id.menu_continuous_scan).setChecked(continuousScan);
+        menu.findItem(R.id.menu_export_gzip).setChecked(exportGzip);
+        for (int i = 0; i < DEVICE_CLASS_ITEMS.length; i++) {
+            if (DEVICE_CLASS_FILTERS[i] == deviceClassFilter) {
+                menu.findItem(DEVICE_CLASS_ITEMS[i]).setChecked(true);
             }
         }
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        switch (item.getItemId()) {
+            case R.id.menu_le_scan:
+                item.setChecked(!item.isChecked());
+                discoveryMode = item.isChecked() ? DiscoveryMode.LE : DiscoveryMode.CLASSIC;
+                // Applies to the next discovery.
+                if (bluetooth != null) {
+                    bluetooth.setDiscoveryMode(discoveryMode);
+                }
+                return true;
+            case R.id.menu_continuous_scan:
+                item.setChecked(!item.isChecked());
+                continuousScan = item.isChecked();
+                if (bluetooth != null) {
+                    DiscoveryScheduler scheduler = bluetooth.getDiscoveryScheduler();
+                    if (continuousScan) {
+                        scheduler.start();
+                    } else {
+                        scheduler.stop();
+                    }
+                }
+                return true;
+            case R.id.menu_export_csv:
+                exportSessions(SessionExporter.Format.CSV);
+                return true;
+            case R.id.menu_export_json_lines:
+                exportSessions(SessionExporter.Format.JSON_LINES);
+                return true;
+            case R.id.menu_export_gzip:
+                item.setChecked(!item.isChecked());
+                exportGzip = item.isChecked();
+                return true;
+            case R.id.menu_beacon_ranging:
+                startActivity(new Intent(this, BeaconActivity.class));
+                return true;
+            case R.id.menu_diagnostics:
+                startActivity(new Intent(this, DiagnosticsActivity.class));
+                return true;
+            default:
+                for (int i = 0; i < DEVICE_CLASS_ITEMS.length; i++) {
+                    if (DEVICE_CLASS_ITEMS[i] == item.getItemId()) {
+                        item.setChecked(true);
+                        deviceClassFilter = DEVICE_CLASS_FILTERS[i];
+                        if (recyclerViewAdapter != null) {
+                            recyclerViewAdapter.setFilter(searchField.getText().toString(), deviceClassFilter);
+                        }
+                        return true;
+                    }
+                }
+                return super.onOptionsItemSelected(item);
+        }
     }
 
     @Override
@@ -138,6 +318,20 @@ public class MainActivity extends AppCompatActivity implements RecyclerViewAdapt
         }
     }
 
+    /**
+     * Exports the scan sessions in the background, showing the progress.
+     *
+     * @param format the format of the file.
+     */
+    private void exportSessions(SessionExporter.Format format) {
+        if (scanService == null) {
+            return;
+        }
+        exportDialog.setProgress(0);
+        exportDialog.show();
+        scanService.exportSessions(format, exportGzip);
+    }
+
     @Override
     public void startLoading() {
         progressDialog.show();
@@ -149,36 +343,77 @@ public class MainActivity extends AppCompatActivity implements RecyclerViewAdapt
     }
 
     @Override
-    public void connectedDeviceInfo(BluetoothDevice device) {
-        try {
-            Intent intent = new Intent(this, DeviceActivity.class);
-            Bundle bundle = new Bundle();
-            BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
-            Method getUuidsMethod = BluetoothAdapter.class.getDeclaredMethod("getUuids", null);
-            ParcelUuid[] uuids = (ParcelUuid[]) getUuidsMethod.invoke(adapter, null);
-            StringBuilder sb = new StringBuilder();
-            for (ParcelUuid uuid : uuids) {
-                sb.append(uuid.getUuid().toString() + "\n");
+    public void exportProgress(long exported, long total) {
+        exportDialog.setProgress(total > 0 ? (int) (exported * 100 / total) : 100);
+    }
+
+    @Override
+    public void exportFinished(File file, long exported, boolean success) {
+        exportDialog.hide();
+        if (success) {
+            Toast.makeText(this, getString(R.string.export_finished, exported, file.getAbsolutePath()), Toast.LENGTH_LONG).show();
+        } else {
+            Toast.makeText(this, R.string.export_failed, Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    @Override
+    public void devicesRestored(int restored) {
+        showRestoredDevices();
+    }
+
+    /**
+     * Shows the devices found so far right away, the discovery merges its results into them.
+     */
+    private void showRestoredDevices() {
+        if (deviceRegistry.size() > 0) {
+            recyclerViewAdapter.onDevicesRestored();
+            showDeviceList();
+            if (bluetooth == null && isReadyToScan()) {
+                scanDevices();
             }
-            DeviceModel deviceModel = new DeviceModel(device.getName(), device.getAddress(), sb.toString());
-            bundle.putSerializable(Variable.DEVICE.toString(), deviceModel);
-            intent.putExtras(bundle);
-            startActivity(intent);
-        } catch (Exception e) {
-            e.printStackTrace();
         }
     }
 
+    @Override
+    public void connectedDeviceInfo(DeviceSnapshot snapshot) {
+        Intent intent = new Intent(this, DeviceActivity.class);
+        Bundle bundle = new Bundle();
+        // The services of the remote device, from the cache if already fetched.
+        long[] uuids = serviceUuidCache.get(snapshot.getAddress());
+        if (uuids == null) {
+            uuids = ServiceUuidCache.toPairs(snapshot.getDevice(BluetoothAdapter.getDefaultAdapter()).getUuids());
+        }
+        DeviceModel deviceModel = new DeviceModel(snapshot.getName(), MacAddress.toString(snapshot.getAddress()), uuids);
+        deviceModel.setDeviceClass(snapshot.getDeviceClass());
+        if (snapshot.getRssi() != DeviceRegistry.UNKNOWN_RSSI) {
+            deviceModel.setRssiHistory(new short[]{snapshot.getRssi()});
+        }
+        bundle.putParcelable(Variable.DEVICE.toString(), deviceModel);
+        intent.putExtras(bundle);
+        startActivity(intent);
+    }
+
     private void scanDevices() {
         if (!permissionDetector()) {
             return;
         }
 
-        detectButton.setVisibility(View.GONE);
-        recyclerView.setVisibility(View.VISIBLE);
+        if (scanService == null) {
+            // Not bound yet.
+            return;
+        }
+
+        showDeviceList();
         progressListener.startLoading();
-        this.bluetooth = new BluetoothHelper(this, BluetoothAdapter.getDefaultAdapter(), recyclerViewAdapter, progressListener);
-        if (!bluetooth.isDiscovering()) {
+        if (this.bluetooth == null) {
+            this.bluetooth = scanService.openBluetooth();
+        }
+        bluetooth.setDiscoveryMode(discoveryMode);
+        if (continuousScan) {
+            // Repeats the discoveries, backing off while nothing new shows up.
+            bluetooth.getDiscoveryScheduler().start();
+        } else if (!bluetooth.isDiscovering()) {
             // Starts the discovery.
             bluetooth.startDiscovery();
         } else {
@@ -187,6 +422,26 @@ public class MainActivity extends AppCompatActivity implements RecyclerViewAdapt
         }
     }
 
+    private void showDeviceList() {
+        detectButton.setVisibility(View.GONE);
+        searchField.setVisibility(View.VISIBLE);
+        recyclerView.setVisibility(View.VISIBLE);
+    }
+
+    /**
+     * Checks, without prompting the user, if a discovery can be started.
+     *
+     * @return true if the Bluetooth is on and the location permission granted.
+     */
+    private boolean isReadyToScan() {
+        BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M
+                && this.checkSelfPermission(Manifest.permission.ACCESS_COARSE_LOCATION) != PackageManager.PERMISSION_GRANTED) {
+            return false;
+        }
+        return adapter != null && adapter.isEnabled();
+    }
+
     private boolean permissionDetector() {
         final BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
 
@@ -0,0 +1,216 @@
+package com.example.bluetooth_sample;
+
+import android.bluetooth.BluetoothDevice;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The pending outcome of the pairing of a device, completed by {@link PairingScheduler} from the
+ * bond state broadcasts.
+ * <p>
+ * The pairing completes on the UI thread, so {@link #get()} must never be called from it: use
+ * {@link #addCallback(Callback)} instead.
+ */
+public class PairingFuture implements Future<PairingResult> {
+
+    /**
+     * Callback for the outcome of a pairing.
+     */
+    public interface Callback {
+
+        /**
+         * Called on the UI thread when the pairing ends. Not called if the pairing is cancelled.
+         *
+         * @param device the device, or null if the backend has no device object.
+         * @param result the outcome of the pairing.
+         */
+        void onPairingResult(BluetoothDevice device, PairingResult result);
+    }
+
+    /**
+     * The packed address of the device being paired.
+     */
+    private final long address;
+
+    /**
+     * The device being paired, or null if the backend has no device object.
+     */
+    private final BluetoothDevice device;
+
+    /**
+     * The scheduler to notify if the pairing is cancelled.
+     */
+    private final PairingScheduler scheduler;
+
+    /**
+     * Released when the pairing ends or is cancelled.
+     */
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    /**
+     * Callbacks waiting for the outcome. Guarded by this.
+     */
+    private List<Callback> callbacks = new ArrayList<>(1);
+
+    /**
+     * The outcome, or null if the pairing is not over. Guarded by this.
+     */
+    private PairingResult result;
+
+    /**
+     * True if the pairing has been cancelled. Guarded by this.
+     */
+    private boolean cancelled;
+
+    /**
+     * Instantiates a new PairingFuture.
+     *
+     * @param address   the packed address of the device being paired.
+     * @param device    the device being paired, or null.
+     * @param scheduler the scheduler to notify if the pairing is cancelled.
+     */
+    PairingFuture(long address, BluetoothDevice device, PairingScheduler scheduler) {
+        this.address = address;
+        this.device = device;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Gets the packed address of the device being paired.
+     *
+     * @return the {@link #address}.
+     */
+    public long getAddress() {
+        return address;
+    }
+
+    /**
+     * Gets the device being paired.
+     *
+     * @return the {@link #device}, null if the backend has no device object.
+     */
+    public BluetoothDevice getDevice() {
+        return device;
+    }
+
+    /**
+     * Registers a callback for the outcome. If the pairing is already over, the callback is
+     * invoked immediately.
+     *
+     * @param callback the callback.
+     * @return this future, for chaining.
+     */
+    public PairingFuture addCallback(Callback callback) {
+        PairingResult outcome;
+        synchronized (this) {
+            if (cancelled) {
+                return this;
+            }
+            if (result == null) {
+                callbacks.add(callback);
+                return this;
+            }
+            outcome = result;
+        }
+        callback.onPairingResult(device, outcome);
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * A cancelled bonding is aborted, if already started.
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        synchronized (this) {
+            if (result != null || cancelled) {
+                return false;
+            }
+            cancelled = true;
+            callbacks = null;
+        }
+        done.countDown();
+        scheduler.onPairingCancelled(this);
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized boolean isDone() {
+        return cancelled || result != null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public PairingResult get() throws InterruptedException, ExecutionException {
+        done.await();
+        return getResult();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public PairingResult get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        if (!done.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+        return getResult();
+    }
+
+    /**
+     * Completes the pairing and notifies the callbacks.
+     *
+     * @param outcome the outcome of the pairing.
+     * @return false if the pairing was already over or cancelled.
+     */
+    boolean complete(PairingResult outcome) {
+        List<Callback> toNotify;
+        synchronized (this) {
+            if (result != null || cancelled) {
+                return false;
+            }
+            result = outcome;
+            toNotify = callbacks;
+            callbacks = null;
+        }
+        done.countDown();
+        for (Callback callback : toNotify) {
+            callback.onPairingResult(device, outcome);
+        }
+        return true;
+    }
+
+    /**
+     * Gets the outcome once the pairing is over.
+     *
+     * @return the outcome.
+     * @throws CancellationException if the pairing has been cancelled.
+     */
+    private synchronized PairingResult getResult() {
+        if (cancelled) {
+            throw new CancellationException();
+        }
+        return result;
+    }
+}
@@ -0,0 +1,22 @@
+package com.example.bluetooth_sample;
+
+/**
+ * Outcome of a pairing.
+ */
+public enum PairingResult {
+
+    /**
+     * The device is now bonded.
+     */
+    BONDED,
+
+    /**
+     * The bonding failed or has been refused, the device is not bonded.
+     */
+    NONE,
+
+    /**
+     * The bonding didn't end before its deadline and has been aborted.
+     */
+    TIMEOUT
+}
@@ -0,0 +1,415 @@
+package com.example.bluetooth_sample;
+
+import android.bluetooth.BluetoothDevice;
+import android.os.SystemClock;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Pairs batches of devices, running at most a configurable number of bondings at the same time.
+ * <p>
+ * Each device goes through its own state machine, QUEUED, BONDING and then BONDED, FAILED or
+ * CANCELLED, driven by the bond state broadcasts of that device: its outcome is read from the
+ * broadcast extras, without querying the Bluetooth service. Broadcasts about devices which are
+ * not being paired by this scheduler are ignored. Each pairing has a deadline, after which the
+ * bonding is aborted and its {@link PairingFuture} completes with {@link PairingResult#TIMEOUT}.
+ * <p>
+ * Devices are keyed by their packed address, and the bondings go through a
+ * {@link BluetoothBackend}, so the scheduler also runs against a simulated stack.
+ * <p>
+ * This class is not Thread Safe, it must only be used from the UI thread.
+ */
+public class PairingScheduler {
+
+    /**
+     * Callback for the outcome of the pairings.
+     */
+    public interface Listener {
+
+        /**
+         * Called when the pairing of a device ends. Not called for cancelled pairings.
+         *
+         * @param address the packed address of the device.
+         * @param device  the device, or null if the backend has no device object.
+         * @param result  the outcome of the pairing.
+         */
+        void onPairingFinished(long address, BluetoothDevice device, PairingResult result);
+
+        /**
+         * Called when every device submitted has been paired or has failed.
+         *
+         * @param bonded        the number of devices successfully paired.
+         * @param failed        the number of devices whose pairing failed, timed out or has
+         *                      been cancelled.
+         * @param elapsedMillis the time between the first submission and the last completion.
+         */
+        void onBatchFinished(int bonded, int failed, long elapsedMillis);
+    }
+
+    public static final int STATE_QUEUED = 0;
+    public static final int STATE_BONDING = 1;
+    public static final int STATE_BONDED = 2;
+    public static final int STATE_FAILED = 3;
+    public static final int STATE_CANCELLED = 4;
+
+    /**
+     * A device being paired.
+     */
+    private class Pairing implements Runnable {
+        final long address;
+        final BluetoothDevice device;
+        final PairingFuture future;
+        int state = STATE_QUEUED;
+
+        /**
+         * Times of the {@code createBond()} call and of the end of the bonding, in milliseconds
+         * of {@link SystemClock#elapsedRealtime()}, 0 if not reached.
+         */
+        long bondStartedAt;
+        long bondEndedAt;
+
+        Pairing(long address, BluetoothDevice device) {
+            this.address = address;
+            this.device = device;
+            this.future = new PairingFuture(address, device, PairingScheduler.this);
+        }
+
+        /**
+         * Called when the deadline of the pairing expires.
+         */
+        @Override
+        public void run() {
+            if (EventTrace.ENABLED) {
+                EventTrace.record(EventTrace.PAIRING_TIMED_OUT, address, 0);
+            }
+            abort(this, STATE_FAILED, PairingResult.TIMEOUT);
+        }
+    }
+
+    /**
+     * Callback for the outcome of the pairings.
+     */
+    private final Listener listener;
+
+    /**
+     * Timers of the UI thread, used for the deadlines.
+     */
+    private final Timers timers;
+
+    /**
+     * The Bluetooth stack running the bondings.
+     */
+    private final BluetoothBackend backend;
+
+    /**
+     * Position of each pairing of the current batch in {@link #pairings}, keyed by packed address.
+     */
+    private final LongIntHashMap indexByAddress = new LongIntHashMap(16);
+
+    /**
+     * The pairings of the current batch, in order of submission.
+     */
+    private final List<Pairing> pairings = new ArrayList<>();
+
+    /**
+     * The pairings waiting for a free slot.
+     */
+    private final ArrayDeque<Pairing> queue = new ArrayDeque<>();
+
+    /**
+     * Maximum number of bondings running at the same time.
+     */
+    private int maxConcurrentBonds;
+
+    /**
+     * Number of bondings currently running.
+     */
+    private int activeCount;
+
+    private int bondedCount;
+    private int failedCount;
+    private long batchStartMillis;
+
+    /**
+     * Instantiates a new PairingScheduler.
+     *
+     * @param maxConcurrentBonds the maximum number of bondings running at the same time.
+     * @param timers             timers of the UI thread, used for the deadlines.
+     * @param backend            the Bluetooth stack running the bondings.
+     * @param listener           the callback for the outcome of the pairings.
+     */
+    public PairingScheduler(int maxConcurrentBonds, Timers timers, BluetoothBackend backend, Listener listener) {
+        this.timers = timers;
+        this.backend = backend;
+        this.listener = listener;
+        setMaxConcurrentBonds(maxConcurrentBonds);
+    }
+
+    /**
+     * Sets the maximum number of bondings running at the same time. Running bondings are not
+     * affected if the limit is lowered.
+     *
+     * @param maxConcurrentBonds the new limit, at least 1.
+     */
+    public void setMaxConcurrentBonds(int maxConcurrentBonds) {
+        if (maxConcurrentBonds < 1) {
+            throw new IllegalArgumentException("Invalid concurrency: " + maxConcurrentBonds);
+        }
+        this.maxConcurrentBonds = maxConcurrentBonds;
+        startQueuedBonds();
+    }
+
+    /**
+     * Submits a batch of devices to pair. For devices already being paired, their pending
+     * pairing is returned.
+     *
+     * @param devices        the devices to pair.
+     * @param timeoutMillis  the deadline of each pairing, from now.
+     * @return the outcome of each pairing, in the order of the devices.
+     */
+    public List<PairingFuture> submit(Collection<BluetoothDevice> devices, long timeoutMillis) {
+        List<PairingFuture> futures = new ArrayList<>(devices.size());
+        for (BluetoothDevice device : devices) {
+            futures.add(enqueue(MacAddress.toKey(device.getAddress()), device, timeoutMillis).future);
+        }
+        startQueuedBonds();
+        return futures;
+    }
+
+    /**
+     * Submits a single device to pair. If the device is already being paired, its pending
+     * pairing is returned.
+     *
+     * @param device        the device to pair.
+     * @param timeoutMillis the deadline of the pairing, from now.
+     * @return the outcome of the pairing.
+     */
+    public PairingFuture submit(BluetoothDevice device, long timeoutMillis) {
+        return submit(MacAddress.toKey(device.getAddress()), device, timeoutMillis);
+    }
+
+    /**
+     * Submits a single device to pair, by address. If the device is already being paired, its
+     * pending pairing is returned.
+     *
+     * @param address       the packed address of the device to pair.
+     * @param device        the device to pair, or null if the backend has no device object.
+     * @param timeoutMillis the deadline of the pairing, from now.
+     * @return the outcome of the pairing.
+     */
+    public PairingFuture submit(long address, BluetoothDevice device, long timeoutMillis) {
+        Pairing pairing = enqueue(address, device, timeoutMillis);
+        startQueuedBonds();
+        return pairing.future;
+    }
+
+    /**
+     * Called for each bond state broadcast.
+     *
+     * @param address       the packed address of the device whose bond state changed.
+     * @param bondState     the new bond state.
+     * @param previousState the previous bond state.
+     * @return true if the device is being paired by this scheduler, false otherwise.
+     */
+    public boolean onBondStateChanged(long address, int bondState, int previousState) {
+        Pairing pairing = find(address);
+        if (pairing == null) {
+            return false;
+        }
+        switch (pairing.state) {
+            case STATE_QUEUED:
+                // Paired by someone else while waiting, no need to bond it again.
+                if (bondState == BluetoothDevice.BOND_BONDED) {
+                    queue.remove(pairing);
+                    finish(pairing, STATE_BONDED, PairingResult.BONDED);
+                }
+                break;
+            case STATE_BONDING:
+                if (bondState == BluetoothDevice.BOND_BONDED) {
+                    activeCount--;
+                    finish(pairing, STATE_BONDED, PairingResult.BONDED);
+                } else if (bondState == BluetoothDevice.BOND_NONE) {
+                    // Whatever the previous state: a bond refused right after createBond()
+                    // goes back to NONE without a BONDING broadcast.
+                    activeCount--;
+                    finish(pairing, STATE_FAILED, PairingResult.NONE);
+                }
+                break;
+            default:
+                // Already finished, a late broadcast.
+                break;
+        }
+        startQueuedBonds();
+        return true;
+    }
+
+    /**
+     * Gets the state of a device in the current batch.
+     *
+     * @param address the packed address of the device.
+     * @return one of the STATE_ constants, or -1 if the device is not in the current batch.
+     */
+    public int getState(long address) {
+        Pairing pairing = find(address);
+        return pairing != null ? pairing.state : -1;
+    }
+
+    /**
+     * Checks if some pairings are queued or running.
+     *
+     * @return true if the current batch is not finished.
+     */
+    public boolean isBusy() {
+        return activeCount > 0 || !queue.isEmpty();
+    }
+
+    /**
+     * Called by a {@link PairingFuture} which has been cancelled, possibly from another thread.
+     *
+     * @param future the cancelled future.
+     */
+    void onPairingCancelled(final PairingFuture future) {
+        timers.post(new Runnable() {
+            @Override
+            public void run() {
+                Pairing pairing = find(future.getAddress());
+                if (pairing != null && pairing.future == future) {
+                    abort(pairing, STATE_CANCELLED, null);
+                }
+            }
+        });
+    }
+
+    /**
+     * Adds a device to the current batch.
+     *
+     * @param address       the packed address of the device.
+     * @param device        the device, or null.
+     * @param timeoutMillis the deadline of the pairing, from now.
+     * @return the pairing of the device, which is the pending one if the device is already
+     * being paired.
+     */
+    private Pairing enqueue(long address, BluetoothDevice device, long timeoutMillis) {
+        Pairing existing = find(address);
+        if (existing != null && (existing.state == STATE_QUEUED || existing.state == STATE_BONDING)) {
+            return existing;
+        }
+        if (!isBusy()) {
+            startBatch();
+        }
+        Pairing pairing = new Pairing(address, device);
+        indexByAddress.put(address, pairings.size());
+        pairings.add(pairing);
+        queue.add(pairing);
+        timers.postDelayed(pairing, timeoutMillis);
+        return pairing;
+    }
+
+    /**
+     * Stops a pairing which is queued or running.
+     *
+     * @param pairing the pairing.
+     * @param state   the final state.
+     * @param result  the outcome to complete the future with, or null if it's been cancelled.
+     */
+    private void abort(Pairing pairing, int state, PairingResult result) {
+        if (pairing.state == STATE_QUEUED) {
+            queue.remove(pairing);
+        } else if (pairing.state == STATE_BONDING) {
+            activeCount--;
+            backend.cancelBond(pairing.address);
+        } else {
+            // Already over.
+            return;
+        }
+        finish(pairing, state, result);
+        startQueuedBonds();
+    }
+
+    /**
+     * Starts the queued bondings while there are free slots.
+     */
+    private void startQueuedBonds() {
+        while (activeCount < maxConcurrentBonds && !queue.isEmpty()) {
+            Pairing pairing = queue.poll();
+            boolean outcome = backend.createBond(pairing.address);
+            if (EventTrace.ENABLED) {
+                EventTrace.record(EventTrace.BOND_STARTED, pairing.address, outcome ? 1 : 0);
+            }
+            if (outcome) {
+                pairing.bondStartedAt = SystemClock.elapsedRealtime();
+                pairing.state = STATE_BONDING;
+                activeCount++;
+            } else {
+                finish(pairing, STATE_FAILED, PairingResult.NONE);
+            }
+        }
+    }
+
+    /**
+     * Ends the pairing of a device, and the batch if it was the last one.
+     *
+     * @param pairing the pairing.
+     * @param state   the final state.
+     * @param result  the outcome to complete the future with, or null if it's been cancelled.
+     */
+    private void finish(Pairing pairing, int state, PairingResult result) {
+        pairing.state = state;
+        pairing.bondEndedAt = SystemClock.elapsedRealtime();
+        timers.removeCallbacks(pairing);
+        if (state == STATE_BONDED) {
+            bondedCount++;
+        } else {
+            failedCount++;
+        }
+        if (result != null) {
+            pairing.future.complete(result);
+            listener.onPairingFinished(pairing.address, pairing.device, result);
+        }
+
+        if (!isBusy()) {
+            listener.onBatchFinished(bondedCount, failedCount,
+                    System.currentTimeMillis() - batchStartMillis);
+        }
+    }
+
+    /**
+     * Gets how long the bonding of a device of the current batch took.
+     *
+     * @param address the packed address of the device.
+     * @return the time from {@code createBond()} to the end of the bonding in milliseconds, or -1
+     * if the bonding didn't start or is still running.
+     */
+    public long getBondingMillis(long address) {
+        Pairing pairing = find(address);
+        if (pairing == null || pairing.bondStartedAt == 0 || pairing.state == STATE_BONDING) {
+            return -1;
+        }
+        return pairing.bondEndedAt - pairing.bondStartedAt;
+    }
+
+    /**
+     * Forgets the previous batch and starts a new one.
+     */
+    private void startBatch() {
+        indexByAddress.clear();
+        pairings.clear();
+        bondedCount = 0;
+        failedCount = 0;
+        batchStartMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * Finds the pairing of a device in the current batch.
+     *
+     * @param address the packed address of the device.
+     * @return the pairing, or null if the device is not in the current batch.
+     */
+    private Pairing find(long address) {
+        int index = indexByAddress.get(address);
+        return index != LongIntHashMap.NO_VALUE ? pairings.get(index) : null;
+    }
+}
@@ -1,6 +1,6 @@
 package com.example.bluetooth_sample;
 
-import android.bluetooth.BluetoothDevice;
+import java.io.File;
 
 public interface ProgressListener {
 
@@ -8,5 +8,30 @@ public interface ProgressListener {
 
     void endLoading();
 
-    void connectedDeviceInfo(BluetoothDevice device);
+    void connectedDeviceInfo(DeviceSnapshot snapshot);
+
+    /**
+     * Called on the UI thread as an export of the scan sessions progresses.
+     *
+     * @param exported the number of events written so far.
+     * @param total    the number of events to write.
+     */
+    void exportProgress(long exported, long total);
+
+    /**
+     * Called on the UI thread once an export of the scan sessions has ended.
+     *
+     * @param file     the file written.
+     * @param exported the number of events written.
+     * @param success  false if the export failed, in which case the file doesn't exist.
+     */
+    void exportFinished(File file, long exported, boolean success);
+
+    /**
+     * Called on the UI thread once the devices of the discovery cache have been restored into
+     * the registry.
+     *
+     * @param restored the number of devices added to the registry.
+     */
+    void devicesRestored(int restored);
 }
@@ -0,0 +1,171 @@
+package com.example.bluetooth_sample;
+
+import java.util.Arrays;
+
+/**
+ * Orders the devices of a {@link DeviceRegistry} by proximity, the strongest smoothed signal
+ * first, and maps the rows of the device list to the registry indexes.
+ * <p>
+ * The order is kept incrementally: new devices are appended at the bottom, then
+ * {@link #reorder(int, Listener)} moves up only the rows whose signal became stronger than the
+ * one of the row above by more than a hysteresis threshold. On an almost sorted list this costs
+ * a single pass, and the fluctuations of the signal don't make the rows jitter.
+ * <p>
+ * This class is not Thread Safe, it must only be used from the UI thread.
+ */
+public class ProximityRanking {
+
+    /**
+     * Callback receiving the moves of the rows.
+     */
+    public interface Listener {
+
+        /**
+         * Called when a row moved.
+         *
+         * @param fromPosition the previous position of the row.
+         * @param toPosition   the new position of the row.
+         */
+        void onItemMoved(int fromPosition, int toPosition);
+    }
+
+    /**
+     * Default difference of smoothed signal strength, in dB, needed for a row to move above
+     * another one.
+     */
+    public static final float DEFAULT_HYSTERESIS_DB = 3f;
+
+    /**
+     * Initial number of rows the ranking can hold without growing.
+     */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * The registry of the devices ranked.
+     */
+    private final DeviceRegistry registry;
+
+    /**
+     * Registry index of the device at each position.
+     */
+    private int[] order = new int[INITIAL_CAPACITY];
+
+    /**
+     * Position of each registry index.
+     */
+    private int[] positions = new int[INITIAL_CAPACITY];
+
+    /**
+     * Number of devices ranked.
+     */
+    private int size;
+
+    private float hysteresisDb = DEFAULT_HYSTERESIS_DB;
+
+    /**
+     * Instantiates a new ProximityRanking.
+     *
+     * @param registry the registry of the devices ranked.
+     */
+    public ProximityRanking(DeviceRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Sets the difference of smoothed signal strength needed for a row to move above another one.
+     *
+     * @param hysteresisDb the difference in dB, 0 for a strict order.
+     */
+    public void setHysteresisDb(float hysteresisDb) {
+        this.hysteresisDb = hysteresisDb;
+    }
+
+    /**
+     * Appends the devices added to the registry since the last call, at the bottom.
+     */
+    public void sync() {
+        int count = registry.size();
+        if (count > order.length) {
+            int capacity = Math.max(count, order.length << 1);
+            order = Arrays.copyOf(order, capacity);
+            positions = Arrays.copyOf(positions, capacity);
+        }
+        for (int i = size; i < count; i++) {
+            order[i] = i;
+            positions[i] = i;
+        }
+        size = count;
+    }
+
+    /**
+     * Moves up the rows whose signal became stronger than the one of the row above by more than
+     * the hysteresis threshold, until the order is stable.
+     *
+     * @param limit    the number of rows to reorder, from the top.
+     * @param listener the callback receiving each move.
+     * @return the number of rows moved.
+     */
+    public int reorder(int limit, Listener listener) {
+        limit = Math.min(limit, size);
+        int moveCount = 0;
+        // A single pass of insertion sort, the rows above i being already in order.
+        for (int i = 1; i < limit; i++) {
+            int index = order[i];
+            float rssi = registry.getSmoothedRssi(index);
+            int target = i;
+            while (target > 0 && rssi > registry.getSmoothedRssi(order[target - 1]) + hysteresisDb) {
+                target--;
+            }
+            if (target != i) {
+                System.arraycopy(order, target, order, target + 1, i - target);
+                order[target] = index;
+                for (int position = target; position <= i; position++) {
+                    positions[order[position]] = position;
+                }
+                listener.onItemMoved(i, target);
+                moveCount++;
+            }
+        }
+        return moveCount;
+    }
+
+    /**
+     * Gets the registry index of the device at a position.
+     *
+     * @param position the position of the row.
+     * @return the index of the device in the registry.
+     */
+    public int indexAt(int position) {
+        if (position < 0 || position >= size) {
+            throw new IndexOutOfBoundsException("Position: " + position + ", size: " + size);
+        }
+        return order[position];
+    }
+
+    /**
+     * Gets the position of a device.
+     *
+     * @param index the index of the device in the registry.
+     * @return the position of its row. The devices not synced yet are at the bottom, in registry
+     * order.
+     */
+    public int positionOf(int index) {
+        return index < size ? positions[index] : index;
+    }
+
+    /**
+     * Gets the number of devices ranked.
+     *
+     * @return the {@link #size}.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Removes every device, after the registry has been cleared.
+     */
+    public void clear() {
+        size = 0;
+    }
+}
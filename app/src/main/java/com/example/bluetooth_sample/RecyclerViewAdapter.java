@@ -7,24 +7,34 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
 
-import java.util.ArrayList;
-import java.util.List;
-
 import javax.security.auth.callback.Callback;
 
 import androidx.recyclerview.widget.RecyclerView;
 
 public class RecyclerViewAdapter extends RecyclerView.Adapter<RecyclerViewAdapter.ViewHolder> implements BluetoothListener {
-    private final List<BluetoothDevice> devices;
+    private final DeviceRegistry deviceRegistry;
+    private final ProximityRanking ranking;
+    private final FrameUpdateBatcher updateBatcher;
+    private final DeviceSearchIndex searchIndex;
+    private final FrameUpdateBatcher filterBatcher;
+    private DeviceSearchIndex.Result searchResult;
+    private String filterText = "";
+    private int filterClass = DeviceSearchIndex.ANY_CLASS;
     private BluetoothHelper bluetooth;
     private LayoutInflater inflater;
     private ItemClickListener clickListener;
     private ProgressListener progressListener;
 
     // data is passed into the constructor
-    RecyclerViewAdapter(Context context, ProgressListener progressListener) {
+    public RecyclerViewAdapter(Context context, ProgressListener progressListener, DeviceRegistry deviceRegistry) {
         this.inflater = LayoutInflater.from(context);
-        this.devices = new ArrayList<>();
+        this.deviceRegistry = deviceRegistry;
+        // The closest devices first.
+        this.ranking = new ProximityRanking(deviceRegistry);
+        this.updateBatcher = new FrameUpdateBatcher(this, ranking);
+        // While searching, the matches keep the order in which they showed up.
+        this.searchIndex = new DeviceSearchIndex(deviceRegistry);
+        this.filterBatcher = new FrameUpdateBatcher(this);
         this.progressListener = progressListener;
     }
 
@@ -38,25 +48,81 @@ public class RecyclerViewAdapter extends RecyclerView.Adapter<RecyclerViewAdapte
     // binds the data to the TextView in each row
     @Override
     public void onBindViewHolder(ViewHolder holder, int position) {
-        holder.device = devices.get(position);
-        holder.deviceNameView.setText(devices.get(position).getName());
+        int index = searchResult != null ? searchResult.indexAt(position) : ranking.indexAt(position);
+        // Only reads state already in the process, scrolling never calls the Bluetooth service.
+        boolean paired = bluetooth != null && bluetooth.isAlreadyPaired(deviceRegistry.getAddress(index));
+        DeviceSnapshot snapshot = deviceRegistry.getSnapshot(index,
+                paired ? BluetoothDevice.BOND_BONDED : BluetoothDevice.BOND_NONE);
+        holder.snapshot = snapshot;
+        holder.deviceNameView.setText(snapshot.getName());
+        holder.pairedBadgeView.setVisibility(snapshot.isBonded() ? View.VISIBLE : View.GONE);
     }
 
-    // total number of rows
+    // total number of rows already published to the RecyclerView
     @Override
     public int getItemCount() {
-        return devices.size();
+        return searchResult != null ? filterBatcher.getPublishedCount() : updateBatcher.getPublishedCount();
     }
 
     @Override
-    public void onDeviceDiscovered(BluetoothDevice device) {
-        devices.add(device);
-        notifyDataSetChanged();
+    public void onDeviceDiscovered(int index) {
+        // The device has already been recorded, its row is either a new one or a refresh. Its
+        // rank is updated at the next frame.
+        searchIndex.update(index);
+        ranking.sync();
+        if (searchResult != null) {
+            filterBatcher.onItemChanged(searchResult.update(index));
+            filterBatcher.onItemsAppended(searchResult.size());
+        } else {
+            updateBatcher.onItemChanged(ranking.positionOf(index));
+            updateBatcher.onItemsAppended(deviceRegistry.size());
+        }
     }
 
     @Override
     public void onDeviceDiscoveryStarted() {
-        cleanView();
+        // The new results are merged into the devices already listed.
+    }
+
+    /**
+     * Called when devices seen in previous sessions have been restored into the registry.
+     */
+    public void onDevicesRestored() {
+        int first = searchIndex.size();
+        searchIndex.sync();
+        ranking.sync();
+        if (searchResult != null) {
+            for (int index = first; index < deviceRegistry.size(); index++) {
+                searchResult.update(index);
+            }
+            filterBatcher.onItemsAppended(searchResult.size());
+        } else {
+            updateBatcher.onItemsAppended(deviceRegistry.size());
+        }
+    }
+
+    /**
+     * Only lists the devices whose name or address starts with a text, and of a major class.
+     * The devices discovered afterwards are appended to the list if they match.
+     *
+     * @param text       the beginning of the name or of the address, empty for any device.
+     * @param majorClass the major class of the devices, as {@code BluetoothClass.Device.Major},
+     *                   or {@link DeviceSearchIndex#ANY_CLASS}.
+     */
+    public void setFilter(String text, int majorClass) {
+        filterText = text;
+        filterClass = majorClass;
+        if (text.trim().isEmpty() && majorClass == DeviceSearchIndex.ANY_CLASS) {
+            // Back to every device, by proximity.
+            searchResult = null;
+            ranking.sync();
+            updateBatcher.reset(ranking.size());
+        } else {
+            searchIndex.sync();
+            searchResult = searchIndex.search(text, majorClass);
+            filterBatcher.reset(searchResult.size());
+        }
+        notifyDataSetChanged();
     }
 
     @Override
@@ -66,7 +132,7 @@ public class RecyclerViewAdapter extends RecyclerView.Adapter<RecyclerViewAdapte
 
     @Override
     public void onBluetoothStatusChanged() {
-        bluetooth.onBluetoothStatusChanged();
+        // The scanning service starts the discovery scheduled while the Bluetooth was turning on.
     }
 
     @Override
@@ -80,54 +146,40 @@ public class RecyclerViewAdapter extends RecyclerView.Adapter<RecyclerViewAdapte
     }
 
     @Override
-    public void onDevicePairingEnded() {
-        progressListener.startLoading();
-        if (bluetooth.isPairingInProgress()) {
-            BluetoothDevice device = bluetooth.getBoundingDevice();
-            switch (bluetooth.getPairingDeviceStatus()) {
-                case BluetoothDevice.BOND_BONDING:
-                    // Still pairing, do nothing.
-                    break;
-                case BluetoothDevice.BOND_BONDED:
-                    progressListener.endLoading();
-                    progressListener.connectedDeviceInfo(device);
-                    // Updates the icon for this element.
-                    notifyDataSetChanged();
-                    break;
-                case BluetoothDevice.BOND_NONE:
-                    progressListener.endLoading();
-                    break;
+    public void onDevicePairingEnded(long address, BluetoothDevice device, PairingResult result) {
+        // The caller of the pairing handles its outcome, only updates the icon for this element,
+        // whatever the result: a failed pairing may also have removed a previous bond.
+        int index = deviceRegistry.indexOf(address);
+        if (index != LongIntHashMap.NO_VALUE) {
+            if (searchResult != null) {
+                filterBatcher.onItemChanged(searchResult.positionOf(index));
+            } else {
+                updateBatcher.onItemChanged(ranking.positionOf(index));
             }
         }
     }
 
-    /**
-     * Cleans the view.
-     */
-    public void cleanView() {
-        devices.clear();
-        notifyDataSetChanged();
-    }
-
     // stores and recycles views as they are scrolled off screen
     public class ViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
-        BluetoothDevice device;
+        DeviceSnapshot snapshot;
         TextView deviceNameView;
+        TextView pairedBadgeView;
 
         ViewHolder(View itemView) {
             super(itemView);
             deviceNameView = itemView.findViewById(R.id.tvDeviceName);
+            pairedBadgeView = itemView.findViewById(R.id.tvDevicePaired);
             itemView.setOnClickListener(this);
         }
 
         @Override
         public void onClick(View view) {
-            if (clickListener != null) clickListener.onItemClick(device);
+            if (clickListener != null) clickListener.onItemClick(snapshot);
         }
 
         @Override
         public String toString() {
-            return super.toString() + " '" + BluetoothHelper.deviceToString(device) + "'";
+            return super.toString() + " '" + snapshot + "'";
         }
     }
 
@@ -138,6 +190,6 @@ public class RecyclerViewAdapter extends RecyclerView.Adapter<RecyclerViewAdapte
 
     // parent activity will implement this method to respond to click events
     public interface ItemClickListener {
-        void onItemClick(BluetoothDevice device);
+        void onItemClick(DeviceSnapshot snapshot);
     }
 }
@@ -0,0 +1,437 @@
+package com.example.bluetooth_sample;
+
+import android.util.Log;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A stream of frames over an {@link RfcommTransport}, each frame being a 4 bytes big endian
+ * length followed by that many bytes of payload.
+ * <p>
+ * The frames are read and written by two dedicated threads, through buffers of a
+ * {@link ByteBufferPool}: sending a frame copies it into a pooled buffer and queues it for the
+ * writer thread. The pool has a fixed number of buffers, so once every buffer is waiting to be
+ * written, {@link #send(ByteBuffer, long)} waits for the remote device to catch up. The received
+ * frames are handed to the {@link Listener} on the reader thread, which doesn't read the next
+ * frame until the listener returns, so a slow listener is pushed back to the sender by the flow
+ * control of RFCOMM.
+ * <p>
+ * This class is Thread Safe.
+ */
+public class RfcommConnection {
+
+    /**
+     * Callback for the life of the connection, called on the reader thread.
+     */
+    public interface Listener {
+
+        /**
+         * Called once the transport is connected.
+         *
+         * @param connection the connection.
+         */
+        void onConnected(RfcommConnection connection);
+
+        /**
+         * Called for each frame received.
+         *
+         * @param connection the connection.
+         * @param payload    the payload of the frame, between its position and its limit. Only
+         *                   valid until this method returns, its content must be copied to be
+         *                   kept.
+         */
+        void onFrameReceived(RfcommConnection connection, ByteBuffer payload);
+
+        /**
+         * Called once when the connection ends, whether it failed to connect, the remote device
+         * closed it or {@link #close()} has been called.
+         *
+         * @param connection the connection.
+         * @param cause      the failure, or null if closed locally or by the remote device.
+         */
+        void onClosed(RfcommConnection connection, IOException cause);
+    }
+
+    /**
+     * Tag string used for logging.
+     */
+    private static final String TAG = "RfcommConnection";
+
+    /**
+     * Size of the length prefix of the frames, in bytes.
+     */
+    public static final int HEADER_SIZE = 4;
+
+    /**
+     * Default largest payload of a frame, in bytes: a few RFCOMM packets.
+     */
+    public static final int DEFAULT_MAX_PAYLOAD_SIZE = 16 * 1024 - HEADER_SIZE;
+
+    /**
+     * Default number of frames which can wait to be written.
+     */
+    public static final int DEFAULT_PENDING_FRAMES = 16;
+
+    /**
+     * Queued in place of a frame to stop the writer thread.
+     */
+    private static final ByteBuffer END_OF_STREAM = ByteBuffer.allocate(0);
+
+    private final RfcommTransport transport;
+    private final Listener listener;
+
+    /**
+     * Buffers of the frames being sent.
+     */
+    private final ByteBufferPool pool;
+
+    /**
+     * Largest payload of a frame, in bytes.
+     */
+    private final int maxPayloadSize;
+
+    /**
+     * The frames waiting for the writer thread, never more than the buffers of the pool.
+     */
+    private final BlockingQueue<ByteBuffer> pendingFrames;
+
+    private final Thread readerThread;
+    private final Thread writerThread;
+
+    private final AtomicBoolean started = new AtomicBoolean();
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    /**
+     * True once the writer thread has been started, only accessed by the reader thread.
+     */
+    private boolean writerStarted;
+
+    /**
+     * Failure which ended the connection, reported by the reader thread.
+     */
+    private volatile IOException failure;
+
+    private volatile long framesSent;
+    private volatile long bytesSent;
+    private volatile long framesReceived;
+    private volatile long bytesReceived;
+
+    /**
+     * Instantiates a new RfcommConnection with the default sizes, sending frames through direct
+     * buffers.
+     *
+     * @param transport the transport, not opened yet.
+     * @param listener  the listener of the connection.
+     */
+    public RfcommConnection(RfcommTransport transport, Listener listener) {
+        this(transport, listener, new ByteBufferPool(DEFAULT_PENDING_FRAMES,
+                HEADER_SIZE + DEFAULT_MAX_PAYLOAD_SIZE, true));
+    }
+
+    /**
+     * Instantiates a new RfcommConnection.
+     *
+     * @param transport the transport, not opened yet.
+     * @param listener  the listener of the connection.
+     * @param pool      the buffers of the frames being sent, owned by this connection. Its
+     *                  buffer size bounds the frames, and its buffer count the frames waiting to
+     *                  be written.
+     */
+    public RfcommConnection(RfcommTransport transport, Listener listener, ByteBufferPool pool) {
+        if (pool.getBufferSize() <= HEADER_SIZE) {
+            throw new IllegalArgumentException("Buffers too small: " + pool.getBufferSize());
+        }
+        this.transport = transport;
+        this.listener = listener;
+        this.pool = pool;
+        this.maxPayloadSize = pool.getBufferSize() - HEADER_SIZE;
+        this.pendingFrames = new ArrayBlockingQueue<>(pool.getBufferCount() + 1);
+        this.readerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                read();
+            }
+        }, TAG + "-reader");
+        this.writerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                write();
+            }
+        }, TAG + "-writer");
+    }
+
+    /**
+     * Starts the reader thread, which opens the transport. Frames can be sent right away, they
+     * are written once connected.
+     */
+    public void start() {
+        if (!started.compareAndSet(false, true)) {
+            throw new IllegalStateException("Already started");
+        }
+        readerThread.start();
+    }
+
+    /**
+     * Sends a frame, waiting for a buffer if as many frames as the pool has buffers are already
+     * waiting to be written.
+     *
+     * @param payload       the payload, between its position and its limit. Consumed when sent.
+     * @param timeoutMillis the longest time to wait for a buffer, 0 not to wait.
+     * @return false if no buffer became available in time, the frame wasn't sent.
+     * @throws IOException          if the connection is closed.
+     * @throws InterruptedException if the calling thread is interrupted while waiting.
+     */
+    public boolean send(ByteBuffer payload, long timeoutMillis) throws IOException, InterruptedException {
+        return send(null, payload, timeoutMillis);
+    }
+
+    /**
+     * Sends a frame made of two parts, for example a message header and a slice of a mapped
+     * file, copying both straight into the pooled buffer instead of joining them first.
+     *
+     * @param prefix        the start of the payload, between its position and its limit, or
+     *                      null. Consumed when sent.
+     * @param payload       the rest of the payload, between its position and its limit.
+     *                      Consumed when sent.
+     * @param timeoutMillis the longest time to wait for a buffer, 0 not to wait.
+     * @return false if no buffer became available in time, the frame wasn't sent.
+     * @throws IOException          if the connection is closed.
+     * @throws InterruptedException if the calling thread is interrupted while waiting.
+     * @see #send(ByteBuffer, long)
+     */
+    public boolean send(ByteBuffer prefix, ByteBuffer payload, long timeoutMillis) throws IOException, InterruptedException {
+        int length = (prefix != null ? prefix.remaining() : 0) + payload.remaining();
+        if (length > maxPayloadSize) {
+            throw new IllegalArgumentException("Frame too large: " + length);
+        }
+        checkOpen();
+        ByteBuffer frame = pool.acquire(timeoutMillis);
+        if (frame == null) {
+            return false;
+        }
+        frame.putInt(length);
+        if (prefix != null) {
+            frame.put(prefix);
+        }
+        frame.put(payload);
+        frame.flip();
+        pendingFrames.add(frame);
+        if (closed.get() && pendingFrames.remove(frame)) {
+            // The writer may be gone already, the frame would never be released.
+            pool.release(frame);
+            checkOpen();
+        }
+        return true;
+    }
+
+    /**
+     * Closes the connection, dropping the frames not written yet. The listener is notified on the
+     * reader thread.
+     */
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        pendingFrames.offer(END_OF_STREAM);
+        try {
+            transport.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to close the transport.", e);
+        }
+    }
+
+    /**
+     * Checks if the connection has been closed or has failed.
+     *
+     * @return true if closed.
+     */
+    public boolean isClosed() {
+        return closed.get();
+    }
+
+    /**
+     * Gets the largest payload of a frame.
+     *
+     * @return the size, in bytes.
+     */
+    public int getMaxPayloadSize() {
+        return maxPayloadSize;
+    }
+
+    /**
+     * Gets the number of frames waiting to be written.
+     *
+     * @return the number of frames.
+     */
+    public int getPendingFrameCount() {
+        return pool.getBufferCount() - pool.getAvailableCount();
+    }
+
+    public long getFramesSent() {
+        return framesSent;
+    }
+
+    /**
+     * Gets the number of payload bytes written, without the length prefixes.
+     *
+     * @return the number of bytes.
+     */
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    public long getFramesReceived() {
+        return framesReceived;
+    }
+
+    /**
+     * Gets the number of payload bytes received, without the length prefixes.
+     *
+     * @return the number of bytes.
+     */
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    /**
+     * Body of the reader thread: opens the transport, starts the writer and reads the frames
+     * until the end of the stream.
+     */
+    private void read() {
+        IOException cause = null;
+        try {
+            transport.open();
+            ReadableByteChannel input = transport.getInputChannel();
+            if (!closed.get()) {
+                writerStarted = true;
+                writerThread.start();
+                listener.onConnected(this);
+            }
+            // A single buffer is enough, the listener is done with a frame before the next one.
+            ByteBuffer header = ByteBuffer.allocateDirect(HEADER_SIZE);
+            ByteBuffer payload = ByteBuffer.allocateDirect(maxPayloadSize);
+            while (!closed.get()) {
+                header.clear();
+                if (!readFully(input, header, true)) {
+                    break;
+                }
+                int length = header.getInt(0);
+                if (length < 0 || length > maxPayloadSize) {
+                    throw new IOException("Invalid frame length: " + length);
+                }
+                payload.clear();
+                payload.limit(length);
+                readFully(input, payload, false);
+                payload.flip();
+                framesReceived++;
+                bytesReceived += length;
+                listener.onFrameReceived(this, payload);
+            }
+        } catch (IOException e) {
+            // Closing the transport makes the blocked read fail, which is not a failure.
+            if (!closed.get()) {
+                cause = failure != null ? failure : e;
+            }
+        } catch (RuntimeException e) {
+            cause = new IOException("Listener failed", e);
+        }
+        if (cause == null) {
+            cause = failure;
+        }
+        close();
+        if (!writerStarted) {
+            releasePendingFrames();
+        }
+        listener.onClosed(this, cause);
+    }
+
+    /**
+     * Body of the writer thread: writes the queued frames until the connection is closed.
+     */
+    private void write() {
+        try {
+            WritableByteChannel output = transport.getOutputChannel();
+            while (true) {
+                ByteBuffer frame = pendingFrames.take();
+                if (frame == END_OF_STREAM) {
+                    break;
+                }
+                try {
+                    int length = frame.remaining() - HEADER_SIZE;
+                    while (frame.hasRemaining()) {
+                        output.write(frame);
+                    }
+                    framesSent++;
+                    bytesSent += length;
+                } finally {
+                    pool.release(frame);
+                }
+            }
+        } catch (IOException e) {
+            if (!closed.get()) {
+                failure = e;
+                // Unblocks the reader thread, which reports the failure.
+                close();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            releasePendingFrames();
+        }
+    }
+
+    /**
+     * Gives the buffers of the frames never written back to the pool, so the senders waiting
+     * for one are woken up and notice the connection is closed.
+     */
+    private void releasePendingFrames() {
+        ByteBuffer frame;
+        while ((frame = pendingFrames.poll()) != null) {
+            if (frame != END_OF_STREAM) {
+                pool.release(frame);
+            }
+        }
+    }
+
+    /**
+     * Throws if the connection is closed.
+     *
+     * @throws IOException if closed.
+     */
+    private void checkOpen() throws IOException {
+        if (closed.get()) {
+            IOException cause = failure;
+            throw cause != null ? new IOException("Connection failed", cause) : new IOException("Connection closed");
+        }
+    }
+
+    /**
+     * Fills a buffer from a channel.
+     *
+     * @param input      the channel.
+     * @param buffer     the buffer, filled up to its limit.
+     * @param endAllowed true if the end of the stream can be reached before the first byte.
+     * @return false if the end of the stream has been reached before the first byte.
+     * @throws IOException if the channel failed or ended in the middle of the buffer.
+     */
+    private static boolean readFully(ReadableByteChannel input, ByteBuffer buffer, boolean endAllowed) throws IOException {
+        boolean first = true;
+        while (buffer.hasRemaining()) {
+            if (input.read(buffer) < 0) {
+                if (first && endAllowed) {
+                    return false;
+                }
+                throw new EOFException("End of stream inside a frame");
+            }
+            first = false;
+        }
+        return true;
+    }
+}
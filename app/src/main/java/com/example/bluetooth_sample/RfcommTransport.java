@@ -0,0 +1,53 @@
+package com.example.bluetooth_sample;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * The byte stream under an {@link RfcommConnection}: an RFCOMM socket to a remote device, or a
+ * local stand-in such as {@link LoopbackTransport}.
+ */
+public interface RfcommTransport extends Closeable {
+
+    /**
+     * Opens the stream, blocking until it's connected.
+     *
+     * @throws IOException if the connection failed.
+     */
+    void open() throws IOException;
+
+    /**
+     * Gets the channel reading the incoming bytes. Only called once opened.
+     *
+     * @return the channel.
+     * @throws IOException if the stream is not available.
+     */
+    ReadableByteChannel getInputChannel() throws IOException;
+
+    /**
+     * Gets the channel writing the outgoing bytes. Only called once opened.
+     *
+     * @return the channel.
+     * @throws IOException if the stream is not available.
+     */
+    WritableByteChannel getOutputChannel() throws IOException;
+
+    /**
+     * Gets the number of bytes which can be read without blocking. Only called once opened.
+     *
+     * @return the number of bytes, 0 if none.
+     * @throws IOException if the stream is not available.
+     */
+    int available() throws IOException;
+
+    /**
+     * Closes the stream, which makes the blocked reads and writes fail. Can be called from any
+     * thread, and more than once.
+     *
+     * @throws IOException if the stream failed to close.
+     */
+    @Override
+    void close() throws IOException;
+}
@@ -0,0 +1,428 @@
+package com.example.bluetooth_sample;
+
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Append-only journal of the Bluetooth events received, as they come from the stack, before
+ * being merged or dropped by the {@link BluetoothEventQueue}, so that a field session can be
+ * replayed by a {@link ScanJournalReplayer}.
+ * <p>
+ * Each event is a fixed-width record of {@link #RECORD_SIZE} bytes: type, RSSI, states, class,
+ * address and receive time, but not the device name. The records are written into memory mapped
+ * segments of {@link #segmentRecords} records, so that appending is a few stores into the page
+ * cache, never a system call, and the records already written survive a crash of the process.
+ * Once a segment is full, the journal moves on to a new one and deletes the oldest beyond
+ * {@link #maxSegments}, bounding its size on disk.
+ * <p>
+ * The journal is a diagnostics aid: an I/O error disables it, and never fails the scan.
+ * <p>
+ * This class is Thread Safe.
+ */
+public class ScanJournal implements Closeable {
+
+    /**
+     * Tag string used for logging.
+     */
+    private static final String TAG = "ScanJournal";
+
+    /**
+     * First int of a segment.
+     */
+    private static final int FILE_MAGIC = 0x42544A4E;
+
+    /**
+     * Version of the segment format.
+     */
+    private static final int FILE_VERSION = 1;
+
+    /**
+     * Size of the header of a segment: magic, version, record size, and the wall clock and
+     * {@link System#nanoTime()} when it was created.
+     */
+    static final int HEADER_SIZE = 4 + 4 + 4 + 8 + 8;
+
+    /**
+     * Size of a record: type, unused, RSSI, state, previous state, class, address and receive
+     * time. A zero type marks the end of the records of a segment, the rest of it being unused.
+     */
+    public static final int RECORD_SIZE = 1 + 1 + 2 + 4 + 4 + 4 + 8 + 8;
+
+    /**
+     * Default number of records of a segment, 256 KiB.
+     */
+    public static final int DEFAULT_SEGMENT_RECORDS = 8192;
+
+    /**
+     * Default number of segments kept, 2 MiB of journal.
+     */
+    public static final int DEFAULT_MAX_SEGMENTS = 8;
+
+    private static final String SEGMENT_PREFIX = "scan-";
+    private static final String SEGMENT_SUFFIX = ".journal";
+
+    /**
+     * Matches the segments of a journal directory.
+     */
+    private static final FileFilter SEGMENT_FILTER = new FileFilter() {
+        @Override
+        public boolean accept(File file) {
+            String name = file.getName();
+            return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX) && file.isFile();
+        }
+    };
+
+    /**
+     * The directory of the segments.
+     */
+    private final File directory;
+
+    /**
+     * Number of records of a segment.
+     */
+    private final int segmentRecords;
+
+    /**
+     * Maximum number of segments kept on disk.
+     */
+    private final int maxSegments;
+
+    /**
+     * The segment being written, null before the first event or once closed.
+     */
+    private MappedByteBuffer segment;
+
+    /**
+     * Sequence number of the {@link #segment}, growing with each new segment.
+     */
+    private long segmentNumber;
+
+    private long recordCount;
+    private boolean closed;
+
+    /**
+     * Instantiates a new ScanJournal with the default size.
+     *
+     * @param directory the directory of the segments, created if needed.
+     */
+    public ScanJournal(File directory) {
+        this(directory, DEFAULT_SEGMENT_RECORDS, DEFAULT_MAX_SEGMENTS);
+    }
+
+    /**
+     * Instantiates a new ScanJournal, appending after the segments already in the directory.
+     *
+     * @param directory      the directory of the segments, created if needed.
+     * @param segmentRecords the number of records of a segment.
+     * @param maxSegments    the maximum number of segments kept on disk, at least 1.
+     */
+    public ScanJournal(File directory, int segmentRecords, int maxSegments) {
+        if (segmentRecords < 1 || maxSegments < 1) {
+            throw new IllegalArgumentException("Invalid size: " + segmentRecords + " x " + maxSegments);
+        }
+        this.directory = directory;
+        this.segmentRecords = segmentRecords;
+        this.maxSegments = maxSegments;
+        File[] segments = listSegments(directory);
+        // A new segment for each session, so that the one of a crashed session stays intact.
+        this.segmentNumber = segments.length > 0 ? parseSegmentNumber(segments[segments.length - 1]) : 0;
+    }
+
+    /**
+     * Appends an event.
+     *
+     * @param type            the type of the event, one of the {@code BluetoothEvent.TYPE_} constants.
+     * @param address         the packed address of the device, or 0.
+     * @param deviceClass     the class of the device found, or {@link DeviceRegistry#UNKNOWN_CLASS}.
+     * @param rssi            the signal strength of the device found, or {@link DeviceRegistry#UNKNOWN_RSSI}.
+     * @param state           the new state, or the number of service UUIDs fetched, -1 if none.
+     * @param previousState   the previous state.
+     * @param receivedAtNanos the time the event has been received, from {@link System#nanoTime()}.
+     */
+    public synchronized void append(int type, long address, int deviceClass, short rssi, int state,
+                                    int previousState, long receivedAtNanos) {
+        if (closed) {
+            return;
+        }
+        if (segment == null || segment.remaining() < RECORD_SIZE) {
+            if (!openNextSegment()) {
+                closed = true;
+                return;
+            }
+        }
+        int position = segment.position();
+        segment.position(position + 1);
+        segment.put((byte) 0);
+        segment.putShort(rssi);
+        segment.putInt(state);
+        segment.putInt(previousState);
+        segment.putInt(deviceClass);
+        segment.putLong(address);
+        segment.putLong(receivedAtNanos);
+        // The type last, so that a cursor reading the segment meanwhile never sees half a record.
+        segment.put(position, (byte) type);
+        recordCount++;
+    }
+
+    /**
+     * Gets the number of events appended by this instance.
+     *
+     * @return the {@link #recordCount}.
+     */
+    public synchronized long getRecordCount() {
+        return recordCount;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Stops the journal, flushing the current segment to disk. The events appended afterwards
+     * are ignored.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if (segment != null) {
+            segment.force();
+            // Unmapped once collected, there is no way to unmap it right away.
+            segment = null;
+        }
+    }
+
+    /**
+     * Lists the segments of a journal, oldest first.
+     *
+     * @param directory the directory of the segments.
+     * @return the segments, empty if there is none.
+     */
+    public static File[] listSegments(File directory) {
+        File[] segments = directory.listFiles(SEGMENT_FILTER);
+        if (segments == null) {
+            return new File[0];
+        }
+        // The sequence numbers are zero padded, the names sort in order.
+        Arrays.sort(segments);
+        return segments;
+    }
+
+    /**
+     * Maps a new segment, and deletes the oldest ones beyond {@link #maxSegments}.
+     *
+     * @return false if the segment could not be created.
+     */
+    private boolean openNextSegment() {
+        // The full segment is left to the page cache, which survives a crash of the process:
+        // forcing it to disk would block the thread receiving the events.
+        segment = null;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Log.w(TAG, "Unable to create " + directory);
+            return false;
+        }
+        segmentNumber++;
+        File file = new File(directory, String.format(Locale.US, "%s%012d%s", SEGMENT_PREFIX, segmentNumber, SEGMENT_SUFFIX));
+        long size = HEADER_SIZE + (long) segmentRecords * RECORD_SIZE;
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            // The mapping outlives the channel. The file is sized, so zero filled, by the mapping.
+            segment = out.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to map " + file, e);
+            return false;
+        }
+        segment.putInt(FILE_MAGIC);
+        segment.putInt(FILE_VERSION);
+        segment.putInt(RECORD_SIZE);
+        segment.putLong(System.currentTimeMillis());
+        segment.putLong(System.nanoTime());
+
+        File[] segments = listSegments(directory);
+        for (int i = 0; i < segments.length - maxSegments; i++) {
+            if (!segments[i].delete()) {
+                Log.w(TAG, "Unable to delete " + segments[i]);
+            }
+        }
+        return true;
+    }
+
+    private static long parseSegmentNumber(File segment) {
+        String name = segment.getName();
+        try {
+            return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Reads the records of a journal, segment after segment, oldest first.
+     * <p>
+     * The cursor is positioned on a record by {@link #next()}, whose fields are then read with
+     * the getters: reading allocates nothing but the mapping of each segment.
+     * <p>
+     * This class is not Thread Safe.
+     */
+    public static class Cursor {
+
+        private final File[] segments;
+
+        /**
+         * Index of the next segment to map.
+         */
+        private int nextSegment;
+
+        private MappedByteBuffer buffer;
+
+        /**
+         * Wall clock and {@link System#nanoTime()} when the current segment was created, to date
+         * its records.
+         */
+        private long segmentCreatedAtMillis;
+        private long segmentCreatedAtNanos;
+
+        private int type;
+        private short rssi;
+        private int state;
+        private int previousState;
+        private int deviceClass;
+        private long address;
+        private long receivedAtNanos;
+
+        /**
+         * Instantiates a new Cursor over the segments of a journal, as they are now.
+         *
+         * @param directory the directory of the segments.
+         */
+        public Cursor(File directory) {
+            this(listSegments(directory));
+        }
+
+        /**
+         * Instantiates a new Cursor over some segments.
+         *
+         * @param segments the segments, in order.
+         */
+        public Cursor(File[] segments) {
+            this.segments = segments;
+        }
+
+        /**
+         * Moves to the next record. The segments which are unreadable, or not segments, are
+         * skipped.
+         *
+         * @return false once past the last record.
+         */
+        public boolean next() {
+            while (true) {
+                if (buffer != null && buffer.remaining() >= RECORD_SIZE) {
+                    type = buffer.get();
+                    if (type != 0) {
+                        buffer.get();
+                        rssi = buffer.getShort();
+                        state = buffer.getInt();
+                        previousState = buffer.getInt();
+                        deviceClass = buffer.getInt();
+                        address = buffer.getLong();
+                        receivedAtNanos = buffer.getLong();
+                        return true;
+                    }
+                }
+                // End of the segment.
+                buffer = null;
+                if (nextSegment == segments.length) {
+                    return false;
+                }
+                buffer = map(segments[nextSegment++]);
+                if (buffer != null) {
+                    segmentCreatedAtMillis = buffer.getLong();
+                    segmentCreatedAtNanos = buffer.getLong();
+                }
+            }
+        }
+
+        /**
+         * Counts the records of the segments, reading them with another cursor, whatever the
+         * position of this one.
+         *
+         * @return the number of records.
+         */
+        public long count() {
+            Cursor counter = new Cursor(segments);
+            long count = 0;
+            while (counter.next()) {
+                count++;
+            }
+            return count;
+        }
+
+        public int getType() {
+            return type;
+        }
+
+        public long getAddress() {
+            return address;
+        }
+
+        public int getDeviceClass() {
+            return deviceClass;
+        }
+
+        public short getRssi() {
+            return rssi;
+        }
+
+        public int getState() {
+            return state;
+        }
+
+        public int getPreviousState() {
+            return previousState;
+        }
+
+        public long getReceivedAtNanos() {
+            return receivedAtNanos;
+        }
+
+        /**
+         * Gets the wall clock time of the current record, from the creation time of its segment.
+         *
+         * @return the time the event has been received, in milliseconds since the epoch.
+         */
+        public long getReceivedAtMillis() {
+            return segmentCreatedAtMillis + (receivedAtNanos - segmentCreatedAtNanos) / 1000000;
+        }
+
+        /**
+         * Maps a segment, positioned on its creation times, followed by the records.
+         *
+         * @return the records, or null if the file is not a readable segment.
+         */
+        private static MappedByteBuffer map(File file) {
+            try (FileInputStream in = new FileInputStream(file)) {
+                FileChannel channel = in.getChannel();
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != FILE_MAGIC
+                        || buffer.getInt() != FILE_VERSION || buffer.getInt() != RECORD_SIZE) {
+                    Log.w(TAG, "Not a journal segment: " + file);
+                    return null;
+                }
+                // Positioned on the creation times.
+                return buffer;
+            } catch (IOException | BufferUnderflowException e) {
+                Log.w(TAG, "Unable to read " + file, e);
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,312 @@
+package com.example.bluetooth_sample;
+
+import android.bluetooth.BluetoothAdapter;
+
+import java.io.File;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A {@link BluetoothBackend} replaying a {@link ScanJournal}: the events of a field session are
+ * offered again to the {@link BluetoothEventQueue}, so they go through the whole discovery
+ * pipeline, registry, search and {@link BluetoothListener} callbacks, like the first time.
+ * <p>
+ * The events are either replayed at their original pace on a background thread, or, as fast as
+ * possible, by {@link #replay(int)} on the calling thread, which makes a session a reproducible
+ * regression or performance test. The gaps longer than {@link #MAX_GAP_NANOS}, between two
+ * sessions or while the app was paused, are shortened to that.
+ * <p>
+ * The journal has neither the names of the devices nor their service UUIDs: the sightings are
+ * replayed without name, and the SDP queries as failed. The commands don't change what is
+ * replayed, but the pairings, which are refused.
+ * <p>
+ * This class is Thread Safe.
+ */
+public class ScanJournalReplayer implements BluetoothBackend {
+
+    /**
+     * Longest wait between two events replayed at their original pace.
+     */
+    public static final long MAX_GAP_NANOS = 5000000000L;
+
+    private final ScanJournal.Cursor cursor;
+
+    private boolean realTime = true;
+
+    /**
+     * The queue receiving the events, null if not started.
+     */
+    private BluetoothEventQueue events;
+
+    /**
+     * Thread replaying the events at their original pace, null if not running.
+     */
+    private Thread player;
+
+    private int state = BluetoothAdapter.STATE_ON;
+    private boolean discovering;
+    private boolean leScanning;
+
+    /**
+     * Receive time of the event the cursor is on, 0 before the first one.
+     */
+    private long lastReceivedAtNanos;
+
+    private long replayedCount;
+    private boolean finished;
+
+    /**
+     * Instantiates a new ScanJournalReplayer over the segments of a journal, as they are now.
+     *
+     * @param directory the directory of the journal.
+     */
+    public ScanJournalReplayer(File directory) {
+        this(new ScanJournal.Cursor(directory));
+    }
+
+    /**
+     * Instantiates a new ScanJournalReplayer.
+     *
+     * @param cursor the records to replay, not read yet.
+     */
+    public ScanJournalReplayer(ScanJournal.Cursor cursor) {
+        this.cursor = cursor;
+    }
+
+    /**
+     * Sets if the events are replayed at their original pace once started. If not, they are
+     * only replayed through {@link #replay(int)}.
+     *
+     * @param realTime true to replay the events on a background thread, the default.
+     */
+    public synchronized void setRealTime(boolean realTime) {
+        this.realTime = realTime;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void start(BluetoothEventQueue events) {
+        this.events = events;
+        if (realTime && player == null) {
+            player = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    play();
+                }
+            }, "ScanJournalReplayer");
+            player.setDaemon(true);
+            player.start();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void stop() {
+        Thread thread;
+        synchronized (this) {
+            events = null;
+            thread = player;
+            player = null;
+        }
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    /**
+     * Replays events on the calling thread, as fast as possible.
+     *
+     * @param count the maximum number of events.
+     * @return the number of events replayed, less than the count once the journal is finished.
+     * @throws IllegalStateException if the backend is not started.
+     */
+    public synchronized int replay(int count) {
+        if (events == null) {
+            throw new IllegalStateException("Not started");
+        }
+        int replayed = 0;
+        while (replayed < count && replayNext()) {
+            replayed++;
+        }
+        return replayed;
+    }
+
+    /**
+     * Gets the number of events replayed so far.
+     *
+     * @return the number of events.
+     */
+    public synchronized long getReplayedCount() {
+        return replayedCount;
+    }
+
+    /**
+     * Checks if every event of the journal has been replayed.
+     *
+     * @return true once past the last record.
+     */
+    public synchronized boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * Replays the events at their original pace, until the end of the journal or {@link #stop()}.
+     */
+    private void play() {
+        long deadline = System.nanoTime();
+        while (true) {
+            long gap;
+            synchronized (this) {
+                gap = advance();
+                if (gap < 0) {
+                    player = null;
+                    return;
+                }
+            }
+            deadline += gap;
+            long wait;
+            while ((wait = deadline - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(this, wait);
+                if (Thread.interrupted()) {
+                    return;
+                }
+            }
+            synchronized (this) {
+                if (player != Thread.currentThread()) {
+                    return;
+                }
+                offerCurrent();
+            }
+        }
+    }
+
+    /**
+     * Offers the next event of the journal.
+     *
+     * @return false once past the last record.
+     */
+    private boolean replayNext() {
+        if (advance() < 0) {
+            return false;
+        }
+        offerCurrent();
+        return true;
+    }
+
+    /**
+     * Moves to the next event of the journal.
+     *
+     * @return the time between this event and the previous one, shortened to
+     * {@link #MAX_GAP_NANOS}, or -1 once past the last record.
+     */
+    private long advance() {
+        if (finished || !cursor.next()) {
+            finished = true;
+            return -1;
+        }
+        long receivedAtNanos = cursor.getReceivedAtNanos();
+        long gap = lastReceivedAtNanos != 0 ? receivedAtNanos - lastReceivedAtNanos : 0;
+        lastReceivedAtNanos = receivedAtNanos;
+        // A new session, or a clock which went backwards.
+        return gap >= 0 && gap <= MAX_GAP_NANOS ? gap : MAX_GAP_NANOS;
+    }
+
+    /**
+     * Offers the event the cursor is on.
+     */
+    private void offerCurrent() {
+        replayedCount++;
+        switch (cursor.getType()) {
+            case BluetoothEvent.TYPE_DEVICE_FOUND:
+                events.offerDeviceFound(cursor.getAddress(), null, null, cursor.getDeviceClass(), cursor.getRssi());
+                break;
+            case BluetoothEvent.TYPE_DISCOVERY_FINISHED:
+                discovering = false;
+                leScanning = false;
+                events.offer(BluetoothEvent.TYPE_DISCOVERY_FINISHED, 0, null, 0, 0);
+                break;
+            case BluetoothEvent.TYPE_STATE_CHANGED:
+                state = cursor.getState();
+                events.offer(BluetoothEvent.TYPE_STATE_CHANGED, 0, null, state, cursor.getPreviousState());
+                break;
+            case BluetoothEvent.TYPE_UUIDS_FETCHED:
+                // The UUIDs are not journaled.
+                events.offerUuidsFetched(cursor.getAddress(), null, null);
+                break;
+            default:
+                events.offer(cursor.getType(), cursor.getAddress(), null, cursor.getState(), cursor.getPreviousState());
+                break;
+        }
+    }
+
+    @Override
+    public synchronized int getState() {
+        return state;
+    }
+
+    @Override
+    public synchronized boolean isDiscovering() {
+        return discovering;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The sightings replayed don't depend on it.
+     */
+    @Override
+    public synchronized boolean startDiscovery() {
+        discovering = state == BluetoothAdapter.STATE_ON;
+        return discovering;
+    }
+
+    @Override
+    public synchronized boolean cancelDiscovery() {
+        discovering = false;
+        return state == BluetoothAdapter.STATE_ON;
+    }
+
+    @Override
+    public synchronized boolean startLeScan(LeScanSettings settings) {
+        leScanning = state == BluetoothAdapter.STATE_ON;
+        return leScanning;
+    }
+
+    @Override
+    public synchronized void stopLeScan() {
+        leScanning = false;
+    }
+
+    @Override
+    public synchronized boolean isLeScanning() {
+        return leScanning;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The bonds of the session are replayed as bond state changes.
+     */
+    @Override
+    public long[] getBondedAddresses() {
+        return new long[0];
+    }
+
+    @Override
+    public boolean createBond(long address) {
+        return false;
+    }
+
+    @Override
+    public boolean cancelBond(long address) {
+        return false;
+    }
+
+    @Override
+    public boolean fetchUuids(long address) {
+        return false;
+    }
+}
@@ -0,0 +1,451 @@
+package com.example.bluetooth_sample;
+
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.content.Intent;
+import android.os.Binder;
+import android.os.Build;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.File;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import androidx.core.app.NotificationCompat;
+
+/**
+ * Owns the scanning, independently of the activities: a single {@link BluetoothHelper}, so a
+ * single registered receiver, and the {@link DeviceRegistry} of the devices found, both kept
+ * alive while the activities are recreated.
+ * <p>
+ * An activity binds to the service, gets the registry, already filled with the devices found so
+ * far, and {@link #attach(BluetoothListener, ProgressListener)} itself to receive the events. The
+ * events are forwarded to the attached activity, if any. Once the last activity is detached, the
+ * service keeps running the continuous scan, if any, in the background, as a foreground service
+ * showing a notification so that Android 8 and later don't stop it, and otherwise stops itself
+ * after {@link #IDLE_STOP_DELAY_MILLIS}.
+ * <p>
+ * The service is started, then bound to, by the activities: being started, it outlives the
+ * unbinding of an activity being recreated. Runs in the process of the app, all its methods
+ * must be called from the UI thread.
+ */
+public class ScanService extends Service implements BluetoothListener, ProgressListener {
+
+    /**
+     * Tag string used for logging.
+     */
+    private static final String TAG = "ScanService";
+
+    private static final String SERVICE_UUID_CACHE_FILE = "service_uuids.bin";
+    private static final String DISCOVERY_CACHE_FILE = "discovery_cache.bin";
+
+    /**
+     * Directory of the scan journal, in the external files of the app so that it can be pulled
+     * from a field device without root.
+     */
+    private static final String JOURNAL_DIRECTORY = "journal";
+
+    /**
+     * Number of records of a segment of the scan journal, 2 MiB, so that a long session uses few
+     * files.
+     */
+    static final int JOURNAL_SEGMENT_RECORDS = 65536;
+
+    /**
+     * Number of segments of the scan journal kept, 64 MiB: the last two million events, over
+     * the current session and the previous ones.
+     */
+    static final int JOURNAL_MAX_SEGMENTS = 32;
+
+    /**
+     * Directory of the exports of the scan sessions, next to the journal.
+     */
+    private static final String EXPORT_DIRECTORY = "exports";
+
+    /**
+     * Delay before stopping once no activity is attached and no scan is running, long enough for
+     * an activity being recreated to attach again.
+     */
+    static final long IDLE_STOP_DELAY_MILLIS = 5000;
+
+    /**
+     * Identifier of the notification shown while scanning in the background.
+     */
+    private static final int SCAN_NOTIFICATION_ID = 1;
+
+    /**
+     * Channel of the notification shown while scanning in the background.
+     */
+    private static final String SCAN_NOTIFICATION_CHANNEL = "continuous_scan";
+
+    /**
+     * Gives the bound activities direct access to the service, which runs in their process.
+     */
+    public class LocalBinder extends Binder {
+        public ScanService getService() {
+            return ScanService.this;
+        }
+    }
+
+    private final IBinder binder = new LocalBinder();
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Stops the service, unless an activity attached or a scan started in the meantime.
+     */
+    private final Runnable idleStop = new Runnable() {
+        @Override
+        public void run() {
+            if (listener == null && !isScanningInBackground()) {
+                Log.d(TAG, "No activity and no scan, stopping.");
+                stopSelf();
+            }
+        }
+    };
+
+    private DeviceRegistry deviceRegistry;
+    private ServiceUuidCache serviceUuidCache;
+    private DiscoveryCache discoveryCache;
+
+    /**
+     * Journal of the Bluetooth events received, replayable by a {@link ScanJournalReplayer}.
+     */
+    private ScanJournal scanJournal;
+
+    /**
+     * Exports the sessions of the {@link #scanJournal}, reporting to the attached activity.
+     */
+    private SessionExporter sessionExporter;
+
+    /**
+     * Thread of the {@link #sessionExporter}.
+     */
+    private ExecutorService exportExecutor;
+
+    /**
+     * The controller of the Bluetooth, created once the Bluetooth is available.
+     */
+    private BluetoothHelper bluetooth;
+
+    /**
+     * The attached activity receiving the events, or null.
+     */
+    private BluetoothListener listener;
+    private ProgressListener progressListener;
+
+    /**
+     * True while promoted to a foreground service.
+     */
+    private boolean foreground;
+
+    /**
+     * True once the devices of the {@link #discoveryCache} have been restored.
+     */
+    private boolean devicesRestored;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        deviceRegistry = new DeviceRegistry();
+        serviceUuidCache = new ServiceUuidCache(new File(getFilesDir(), SERVICE_UUID_CACHE_FILE));
+        Executor mainExecutor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                mainHandler.post(command);
+            }
+        };
+        discoveryCache = new DiscoveryCache(new File(getFilesDir(), DISCOVERY_CACHE_FILE));
+        // The devices seen last time, the discoveries merge their results into them.
+        discoveryCache.loadInto(deviceRegistry, mainExecutor, this);
+        File journalDirectory = getExternalFilesDir(JOURNAL_DIRECTORY);
+        if (journalDirectory == null) {
+            // The external storage is not mounted.
+            journalDirectory = new File(getFilesDir(), JOURNAL_DIRECTORY);
+        }
+        scanJournal = new ScanJournal(journalDirectory, JOURNAL_SEGMENT_RECORDS, JOURNAL_MAX_SEGMENTS);
+        exportExecutor = Executors.newSingleThreadExecutor();
+        sessionExporter = new SessionExporter(exportExecutor, mainExecutor);
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        // The registry would be lost anyway, the activity starts the service again.
+        return START_NOT_STICKY;
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return binder;
+    }
+
+    @Override
+    public void onDestroy() {
+        mainHandler.removeCallbacks(idleStop);
+        if (bluetooth != null) {
+            bluetooth.close();
+            bluetooth = null;
+        }
+        // An export running goes on until done.
+        exportExecutor.shutdown();
+        scanJournal.close();
+        serviceUuidCache.close();
+        discoveryCache.save(deviceRegistry);
+        discoveryCache.close();
+        super.onDestroy();
+    }
+
+    /**
+     * Attaches an activity, which receives the events from now on, in place of the one attached
+     * before, if any.
+     *
+     * @param listener         the callback for the Bluetooth events.
+     * @param progressListener the callback for the progress of the discoveries.
+     */
+    public void attach(BluetoothListener listener, ProgressListener progressListener) {
+        mainHandler.removeCallbacks(idleStop);
+        if (foreground) {
+            // The activity shows the scan, the notification is no longer needed.
+            foreground = false;
+            stopForeground(true);
+        }
+        this.listener = listener;
+        this.progressListener = progressListener;
+        if (bluetooth != null) {
+            listener.setBluetoothController(bluetooth);
+        }
+    }
+
+    /**
+     * Detaches an activity, if still attached. The discovery cache is saved, and the service
+     * goes to the foreground if the continuous scan is running, or stops after a while.
+     *
+     * @param listener the callback for the Bluetooth events given to
+     *                 {@link #attach(BluetoothListener, ProgressListener)}.
+     */
+    public void detach(BluetoothListener listener) {
+        if (this.listener != listener) {
+            return;
+        }
+        this.listener = null;
+        this.progressListener = null;
+        discoveryCache.save(deviceRegistry);
+        if (isScanningInBackground()) {
+            Log.d(TAG, "Continuous scan running, scanning in the background.");
+            startForeground();
+        } else {
+            mainHandler.postDelayed(idleStop, IDLE_STOP_DELAY_MILLIS);
+        }
+    }
+
+    /**
+     * Promotes the service to a foreground service, with a notification bringing the main
+     * activity back.
+     */
+    private void startForeground() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            NotificationManager notificationManager = (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
+            notificationManager.createNotificationChannel(new NotificationChannel(SCAN_NOTIFICATION_CHANNEL,
+                    getString(R.string.continuous_scan), NotificationManager.IMPORTANCE_LOW));
+        }
+        PendingIntent contentIntent = PendingIntent.getActivity(this, 0, new Intent(this, MainActivity.class), 0);
+        foreground = true;
+        startForeground(SCAN_NOTIFICATION_ID, new NotificationCompat.Builder(this, SCAN_NOTIFICATION_CHANNEL)
+                .setSmallIcon(android.R.drawable.stat_sys_data_bluetooth)
+                .setContentTitle(getString(R.string.continuous_scan))
+                .setContentText(getString(R.string.scan_notification_text))
+                .setContentIntent(contentIntent)
+                .setOngoing(true)
+                .build());
+    }
+
+    /**
+     * Gets the controller of the Bluetooth, creating it the first time. Must only be called once
+     * the Bluetooth is available and the location permission granted.
+     *
+     * @return the {@link #bluetooth}.
+     */
+    public BluetoothHelper openBluetooth() {
+        if (bluetooth == null) {
+            bluetooth = new BluetoothHelper(this, BluetoothAdapter.getDefaultAdapter(), this, this,
+                    deviceRegistry, serviceUuidCache, true);
+            bluetooth.setScanJournal(scanJournal);
+        }
+        return bluetooth;
+    }
+
+    /**
+     * Gets the controller of the Bluetooth, if already created.
+     *
+     * @return the {@link #bluetooth}, or null.
+     */
+    public BluetoothHelper getBluetooth() {
+        return bluetooth;
+    }
+
+    public DeviceRegistry getDeviceRegistry() {
+        return deviceRegistry;
+    }
+
+    public ServiceUuidCache getServiceUuidCache() {
+        return serviceUuidCache;
+    }
+
+    public ScanJournal getScanJournal() {
+        return scanJournal;
+    }
+
+    /**
+     * Exports the current and previous scan sessions to a new file, in the background. The
+     * progress is reported to the attached activity, if any.
+     *
+     * @param format the format of the file.
+     * @param gzip   true to compress the file.
+     * @return the file which is going to be written.
+     */
+    public File exportSessions(SessionExporter.Format format, boolean gzip) {
+        File directory = getExternalFilesDir(EXPORT_DIRECTORY);
+        if (directory == null) {
+            // The external storage is not mounted.
+            directory = new File(getFilesDir(), EXPORT_DIRECTORY);
+        }
+        File file = new File(directory, "scan-sessions-" + System.currentTimeMillis()
+                + format.getExtension() + (gzip ? ".gz" : ""));
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Log.w(TAG, "Unable to create " + directory);
+            exportFinished(file, 0, false);
+            return file;
+        }
+        sessionExporter.export(scanJournal.getDirectory(), deviceRegistry, file, format, gzip, this);
+        return file;
+    }
+
+    /**
+     * Saves the devices found to the discovery cache, in the background.
+     */
+    public void saveDiscoveryCache() {
+        discoveryCache.save(deviceRegistry);
+    }
+
+    /**
+     * Checks if the devices of the discovery cache, read in the background, have been restored
+     * into the registry. If not, the attached activity is notified once they are.
+     *
+     * @return true if the registry holds the cached devices.
+     */
+    public boolean isDiscoveryCacheRestored() {
+        return devicesRestored;
+    }
+
+    /**
+     * Checks if the continuous scan is running.
+     *
+     * @return true if the discoveries are repeated.
+     */
+    public boolean isScanningInBackground() {
+        return bluetooth != null && bluetooth.getDiscoveryScheduler().isRunning();
+    }
+
+    @Override
+    public void onDeviceDiscovered(int index) {
+        if (listener != null) {
+            listener.onDeviceDiscovered(index);
+        }
+    }
+
+    @Override
+    public void onDeviceDiscoveryStarted() {
+        if (listener != null) {
+            listener.onDeviceDiscoveryStarted();
+        }
+    }
+
+    @Override
+    public void setBluetoothController(BluetoothHelper bluetooth) {
+        // Called while the controller is being created, before openBluetooth() returns it.
+        if (listener != null) {
+            listener.setBluetoothController(bluetooth);
+        }
+    }
+
+    @Override
+    public void onDeviceDiscoveryEnd() {
+        if (listener != null) {
+            listener.onDeviceDiscoveryEnd();
+        }
+    }
+
+    @Override
+    public void onBluetoothStatusChanged() {
+        // Starts the discovery scheduled while the Bluetooth was turning on, with or without UI.
+        bluetooth.onBluetoothStatusChanged();
+        if (listener != null) {
+            listener.onBluetoothStatusChanged();
+        }
+    }
+
+    @Override
+    public void onBluetoothTurningOn() {
+        if (listener != null) {
+            listener.onBluetoothTurningOn();
+        }
+    }
+
+    @Override
+    public void onDevicePairingEnded(long address, BluetoothDevice device, PairingResult result) {
+        if (listener != null) {
+            listener.onDevicePairingEnded(address, device, result);
+        }
+    }
+
+    @Override
+    public void startLoading() {
+        if (progressListener != null) {
+            progressListener.startLoading();
+        }
+    }
+
+    @Override
+    public void endLoading() {
+        if (progressListener != null) {
+            progressListener.endLoading();
+        }
+    }
+
+    @Override
+    public void connectedDeviceInfo(DeviceSnapshot snapshot) {
+        if (progressListener != null) {
+            progressListener.connectedDeviceInfo(snapshot);
+        }
+    }
+
+    @Override
+    public void exportProgress(long exported, long total) {
+        if (progressListener != null) {
+            progressListener.exportProgress(exported, total);
+        }
+    }
+
+    @Override
+    public void exportFinished(File file, long exported, boolean success) {
+        if (progressListener != null) {
+            progressListener.exportFinished(file, exported, success);
+        }
+    }
+
+    @Override
+    public void devicesRestored(int restored) {
+        devicesRestored = true;
+        if (progressListener != null) {
+            progressListener.devicesRestored(restored);
+        }
+    }
+}
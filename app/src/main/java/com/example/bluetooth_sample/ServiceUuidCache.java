@@ -0,0 +1,274 @@
+package com.example.bluetooth_sample;
+
+import android.bluetooth.BluetoothDevice;
+import android.os.ParcelUuid;
+import android.os.Parcelable;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Cache of the service UUIDs of the remote devices, filled by SDP queries and persisted across
+ * launches.
+ * <p>
+ * Each UUID is stored as a pair of longs (most and least significant bits), so a device with n
+ * services costs a single long[2n]. The cache is written to disk on a background thread after
+ * each update, until {@link #close()}.
+ * <p>
+ * This class is Thread Safe.
+ */
+public class ServiceUuidCache {
+
+    /**
+     * Tag string used for logging.
+     */
+    private static final String TAG = "ServiceUuidCache";
+
+    /**
+     * Version of the file format, written as its first int.
+     */
+    private static final int FILE_VERSION = 1;
+
+    /**
+     * The file where the cache is persisted.
+     */
+    private final File file;
+
+    /**
+     * Position of the UUIDs of each device in {@link #uuids}, keyed by packed address.
+     */
+    private final LongIntHashMap indexByAddress = new LongIntHashMap(16);
+
+    /**
+     * Packed address of each device, by position.
+     */
+    private long[] addresses = new long[16];
+
+    /**
+     * UUIDs of each device as most/least significant bit pairs, by position.
+     */
+    private long[][] uuids = new long[16][];
+
+    /**
+     * Number of devices in the cache.
+     */
+    private int size;
+
+    /**
+     * Packed addresses of the devices whose SDP query is running.
+     */
+    private final LongIntHashMap pendingFetches = new LongIntHashMap(4);
+
+    /**
+     * Thread writing the cache to disk.
+     */
+    private final ExecutorService writer = Executors.newSingleThreadExecutor();
+
+    /**
+     * True if a write is already waiting to run.
+     */
+    private boolean writeScheduled;
+
+    /**
+     * True once closed, the updates are no longer written.
+     */
+    private boolean closed;
+
+    /**
+     * Task writing the cache to disk.
+     */
+    private final Runnable writeTask = new Runnable() {
+        @Override
+        public void run() {
+            save();
+        }
+    };
+
+    /**
+     * Instantiates a new ServiceUuidCache, loading the persisted entries.
+     *
+     * @param file the file where the cache is persisted.
+     */
+    public ServiceUuidCache(File file) {
+        this.file = file;
+        load();
+    }
+
+    /**
+     * Gets the cached UUIDs of a device.
+     *
+     * @param address the packed address of the device.
+     * @return the UUIDs as most/least significant bit pairs, or null if the device is unknown.
+     */
+    public synchronized long[] get(long address) {
+        int index = indexByAddress.get(address);
+        return index != LongIntHashMap.NO_VALUE ? uuids[index] : null;
+    }
+
+    /**
+     * Starts an SDP query for a device, unless its UUIDs are already known or being fetched.
+     * The result comes back through {@link BluetoothDevice#ACTION_UUID}.
+     *
+     * @param address the packed address of the device.
+     * @param backend the Bluetooth stack running the query.
+     * @return true if a query has been started.
+     */
+    public boolean fetch(long address, BluetoothBackend backend) {
+        synchronized (this) {
+            if (indexByAddress.get(address) != LongIntHashMap.NO_VALUE
+                    || pendingFetches.put(address, 0) != LongIntHashMap.NO_VALUE) {
+                return false;
+            }
+        }
+        boolean started = backend.fetchUuids(address);
+        if (!started) {
+            synchronized (this) {
+                pendingFetches.remove(address);
+            }
+        }
+        return started;
+    }
+
+    /**
+     * Stores the UUIDs of a device, as delivered by {@link BluetoothDevice#ACTION_UUID}.
+     *
+     * @param address the packed address of the device.
+     * @param result  the content of {@link BluetoothDevice#EXTRA_UUID}, may be null if the query
+     *                failed.
+     */
+    public void onUuidsFetched(long address, Parcelable[] result) {
+        synchronized (this) {
+            pendingFetches.remove(address);
+            if (result == null) {
+                return;
+            }
+            put(address, toPairs(result));
+            if (writeScheduled || closed) {
+                return;
+            }
+            writeScheduled = true;
+        }
+        writer.execute(writeTask);
+    }
+
+    /**
+     * Stops the thread writing the cache, once the pending write, if any, is done. The UUIDs
+     * fetched afterwards are only kept in memory.
+     */
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        writer.shutdown();
+    }
+
+    /**
+     * Converts UUIDs to most/least significant bit pairs.
+     *
+     * @param parcelUuids the {@link ParcelUuid}s, may be null.
+     * @return the pairs, empty if there is no UUID.
+     */
+    public static long[] toPairs(Parcelable[] parcelUuids) {
+        if (parcelUuids == null) {
+            return new long[0];
+        }
+        long[] pairs = new long[parcelUuids.length * 2];
+        for (int i = 0; i < parcelUuids.length; i++) {
+            UUID uuid = ((ParcelUuid) parcelUuids[i]).getUuid();
+            pairs[i * 2] = uuid.getMostSignificantBits();
+            pairs[i * 2 + 1] = uuid.getLeastSignificantBits();
+        }
+        return pairs;
+    }
+
+    /**
+     * Adds or replaces the UUIDs of a device. Must be called holding the lock.
+     *
+     * @param address the packed address of the device.
+     * @param pairs   the UUIDs as most/least significant bit pairs.
+     */
+    private void put(long address, long[] pairs) {
+        int index = indexByAddress.get(address);
+        if (index == LongIntHashMap.NO_VALUE) {
+            if (size == addresses.length) {
+                addresses = Arrays.copyOf(addresses, size << 1);
+                uuids = Arrays.copyOf(uuids, size << 1);
+            }
+            index = size++;
+            indexByAddress.put(address, index);
+            addresses[index] = address;
+        }
+        uuids[index] = pairs;
+    }
+
+    /**
+     * Loads the persisted entries, ignoring a missing or unreadable file.
+     */
+    private synchronized void load() {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != FILE_VERSION) {
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                long address = in.readLong();
+                long[] pairs = new long[in.readUnsignedShort() * 2];
+                for (int j = 0; j < pairs.length; j++) {
+                    pairs[j] = in.readLong();
+                }
+                put(address, pairs);
+            }
+        } catch (FileNotFoundException e) {
+            // First launch, nothing cached yet.
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to read " + file, e);
+        }
+    }
+
+    /**
+     * Writes every entry to disk. Runs on the {@link #writer} thread.
+     */
+    private void save() {
+        long[] addressesCopy;
+        long[][] uuidsCopy;
+        int count;
+        synchronized (this) {
+            writeScheduled = false;
+            count = size;
+            addressesCopy = Arrays.copyOf(addresses, count);
+            uuidsCopy = Arrays.copyOf(uuids, count);
+        }
+
+        // Writes to a temporary file first, so a crash can't leave a truncated cache.
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(FILE_VERSION);
+            out.writeInt(count);
+            for (int i = 0; i < count; i++) {
+                out.writeLong(addressesCopy[i]);
+                out.writeShort(uuidsCopy[i].length / 2);
+                for (long value : uuidsCopy[i]) {
+                    out.writeLong(value);
+                }
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to write " + tmp, e);
+            return;
+        }
+        if (!tmp.renameTo(file)) {
+            Log.w(TAG, "Unable to replace " + file);
+        }
+    }
+}
@@ -0,0 +1,350 @@
+package com.example.bluetooth_sample;
+
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.concurrent.Executor;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Exports the scan sessions recorded by the {@link ScanJournal}, the current one and the previous
+ * ones still on disk, to a CSV or JSON Lines file, optionally gzip compressed.
+ * <p>
+ * The events are streamed from the memory mapped journal to a buffered writer, one at a time, so
+ * the memory used doesn't depend on the number of events: millions of sightings are exported
+ * with a few buffers. The journal has no device names, they are taken from the
+ * {@link DeviceRegistry} of the current session when known.
+ * <p>
+ * The export runs on a background executor, and its progress is reported to a
+ * {@link ProgressListener} on the callback executor, the UI thread in the app.
+ */
+public class SessionExporter {
+
+    /**
+     * Format of the exported file.
+     */
+    public enum Format {
+        /**
+         * A header line, then one comma separated line per event.
+         */
+        CSV(".csv"),
+
+        /**
+         * One JSON object per line and per event, without the fields which are unknown.
+         */
+        JSON_LINES(".jsonl");
+
+        private final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+    }
+
+    /**
+     * Tag string used for logging.
+     */
+    private static final String TAG = "SessionExporter";
+
+    /**
+     * Columns of the CSV format, which are also the fields of the JSON Lines format.
+     */
+    private static final String CSV_HEADER = "time_millis,event,address,name,device_class,rssi,state,previous_state\n";
+
+    /**
+     * Name of each event type, by {@code BluetoothEvent.TYPE_} constant.
+     */
+    private static final String[] EVENT_NAMES = {
+            null,
+            "device_found",
+            "discovery_finished",
+            "state_changed",
+            "bond_state_changed",
+            "uuids_fetched"
+    };
+
+    /**
+     * Number of events written between two progress reports.
+     */
+    static final int PROGRESS_INTERVAL = 16384;
+
+    /**
+     * Size of the buffer of the file, and of the compressor.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Executor running the exports, one at a time.
+     */
+    private final Executor exportExecutor;
+
+    /**
+     * Executor running the callbacks of the listener.
+     */
+    private final Executor callbackExecutor;
+
+    /**
+     * Instantiates a new SessionExporter.
+     *
+     * @param exportExecutor   the executor running the exports, which must run them one at a time.
+     * @param callbackExecutor the executor running the callbacks of the listeners.
+     */
+    public SessionExporter(Executor exportExecutor, Executor callbackExecutor) {
+        this.exportExecutor = exportExecutor;
+        this.callbackExecutor = callbackExecutor;
+    }
+
+    /**
+     * Exports the sessions of a journal, in the background. Must be called from the UI thread,
+     * since it reads the registry.
+     *
+     * @param journalDirectory the directory of the journal.
+     * @param registry         the registry of the current session, giving the device names.
+     * @param file             the file to write, replaced once the export has succeeded.
+     * @param format           the format of the file.
+     * @param gzip             true to compress the file.
+     * @param listener         the callback for the progress of the export.
+     */
+    public void export(final File journalDirectory, DeviceRegistry registry, final File file,
+                       final Format format, final boolean gzip, final ProgressListener listener) {
+        // Copies the names, the registry can't be read from another thread.
+        final int size = registry.size();
+        final long[] addresses = new long[size];
+        final String[] names = new String[size];
+        for (int i = 0; i < size; i++) {
+            addresses[i] = registry.getAddress(i);
+            names[i] = registry.getName(i);
+        }
+        exportExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                LongIntHashMap namesByAddress = new LongIntHashMap(size);
+                for (int i = 0; i < size; i++) {
+                    if (names[i] != null) {
+                        namesByAddress.put(addresses[i], i);
+                    }
+                }
+                write(new ScanJournal.Cursor(journalDirectory), namesByAddress, names, file, format, gzip, listener);
+            }
+        });
+    }
+
+    /**
+     * Writes the export file. Runs on the {@link #exportExecutor}.
+     */
+    private void write(ScanJournal.Cursor cursor, LongIntHashMap namesByAddress, String[] names,
+                       File file, Format format, boolean gzip, ProgressListener listener) {
+        final long total = cursor.count();
+        reportProgress(listener, 0, total);
+        long exported = 0;
+        // Writes to a temporary file first, so a failure can't leave a truncated export.
+        File tmp = new File(file.getPath() + ".tmp");
+        try (Writer writer = openWriter(tmp, gzip)) {
+            StringBuilder line = new StringBuilder(256);
+            if (format == Format.CSV) {
+                writer.write(CSV_HEADER);
+            }
+            while (cursor.next()) {
+                int index = namesByAddress.get(cursor.getAddress());
+                String name = index != LongIntHashMap.NO_VALUE ? names[index] : null;
+                line.setLength(0);
+                if (format == Format.CSV) {
+                    appendCsv(line, cursor, name);
+                } else {
+                    appendJson(line, cursor, name);
+                }
+                writer.append(line);
+                if (++exported % PROGRESS_INTERVAL == 0) {
+                    reportProgress(listener, exported, total);
+                }
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to write " + tmp, e);
+            tmp.delete();
+            reportFinished(listener, file, exported, false);
+            return;
+        }
+        if (!tmp.renameTo(file)) {
+            Log.w(TAG, "Unable to replace " + file);
+            tmp.delete();
+            reportFinished(listener, file, exported, false);
+            return;
+        }
+        reportProgress(listener, exported, exported);
+        reportFinished(listener, file, exported, true);
+    }
+
+    private static Writer openWriter(File file, boolean gzip) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out = gzip ? new GZIPOutputStream(out, BUFFER_SIZE) : new BufferedOutputStream(out, BUFFER_SIZE);
+        } catch (IOException e) {
+            out.close();
+            throw e;
+        }
+        // Encodes by chunks of the buffer size, not by line.
+        return new OutputStreamWriter(out, UTF_8);
+    }
+
+    /**
+     * Formats an event as a CSV line, the unknown values left empty.
+     */
+    static void appendCsv(StringBuilder line, ScanJournal.Cursor cursor, String name) {
+        int type = cursor.getType();
+        line.append(cursor.getReceivedAtMillis()).append(',');
+        appendEventName(line, type);
+        line.append(',');
+        if (cursor.getAddress() != 0) {
+            MacAddress.appendTo(line, cursor.getAddress());
+        }
+        line.append(',');
+        if (name != null) {
+            appendCsvField(line, name);
+        }
+        line.append(',');
+        if (type == BluetoothEvent.TYPE_DEVICE_FOUND) {
+            if (cursor.getDeviceClass() != DeviceRegistry.UNKNOWN_CLASS) {
+                line.append(cursor.getDeviceClass());
+            }
+            line.append(',');
+            if (cursor.getRssi() != DeviceRegistry.UNKNOWN_RSSI) {
+                line.append(cursor.getRssi());
+            }
+            line.append(",,");
+        } else {
+            line.append(",,").append(cursor.getState()).append(',');
+            if (type != BluetoothEvent.TYPE_UUIDS_FETCHED) {
+                line.append(cursor.getPreviousState());
+            }
+        }
+        line.append('\n');
+    }
+
+    /**
+     * Formats an event as a JSON object on a line, without the unknown values.
+     */
+    static void appendJson(StringBuilder line, ScanJournal.Cursor cursor, String name) {
+        int type = cursor.getType();
+        line.append("{\"time_millis\":").append(cursor.getReceivedAtMillis()).append(",\"event\":\"");
+        appendEventName(line, type);
+        line.append('"');
+        if (cursor.getAddress() != 0) {
+            MacAddress.appendTo(line.append(",\"address\":\""), cursor.getAddress()).append('"');
+        }
+        if (name != null) {
+            appendJsonString(line.append(",\"name\":"), name);
+        }
+        if (type == BluetoothEvent.TYPE_DEVICE_FOUND) {
+            if (cursor.getDeviceClass() != DeviceRegistry.UNKNOWN_CLASS) {
+                line.append(",\"device_class\":").append(cursor.getDeviceClass());
+            }
+            if (cursor.getRssi() != DeviceRegistry.UNKNOWN_RSSI) {
+                line.append(",\"rssi\":").append(cursor.getRssi());
+            }
+        } else {
+            line.append(",\"state\":").append(cursor.getState());
+            if (type != BluetoothEvent.TYPE_UUIDS_FETCHED) {
+                line.append(",\"previous_state\":").append(cursor.getPreviousState());
+            }
+        }
+        line.append("}\n");
+    }
+
+    private static void appendEventName(StringBuilder line, int type) {
+        if (type > 0 && type < EVENT_NAMES.length) {
+            line.append(EVENT_NAMES[type]);
+        } else {
+            line.append(type);
+        }
+    }
+
+    /**
+     * Appends a CSV field, quoted if it contains a separator, a quote or a line break.
+     */
+    private static void appendCsvField(StringBuilder line, String value) {
+        boolean quoted = false;
+        for (int i = 0; i < value.length() && !quoted; i++) {
+            char c = value.charAt(i);
+            quoted = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quoted) {
+            line.append(value);
+            return;
+        }
+        line.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                line.append('"');
+            }
+            line.append(c);
+        }
+        line.append('"');
+    }
+
+    /**
+     * Appends a JSON string, escaping the quotes, the backslashes and the control characters.
+     */
+    private static void appendJsonString(StringBuilder line, String value) {
+        line.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    line.append("\\\"");
+                    break;
+                case '\\':
+                    line.append("\\\\");
+                    break;
+                case '\n':
+                    line.append("\\n");
+                    break;
+                case '\r':
+                    line.append("\\r");
+                    break;
+                case '\t':
+                    line.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        line.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        line.append(c);
+                    }
+                    break;
+            }
+        }
+        line.append('"');
+    }
+
+    private void reportProgress(final ProgressListener listener, final long exported, final long total) {
+        callbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                listener.exportProgress(exported, total);
+            }
+        });
+    }
+
+    private void reportFinished(final ProgressListener listener, final File file, final long exported, final boolean success) {
+        callbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                listener.exportFinished(file, exported, success);
+            }
+        });
+    }
+}
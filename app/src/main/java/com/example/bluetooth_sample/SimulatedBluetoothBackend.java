@@ -0,0 +1,725 @@
+package com.example.bluetooth_sample;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothClass;
+import android.bluetooth.BluetoothDevice;
+import android.os.Parcelable;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A {@link BluetoothBackend} without radio, generating the traffic of a crowded place: device
+ * sightings, bond transitions, adapter state flips and failing commands.
+ * <p>
+ * The simulation advances by ticks, at a configurable rate between {@link #MIN_EVENTS_PER_SECOND}
+ * and {@link #MAX_EVENTS_PER_SECOND}. Each tick is a sighting of a random device of the population
+ * while a discovery or an LE scan is running (the LE sightings are buffered and reported in
+ * batches, like a controller does with a report delay), and moves the simulated clock forward, completing the bondings,
+ * SDP queries, discoveries and adapter restarts which are due. The ticks either run in real time
+ * on a background thread, or are stepped by {@link #generate(int)} on the calling thread, which
+ * makes the simulation deterministic for a given seed.
+ * <p>
+ * It doesn't use any Android service, so it also runs in plain JVM unit tests. There are no
+ * {@link BluetoothDevice} objects, the events only carry addresses.
+ * <p>
+ * This class is Thread Safe.
+ */
+public class SimulatedBluetoothBackend implements BluetoothBackend {
+
+    /**
+     * Lowest supported tick rate.
+     */
+    public static final int MIN_EVENTS_PER_SECOND = 1;
+
+    /**
+     * Highest supported tick rate.
+     */
+    public static final int MAX_EVENTS_PER_SECOND = 10000;
+
+    /**
+     * Packed address of the first simulated device, a locally administered one so that it can't
+     * clash with a real device.
+     */
+    public static final long FIRST_ADDRESS = 0x020000000000L;
+
+    /**
+     * Duration of an SDP query.
+     */
+    private static final long UUID_FETCH_MILLIS = 500;
+
+    /**
+     * Maximum number of ticks generated at once by the real time thread when it's late.
+     */
+    private static final int MAX_TICKS_PER_BATCH = 256;
+
+    /**
+     * Result of the simulated SDP queries: the devices have no service.
+     */
+    private static final Parcelable[] NO_UUIDS = new Parcelable[0];
+
+    /**
+     * Classes given to the simulated devices.
+     */
+    private static final int[] DEVICE_CLASSES = {
+            BluetoothClass.Device.PHONE_SMART,
+            BluetoothClass.Device.COMPUTER_LAPTOP,
+            BluetoothClass.Device.AUDIO_VIDEO_HEADPHONES,
+            BluetoothClass.Device.AUDIO_VIDEO_WEARABLE_HEADSET,
+            BluetoothClass.Device.WEARABLE_WRIST_WATCH,
+            DeviceRegistry.UNKNOWN_CLASS
+    };
+
+    private static final int TRANSITION_BOND = 1;
+    private static final int TRANSITION_UUIDS = 2;
+
+    /**
+     * Source of randomness, seeded for reproducible runs.
+     */
+    private final Random random;
+
+    private int eventsPerSecond = 100;
+    private long discoveryDurationMillis = 12000;
+    private long bondDurationMillis = 2000;
+    private float bondFailureRate = 0.1f;
+    private float commandFailureRate;
+    private float adapterFlipRate;
+    private long adapterOffMillis = 1000;
+    private boolean realTime = true;
+
+    /**
+     * Name of each device of the population, null for the devices not advertising one.
+     */
+    private String[] names;
+
+    /**
+     * Class of each device of the population.
+     */
+    private int[] deviceClasses;
+
+    /**
+     * Bond state of each device of the population.
+     */
+    private int[] bondStates;
+
+    /**
+     * The pending bond and SDP completions: address, kind and due time on the simulated clock.
+     */
+    private long[] transitionAddresses = new long[16];
+    private int[] transitionKinds = new int[16];
+    private long[] transitionDueNanos = new long[16];
+    private int transitionCount;
+
+    /**
+     * The queue receiving the events, null if not started.
+     */
+    private BluetoothEventQueue events;
+
+    /**
+     * Thread running the ticks in real time, null if not running.
+     */
+    private Thread ticker;
+
+    private int state = BluetoothAdapter.STATE_ON;
+    private boolean discovering;
+    private long discoveryEndNanos;
+    private boolean leScanning;
+    private long leScanEndNanos;
+    private long leReportDelayNanos;
+    private long leNextReportNanos;
+
+    /**
+     * The LE sightings buffered until the next batched report: device index and signal strength.
+     */
+    private int[] leBatchIndexes = new int[64];
+    private short[] leBatchRssis = new short[64];
+    private int leBatchSize;
+    private long adapterOnNanos;
+
+    /**
+     * The simulated clock, in nanoseconds.
+     */
+    private long clockNanos;
+
+    private long tickCount;
+    private long sightingCount;
+
+    /**
+     * Instantiates a new SimulatedBluetoothBackend with 1000 devices.
+     *
+     * @param seed the seed of the simulation.
+     */
+    public SimulatedBluetoothBackend(long seed) {
+        this.random = new Random(seed);
+        setDevicePopulation(1000);
+    }
+
+    /**
+     * Sets the tick rate.
+     *
+     * @param eventsPerSecond the number of ticks per second, between
+     *                        {@link #MIN_EVENTS_PER_SECOND} and {@link #MAX_EVENTS_PER_SECOND}.
+     */
+    public synchronized void setEventsPerSecond(int eventsPerSecond) {
+        if (eventsPerSecond < MIN_EVENTS_PER_SECOND || eventsPerSecond > MAX_EVENTS_PER_SECOND) {
+            throw new IllegalArgumentException("Invalid rate: " + eventsPerSecond);
+        }
+        this.eventsPerSecond = eventsPerSecond;
+    }
+
+    /**
+     * Sets the number of devices around, which also forgets their bonds. Device i has the
+     * address {@link #FIRST_ADDRESS} + i.
+     *
+     * @param devicePopulation the number of devices, at least 1.
+     */
+    public synchronized void setDevicePopulation(int devicePopulation) {
+        if (devicePopulation < 1) {
+            throw new IllegalArgumentException("Invalid population: " + devicePopulation);
+        }
+        names = new String[devicePopulation];
+        deviceClasses = new int[devicePopulation];
+        bondStates = new int[devicePopulation];
+        for (int i = 0; i < devicePopulation; i++) {
+            // Like in real life, some devices don't advertise their name.
+            names[i] = random.nextInt(4) != 0 ? "Device " + i : null;
+            deviceClasses[i] = DEVICE_CLASSES[random.nextInt(DEVICE_CLASSES.length)];
+        }
+        Arrays.fill(bondStates, BluetoothDevice.BOND_NONE);
+        transitionCount = 0;
+        leBatchSize = 0;
+    }
+
+    /**
+     * Sets how long a discovery runs before it finishes on its own.
+     *
+     * @param discoveryDurationMillis the duration on the simulated clock.
+     */
+    public synchronized void setDiscoveryDurationMillis(long discoveryDurationMillis) {
+        this.discoveryDurationMillis = discoveryDurationMillis;
+    }
+
+    /**
+     * Sets how long a bonding takes to succeed or fail.
+     *
+     * @param bondDurationMillis the duration on the simulated clock.
+     */
+    public synchronized void setBondDurationMillis(long bondDurationMillis) {
+        this.bondDurationMillis = bondDurationMillis;
+    }
+
+    /**
+     * Sets the probability that a bonding fails, for example because the user rejected it.
+     *
+     * @param bondFailureRate the probability, between 0 and 1.
+     */
+    public synchronized void setBondFailureRate(float bondFailureRate) {
+        this.bondFailureRate = bondFailureRate;
+    }
+
+    /**
+     * Sets the probability that a command (starting a discovery, a bonding or an SDP query) is
+     * refused by the stack.
+     *
+     * @param commandFailureRate the probability, between 0 and 1.
+     */
+    public synchronized void setCommandFailureRate(float commandFailureRate) {
+        this.commandFailureRate = commandFailureRate;
+    }
+
+    /**
+     * Sets the probability, at each tick, that the adapter is turned off. It's turned back on
+     * after {@link #setAdapterOffMillis(long)}.
+     *
+     * @param adapterFlipRate the probability, between 0 and 1.
+     */
+    public synchronized void setAdapterFlipRate(float adapterFlipRate) {
+        this.adapterFlipRate = adapterFlipRate;
+    }
+
+    /**
+     * Sets how long the adapter stays off after a flip.
+     *
+     * @param adapterOffMillis the duration on the simulated clock.
+     */
+    public synchronized void setAdapterOffMillis(long adapterOffMillis) {
+        this.adapterOffMillis = adapterOffMillis;
+    }
+
+    /**
+     * Sets if the ticks run in real time once started. If not, they only run through
+     * {@link #generate(int)}.
+     *
+     * @param realTime true to run the ticks on a background thread, the default.
+     */
+    public synchronized void setRealTime(boolean realTime) {
+        this.realTime = realTime;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void start(BluetoothEventQueue events) {
+        this.events = events;
+        if (realTime && ticker == null) {
+            ticker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    runTicks();
+                }
+            }, "SimulatedBluetooth");
+            ticker.setDaemon(true);
+            ticker.start();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void stop() {
+        Thread thread;
+        synchronized (this) {
+            events = null;
+            thread = ticker;
+            ticker = null;
+        }
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    /**
+     * Runs ticks on the calling thread, as fast as possible.
+     *
+     * @param count the number of ticks.
+     * @throws IllegalStateException if the backend is not started.
+     */
+    public synchronized void generate(int count) {
+        if (events == null) {
+            throw new IllegalStateException("Not started");
+        }
+        long tickNanos = 1000000000L / eventsPerSecond;
+        for (int i = 0; i < count; i++) {
+            tick(tickNanos);
+        }
+    }
+
+    /**
+     * Gets the number of ticks run so far.
+     *
+     * @return the number of ticks.
+     */
+    public synchronized long getTickCount() {
+        return tickCount;
+    }
+
+    /**
+     * Gets the number of device sightings generated so far.
+     *
+     * @return the number of sightings.
+     */
+    public synchronized long getSightingCount() {
+        return sightingCount;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized int getState() {
+        return state;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized boolean isDiscovering() {
+        return discovering;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized boolean startDiscovery() {
+        if (state != BluetoothAdapter.STATE_ON || isRefused()) {
+            return false;
+        }
+        discovering = true;
+        discoveryEndNanos = clockNanos + discoveryDurationMillis * 1000000;
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized boolean cancelDiscovery() {
+        if (state != BluetoothAdapter.STATE_ON) {
+            return false;
+        }
+        finishDiscovery();
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized boolean startLeScan(LeScanSettings settings) {
+        stopLeScan();
+        if (state != BluetoothAdapter.STATE_ON || isRefused()) {
+            return false;
+        }
+        leScanning = true;
+        leScanEndNanos = clockNanos + settings.getDurationMillis() * 1000000;
+        leReportDelayNanos = settings.getReportDelayMillis() * 1000000;
+        leNextReportNanos = clockNanos + leReportDelayNanos;
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void stopLeScan() {
+        if (leScanning) {
+            reportLeBatch();
+            finishLeScan();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized boolean isLeScanning() {
+        return leScanning;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized long[] getBondedAddresses() {
+        if (state != BluetoothAdapter.STATE_ON) {
+            return null;
+        }
+        int count = 0;
+        for (int bondState : bondStates) {
+            if (bondState == BluetoothDevice.BOND_BONDED) {
+                count++;
+            }
+        }
+        long[] addresses = new long[count];
+        count = 0;
+        for (int i = 0; i < bondStates.length; i++) {
+            if (bondStates[i] == BluetoothDevice.BOND_BONDED) {
+                addresses[count++] = FIRST_ADDRESS + i;
+            }
+        }
+        return addresses;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized boolean createBond(long address) {
+        int index = indexOf(address);
+        if (state != BluetoothAdapter.STATE_ON || index < 0
+                || bondStates[index] != BluetoothDevice.BOND_NONE || isRefused()) {
+            return false;
+        }
+        setBondState(index, BluetoothDevice.BOND_BONDING);
+        schedule(address, TRANSITION_BOND, clockNanos + bondDurationMillis * 1000000);
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized boolean cancelBond(long address) {
+        int index = indexOf(address);
+        if (index < 0 || bondStates[index] != BluetoothDevice.BOND_BONDING) {
+            return false;
+        }
+        unschedule(address, TRANSITION_BOND);
+        setBondState(index, BluetoothDevice.BOND_NONE);
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized boolean fetchUuids(long address) {
+        if (state != BluetoothAdapter.STATE_ON || indexOf(address) < 0 || isRefused()) {
+            return false;
+        }
+        schedule(address, TRANSITION_UUIDS, clockNanos + UUID_FETCH_MILLIS * 1000000);
+        return true;
+    }
+
+    /**
+     * Runs the ticks in real time, until stopped. Runs on the {@link #ticker} thread.
+     */
+    private void runTicks() {
+        long nextTickNanos = System.nanoTime();
+        while (!Thread.currentThread().isInterrupted()) {
+            long now = System.nanoTime();
+            synchronized (this) {
+                if (events == null) {
+                    return;
+                }
+                long tickNanos = 1000000000L / eventsPerSecond;
+                int ticks = 0;
+                while (nextTickNanos <= now && ticks < MAX_TICKS_PER_BATCH) {
+                    tick(tickNanos);
+                    nextTickNanos += tickNanos;
+                    ticks++;
+                }
+                if (ticks == MAX_TICKS_PER_BATCH) {
+                    // Too late to catch up, drops the missed ticks rather than bursting.
+                    nextTickNanos = Math.max(nextTickNanos, now);
+                }
+            }
+            LockSupport.parkNanos(nextTickNanos - System.nanoTime());
+        }
+    }
+
+    /**
+     * Runs a tick of the simulation. Must be called holding the lock.
+     *
+     * @param tickNanos the time elapsed on the simulated clock.
+     */
+    private void tick(long tickNanos) {
+        clockNanos += tickNanos;
+        tickCount++;
+        runDueTransitions();
+        if (state == BluetoothAdapter.STATE_OFF && clockNanos >= adapterOnNanos) {
+            setState(BluetoothAdapter.STATE_TURNING_ON);
+            setState(BluetoothAdapter.STATE_ON);
+        }
+        if (state != BluetoothAdapter.STATE_ON) {
+            return;
+        }
+        if (adapterFlipRate > 0 && random.nextFloat() < adapterFlipRate) {
+            turnOff();
+            return;
+        }
+        if (discovering && clockNanos >= discoveryEndNanos) {
+            finishDiscovery();
+        }
+        if (leScanning) {
+            if (clockNanos >= leScanEndNanos) {
+                reportLeBatch();
+                finishLeScan();
+            } else if (leReportDelayNanos > 0 && clockNanos >= leNextReportNanos) {
+                reportLeBatch();
+                leNextReportNanos += leReportDelayNanos;
+            }
+        }
+        if (!discovering && !leScanning) {
+            return;
+        }
+        int index = random.nextInt(names.length);
+        short rssi = (short) (-30 - random.nextInt(70));
+        sightingCount++;
+        if (discovering) {
+            events.offerDeviceFound(FIRST_ADDRESS + index, null, names[index], deviceClasses[index], rssi);
+        } else if (leReportDelayNanos == 0) {
+            // The advertisements carry no Bluetooth class.
+            events.offerDeviceFound(FIRST_ADDRESS + index, null, names[index], DeviceRegistry.UNKNOWN_CLASS, rssi);
+        } else {
+            if (leBatchSize == leBatchIndexes.length) {
+                leBatchIndexes = Arrays.copyOf(leBatchIndexes, leBatchSize << 1);
+                leBatchRssis = Arrays.copyOf(leBatchRssis, leBatchSize << 1);
+            }
+            leBatchIndexes[leBatchSize] = index;
+            leBatchRssis[leBatchSize] = rssi;
+            leBatchSize++;
+        }
+    }
+
+    /**
+     * Reports the buffered LE sightings as one batch. Must be called holding the lock.
+     */
+    private void reportLeBatch() {
+        if (leBatchSize == 0 || events == null) {
+            leBatchSize = 0;
+            return;
+        }
+        events.beginBatch();
+        try {
+            for (int i = 0; i < leBatchSize; i++) {
+                int index = leBatchIndexes[i];
+                events.offerDeviceFound(FIRST_ADDRESS + index, null, names[index],
+                        DeviceRegistry.UNKNOWN_CLASS, leBatchRssis[i]);
+            }
+        } finally {
+            events.endBatch();
+        }
+        leBatchSize = 0;
+    }
+
+    /**
+     * Ends the running LE scan, if any, dropping its buffered sightings. Must be called holding
+     * the lock.
+     */
+    private void finishLeScan() {
+        if (leScanning) {
+            leScanning = false;
+            leBatchSize = 0;
+            offer(BluetoothEvent.TYPE_DISCOVERY_FINISHED, 0, 0, 0);
+        }
+    }
+
+    /**
+     * Completes the bondings and SDP queries which are due. Must be called holding the lock.
+     */
+    private void runDueTransitions() {
+        int kept = 0;
+        for (int i = 0; i < transitionCount; i++) {
+            long address = transitionAddresses[i];
+            if (transitionDueNanos[i] > clockNanos) {
+                transitionAddresses[kept] = address;
+                transitionKinds[kept] = transitionKinds[i];
+                transitionDueNanos[kept] = transitionDueNanos[i];
+                kept++;
+            } else if (transitionKinds[i] == TRANSITION_BOND) {
+                boolean failed = random.nextFloat() < bondFailureRate;
+                setBondState(indexOf(address),
+                        failed ? BluetoothDevice.BOND_NONE : BluetoothDevice.BOND_BONDED);
+            } else {
+                events.offerUuidsFetched(address, null, NO_UUIDS);
+            }
+        }
+        transitionCount = kept;
+    }
+
+    /**
+     * Turns the adapter off, failing the running bondings and discovery. Must be called holding
+     * the lock.
+     */
+    private void turnOff() {
+        setState(BluetoothAdapter.STATE_TURNING_OFF);
+        finishDiscovery();
+        finishLeScan();
+        for (int i = 0; i < transitionCount; i++) {
+            if (transitionKinds[i] == TRANSITION_BOND) {
+                setBondState(indexOf(transitionAddresses[i]), BluetoothDevice.BOND_NONE);
+            }
+        }
+        // The pending SDP queries are lost without any answer, like on a real stack.
+        transitionCount = 0;
+        setState(BluetoothAdapter.STATE_OFF);
+        adapterOnNanos = clockNanos + adapterOffMillis * 1000000;
+    }
+
+    /**
+     * Ends the running discovery, if any. Must be called holding the lock.
+     */
+    private void finishDiscovery() {
+        if (discovering) {
+            discovering = false;
+            offer(BluetoothEvent.TYPE_DISCOVERY_FINISHED, 0, 0, 0);
+        }
+    }
+
+    /**
+     * Changes the state of the adapter and notifies it. Must be called holding the lock.
+     *
+     * @param newState the new state.
+     */
+    private void setState(int newState) {
+        int previousState = state;
+        state = newState;
+        offer(BluetoothEvent.TYPE_STATE_CHANGED, 0, newState, previousState);
+    }
+
+    /**
+     * Changes the bond state of a device and notifies it. Must be called holding the lock.
+     *
+     * @param index    the index of the device in the population.
+     * @param newState the new bond state.
+     */
+    private void setBondState(int index, int newState) {
+        int previousState = bondStates[index];
+        bondStates[index] = newState;
+        offer(BluetoothEvent.TYPE_BOND_STATE_CHANGED, FIRST_ADDRESS + index, newState, previousState);
+    }
+
+    /**
+     * Enqueues an event, if started. Must be called holding the lock.
+     */
+    private void offer(int type, long address, int newState, int previousState) {
+        if (events != null) {
+            events.offer(type, address, null, newState, previousState);
+        }
+    }
+
+    /**
+     * Adds a pending transition. Must be called holding the lock.
+     *
+     * @param address  the packed address of the device.
+     * @param kind     the TRANSITION_ constant.
+     * @param dueNanos the due time on the simulated clock.
+     */
+    private void schedule(long address, int kind, long dueNanos) {
+        if (transitionCount == transitionAddresses.length) {
+            int capacity = transitionCount << 1;
+            transitionAddresses = Arrays.copyOf(transitionAddresses, capacity);
+            transitionKinds = Arrays.copyOf(transitionKinds, capacity);
+            transitionDueNanos = Arrays.copyOf(transitionDueNanos, capacity);
+        }
+        transitionAddresses[transitionCount] = address;
+        transitionKinds[transitionCount] = kind;
+        transitionDueNanos[transitionCount] = dueNanos;
+        transitionCount++;
+    }
+
+    /**
+     * Removes the pending transitions of a device. Must be called holding the lock.
+     *
+     * @param address the packed address of the device.
+     * @param kind    the TRANSITION_ constant.
+     */
+    private void unschedule(long address, int kind) {
+        int kept = 0;
+        for (int i = 0; i < transitionCount; i++) {
+            if (transitionAddresses[i] != address || transitionKinds[i] != kind) {
+                transitionAddresses[kept] = transitionAddresses[i];
+                transitionKinds[kept] = transitionKinds[i];
+                transitionDueNanos[kept] = transitionDueNanos[i];
+                kept++;
+            }
+        }
+        transitionCount = kept;
+    }
+
+    /**
+     * Draws if a command is refused. Must be called holding the lock.
+     *
+     * @return true if the command must fail.
+     */
+    private boolean isRefused() {
+        return commandFailureRate > 0 && random.nextFloat() < commandFailureRate;
+    }
+
+    /**
+     * Gets the index of a device in the population.
+     *
+     * @param address the packed address of the device.
+     * @return the index, or -1 if the address is not a simulated device.
+     */
+    private int indexOf(long address) {
+        long index = address - FIRST_ADDRESS;
+        return index >= 0 && index < names.length ? (int) index : -1;
+    }
+}
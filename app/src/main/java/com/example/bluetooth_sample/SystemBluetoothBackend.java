@@ -0,0 +1,365 @@
+package com.example.bluetooth_sample;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothClass;
+import android.bluetooth.BluetoothDevice;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import java.lang.reflect.Method;
+import java.util.Set;
+
+/**
+ * The {@link BluetoothBackend} of the device: commands go to the {@link BluetoothAdapter}, and
+ * the events come from the system broadcasts.
+ * <p>
+ * The broadcasts can be received on a dedicated thread, where their extras are digested into
+ * the event queue, so the UI thread only gets the batches of events.
+ */
+public class SystemBluetoothBackend extends BroadcastReceiver implements BluetoothBackend {
+
+    /**
+     * Tag string used for logging.
+     */
+    private static final String TAG = "SystemBluetoothBackend";
+
+    /**
+     * Hidden {@code BluetoothDevice.cancelBondProcess()} method, used to abort a bonding. Resolved
+     * once, null if not available.
+     */
+    private static final Method CANCEL_BOND_PROCESS = findCancelBondProcess();
+
+    /**
+     * The context receiving the broadcasts.
+     */
+    private final Context context;
+
+    /**
+     * Interface for Bluetooth OS services.
+     */
+    private final BluetoothAdapter adapter;
+
+    /**
+     * True to receive the broadcasts on a dedicated thread.
+     */
+    private final boolean receiveInBackground;
+
+    /**
+     * Thread receiving the broadcasts, or null if they are received on the UI thread.
+     */
+    private HandlerThread receiverThread;
+
+    /**
+     * The queue receiving the events, null if not started.
+     */
+    private volatile BluetoothEventQueue eventQueue;
+
+    /**
+     * Runs the Bluetooth Low Energy scans, created on the first one.
+     */
+    private LeScanner leScanner;
+
+    /**
+     * Handler of the UI thread, ending the Bluetooth Low Energy scans.
+     */
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Ends the running Bluetooth Low Energy scan once its duration has elapsed.
+     */
+    private final Runnable leScanTimeout = new Runnable() {
+        @Override
+        public void run() {
+            stopLeScan();
+        }
+    };
+
+    /**
+     * Instantiates a new SystemBluetoothBackend.
+     *
+     * @param context             the context receiving the broadcasts.
+     * @param adapter             the Bluetooth adapter.
+     * @param receiveInBackground true to receive and digest the broadcasts on a dedicated
+     *                            thread, handing only batches of events to the UI thread.
+     */
+    public SystemBluetoothBackend(Context context, BluetoothAdapter adapter, boolean receiveInBackground) {
+        this.context = context;
+        this.adapter = adapter;
+        this.receiveInBackground = receiveInBackground;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void start(BluetoothEventQueue events) {
+        this.eventQueue = events;
+        Handler receiverHandler = null;
+        if (receiveInBackground) {
+            receiverThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+            receiverThread.start();
+            receiverHandler = new Handler(receiverThread.getLooper());
+        }
+
+        // Register for broadcasts when a device is discovered.
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(BluetoothDevice.ACTION_FOUND);
+        filter.addAction(BluetoothAdapter.ACTION_DISCOVERY_FINISHED);
+        filter.addAction(BluetoothAdapter.ACTION_STATE_CHANGED);
+        filter.addAction(BluetoothDevice.ACTION_BOND_STATE_CHANGED);
+        filter.addAction(BluetoothDevice.ACTION_UUID);
+        context.registerReceiver(this, filter, null, receiverHandler);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void stop() {
+        stopLeScan();
+        context.unregisterReceiver(this);
+        if (receiverThread != null) {
+            receiverThread.quitSafely();
+            receiverThread = null;
+        }
+        eventQueue = null;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Only extracts the event from the Intent, the listener is notified when the event queue
+     * dispatches it.
+     */
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        BluetoothEventQueue events = eventQueue;
+        if (events == null) {
+            return;
+        }
+        String action = intent.getAction();
+        BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
+        long address = device != null ? MacAddress.toKey(device.getAddress()) : 0;
+        switch (action) {
+            case BluetoothDevice.ACTION_FOUND :
+                // Discovery has found a device. Get the BluetoothDevice
+                // object and its info from the Intent.
+                BluetoothClass bluetoothClass = intent.getParcelableExtra(BluetoothDevice.EXTRA_CLASS);
+                short rssi = intent.getShortExtra(BluetoothDevice.EXTRA_RSSI, DeviceRegistry.UNKNOWN_RSSI);
+                if (EventTrace.ENABLED) {
+                    EventTrace.record(EventTrace.BROADCAST_RECEIVED, address, rssi);
+                }
+                events.offerDeviceFound(address, device, intent.getStringExtra(BluetoothDevice.EXTRA_NAME),
+                        bluetoothClass != null ? bluetoothClass.getDeviceClass() : DeviceRegistry.UNKNOWN_CLASS,
+                        rssi);
+                break;
+            case BluetoothAdapter.ACTION_DISCOVERY_FINISHED :
+                events.offer(BluetoothEvent.TYPE_DISCOVERY_FINISHED, 0, null, 0, 0);
+                break;
+            case BluetoothAdapter.ACTION_STATE_CHANGED :
+                int state = intent.getIntExtra(BluetoothAdapter.EXTRA_STATE, BluetoothAdapter.ERROR);
+                if (state == BluetoothAdapter.STATE_TURNING_OFF) {
+                    // Unlike the inquiry, the LE scan ends without any broadcast.
+                    abortLeScan(events);
+                }
+                events.offer(BluetoothEvent.TYPE_STATE_CHANGED, 0, null, state,
+                        intent.getIntExtra(BluetoothAdapter.EXTRA_PREVIOUS_STATE, BluetoothAdapter.ERROR));
+                break;
+            case BluetoothDevice.ACTION_BOND_STATE_CHANGED :
+                events.offer(BluetoothEvent.TYPE_BOND_STATE_CHANGED, address, device,
+                        intent.getIntExtra(BluetoothDevice.EXTRA_BOND_STATE, BluetoothDevice.ERROR),
+                        intent.getIntExtra(BluetoothDevice.EXTRA_PREVIOUS_BOND_STATE, BluetoothDevice.ERROR));
+                break;
+            case BluetoothDevice.ACTION_UUID :
+                events.offerUuidsFetched(address, device,
+                        intent.getParcelableArrayExtra(BluetoothDevice.EXTRA_UUID));
+                break;
+            default :
+                // Does nothing.
+                break;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getState() {
+        return adapter.getState();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isDiscovering() {
+        return adapter.isDiscovering();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean startDiscovery() {
+        return adapter.startDiscovery();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean cancelDiscovery() {
+        return adapter.cancelDiscovery();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Not supported before API 21.
+     */
+    @Override
+    public boolean startLeScan(LeScanSettings settings) {
+        BluetoothEventQueue events = eventQueue;
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP || events == null) {
+            return false;
+        }
+        LeScanner scanner;
+        synchronized (this) {
+            if (leScanner == null) {
+                leScanner = new LeScanner(adapter);
+            }
+            scanner = leScanner;
+        }
+        mainHandler.removeCallbacks(leScanTimeout);
+        if (!scanner.start(settings, events)) {
+            return false;
+        }
+        mainHandler.postDelayed(leScanTimeout, settings.getDurationMillis());
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void stopLeScan() {
+        mainHandler.removeCallbacks(leScanTimeout);
+        BluetoothEventQueue events = eventQueue;
+        LeScanner scanner = getLeScanner();
+        if (scanner != null && scanner.stop() && events != null) {
+            events.offer(BluetoothEvent.TYPE_DISCOVERY_FINISHED, 0, null, 0, 0);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isLeScanning() {
+        LeScanner scanner = getLeScanner();
+        return scanner != null && scanner.isScanning();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long[] getBondedAddresses() {
+        Set<BluetoothDevice> bondedDevices = adapter.getBondedDevices();
+        // The set is null while the Bluetooth is off.
+        if (bondedDevices == null) {
+            return null;
+        }
+        long[] addresses = new long[bondedDevices.size()];
+        int i = 0;
+        for (BluetoothDevice device : bondedDevices) {
+            addresses[i++] = MacAddress.toKey(device.getAddress());
+        }
+        return addresses;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean createBond(long address) {
+        return getDevice(address).createBond();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean cancelBond(long address) {
+        if (CANCEL_BOND_PROCESS == null) {
+            return false;
+        }
+        try {
+            return (Boolean) CANCEL_BOND_PROCESS.invoke(getDevice(address));
+        } catch (Exception e) {
+            Log.w(TAG, "Unable to cancel the bonding.", e);
+            return false;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean fetchUuids(long address) {
+        return getDevice(address).fetchUuidsWithSdp();
+    }
+
+    /**
+     * Gets the runner of the Bluetooth Low Energy scans.
+     *
+     * @return the runner, or null if no scan has been started.
+     */
+    private synchronized LeScanner getLeScanner() {
+        return leScanner;
+    }
+
+    /**
+     * Ends the running Bluetooth Low Energy scan, which the system stopped.
+     *
+     * @param events the queue receiving the events.
+     */
+    private void abortLeScan(BluetoothEventQueue events) {
+        LeScanner scanner = getLeScanner();
+        if (scanner != null && scanner.abort()) {
+            mainHandler.removeCallbacks(leScanTimeout);
+            events.offer(BluetoothEvent.TYPE_DISCOVERY_FINISHED, 0, null, 0, 0);
+        }
+    }
+
+    /**
+     * Gets the device object of an address.
+     *
+     * @param address the packed address of the device.
+     * @return the device.
+     */
+    private BluetoothDevice getDevice(long address) {
+        return adapter.getRemoteDevice(MacAddress.toString(address));
+    }
+
+    /**
+     * Looks up the hidden method aborting a bonding.
+     *
+     * @return the method, or null if not available on this platform.
+     */
+    private static Method findCancelBondProcess() {
+        try {
+            return BluetoothDevice.class.getMethod("cancelBondProcess");
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}
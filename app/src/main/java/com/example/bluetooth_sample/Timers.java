@@ -0,0 +1,52 @@
+package com.example.bluetooth_sample;
+
+import android.os.Handler;
+
+/**
+ * Runs the delayed tasks of the schedulers on the thread of a {@link Handler}. The tests replace
+ * it with a clock they advance, since the handlers don't run in the JVM.
+ */
+public class Timers {
+
+    /**
+     * The handler running the tasks, null in the tests.
+     */
+    private final Handler handler;
+
+    /**
+     * Instantiates a new Timers.
+     *
+     * @param handler the handler running the tasks.
+     */
+    public Timers(Handler handler) {
+        this.handler = handler;
+    }
+
+    /**
+     * Runs a task as soon as possible, after the ones already pending.
+     *
+     * @param task the task.
+     */
+    public void post(Runnable task) {
+        handler.post(task);
+    }
+
+    /**
+     * Runs a task after a delay.
+     *
+     * @param task        the task.
+     * @param delayMillis the delay.
+     */
+    public void postDelayed(Runnable task, long delayMillis) {
+        handler.postDelayed(task, delayMillis);
+    }
+
+    /**
+     * Cancels the pending runs of a task.
+     *
+     * @param task the task.
+     */
+    public void removeCallbacks(Runnable task) {
+        handler.removeCallbacks(task);
+    }
+}
@@ -0,0 +1,118 @@
+package com.example.bluetooth_sample;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the recording of the ranging cycles and the distance estimates of the beacons.
+ */
+public class BeaconTableTest {
+
+    private static final long UUID_HIGH = 0xF7826DA64FA24E98L;
+    private static final long UUID_LOW = 0x8024BC5B71E0893EL;
+    private static final long ADDRESS = MacAddress.toKey("00:11:22:33:44:55");
+
+    private BeaconTable table;
+
+    @Before
+    public void setUp() {
+        table = new BeaconTable();
+    }
+
+    @Test
+    public void record_keysTheBeaconsByTheirIdentifiers() {
+        table.beginCycle();
+        int first = recordIBeacon(1, 2, -70);
+        int second = recordIBeacon(1, 3, -70);
+        int eddystone = table.record(BeaconTable.TYPE_EDDYSTONE_UID, UUID_HIGH, UUID_LOW, 0, ADDRESS, -70, -59);
+
+        assertEquals(0, first);
+        assertEquals(1, second);
+        assertEquals(2, eddystone);
+        assertEquals(first, recordIBeacon(1, 2, -70));
+        assertEquals(second, table.indexOf(BeaconTable.TYPE_IBEACON, UUID_HIGH, UUID_LOW, 1 << 16 | 3));
+        assertEquals(-1, table.indexOf(BeaconTable.TYPE_IBEACON, UUID_HIGH, UUID_LOW, 1 << 16 | 4));
+        assertEquals(3, table.size());
+        assertEquals(1, table.getMajor(second));
+        assertEquals(3, table.getMinor(second));
+    }
+
+    @Test
+    public void record_countsTheBeaconsRangedInTheCycle() {
+        table.beginCycle();
+        recordIBeacon(1, 1, -70);
+        recordIBeacon(1, 2, -70);
+        // Reported twice in the cycle.
+        recordIBeacon(1, 2, -70);
+        assertEquals(2, table.getRangedCount());
+
+        table.beginCycle();
+        recordIBeacon(1, 2, -70);
+        assertEquals(1, table.getRangedCount());
+        assertEquals(2, table.size());
+    }
+
+    @Test
+    public void isInRange_expiresTheBeaconsMissedForTooManyCycles() {
+        table.setMaxMissedCycles(1);
+        table.beginCycle();
+        int index = recordIBeacon(1, 1, -70);
+
+        table.beginCycle();
+        assertTrue(table.isInRange(index));
+        table.beginCycle();
+        assertFalse(table.isInRange(index));
+
+        recordIBeacon(1, 1, -70);
+        assertTrue(table.isInRange(index));
+    }
+
+    @Test
+    public void record_smoothesTheSignalAndEstimatesTheDistance() {
+        table.beginCycle();
+        int index = recordIBeacon(1, 1, -59);
+        assertEquals(1.0, table.getDistance(index), 1e-6);
+
+        table.beginCycle();
+        recordIBeacon(1, 1, -79);
+        assertEquals(-64, table.getSmoothedRssi(index), 1e-6);
+        assertEquals(BeaconTable.estimateDistance(-59, -64), table.getDistance(index), 1e-6);
+        assertEquals(10.0, BeaconTable.estimateDistance(-59, -79), 1e-9);
+
+        table.record(BeaconTable.TYPE_IBEACON, UUID_HIGH, UUID_LOW, 1 << 16 | 1, ADDRESS, -70, 0);
+        assertEquals(BeaconTable.UNKNOWN_DISTANCE, table.getDistance(index), 0);
+    }
+
+    @Test
+    public void formatIdentifiers_formatsEachType() {
+        table.beginCycle();
+        int ibeacon = recordIBeacon(100, 7, -70);
+        int eddystone = table.record(BeaconTable.TYPE_EDDYSTONE_UID, UUID_HIGH, UUID_LOW, 0, ADDRESS, -70, -59);
+
+        assertEquals("f7826da6-4fa2-4e98-8024-bc5b71e0893e 100 7", table.formatIdentifiers(ibeacon));
+        assertEquals("f7826da64fa24e988024 bc5b71e0893e", table.formatIdentifiers(eddystone));
+    }
+
+    @Test
+    public void record_growsPastTheInitialCapacity() {
+        int beaconCount = 2000;
+        for (int cycle = 0; cycle < 2; cycle++) {
+            table.beginCycle();
+            for (int i = 0; i < beaconCount; i++) {
+                assertEquals(i, recordIBeacon(i >>> 8, i & 0xFF, -70));
+            }
+            assertEquals(beaconCount, table.getRangedCount());
+        }
+        assertEquals(beaconCount, table.size());
+
+        table.clear();
+        assertEquals(0, table.size());
+        assertEquals(-1, table.indexOf(BeaconTable.TYPE_IBEACON, UUID_HIGH, UUID_LOW, 0));
+    }
+
+    private int recordIBeacon(int major, int minor, int rssi) {
+        return table.record(BeaconTable.TYPE_IBEACON, UUID_HIGH, UUID_LOW, major << 16 | minor, ADDRESS, rssi, -59);
+    }
+}
@@ -0,0 +1,237 @@
+package com.example.bluetooth_sample;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Drives many links of a connection manager against simulated devices echoing the frames, over
+ * the loopback transport.
+ */
+public class ConnectionManagerTest implements ConnectionManager.Listener, ConnectionManager.TransportFactory {
+
+    /**
+     * The simulated devices, one connection each.
+     */
+    private final List<RfcommConnection> devices = new CopyOnWriteArrayList<>();
+
+    private final Semaphore connected = new Semaphore(0);
+    private final Semaphore received = new Semaphore(0);
+    private final Semaphore evicted = new Semaphore(0);
+    private final Semaphore failed = new Semaphore(0);
+    private final AtomicInteger reconnections = new AtomicInteger();
+
+    /**
+     * Number of connections to fail before connecting.
+     */
+    private final AtomicInteger failuresLeft = new AtomicInteger();
+
+    /**
+     * Address of the device which never reads, 0 if none.
+     */
+    private volatile long stalledAddress;
+
+    private ConnectionManager manager;
+
+    @Before
+    public void setUp() {
+        manager = new ConnectionManager(this, this, 2, new ByteBufferPool(256, 1024, true));
+        manager.setReconnectBackoff(10, 40);
+    }
+
+    @After
+    public void tearDown() {
+        manager.shutdown();
+        for (RfcommConnection device : devices) {
+            device.close();
+        }
+    }
+
+    @Override
+    public RfcommTransport create(long address) throws IOException {
+        if (failuresLeft.getAndDecrement() > 0) {
+            throw new IOException("Page timeout");
+        }
+        if (address == stalledAddress) {
+            // Nothing reads the other end, the writes block once its 4 KiB are full.
+            return LoopbackTransport.createPair(4096)[0];
+        }
+        LoopbackTransport[] pair = LoopbackTransport.createPair();
+        RfcommConnection device = new RfcommConnection(pair[1], new RfcommConnection.Listener() {
+            @Override
+            public void onConnected(RfcommConnection connection) {
+            }
+
+            @Override
+            public void onFrameReceived(RfcommConnection connection, ByteBuffer payload) {
+                try {
+                    connection.send(payload, 5000);
+                } catch (IOException e) {
+                    // The link has been closed.
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            @Override
+            public void onClosed(RfcommConnection connection, IOException cause) {
+            }
+        });
+        devices.add(device);
+        device.start();
+        return pair[0];
+    }
+
+    @Override
+    public void onLinkConnected(ConnectionManager.Link link) {
+        connected.release();
+    }
+
+    @Override
+    public void onFrameReceived(ConnectionManager.Link link, ByteBuffer payload) {
+        assertEquals(link.getAddress() & 0xFF, payload.get(payload.position()) & 0xFF);
+        received.release();
+    }
+
+    @Override
+    public void onLinkDisconnected(ConnectionManager.Link link, IOException cause, boolean reconnect) {
+        if (reconnect) {
+            reconnections.incrementAndGet();
+        } else if (cause == null) {
+            evicted.release();
+        } else {
+            failed.release();
+        }
+    }
+
+    @Test
+    public void manyLinks_shareTheIoThreads() throws Exception {
+        int linkCount = 32;
+        int frameCount = 20;
+        manager.open(SimulatedBluetoothBackend.FIRST_ADDRESS);
+        assertTrue(connected.tryAcquire(5, TimeUnit.SECONDS));
+        int threads = countManagerThreads();
+        assertTrue(threads >= manager.getThreadCount());
+
+        for (int i = 1; i < linkCount; i++) {
+            manager.open(SimulatedBluetoothBackend.FIRST_ADDRESS + i);
+        }
+        assertTrue(connected.tryAcquire(linkCount - 1, 5, TimeUnit.SECONDS));
+
+        for (int frame = 0; frame < frameCount; frame++) {
+            for (ConnectionManager.Link link : manager.getLinks()) {
+                ByteBuffer payload = ByteBuffer.allocate(1000);
+                payload.put(0, (byte) link.getAddress());
+                assertTrue(link.send(payload, 5000));
+            }
+        }
+
+        assertTrue(received.tryAcquire(linkCount * frameCount, 10, TimeUnit.SECONDS));
+        for (ConnectionManager.Link link : manager.getLinks()) {
+            assertEquals(frameCount, link.getFramesSent());
+            assertEquals(frameCount, link.getFramesReceived());
+        }
+        // The threads of the managers of the other tests may still be ending.
+        assertTrue(countManagerThreads() <= threads);
+    }
+
+    @Test
+    public void failedLink_reconnectsAfterABackoff() throws Exception {
+        failuresLeft.set(3);
+
+        ConnectionManager.Link link = manager.open(SimulatedBluetoothBackend.FIRST_ADDRESS);
+
+        assertTrue(connected.tryAcquire(5, TimeUnit.SECONDS));
+        assertEquals(3, reconnections.get());
+        assertEquals(ConnectionManager.STATE_CONNECTED, link.getState());
+    }
+
+    @Test
+    public void failedLink_isClosedAfterTooManyReconnections() throws Exception {
+        failuresLeft.set(100);
+        manager.setMaxReconnections(2);
+
+        ConnectionManager.Link link = manager.open(SimulatedBluetoothBackend.FIRST_ADDRESS);
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (link.getState() != ConnectionManager.STATE_CLOSED && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(ConnectionManager.STATE_CLOSED, link.getState());
+        assertEquals(2, reconnections.get());
+        assertNull(manager.getLink(SimulatedBluetoothBackend.FIRST_ADDRESS));
+    }
+
+    @Test
+    public void idleLink_isEvictedAndReopenedBySending() throws Exception {
+        manager.setIdleTimeoutMillis(50);
+        ConnectionManager.Link link = manager.open(SimulatedBluetoothBackend.FIRST_ADDRESS);
+        assertTrue(connected.tryAcquire(5, TimeUnit.SECONDS));
+
+        assertTrue(evicted.tryAcquire(5, TimeUnit.SECONDS));
+        assertEquals(ConnectionManager.STATE_IDLE, link.getState());
+
+        ByteBuffer payload = ByteBuffer.allocate(10);
+        payload.put(0, (byte) link.getAddress());
+        assertTrue(link.send(payload, 5000));
+
+        assertTrue(connected.tryAcquire(5, TimeUnit.SECONDS));
+        assertTrue(received.tryAcquire(5, TimeUnit.SECONDS));
+        assertEquals(2, devices.size());
+    }
+
+    @Test
+    public void stalledLink_failsWithoutBlockingTheOtherLinks() throws Exception {
+        int linkCount = 8;
+        int frameCount = 20;
+        manager.setWriteTimeoutMillis(200);
+        manager.setMaxReconnections(0);
+        stalledAddress = SimulatedBluetoothBackend.FIRST_ADDRESS;
+        for (int i = 0; i < linkCount; i++) {
+            manager.open(SimulatedBluetoothBackend.FIRST_ADDRESS + i);
+        }
+        assertTrue(connected.tryAcquire(linkCount, 5, TimeUnit.SECONDS));
+        ConnectionManager.Link stalled = manager.getLink(stalledAddress);
+
+        // Blocks the I/O thread of the stalled link in a write.
+        for (int frame = 0; frame < 8; frame++) {
+            stalled.send(ByteBuffer.allocate(1000), 0);
+        }
+        for (int frame = 0; frame < frameCount; frame++) {
+            for (int i = 1; i < linkCount; i++) {
+                ByteBuffer payload = ByteBuffer.allocate(1000);
+                payload.put(0, (byte) (SimulatedBluetoothBackend.FIRST_ADDRESS + i));
+                assertTrue(manager.getLink(SimulatedBluetoothBackend.FIRST_ADDRESS + i).send(payload, 5000));
+            }
+        }
+
+        assertTrue(received.tryAcquire((linkCount - 1) * frameCount, 10, TimeUnit.SECONDS));
+        assertTrue(failed.tryAcquire(5, TimeUnit.SECONDS));
+        assertEquals(ConnectionManager.STATE_CLOSED, stalled.getState());
+        assertEquals(linkCount - 1, manager.getLinks().size());
+        for (ConnectionManager.Link link : manager.getLinks()) {
+            assertEquals(ConnectionManager.STATE_CONNECTED, link.getState());
+            assertEquals(frameCount, link.getFramesReceived());
+        }
+    }
+
+    private static int countManagerThreads() {
+        int threads = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith("ConnectionManager")) {
+                threads++;
+            }
+        }
+        return threads;
+    }
+}
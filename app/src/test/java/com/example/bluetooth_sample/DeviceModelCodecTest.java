@@ -0,0 +1,64 @@
+package com.example.bluetooth_sample;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the binary encoding of the device models, and the rejection of the corrupt ones.
+ */
+public class DeviceModelCodecTest {
+
+    @Test
+    public void decode_readsWhatWasEncoded() {
+        DeviceModel model = new DeviceModel("Headset", "00:11:22:33:44:55", new long[]{1, 2, 3, 4});
+        model.setDeviceClass(0x0418);
+        model.setRssiHistory(new short[]{-60, -58, -71});
+        ByteBuffer buffer = ByteBuffer.allocate(DeviceModelCodec.encodedSize(model));
+        DeviceModelCodec.encode(model, buffer);
+        assertFalse(buffer.hasRemaining());
+        buffer.flip();
+
+        DeviceModel decoded = DeviceModelCodec.decode(buffer);
+
+        assertEquals("Headset", decoded.getName());
+        assertEquals("00:11:22:33:44:55", decoded.getMac());
+        assertEquals(0x0418, decoded.getDeviceClass());
+        assertArrayEquals(new long[]{1, 2, 3, 4}, decoded.getUuids());
+        assertArrayEquals(new short[]{-60, -58, -71}, decoded.getRssiHistory());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decode_rejectsACorruptCount() {
+        ByteBuffer buffer = encode(new DeviceModel(null, "00:11:22:33:44:55", new long[0]));
+        // The UUID count, after the version, the address, the class and the null name.
+        buffer.putShort(13, (short) -2);
+
+        DeviceModelCodec.decode(buffer);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decode_rejectsACorruptNameLength() {
+        ByteBuffer buffer = encode(new DeviceModel(null, "00:11:22:33:44:55", new long[0]));
+        buffer.putShort(11, (short) -2);
+
+        DeviceModelCodec.decode(buffer);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decode_rejectsATruncatedModel() {
+        ByteBuffer buffer = encode(new DeviceModel("Headset", "00:11:22:33:44:55", new long[]{1, 2}));
+        buffer.limit(buffer.limit() - 1);
+
+        DeviceModelCodec.decode(buffer);
+    }
+
+    private static ByteBuffer encode(DeviceModel model) {
+        ByteBuffer buffer = ByteBuffer.allocate(DeviceModelCodec.encodedSize(model));
+        DeviceModelCodec.encode(model, buffer);
+        buffer.flip();
+        return buffer;
+    }
+}
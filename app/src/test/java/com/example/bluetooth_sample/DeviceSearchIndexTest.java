@@ -0,0 +1,139 @@
+package com.example.bluetooth_sample;
+
+import android.bluetooth.BluetoothClass;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the searches of the device list and the incremental updates of their results.
+ */
+public class DeviceSearchIndexTest {
+
+    private static final long FIRST_ADDRESS = MacAddress.toKey("00:11:22:33:44:00");
+
+    private DeviceRegistry registry;
+    private DeviceSearchIndex index;
+
+    @Before
+    public void setUp() {
+        registry = new DeviceRegistry();
+        index = new DeviceSearchIndex(registry);
+    }
+
+    @Test
+    public void search_matchesTheNamePrefix() {
+        see(0, "Galaxy Buds", BluetoothClass.Device.AUDIO_VIDEO_HEADPHONES);
+        see(1, "galaxy S10", BluetoothClass.Device.PHONE_SMART);
+        see(2, "Pixel 3", BluetoothClass.Device.PHONE_SMART);
+        see(3, null, DeviceRegistry.UNKNOWN_CLASS);
+
+        assertResult(index.search("GAL", DeviceSearchIndex.ANY_CLASS), 0, 1);
+        assertResult(index.search("galaxy s", DeviceSearchIndex.ANY_CLASS), 1);
+        assertResult(index.search("pixel 4", DeviceSearchIndex.ANY_CLASS));
+    }
+
+    @Test
+    public void search_matchesTheAddressPrefix() {
+        see(0, "Pixel 3", BluetoothClass.Device.PHONE_SMART);
+        see(0x10, "Pixel 4", BluetoothClass.Device.PHONE_SMART);
+        see(0x11, "Pixel 5", BluetoothClass.Device.PHONE_SMART);
+
+        assertResult(index.search("00:11:22:33:44:1", DeviceSearchIndex.ANY_CLASS), 1, 2);
+        assertResult(index.search("001122334411", DeviceSearchIndex.ANY_CLASS), 2);
+    }
+
+    @Test
+    public void search_filtersTheMajorClass() {
+        see(0, "Galaxy Buds", BluetoothClass.Device.AUDIO_VIDEO_HEADPHONES);
+        see(1, "Galaxy S10", BluetoothClass.Device.PHONE_SMART);
+        see(2, "Pixel 3", BluetoothClass.Device.PHONE_SMART);
+
+        assertResult(index.search("", BluetoothClass.Device.Major.PHONE), 1, 2);
+        assertResult(index.search("galaxy", BluetoothClass.Device.Major.PHONE), 1);
+        assertResult(index.search("", BluetoothClass.Device.Major.WEARABLE));
+    }
+
+    @Test
+    public void search_checksTheQueriesLongerThanTheIndexedPrefix() {
+        see(0, "Living room speaker left", BluetoothClass.Device.AUDIO_VIDEO_HEADPHONES);
+        see(1, "Living room speaker right", BluetoothClass.Device.AUDIO_VIDEO_HEADPHONES);
+
+        assertResult(index.search("living room speaker r", DeviceSearchIndex.ANY_CLASS), 1);
+    }
+
+    @Test
+    public void update_reindexesTheRenamedDevices() {
+        see(0, null, DeviceRegistry.UNKNOWN_CLASS);
+        assertResult(index.search("pixel", DeviceSearchIndex.ANY_CLASS));
+
+        see(0, "Pixel 3", BluetoothClass.Device.PHONE_SMART);
+        assertResult(index.search("pixel", DeviceSearchIndex.ANY_CLASS), 0);
+        assertResult(index.search("", BluetoothClass.Device.Major.PHONE), 0);
+
+        see(0, "Pixel 3a", BluetoothClass.Device.PHONE_SMART);
+        assertResult(index.search("pixel 3a", DeviceSearchIndex.ANY_CLASS), 0);
+    }
+
+    @Test
+    public void result_appendsTheNewMatchesAndKeepsItsRows() {
+        see(0, "Sensor 2", BluetoothClass.Device.Major.HEALTH);
+        see(1, "Phone", BluetoothClass.Device.PHONE_SMART);
+        DeviceSearchIndex.Result result = index.search("sensor", DeviceSearchIndex.ANY_CLASS);
+        assertResult(result, 0);
+
+        // The non matching devices are not listed.
+        assertEquals(LongIntHashMap.NO_VALUE, see(result, 2, "Watch", BluetoothClass.Device.WEARABLE_WRIST_WATCH));
+        // A new match is appended, and a renamed one after it, even if seen first.
+        assertEquals(1, see(result, 3, "Sensor 1", BluetoothClass.Device.Major.HEALTH));
+        assertEquals(2, see(result, 1, "Sensor 0", BluetoothClass.Device.Major.HEALTH));
+        // A new sighting of a listed device keeps its row.
+        assertEquals(0, see(result, 0, "Sensor 2", BluetoothClass.Device.Major.HEALTH));
+
+        assertResult(result, 0, 3, 1);
+    }
+
+    @Test
+    public void sync_indexesTheRestoredDevices() {
+        registry.restore(FIRST_ADDRESS, "Pixel 3", BluetoothClass.Device.PHONE_SMART,
+                DeviceRegistry.UNKNOWN_RSSI, 0);
+        registry.restore(FIRST_ADDRESS + 1, "Pixel 4", BluetoothClass.Device.PHONE_SMART,
+                DeviceRegistry.UNKNOWN_RSSI, 0);
+
+        index.sync();
+
+        assertEquals(2, index.size());
+        assertResult(index.search("pixel", BluetoothClass.Device.Major.PHONE), 0, 1);
+    }
+
+    @Test
+    public void search_countsTheMatchesAmongManyDevices() {
+        int deviceCount = 10000;
+        for (int i = 0; i < deviceCount; i++) {
+            see(i, "Device " + i, BluetoothClass.Device.PHONE_SMART);
+        }
+
+        assertEquals(1111, index.search("device 1", DeviceSearchIndex.ANY_CLASS).size());
+        assertEquals(1, index.search("device 9999", DeviceSearchIndex.ANY_CLASS).size());
+        assertEquals(deviceCount, index.search("", BluetoothClass.Device.Major.PHONE).size());
+    }
+
+    private void see(int device, String name, int deviceClass) {
+        int registryIndex = registry.record(FIRST_ADDRESS + device, null, name, deviceClass, (short) -60, 0);
+        index.update(registryIndex);
+    }
+
+    private int see(DeviceSearchIndex.Result result, int device, String name, int deviceClass) {
+        see(device, name, deviceClass);
+        return result.update(registry.indexOf(FIRST_ADDRESS + device));
+    }
+
+    private static void assertResult(DeviceSearchIndex.Result result, int... indexes) {
+        assertEquals(indexes.length, result.size());
+        for (int position = 0; position < indexes.length; position++) {
+            assertEquals(indexes[position], result.indexAt(position));
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.example.bluetooth_sample;
+
+import android.bluetooth.BluetoothClass;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the restore of the devices cached by {@link DiscoveryCache}, read in the background.
+ */
+public class DiscoveryCacheTest implements ProgressListener {
+
+    private static final long FIRST_ADDRESS = MacAddress.toKey("00:11:22:33:44:55");
+    private static final long SECOND_ADDRESS = MacAddress.toKey("00:11:22:33:44:66");
+
+    private File directory;
+    private File file;
+    private DiscoveryCache cache;
+
+    /**
+     * The tasks posted to the UI thread, run by {@link #runUiTasks()}.
+     */
+    private final List<Runnable> uiTasks = new ArrayList<>();
+    private CountDownLatch uiTaskPosted;
+    private final Executor uiExecutor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            synchronized (uiTasks) {
+                uiTasks.add(command);
+            }
+            uiTaskPosted.countDown();
+        }
+    };
+
+    private final List<Integer> restoredCounts = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("cache").toFile();
+        file = new File(directory, "devices.bin");
+        cache = new DiscoveryCache(file);
+    }
+
+    @After
+    public void tearDown() {
+        cache.close();
+        file.delete();
+        directory.delete();
+    }
+
+    @Test
+    public void load_restoresTheCachedDevicesOnTheUiThread() throws Exception {
+        saveTwoDevices();
+
+        DeviceRegistry registry = new DeviceRegistry();
+        load(registry);
+        assertEquals(0, registry.size());
+        runUiTasks();
+
+        assertEquals(2, registry.size());
+        assertEquals("Phone", registry.getName(registry.indexOf(FIRST_ADDRESS)));
+        assertEquals("Watch", registry.getName(registry.indexOf(SECOND_ADDRESS)));
+        assertEquals(Arrays.asList(2), restoredCounts);
+    }
+
+    @Test
+    public void load_keepsTheDevicesSeenWhileReading() throws Exception {
+        saveTwoDevices();
+
+        DeviceRegistry registry = new DeviceRegistry();
+        load(registry);
+        int index = registry.record(FIRST_ADDRESS, null, "Phone renamed",
+                BluetoothClass.Device.PHONE_SMART, (short) -40, System.currentTimeMillis());
+        runUiTasks();
+
+        assertEquals(2, registry.size());
+        assertEquals("Phone renamed", registry.getName(index));
+        assertEquals((short) -40, registry.getRssi(index));
+        assertEquals(Arrays.asList(1), restoredCounts);
+    }
+
+    @Test
+    public void save_whileLoading_keepsTheCachedDevices() throws Exception {
+        saveTwoDevices();
+
+        DeviceRegistry registry = new DeviceRegistry();
+        load(registry);
+        // Nothing restored yet: saving now would empty the file.
+        cache.save(registry);
+        runUiTasks();
+
+        DeviceRegistry reloaded = new DeviceRegistry();
+        load(reloaded);
+        runUiTasks();
+        assertEquals(2, reloaded.size());
+    }
+
+    @Test
+    public void save_afterClose_isIgnored() throws Exception {
+        cache.close();
+        // The service saves the registry before closing the cache, a later save must not throw.
+        saveTwoDevices();
+    }
+
+    /**
+     * Writes two devices to the cache file, in the background like the reads which follow.
+     */
+    private void saveTwoDevices() throws InterruptedException {
+        DeviceRegistry registry = new DeviceRegistry();
+        long now = System.currentTimeMillis();
+        registry.record(FIRST_ADDRESS, null, "Phone", BluetoothClass.Device.PHONE_SMART, (short) -60, now);
+        registry.record(SECOND_ADDRESS, null, "Watch", BluetoothClass.Device.WEARABLE_WRIST_WATCH,
+                (short) -70, now - 1000);
+        cache.save(registry);
+    }
+
+    /**
+     * Reads the cache file in the background, and waits for the restore to be posted to the UI
+     * thread.
+     */
+    private void load(DeviceRegistry registry) throws InterruptedException {
+        uiTaskPosted = new CountDownLatch(1);
+        cache.loadInto(registry, uiExecutor, this);
+        assertTrue(uiTaskPosted.await(5, TimeUnit.SECONDS));
+    }
+
+    private void runUiTasks() {
+        List<Runnable> tasks;
+        synchronized (uiTasks) {
+            tasks = new ArrayList<>(uiTasks);
+            uiTasks.clear();
+        }
+        for (Runnable task : tasks) {
+            task.run();
+        }
+    }
+
+    @Override
+    public void devicesRestored(int restored) {
+        restoredCounts.add(restored);
+    }
+
+    @Override
+    public void startLoading() {
+    }
+
+    @Override
+    public void endLoading() {
+    }
+
+    @Override
+    public void connectedDeviceInfo(DeviceSnapshot snapshot) {
+    }
+
+    @Override
+    public void exportProgress(long exported, long total) {
+    }
+
+    @Override
+    public void exportFinished(File file, long exported, boolean success) {
+    }
+}
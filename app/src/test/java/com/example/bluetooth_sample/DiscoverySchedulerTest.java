@@ -0,0 +1,157 @@
+package com.example.bluetooth_sample;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the timing of the scan windows of the continuous scan, on a manual clock.
+ */
+public class DiscoverySchedulerTest implements DiscoveryScheduler.Scanner {
+
+    private static final long SCAN_WINDOW_MILLIS = 1000;
+    private static final long MIN_IDLE_MILLIS = 100;
+    private static final long MAX_IDLE_MILLIS = 800;
+
+    private ManualTimers timers;
+    private DeviceRegistry registry;
+    private DiscoveryScheduler scheduler;
+
+    /**
+     * The showError argument of each discovery started, or attempted.
+     */
+    private final List<Boolean> startedDiscoveries = new ArrayList<>();
+    private boolean startSucceeds = true;
+    private boolean discovering;
+
+    @Before
+    public void setUp() {
+        timers = new ManualTimers();
+        registry = new DeviceRegistry();
+        scheduler = new DiscoveryScheduler(this, registry, timers);
+        scheduler.setScanWindowMillis(SCAN_WINDOW_MILLIS);
+        scheduler.setIdleMillis(MIN_IDLE_MILLIS, MAX_IDLE_MILLIS);
+    }
+
+    @Override
+    public boolean isDiscovering() {
+        return discovering;
+    }
+
+    @Override
+    public boolean startDiscovery(boolean showError) {
+        startedDiscoveries.add(showError);
+        discovering = startSucceeds;
+        return startSucceeds;
+    }
+
+    @Override
+    public void cancelDiscovery() {
+        discovering = false;
+        scheduler.onDiscoveryFinished();
+    }
+
+    @Test
+    public void emptyWindows_doubleTheIdlePeriodUpToTheMaximum() {
+        scheduler.start();
+        assertEquals(1, startedDiscoveries.size());
+
+        long[] expectedIdleMillis = {200, 400, 800, 800};
+        for (int window = 0; window < expectedIdleMillis.length; window++) {
+            timers.advance(SCAN_WINDOW_MILLIS);
+            assertFalse(discovering);
+            assertEquals(expectedIdleMillis[window], scheduler.getIdleMillis());
+
+            timers.advance(expectedIdleMillis[window] - 1);
+            assertEquals(window + 1, startedDiscoveries.size());
+            timers.advance(1);
+            assertEquals(window + 2, startedDiscoveries.size());
+        }
+    }
+
+    @Test
+    public void windowWithNewDevices_resetsTheIdlePeriod() {
+        scheduler.start();
+        timers.advance(SCAN_WINDOW_MILLIS + 200);
+        timers.advance(SCAN_WINDOW_MILLIS);
+        assertEquals(400, scheduler.getIdleMillis());
+        timers.advance(400);
+
+        registry.record(SimulatedBluetoothBackend.FIRST_ADDRESS, null, "Phone", DeviceRegistry.UNKNOWN_CLASS, (short) -60, 0);
+        timers.advance(SCAN_WINDOW_MILLIS);
+
+        assertEquals(MIN_IDLE_MILLIS, scheduler.getIdleMillis());
+        timers.advance(MIN_IDLE_MILLIS);
+        assertEquals(4, startedDiscoveries.size());
+    }
+
+    @Test
+    public void pairing_pausesTheWindowsUntilItEnds() {
+        scheduler.start();
+        timers.advance(SCAN_WINDOW_MILLIS + 200);
+        timers.advance(SCAN_WINDOW_MILLIS / 2);
+        assertEquals(2, startedDiscoveries.size());
+
+        // The discovery is cancelled by the pairing, before the scheduler is told.
+        discovering = false;
+        scheduler.onPairingStarted();
+        timers.advance(10 * MAX_IDLE_MILLIS);
+        assertEquals(2, startedDiscoveries.size());
+        assertEquals(0, timers.getPendingCount());
+        assertTrue(scheduler.isRunning());
+
+        scheduler.onPairingsFinished();
+        assertEquals(MIN_IDLE_MILLIS, scheduler.getIdleMillis());
+        timers.advance(MIN_IDLE_MILLIS);
+        assertEquals(3, startedDiscoveries.size());
+        assertTrue(discovering);
+    }
+
+    @Test
+    public void failedStart_retriesAfterTheLongestIdlePeriodShowingTheErrorOnce() {
+        startSucceeds = false;
+        scheduler.start();
+        assertEquals(MAX_IDLE_MILLIS, scheduler.getIdleMillis());
+        timers.advance(MAX_IDLE_MILLIS);
+        timers.advance(MAX_IDLE_MILLIS);
+        assertEquals(3, startedDiscoveries.size());
+
+        startSucceeds = true;
+        timers.advance(MAX_IDLE_MILLIS);
+        assertTrue(discovering);
+        timers.advance(SCAN_WINDOW_MILLIS);
+        startSucceeds = false;
+        timers.advance(scheduler.getIdleMillis());
+
+        // The error is shown again once a window started in between.
+        assertEquals(Arrays.asList(true, false, false, false, true), startedDiscoveries);
+    }
+
+    @Test
+    public void runningDiscovery_delaysTheWindow() {
+        discovering = true;
+        scheduler.start();
+        assertTrue(startedDiscoveries.isEmpty());
+
+        discovering = false;
+        timers.advance(MIN_IDLE_MILLIS);
+        assertEquals(1, startedDiscoveries.size());
+    }
+
+    @Test
+    public void stop_endsTheRunningWindow() {
+        scheduler.start();
+        assertTrue(discovering);
+
+        scheduler.stop();
+
+        assertFalse(discovering);
+        assertFalse(scheduler.isRunning());
+        assertEquals(0, timers.getPendingCount());
+    }
+}
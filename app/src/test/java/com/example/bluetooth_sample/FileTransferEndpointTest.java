@@ -0,0 +1,360 @@
+package com.example.bluetooth_sample;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.*;
+
+/**
+ * Sends files between two endpoints over the loopback transport.
+ */
+public class FileTransferEndpointTest {
+
+    /**
+     * Size of the file sent: not a multiple of the chunk size.
+     */
+    private static final int FILE_SIZE = 1024 * 1024 + 123;
+
+    /**
+     * Records the files received and closes its endpoint past a given progress.
+     */
+    private static class RecordingListener implements FileTransferEndpoint.Listener {
+        final CountDownLatch received = new CountDownLatch(1);
+        volatile FileTransferEndpoint endpoint;
+        volatile long closeAfter = Long.MAX_VALUE;
+
+        @Override
+        public void onTransferProgress(String name, long transferred, long size, boolean incoming) {
+            if (!incoming && transferred >= closeAfter) {
+                endpoint.close();
+            }
+        }
+
+        @Override
+        public void onFileReceived(File file) {
+            received.countDown();
+        }
+
+        @Override
+        public void onClosed(IOException cause) {
+        }
+    }
+
+    /**
+     * Flips a bit of the byte written at a given offset of the stream.
+     */
+    private static class CorruptingTransport implements RfcommTransport {
+        private final RfcommTransport transport;
+        private final long corruptedOffset;
+        private long written;
+
+        CorruptingTransport(RfcommTransport transport, long corruptedOffset) {
+            this.transport = transport;
+            this.corruptedOffset = corruptedOffset;
+        }
+
+        @Override
+        public void open() throws IOException {
+            transport.open();
+        }
+
+        @Override
+        public ReadableByteChannel getInputChannel() throws IOException {
+            return transport.getInputChannel();
+        }
+
+        @Override
+        public WritableByteChannel getOutputChannel() throws IOException {
+            final WritableByteChannel output = transport.getOutputChannel();
+            return new WritableByteChannel() {
+                @Override
+                public int write(ByteBuffer source) throws IOException {
+                    int length = source.remaining();
+                    if (corruptedOffset >= written && corruptedOffset < written + length) {
+                        ByteBuffer copy = ByteBuffer.allocate(length);
+                        copy.put(source).flip();
+                        int index = (int) (corruptedOffset - written);
+                        copy.put(index, (byte) (copy.get(index) ^ 1));
+                        while (copy.hasRemaining()) {
+                            output.write(copy);
+                        }
+                        written += length;
+                        return length;
+                    }
+                    int count = output.write(source);
+                    written += count;
+                    return count;
+                }
+
+                @Override
+                public boolean isOpen() {
+                    return output.isOpen();
+                }
+
+                @Override
+                public void close() throws IOException {
+                    output.close();
+                }
+            };
+        }
+
+        @Override
+        public int available() throws IOException {
+            return transport.available();
+        }
+
+        @Override
+        public void close() throws IOException {
+            transport.close();
+        }
+    }
+
+    /**
+     * Flips a bit of the data of the chunk frames at a given offset of the file, the first times
+     * they are sent.
+     */
+    private static class ChunkCorruptingTransport extends CorruptingTransport {
+        private final long chunkOffset;
+        private int times;
+
+        ChunkCorruptingTransport(RfcommTransport transport, long chunkOffset, int times) {
+            super(transport, -1);
+            this.chunkOffset = chunkOffset;
+            this.times = times;
+        }
+
+        @Override
+        public WritableByteChannel getOutputChannel() throws IOException {
+            final WritableByteChannel output = super.getOutputChannel();
+            return new WritableByteChannel() {
+                @Override
+                public int write(ByteBuffer source) throws IOException {
+                    // A whole frame: header, type (3 for a chunk), transfer id, offset, CRC and data.
+                    int start = source.position();
+                    int data = start + RfcommConnection.HEADER_SIZE + 17;
+                    if (times > 0 && source.remaining() > data - start
+                            && source.get(start + RfcommConnection.HEADER_SIZE) == 3
+                            && source.getLong(start + RfcommConnection.HEADER_SIZE + 5) == chunkOffset) {
+                        times--;
+                        source.put(data, (byte) (source.get(data) ^ 1));
+                    }
+                    return output.write(source);
+                }
+
+                @Override
+                public boolean isOpen() {
+                    return output.isOpen();
+                }
+
+                @Override
+                public void close() throws IOException {
+                    output.close();
+                }
+            };
+        }
+    }
+
+    private File outgoingDirectory;
+    private File incomingDirectory;
+    private File file;
+    private byte[] content;
+    private RecordingListener senderListener;
+    private RecordingListener receiverListener;
+    private FileTransferEndpoint sender;
+    private FileTransferEndpoint receiver;
+
+    @Before
+    public void setUp() throws IOException {
+        outgoingDirectory = Files.createTempDirectory("outgoing").toFile();
+        incomingDirectory = Files.createTempDirectory("incoming").toFile();
+        file = new File(outgoingDirectory, "firmware.bin");
+        content = new byte[FILE_SIZE];
+        new Random(42).nextBytes(content);
+        try (FileOutputStream output = new FileOutputStream(file)) {
+            output.write(content);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        close();
+        for (File directory : new File[]{outgoingDirectory, incomingDirectory}) {
+            for (File child : directory.listFiles()) {
+                child.delete();
+            }
+            directory.delete();
+        }
+    }
+
+    @Test
+    public void sendFile_writesTheWholeFile() throws Exception {
+        connect(LoopbackTransport.createPair());
+
+        assertEquals(0, sender.sendFile(file, 5000));
+
+        assertTrue(receiverListener.received.await(5, TimeUnit.SECONDS));
+        assertReceived();
+        assertEquals(0, receiver.getRejectedChunks());
+    }
+
+    @Test
+    public void sendFile_resumesAfterADroppedLink() throws Exception {
+        connect(LoopbackTransport.createPair());
+        senderListener.closeAfter = FILE_SIZE / 2;
+        try {
+            sender.sendFile(file, 5000);
+            fail();
+        } catch (IOException e) {
+            // Expected, the link dropped.
+        }
+        close();
+
+        connect(LoopbackTransport.createPair());
+        long resumedFrom = sender.sendFile(file, 5000);
+
+        assertTrue(resumedFrom >= FILE_SIZE / 2);
+        assertTrue(resumedFrom < FILE_SIZE);
+        assertTrue(receiverListener.received.await(5, TimeUnit.SECONDS));
+        assertReceived();
+    }
+
+    @Test
+    public void corruptedChunk_isSentAgain() throws Exception {
+        LoopbackTransport[] pair = LoopbackTransport.createPair();
+        // Inside the data of the fourth chunk, after the offer.
+        int offerFrame = RfcommConnection.HEADER_SIZE + 27 + file.getName().length();
+        int chunkFrame = RfcommConnection.HEADER_SIZE + 17 + FileTransferEndpoint.DEFAULT_CHUNK_SIZE;
+        connect(new CorruptingTransport(pair[0], offerFrame + 3 * chunkFrame + 1000), pair[1]);
+
+        assertEquals(0, sender.sendFile(file, 5000));
+
+        assertTrue(receiverListener.received.await(5, TimeUnit.SECONDS));
+        assertReceived();
+        assertTrue(receiver.getRejectedChunks() > 0);
+    }
+
+    @Test
+    public void chunkCorruptedTwice_isSentAgainAfterEachRejection() throws Exception {
+        LoopbackTransport[] pair = LoopbackTransport.createPair();
+        connect(new ChunkCorruptingTransport(pair[0], 3L * FileTransferEndpoint.DEFAULT_CHUNK_SIZE, 2), pair[1]);
+
+        // Within the time a single retransmission takes, not the timeout.
+        assertEquals(0, sender.sendFile(file, 2000));
+
+        assertTrue(receiverListener.received.await(5, TimeUnit.SECONDS));
+        assertReceived();
+        assertTrue(receiver.getRejectedChunks() >= 2);
+    }
+
+    @Test
+    public void offer_outsideTheIncomingDirectory_isCancelled() throws Exception {
+        LoopbackTransport[] pair = LoopbackTransport.createPair();
+        final BlockingQueue<Byte> replies = new LinkedBlockingQueue<>();
+        RfcommConnection remote = new RfcommConnection(pair[0], new RfcommConnection.Listener() {
+            @Override
+            public void onConnected(RfcommConnection connection) {
+            }
+
+            @Override
+            public void onFrameReceived(RfcommConnection connection, ByteBuffer payload) {
+                replies.add(payload.get(payload.position()));
+            }
+
+            @Override
+            public void onClosed(RfcommConnection connection, IOException cause) {
+            }
+        });
+        FileTransferEndpoint endpoint = new FileTransferEndpoint(pair[1], incomingDirectory, new RecordingListener());
+        remote.start();
+        endpoint.start();
+        try {
+            String[] names = {"", ".", "..", "../escaped.bin", "nested/file.bin", "nested\\file.bin"};
+            for (int id = 0; id < names.length; id++) {
+                byte[] name = names[id].getBytes("UTF-8");
+                // Offer: type, transfer id, size, modification time, window and name.
+                ByteBuffer offer = ByteBuffer.allocate(27 + name.length);
+                offer.put((byte) 1).putInt(id).putLong(10).putLong(0).putInt(4096)
+                        .putShort((short) name.length).put(name);
+                offer.flip();
+                assertTrue(remote.send(offer, 5000));
+
+                // Cancelled.
+                assertEquals(Byte.valueOf((byte) 6), replies.poll(5, TimeUnit.SECONDS));
+            }
+            assertEquals(0, incomingDirectory.list().length);
+            // Nor its partial file next to the incoming directory.
+            assertEquals(0, incomingDirectory.getParentFile().list(new FilenameFilter() {
+                @Override
+                public boolean accept(File dir, String name) {
+                    return name.startsWith("escaped.bin");
+                }
+            }).length);
+        } finally {
+            endpoint.close();
+            remote.close();
+        }
+    }
+
+    @Test
+    public void crc32_matchesTheJdk() {
+        CRC32 expected = new CRC32();
+        expected.update(content, 100, 5000);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(content.length);
+        buffer.put(content);
+        buffer.position(100);
+        buffer.limit(5100);
+
+        assertEquals((int) expected.getValue(), Crc32.compute(buffer));
+        assertEquals(100, buffer.position());
+    }
+
+    private void connect(RfcommTransport[] pair) {
+        connect(pair[0], pair[1]);
+    }
+
+    private void connect(RfcommTransport senderTransport, RfcommTransport receiverTransport) {
+        senderListener = new RecordingListener();
+        receiverListener = new RecordingListener();
+        sender = new FileTransferEndpoint(senderTransport, outgoingDirectory, senderListener);
+        receiver = new FileTransferEndpoint(receiverTransport, incomingDirectory, receiverListener);
+        senderListener.endpoint = sender;
+        receiverListener.endpoint = receiver;
+        sender.start();
+        receiver.start();
+    }
+
+    private void close() {
+        if (sender != null) {
+            sender.close();
+            receiver.close();
+        }
+    }
+
+    private void assertReceived() throws IOException {
+        File received = new File(incomingDirectory, file.getName());
+        byte[] bytes = new byte[(int) received.length()];
+        try (RandomAccessFile input = new RandomAccessFile(received, "r")) {
+            input.readFully(bytes);
+        }
+        assertTrue(Arrays.equals(content, bytes));
+        assertEquals(1, incomingDirectory.list().length);
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.bluetooth_sample;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the buckets and the percentile estimates of the latency histograms.
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucketOf_usesPowersOfTwo() {
+        assertEquals(0, LatencyHistogram.bucketOf(0));
+        assertEquals(1, LatencyHistogram.bucketOf(1));
+        assertEquals(2, LatencyHistogram.bucketOf(2));
+        assertEquals(2, LatencyHistogram.bucketOf(3));
+        assertEquals(11, LatencyHistogram.bucketOf(2000));
+        assertEquals(LatencyHistogram.BUCKET_COUNT - 1, LatencyHistogram.bucketOf(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void percentiles_areBoundedByTheirBucket() {
+        LatencyHistogram histogram = new LatencyHistogram("bond_latency");
+        for (int i = 0; i < 90; i++) {
+            histogram.record(1500);
+        }
+        for (int i = 0; i < 10; i++) {
+            histogram.record(20000);
+        }
+        histogram.record(-1);
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(1500, histogram.getMinMillis());
+        assertEquals(20000, histogram.getMaxMillis());
+        assertEquals(3350, histogram.getMeanMillis());
+        assertEquals(2048, histogram.getPercentile(50));
+        assertEquals(2048, histogram.getPercentile(90));
+        // Capped by the maximum rather than the bucket bound of 32768 ms.
+        assertEquals(20000, histogram.getPercentile(99));
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(50));
+    }
+}
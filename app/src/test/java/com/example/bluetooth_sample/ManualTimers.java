@@ -0,0 +1,87 @@
+package com.example.bluetooth_sample;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Timers run by the tests, on a clock they advance.
+ */
+class ManualTimers extends Timers {
+
+    /**
+     * A pending task.
+     */
+    private static final class Timer {
+        final Runnable task;
+        final long dueMillis;
+
+        Timer(Runnable task, long dueMillis) {
+            this.task = task;
+            this.dueMillis = dueMillis;
+        }
+    }
+
+    /**
+     * The pending tasks, in the order they were posted.
+     */
+    private final List<Timer> timers = new ArrayList<>();
+
+    private long nowMillis;
+
+    ManualTimers() {
+        super(null);
+    }
+
+    @Override
+    public void post(Runnable task) {
+        postDelayed(task, 0);
+    }
+
+    @Override
+    public void postDelayed(Runnable task, long delayMillis) {
+        timers.add(new Timer(task, nowMillis + delayMillis));
+    }
+
+    @Override
+    public void removeCallbacks(Runnable task) {
+        for (int i = timers.size() - 1; i >= 0; i--) {
+            if (timers.get(i).task == task) {
+                timers.remove(i);
+            }
+        }
+    }
+
+    /**
+     * Advances the clock, running the tasks which become due in the order of their times, then
+     * of their posts.
+     *
+     * @param millis the time to advance by.
+     */
+    void advance(long millis) {
+        long targetMillis = nowMillis + millis;
+        while (true) {
+            Timer next = null;
+            for (Timer timer : timers) {
+                if (timer.dueMillis <= targetMillis && (next == null || timer.dueMillis < next.dueMillis)) {
+                    next = timer;
+                }
+            }
+            if (next == null) {
+                break;
+            }
+            timers.remove(next);
+            nowMillis = next.dueMillis;
+            next.task.run();
+        }
+        nowMillis = targetMillis;
+    }
+
+    /**
+     * Gets the number of tasks waiting to run.
+     *
+     * @return the number of tasks.
+     */
+    int getPendingCount() {
+        return timers.size();
+    }
+}
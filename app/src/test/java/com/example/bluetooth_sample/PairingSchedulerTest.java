@@ -0,0 +1,253 @@
+package com.example.bluetooth_sample;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the batches of pairings, driven by hand through the bond state broadcasts, on a manual
+ * clock.
+ */
+public class PairingSchedulerTest implements PairingScheduler.Listener, BluetoothBackend {
+
+    private static final long TIMEOUT_MILLIS = 30000;
+
+    private static final long A = SimulatedBluetoothBackend.FIRST_ADDRESS;
+    private static final long B = A + 1;
+    private static final long C = A + 2;
+    private static final long D = A + 3;
+
+    private ManualTimers timers;
+    private PairingScheduler scheduler;
+
+    private final List<Long> bondsCreated = new ArrayList<>();
+    private final List<Long> bondsCancelled = new ArrayList<>();
+    private final List<PairingResult> results = new ArrayList<>();
+    private boolean refuseBonds;
+    private int batchCount;
+    private int batchBonded;
+    private int batchFailed;
+
+    @Before
+    public void setUp() {
+        timers = new ManualTimers();
+        scheduler = new PairingScheduler(2, timers, this, this);
+    }
+
+    @Test
+    public void submit_bondsAtMostTheLimitInTheOrderOfSubmission() {
+        List<PairingFuture> futures = submit(A, B, C, D);
+
+        assertEquals(Arrays.asList(A, B), bondsCreated);
+        assertEquals(PairingScheduler.STATE_BONDING, scheduler.getState(B));
+        assertEquals(PairingScheduler.STATE_QUEUED, scheduler.getState(C));
+
+        scheduler.onBondStateChanged(B, BluetoothDevice.BOND_BONDED, BluetoothDevice.BOND_BONDING);
+        assertEquals(Arrays.asList(A, B, C), bondsCreated);
+        scheduler.onBondStateChanged(A, BluetoothDevice.BOND_NONE, BluetoothDevice.BOND_BONDING);
+        assertEquals(Arrays.asList(A, B, C, D), bondsCreated);
+
+        assertTrue(futures.get(1).isDone());
+        assertEquals(PairingScheduler.STATE_FAILED, scheduler.getState(A));
+        assertEquals(Arrays.asList(PairingResult.BONDED, PairingResult.NONE), results);
+        assertEquals(0, batchCount);
+    }
+
+    @Test
+    public void batch_isReportedOnceEveryPairingEnded() throws Exception {
+        List<PairingFuture> futures = submit(A, B, C);
+        scheduler.onBondStateChanged(A, BluetoothDevice.BOND_BONDED, BluetoothDevice.BOND_BONDING);
+        scheduler.onBondStateChanged(B, BluetoothDevice.BOND_NONE, BluetoothDevice.BOND_BONDING);
+        assertTrue(scheduler.isBusy());
+
+        scheduler.onBondStateChanged(C, BluetoothDevice.BOND_BONDED, BluetoothDevice.BOND_BONDING);
+
+        assertFalse(scheduler.isBusy());
+        assertEquals(1, batchCount);
+        assertEquals(2, batchBonded);
+        assertEquals(1, batchFailed);
+        assertEquals(PairingResult.BONDED, futures.get(2).get());
+
+        // The next submission starts a new batch.
+        submit(D);
+        assertEquals(-1, scheduler.getState(A));
+        assertEquals(PairingScheduler.STATE_BONDING, scheduler.getState(D));
+    }
+
+    @Test
+    public void deadline_runsFromTheSubmissionAndAbortsTheBondings() throws Exception {
+        List<PairingFuture> futures = submit(A, B, C);
+        timers.advance(TIMEOUT_MILLIS / 2);
+        scheduler.onBondStateChanged(A, BluetoothDevice.BOND_BONDED, BluetoothDevice.BOND_BONDING);
+        assertEquals(PairingScheduler.STATE_BONDING, scheduler.getState(C));
+
+        timers.advance(TIMEOUT_MILLIS / 2);
+
+        assertEquals(Arrays.asList(B, C), bondsCancelled);
+        assertEquals(PairingResult.TIMEOUT, futures.get(1).get());
+        assertEquals(PairingResult.TIMEOUT, futures.get(2).get());
+        assertEquals(1, batchCount);
+        assertEquals(2, batchFailed);
+        // Ended before its deadline, which has been cancelled.
+        assertEquals(0, timers.getPendingCount());
+    }
+
+    @Test
+    public void cancel_stopsTheBondingAndStartsTheNextOne() {
+        List<PairingFuture> futures = submit(A, B, C, D);
+
+        assertTrue(futures.get(0).cancel(true));
+        assertTrue(futures.get(3).cancel(true));
+        timers.advance(0);
+
+        assertEquals(Arrays.asList(A), bondsCancelled);
+        assertEquals(Arrays.asList(A, B, C), bondsCreated);
+        assertEquals(PairingScheduler.STATE_CANCELLED, scheduler.getState(A));
+        assertEquals(PairingScheduler.STATE_CANCELLED, scheduler.getState(D));
+        assertTrue(futures.get(3).isCancelled());
+        // The cancelled pairings are not reported to the listener, only counted as failed.
+        assertTrue(results.isEmpty());
+        scheduler.onBondStateChanged(B, BluetoothDevice.BOND_BONDED, BluetoothDevice.BOND_BONDING);
+        scheduler.onBondStateChanged(C, BluetoothDevice.BOND_BONDED, BluetoothDevice.BOND_BONDING);
+        assertEquals(2, batchBonded);
+        assertEquals(2, batchFailed);
+    }
+
+    @Test
+    public void bondDroppedWithoutBonding_failsRightAway() throws Exception {
+        PairingFuture future = scheduler.submit(A, null, TIMEOUT_MILLIS);
+
+        scheduler.onBondStateChanged(A, BluetoothDevice.BOND_NONE, BluetoothDevice.BOND_NONE);
+
+        assertEquals(PairingResult.NONE, future.get());
+        assertEquals(PairingScheduler.STATE_FAILED, scheduler.getState(A));
+        assertFalse(scheduler.isBusy());
+        assertEquals(0, timers.getPendingCount());
+    }
+
+    @Test
+    public void refusedBond_failsRightAway() {
+        refuseBonds = true;
+
+        PairingFuture future = scheduler.submit(A, null, TIMEOUT_MILLIS);
+
+        assertTrue(future.isDone());
+        assertEquals(Arrays.asList(PairingResult.NONE), results);
+        assertFalse(scheduler.isBusy());
+    }
+
+    @Test
+    public void queuedDevice_bondedElsewhere_isNotBondedAgain() {
+        submit(A, B, C);
+
+        scheduler.onBondStateChanged(C, BluetoothDevice.BOND_BONDED, BluetoothDevice.BOND_BONDING);
+        scheduler.onBondStateChanged(A, BluetoothDevice.BOND_BONDED, BluetoothDevice.BOND_BONDING);
+
+        assertEquals(Arrays.asList(A, B), bondsCreated);
+        assertEquals(PairingScheduler.STATE_BONDED, scheduler.getState(C));
+    }
+
+    @Test
+    public void submit_returnsThePendingPairingOfADevice() {
+        PairingFuture first = scheduler.submit(A, null, TIMEOUT_MILLIS);
+
+        assertSame(first, scheduler.submit(A, null, TIMEOUT_MILLIS));
+        assertEquals(1, bondsCreated.size());
+        assertFalse(scheduler.onBondStateChanged(D, BluetoothDevice.BOND_BONDED, BluetoothDevice.BOND_BONDING));
+    }
+
+    private List<PairingFuture> submit(long... addresses) {
+        List<PairingFuture> futures = new ArrayList<>();
+        for (long address : addresses) {
+            futures.add(scheduler.submit(address, null, TIMEOUT_MILLIS));
+        }
+        return futures;
+    }
+
+    @Override
+    public void onPairingFinished(long address, BluetoothDevice device, PairingResult result) {
+        results.add(result);
+    }
+
+    @Override
+    public void onBatchFinished(int bonded, int failed, long elapsedMillis) {
+        batchCount++;
+        batchBonded = bonded;
+        batchFailed = failed;
+    }
+
+    @Override
+    public boolean createBond(long address) {
+        if (refuseBonds) {
+            return false;
+        }
+        bondsCreated.add(address);
+        return true;
+    }
+
+    @Override
+    public boolean cancelBond(long address) {
+        bondsCancelled.add(address);
+        return true;
+    }
+
+    @Override
+    public void start(BluetoothEventQueue events) {
+    }
+
+    @Override
+    public void stop() {
+    }
+
+    @Override
+    public int getState() {
+        return BluetoothAdapter.STATE_ON;
+    }
+
+    @Override
+    public boolean isDiscovering() {
+        return false;
+    }
+
+    @Override
+    public boolean startDiscovery() {
+        return false;
+    }
+
+    @Override
+    public boolean cancelDiscovery() {
+        return false;
+    }
+
+    @Override
+    public boolean startLeScan(LeScanSettings settings) {
+        return false;
+    }
+
+    @Override
+    public void stopLeScan() {
+    }
+
+    @Override
+    public boolean isLeScanning() {
+        return false;
+    }
+
+    @Override
+    public long[] getBondedAddresses() {
+        return new long[0];
+    }
+
+    @Override
+    public boolean fetchUuids(long address) {
+        return false;
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.bluetooth_sample;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the proximity order of the device list and its incremental updates.
+ */
+public class ProximityRankingTest implements ProximityRanking.Listener {
+
+    private DeviceRegistry registry;
+    private ProximityRanking ranking;
+    private final List<int[]> moves = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        registry = new DeviceRegistry();
+        ranking = new ProximityRanking(registry);
+    }
+
+    @Override
+    public void onItemMoved(int fromPosition, int toPosition) {
+        moves.add(new int[]{fromPosition, toPosition});
+    }
+
+    @Test
+    public void reorder_putsTheClosestDevicesFirst() {
+        see(0, -90);
+        see(1, -40);
+        see(2, -70);
+        see(3, DeviceRegistry.UNKNOWN_RSSI);
+        ranking.sync();
+
+        ranking.reorder(ranking.size(), this);
+
+        assertEquals(1, ranking.indexAt(0));
+        assertEquals(2, ranking.indexAt(1));
+        assertEquals(0, ranking.indexAt(2));
+        assertEquals(3, ranking.indexAt(3));
+        for (int position = 0; position < ranking.size(); position++) {
+            assertEquals(position, ranking.positionOf(ranking.indexAt(position)));
+        }
+        // Only the rows which changed of rank moved.
+        assertEquals(2, moves.size());
+        assertArrayEquals(new int[]{1, 0}, moves.get(0));
+        assertArrayEquals(new int[]{2, 1}, moves.get(1));
+    }
+
+    @Test
+    public void reorder_ignoresTheFluctuationsBelowTheHysteresis() {
+        see(0, -60);
+        see(1, -62);
+        ranking.sync();
+        ranking.reorder(ranking.size(), this);
+        assertTrue(moves.isEmpty());
+
+        // Averaged with the previous samples, a single spike doesn't change the order.
+        see(1, -55);
+        assertEquals(0, ranking.reorder(ranking.size(), this));
+
+        // A lasting change does.
+        for (int i = 0; i < 10; i++) {
+            see(1, -50);
+        }
+        assertEquals(1, ranking.reorder(ranking.size(), this));
+        assertEquals(1, ranking.indexAt(0));
+    }
+
+    @Test
+    public void reorder_onlyMovesThePublishedRows() {
+        see(0, -80);
+        see(1, -70);
+        see(2, -30);
+        ranking.sync();
+
+        ranking.reorder(2, this);
+
+        assertEquals(1, ranking.indexAt(0));
+        assertEquals(0, ranking.indexAt(1));
+        assertEquals(2, ranking.indexAt(2));
+    }
+
+    @Test
+    public void smoothedRssi_followsTheSamples() {
+        see(0, -80);
+        assertEquals(-80f, registry.getSmoothedRssi(0), 0.001f);
+        see(0, -40);
+        assertEquals(-80f + DeviceRegistry.DEFAULT_RSSI_SMOOTHING * 40, registry.getSmoothedRssi(0), 0.001f);
+        // A sighting without RSSI keeps the average.
+        see(0, DeviceRegistry.UNKNOWN_RSSI);
+        assertEquals(-80f + DeviceRegistry.DEFAULT_RSSI_SMOOTHING * 40, registry.getSmoothedRssi(0), 0.001f);
+        assertEquals(-40, registry.getRssi(0));
+    }
+
+    private void see(int device, int rssi) {
+        registry.record(SimulatedBluetoothBackend.FIRST_ADDRESS + device, null, null,
+                DeviceRegistry.UNKNOWN_CLASS, (short) rssi, 0);
+    }
+}
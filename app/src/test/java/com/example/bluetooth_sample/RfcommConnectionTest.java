@@ -0,0 +1,147 @@
+package com.example.bluetooth_sample;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Streams frames between two connections over the loopback transport.
+ */
+public class RfcommConnectionTest {
+
+    /**
+     * Records what a connection received.
+     */
+    private static class RecordingListener implements RfcommConnection.Listener {
+        final CountDownLatch connected = new CountDownLatch(1);
+        final CountDownLatch closed = new CountDownLatch(1);
+        final BlockingQueue<byte[]> frames = new LinkedBlockingQueue<>();
+        volatile CountDownLatch gate;
+        volatile IOException cause;
+
+        @Override
+        public void onConnected(RfcommConnection connection) {
+            connected.countDown();
+        }
+
+        @Override
+        public void onFrameReceived(RfcommConnection connection, ByteBuffer payload) {
+            CountDownLatch currentGate = gate;
+            if (currentGate != null) {
+                try {
+                    currentGate.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            byte[] frame = new byte[payload.remaining()];
+            payload.get(frame);
+            frames.add(frame);
+        }
+
+        @Override
+        public void onClosed(RfcommConnection connection, IOException cause) {
+            this.cause = cause;
+            closed.countDown();
+        }
+    }
+
+    private RecordingListener localListener;
+    private RecordingListener remoteListener;
+    private RfcommConnection local;
+    private RfcommConnection remote;
+
+    @Before
+    public void setUp() throws IOException {
+        LoopbackTransport[] pair = LoopbackTransport.createPair();
+        localListener = new RecordingListener();
+        remoteListener = new RecordingListener();
+        local = new RfcommConnection(pair[0], localListener, new ByteBufferPool(4, 1024, true));
+        remote = new RfcommConnection(pair[1], remoteListener, new ByteBufferPool(4, 1024, true));
+    }
+
+    @After
+    public void tearDown() {
+        local.close();
+        remote.close();
+    }
+
+    @Test
+    public void frames_arriveWholeAndInOrder() throws Exception {
+        local.start();
+        remote.start();
+        assertTrue(localListener.connected.await(5, TimeUnit.SECONDS));
+
+        for (int i = 0; i < 100; i++) {
+            byte[] payload = new byte[i * 10];
+            for (int j = 0; j < payload.length; j++) {
+                payload[j] = (byte) (i + j);
+            }
+            assertTrue(local.send(ByteBuffer.wrap(payload), 5000));
+        }
+
+        for (int i = 0; i < 100; i++) {
+            byte[] frame = remoteListener.frames.poll(5, TimeUnit.SECONDS);
+            assertNotNull(frame);
+            assertEquals(i * 10, frame.length);
+            for (int j = 0; j < frame.length; j++) {
+                assertEquals((byte) (i + j), frame[j]);
+            }
+        }
+        assertEquals(100, remote.getFramesReceived());
+        assertEquals(49500, remote.getBytesReceived());
+    }
+
+    @Test
+    public void send_waitsForASlowReceiver() throws Exception {
+        remoteListener.gate = new CountDownLatch(1);
+        local.start();
+        remote.start();
+        assertTrue(localListener.connected.await(5, TimeUnit.SECONDS));
+
+        // Fills the receiver, the pipes and then every buffer of the pool.
+        int sent = 0;
+        while (local.send(ByteBuffer.allocate(1020), 200)) {
+            sent++;
+            assertTrue(sent < 10000);
+        }
+        assertEquals(4, local.getPendingFrameCount());
+
+        // Everything comes through once the receiver catches up.
+        remoteListener.gate.countDown();
+        assertTrue(local.send(ByteBuffer.allocate(1020), 5000));
+        for (int i = 0; i <= sent; i++) {
+            assertNotNull(remoteListener.frames.poll(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void close_notifiesBothEnds() throws Exception {
+        local.start();
+        remote.start();
+        assertTrue(remoteListener.connected.await(5, TimeUnit.SECONDS));
+
+        local.close();
+
+        assertTrue(localListener.closed.await(5, TimeUnit.SECONDS));
+        assertTrue(remoteListener.closed.await(5, TimeUnit.SECONDS));
+        assertNull(localListener.cause);
+        assertNull(remoteListener.cause);
+        assertTrue(remote.isClosed());
+        try {
+            local.send(ByteBuffer.allocate(1), 0);
+            fail();
+        } catch (IOException e) {
+            // Expected.
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.example.bluetooth_sample;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the journal of the Bluetooth events, and their replay through the event queue.
+ */
+public class ScanJournalTest {
+
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private static final long ADDRESS = MacAddress.toKey("00:11:22:33:44:55");
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("journal").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        for (File child : directory.listFiles()) {
+            child.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void cursor_readsTheRecordsAppended() {
+        ScanJournal journal = new ScanJournal(directory);
+        journal.append(BluetoothEvent.TYPE_DEVICE_FOUND, ADDRESS, 0x020C, (short) -61, 0, 0, 1000);
+        journal.append(BluetoothEvent.TYPE_BOND_STATE_CHANGED, ADDRESS, DeviceRegistry.UNKNOWN_CLASS,
+                DeviceRegistry.UNKNOWN_RSSI, BluetoothDevice.BOND_BONDED, BluetoothDevice.BOND_BONDING, 2000);
+        journal.close();
+        // Ignored once closed.
+        journal.append(BluetoothEvent.TYPE_DISCOVERY_FINISHED, 0, 0, (short) 0, 0, 0, 3000);
+
+        ScanJournal.Cursor cursor = new ScanJournal.Cursor(directory);
+        assertTrue(cursor.next());
+        assertEquals(BluetoothEvent.TYPE_DEVICE_FOUND, cursor.getType());
+        assertEquals(ADDRESS, cursor.getAddress());
+        assertEquals(0x020C, cursor.getDeviceClass());
+        assertEquals(-61, cursor.getRssi());
+        assertEquals(1000, cursor.getReceivedAtNanos());
+        assertTrue(cursor.next());
+        assertEquals(BluetoothEvent.TYPE_BOND_STATE_CHANGED, cursor.getType());
+        assertEquals(BluetoothDevice.BOND_BONDED, cursor.getState());
+        assertEquals(BluetoothDevice.BOND_BONDING, cursor.getPreviousState());
+        assertEquals(2000, cursor.getReceivedAtNanos());
+        assertFalse(cursor.next());
+    }
+
+    @Test
+    public void append_rotatesTheSegmentsAndKeepsTheNewest() {
+        ScanJournal journal = new ScanJournal(directory, 4, 2);
+        for (int i = 0; i < 10; i++) {
+            journal.append(BluetoothEvent.TYPE_DEVICE_FOUND, ADDRESS + i, 0, (short) -60, 0, 0, i);
+        }
+        journal.close();
+
+        assertEquals(2, ScanJournal.listSegments(directory).length);
+        assertAddresses(new ScanJournal.Cursor(directory), 4, 10);
+    }
+
+    @Test
+    public void newJournal_appendsAfterThePreviousSessions() {
+        for (int session = 0; session < 3; session++) {
+            ScanJournal journal = new ScanJournal(directory, 4, 10);
+            journal.append(BluetoothEvent.TYPE_DEVICE_FOUND, ADDRESS + session * 2, 0, (short) -60, 0, 0, 0);
+            journal.append(BluetoothEvent.TYPE_DEVICE_FOUND, ADDRESS + session * 2 + 1, 0, (short) -60, 0, 0, 0);
+            journal.close();
+        }
+
+        assertEquals(3, ScanJournal.listSegments(directory).length);
+        assertAddresses(new ScanJournal.Cursor(directory), 0, 6);
+    }
+
+    @Test
+    public void replay_dispatchesTheEventsOfTheSession() {
+        ScanJournal journal = new ScanJournal(directory, 256, 100);
+        SimulatedBluetoothBackend simulated = new SimulatedBluetoothBackend(42);
+        simulated.setRealTime(false);
+        simulated.setDiscoveryDurationMillis(2000);
+        simulated.setAdapterFlipRate(0.001f);
+        RecordingDispatcher recorded = new RecordingDispatcher();
+        BluetoothEventQueue queue = new BluetoothEventQueue(256, DIRECT_EXECUTOR, recorded);
+        queue.setJournal(journal);
+        simulated.start(queue);
+        for (int i = 0; i < 10; i++) {
+            simulated.startDiscovery();
+            simulated.createBond(SimulatedBluetoothBackend.FIRST_ADDRESS + i);
+            simulated.generate(500);
+        }
+        simulated.stop();
+        journal.close();
+        assertTrue(journal.getRecordCount() > 1000);
+        // Replayed across the segments.
+        assertTrue(ScanJournal.listSegments(directory).length > 1);
+
+        ScanJournalReplayer replayer = new ScanJournalReplayer(directory);
+        replayer.setRealTime(false);
+        RecordingDispatcher replayed = new RecordingDispatcher();
+        replayer.start(new BluetoothEventQueue(256, DIRECT_EXECUTOR, replayed));
+
+        assertEquals(journal.getRecordCount(), replayer.replay(Integer.MAX_VALUE));
+        assertTrue(replayer.isFinished());
+        assertEquals(recorded.events, replayed.events);
+    }
+
+    @Test
+    public void replay_keepsTheOriginalPaceInRealTime() throws InterruptedException {
+        ScanJournal journal = new ScanJournal(directory);
+        long gap = TimeUnit.MILLISECONDS.toNanos(50);
+        journal.append(BluetoothEvent.TYPE_STATE_CHANGED, 0, 0, (short) 0,
+                BluetoothAdapter.STATE_ON, BluetoothAdapter.STATE_TURNING_ON, 1000);
+        journal.append(BluetoothEvent.TYPE_DEVICE_FOUND, ADDRESS, 0, (short) -60, 0, 0, 1000 + gap);
+        journal.append(BluetoothEvent.TYPE_DISCOVERY_FINISHED, 0, 0, (short) 0, 0, 0, 1000 + 2 * gap);
+        journal.close();
+
+        final CountDownLatch finished = new CountDownLatch(1);
+        ScanJournalReplayer replayer = new ScanJournalReplayer(directory);
+        long start = System.nanoTime();
+        replayer.start(new BluetoothEventQueue(256, DIRECT_EXECUTOR, new BluetoothEventQueue.Dispatcher() {
+            @Override
+            public void dispatch(BluetoothEvent event) {
+                if (event.getType() == BluetoothEvent.TYPE_DISCOVERY_FINISHED) {
+                    finished.countDown();
+                }
+            }
+        }));
+
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start >= 2 * gap);
+        assertEquals(3, replayer.getReplayedCount());
+        replayer.stop();
+    }
+
+    private static void assertAddresses(ScanJournal.Cursor cursor, int from, int to) {
+        for (int i = from; i < to; i++) {
+            assertTrue(cursor.next());
+            assertEquals(ADDRESS + i, cursor.getAddress());
+        }
+        assertFalse(cursor.next());
+    }
+
+    /**
+     * Records what the pipeline sees of each event, but the names, which are not journaled.
+     */
+    private static class RecordingDispatcher implements BluetoothEventQueue.Dispatcher {
+        final List<String> events = new ArrayList<>();
+
+        @Override
+        public void dispatch(BluetoothEvent event) {
+            events.add(event.getType() + " " + MacAddress.toString(event.getAddress()) + " "
+                    + event.getDeviceClass() + " " + event.getRssi() + " " + event.getState()
+                    + " " + event.getPreviousState());
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package com.example.bluetooth_sample;
+
+import android.bluetooth.BluetoothClass;
+import android.bluetooth.BluetoothDevice;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the export of the journaled scan sessions to CSV and JSON Lines.
+ */
+public class SessionExporterTest implements ProgressListener {
+
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private static final long ADDRESS = MacAddress.toKey("00:11:22:33:44:55");
+
+    private File journalDirectory;
+    private File exportDirectory;
+    private DeviceRegistry registry;
+    private SessionExporter exporter;
+
+    private final List<Long> progress = new ArrayList<>();
+    private long progressTotal = -1;
+    private long finishedCount = -1;
+    private boolean finishedSuccess;
+
+    @Before
+    public void setUp() throws IOException {
+        journalDirectory = Files.createTempDirectory("journal").toFile();
+        exportDirectory = Files.createTempDirectory("exports").toFile();
+        registry = new DeviceRegistry();
+        exporter = new SessionExporter(DIRECT_EXECUTOR, DIRECT_EXECUTOR);
+    }
+
+    @After
+    public void tearDown() {
+        for (File directory : new File[]{journalDirectory, exportDirectory}) {
+            for (File child : directory.listFiles()) {
+                child.delete();
+            }
+            directory.delete();
+        }
+    }
+
+    @Test
+    public void export_writesOneCsvLinePerEvent() throws IOException {
+        registry.record(ADDRESS, null, "Speaker, \"kitchen\"", BluetoothClass.Device.AUDIO_VIDEO_HEADPHONES, (short) -61, 0);
+        ScanJournal journal = new ScanJournal(journalDirectory);
+        journal.append(BluetoothEvent.TYPE_DEVICE_FOUND, ADDRESS, BluetoothClass.Device.AUDIO_VIDEO_HEADPHONES,
+                (short) -61, 0, 0, 0);
+        journal.append(BluetoothEvent.TYPE_DEVICE_FOUND, ADDRESS + 1, DeviceRegistry.UNKNOWN_CLASS,
+                DeviceRegistry.UNKNOWN_RSSI, 0, 0, 0);
+        journal.append(BluetoothEvent.TYPE_BOND_STATE_CHANGED, ADDRESS, DeviceRegistry.UNKNOWN_CLASS,
+                DeviceRegistry.UNKNOWN_RSSI, BluetoothDevice.BOND_BONDED, BluetoothDevice.BOND_BONDING, 0);
+        journal.close();
+
+        List<String> lines = export(SessionExporter.Format.CSV, false);
+
+        assertEquals(4, lines.size());
+        assertEquals("time_millis,event,address,name,device_class,rssi,state,previous_state", lines.get(0));
+        assertEquals("device_found,00:11:22:33:44:55,\"Speaker, \"\"kitchen\"\"\",1048,-61,,", withoutTime(lines.get(1)));
+        assertEquals("device_found,00:11:22:33:44:56,,,,,", withoutTime(lines.get(2)));
+        assertEquals("bond_state_changed,00:11:22:33:44:55,\"Speaker, \"\"kitchen\"\"\",,,12,11", withoutTime(lines.get(3)));
+        assertTrue(finishedSuccess);
+        assertEquals(3, finishedCount);
+    }
+
+    @Test
+    public void export_writesCompressedJsonLines() throws IOException {
+        registry.record(ADDRESS, null, "Watch\n\"2\"", BluetoothClass.Device.WEARABLE_WRIST_WATCH, (short) -70, 0);
+        ScanJournal journal = new ScanJournal(journalDirectory);
+        long before = System.currentTimeMillis();
+        journal.append(BluetoothEvent.TYPE_DEVICE_FOUND, ADDRESS, BluetoothClass.Device.WEARABLE_WRIST_WATCH,
+                (short) -70, 0, 0, System.nanoTime());
+        journal.append(BluetoothEvent.TYPE_DISCOVERY_FINISHED, 0, DeviceRegistry.UNKNOWN_CLASS,
+                DeviceRegistry.UNKNOWN_RSSI, 0, 0, System.nanoTime());
+        journal.close();
+
+        List<String> lines = export(SessionExporter.Format.JSON_LINES, true);
+
+        assertEquals(2, lines.size());
+        String first = lines.get(0);
+        long time = Long.parseLong(first.substring("{\"time_millis\":".length(), first.indexOf(',')));
+        assertTrue(time >= before - 1 && time <= System.currentTimeMillis());
+        assertEquals("\"event\":\"device_found\",\"address\":\"00:11:22:33:44:55\",\"name\":\"Watch\\n\\\"2\\\"\","
+                + "\"device_class\":1796,\"rssi\":-70}", withoutTime(first));
+        assertEquals("\"event\":\"discovery_finished\",\"state\":0,\"previous_state\":0}", withoutTime(lines.get(1)));
+    }
+
+    @Test
+    public void export_reportsTheProgressWhileStreaming() throws IOException {
+        int eventCount = SessionExporter.PROGRESS_INTERVAL * 3 + 5;
+        ScanJournal journal = new ScanJournal(journalDirectory, 10000, 100);
+        for (int i = 0; i < eventCount; i++) {
+            journal.append(BluetoothEvent.TYPE_DEVICE_FOUND, ADDRESS + i % 1000, DeviceRegistry.UNKNOWN_CLASS,
+                    (short) -60, 0, 0, i);
+        }
+        journal.close();
+
+        List<String> lines = export(SessionExporter.Format.CSV, true);
+
+        assertEquals(eventCount + 1, lines.size());
+        assertEquals(eventCount, progressTotal);
+        // At the start, every interval, and at the end.
+        assertEquals(5, progress.size());
+        for (int i = 1; i < progress.size(); i++) {
+            assertTrue(progress.get(i) > progress.get(i - 1));
+        }
+        assertEquals(eventCount, (long) progress.get(progress.size() - 1));
+    }
+
+    @Test
+    public void export_streamsEverySegmentOfALongSession() throws IOException {
+        // The heap used by sessions of over a million events is measured by ScanJournalBenchmark.
+        int eventCount = 40000;
+        ScanJournal journal = new ScanJournal(journalDirectory, 4096, 10);
+        for (int i = 0; i < eventCount; i++) {
+            journal.append(BluetoothEvent.TYPE_DEVICE_FOUND, ADDRESS + i % 1000, DeviceRegistry.UNKNOWN_CLASS,
+                    (short) -60, 0, 0, i);
+        }
+        journal.close();
+        for (int i = 0; i < 1000; i++) {
+            registry.record(ADDRESS + i, null, "Device " + i, DeviceRegistry.UNKNOWN_CLASS, (short) -60, 0);
+        }
+        File file = new File(exportDirectory, "export.jsonl.gz");
+
+        exporter.export(journalDirectory, registry, file, SessionExporter.Format.JSON_LINES, true, this);
+
+        assertTrue(finishedSuccess);
+        assertEquals(eventCount, finishedCount);
+        assertEquals(eventCount, countLines(file));
+    }
+
+    @Test
+    public void export_failsWithoutLeavingAFile() {
+        File file = new File(new File(exportDirectory, "missing"), "export.csv");
+
+        exporter.export(journalDirectory, registry, file, SessionExporter.Format.CSV, false, this);
+
+        assertFalse(finishedSuccess);
+        assertEquals(0, finishedCount);
+        assertFalse(file.exists());
+    }
+
+    @Override
+    public void startLoading() {
+    }
+
+    @Override
+    public void endLoading() {
+    }
+
+    @Override
+    public void connectedDeviceInfo(DeviceSnapshot snapshot) {
+    }
+
+    @Override
+    public void exportProgress(long exported, long total) {
+        progress.add(exported);
+        progressTotal = total;
+    }
+
+    @Override
+    public void exportFinished(File file, long exported, boolean success) {
+        finishedCount = exported;
+        finishedSuccess = success;
+    }
+
+    @Override
+    public void devicesRestored(int restored) {
+    }
+
+    private List<String> export(SessionExporter.Format format, boolean gzip) throws IOException {
+        File file = new File(exportDirectory, "export" + format.getExtension() + (gzip ? ".gz" : ""));
+        exporter.export(journalDirectory, registry, file, format, gzip, this);
+        assertTrue(finishedSuccess);
+
+        List<String> lines = new ArrayList<>();
+        InputStream in = new FileInputStream(file);
+        if (gzip) {
+            in = new GZIPInputStream(in);
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    private static long countLines(File file) throws IOException {
+        long count = 0;
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new GZIPInputStream(new FileInputStream(file)), "UTF-8"))) {
+            while (reader.readLine() != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Removes the time, which depends on when the journal was created, from an exported line.
+     */
+    private static String withoutTime(String line) {
+        return line.substring(line.indexOf(',') + 1);
+    }
+}
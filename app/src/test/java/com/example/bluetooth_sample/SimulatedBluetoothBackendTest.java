@@ -0,0 +1,200 @@
+package com.example.bluetooth_sample;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+/**
+ * Drives the discovery and pairing bookkeeping with the simulated Bluetooth stack.
+ */
+public class SimulatedBluetoothBackendTest implements BluetoothEventQueue.Dispatcher, PairingScheduler.Listener {
+
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private SimulatedBluetoothBackend backend;
+    private BluetoothEventQueue eventQueue;
+    private DeviceRegistry deviceRegistry;
+    private BondedDeviceIndex bondedDevices;
+    private PairingScheduler pairingScheduler;
+
+    private int discoveryFinishedCount;
+    private int deviceFoundCount;
+    private int adapterOffCount;
+    private int pairingFinishedCount;
+    private int batchBondedCount = -1;
+    private int batchFailedCount = -1;
+
+    @Before
+    public void setUp() {
+        backend = new SimulatedBluetoothBackend(42);
+        backend.setRealTime(false);
+        eventQueue = new BluetoothEventQueue(256, DIRECT_EXECUTOR, this);
+        deviceRegistry = new DeviceRegistry();
+        bondedDevices = new BondedDeviceIndex();
+        pairingScheduler = new PairingScheduler(4, new ManualTimers(), backend, this);
+        backend.start(eventQueue);
+    }
+
+    @Override
+    public void dispatch(BluetoothEvent event) {
+        switch (event.getType()) {
+            case BluetoothEvent.TYPE_DEVICE_FOUND:
+                deviceFoundCount++;
+                deviceRegistry.record(event.getAddress(), event.getDevice(), event.getName(),
+                        event.getDeviceClass(), event.getRssi(), 0);
+                break;
+            case BluetoothEvent.TYPE_DISCOVERY_FINISHED:
+                discoveryFinishedCount++;
+                break;
+            case BluetoothEvent.TYPE_STATE_CHANGED:
+                if (event.getState() == BluetoothAdapter.STATE_OFF) {
+                    adapterOffCount++;
+                }
+                break;
+            case BluetoothEvent.TYPE_BOND_STATE_CHANGED:
+                bondedDevices.onBondStateChanged(event.getAddress(), event.getState());
+                pairingScheduler.onBondStateChanged(event.getAddress(), event.getState(), event.getPreviousState());
+                break;
+            default:
+                break;
+        }
+    }
+
+    @Override
+    public void onPairingFinished(long address, BluetoothDevice device, PairingResult result) {
+        pairingFinishedCount++;
+    }
+
+    @Override
+    public void onBatchFinished(int bonded, int failed, long elapsedMillis) {
+        batchBondedCount = bonded;
+        batchFailedCount = failed;
+    }
+
+    @Test
+    public void discovery_recordsEverySightingAtMaximumRate() {
+        backend.setDevicePopulation(5000);
+        backend.setEventsPerSecond(SimulatedBluetoothBackend.MAX_EVENTS_PER_SECOND);
+        assertTrue(backend.startDiscovery());
+
+        // One simulated second of a crowded place.
+        backend.generate(10000);
+
+        assertEquals(10000, backend.getSightingCount());
+        assertEquals(0, eventQueue.getDroppedCount());
+        int hits = 0;
+        for (int i = 0; i < deviceRegistry.size(); i++) {
+            hits += deviceRegistry.getHitCount(i);
+        }
+        assertEquals(10000, hits);
+        assertTrue(deviceRegistry.size() > 4000 && deviceRegistry.size() <= 5000);
+        assertTrue(backend.isDiscovering());
+    }
+
+    @Test
+    public void discovery_finishesOnItsOwn() {
+        backend.setEventsPerSecond(1000);
+        backend.setDiscoveryDurationMillis(100);
+        assertTrue(backend.startDiscovery());
+
+        backend.generate(200);
+
+        assertFalse(backend.isDiscovering());
+        assertEquals(1, discoveryFinishedCount);
+        assertTrue(backend.getSightingCount() < 100);
+    }
+
+    @Test
+    public void leScan_reportsTheSightingsInBatches() {
+        backend.setDevicePopulation(50);
+        backend.setEventsPerSecond(1000);
+        LeScanSettings settings = new LeScanSettings();
+        settings.setReportDelayMillis(100);
+        settings.setDurationMillis(1000);
+        assertTrue(backend.startLeScan(settings));
+
+        backend.generate(50);
+        assertEquals(0, deviceFoundCount);
+
+        backend.generate(60);
+        long batches = eventQueue.getBatchCount();
+        assertTrue(deviceFoundCount > 0);
+        assertEquals(1, batches);
+
+        // Ends on its own, reporting the last batch first.
+        backend.generate(1000);
+        assertFalse(backend.isLeScanning());
+        assertEquals(1, discoveryFinishedCount);
+        assertEquals(10, eventQueue.getBatchCount() - batches);
+        assertEquals(backend.getSightingCount(), deviceFoundCount + eventQueue.getCoalescedCount());
+    }
+
+    @Test
+    public void leScan_dispatchesTheBatchesLargerThanTheQueue() {
+        backend.setDevicePopulation(5000);
+        backend.setEventsPerSecond(SimulatedBluetoothBackend.MAX_EVENTS_PER_SECOND);
+        LeScanSettings settings = new LeScanSettings();
+        settings.setReportDelayMillis(100);
+        settings.setDurationMillis(10000);
+        assertTrue(backend.startLeScan(settings));
+
+        // One batch of about a thousand sightings, most of them distinct devices.
+        backend.generate(1000);
+
+        assertTrue(deviceRegistry.size() > 300);
+        assertTrue(eventQueue.getBatchCount() > 1);
+        assertEquals(0, eventQueue.getDroppedCount());
+        assertTrue(deviceFoundCount + eventQueue.getCoalescedCount() > 900);
+    }
+
+    @Test
+    public void pairing_completesEveryDeviceOfTheBatch() {
+        backend.setEventsPerSecond(1000);
+        backend.setBondDurationMillis(100);
+        backend.setBondFailureRate(0.25f);
+        for (int i = 0; i < 20; i++) {
+            pairingScheduler.submit(SimulatedBluetoothBackend.FIRST_ADDRESS + i, null, 60000);
+        }
+        assertTrue(pairingScheduler.isBusy());
+
+        // Five waves of four bondings, 100 ticks each.
+        backend.generate(1000);
+
+        assertFalse(pairingScheduler.isBusy());
+        assertEquals(20, pairingFinishedCount);
+        assertEquals(20, batchBondedCount + batchFailedCount);
+        assertTrue(batchFailedCount > 0);
+        assertEquals(batchBondedCount, bondedDevices.size());
+        assertEquals(batchBondedCount, backend.getBondedAddresses().length);
+    }
+
+    @Test
+    public void adapterFlip_failsTheRunningDiscovery() {
+        backend.setEventsPerSecond(1000);
+        backend.setAdapterFlipRate(0.01f);
+        backend.setAdapterOffMillis(50);
+        assertTrue(backend.startDiscovery());
+
+        backend.generate(2000);
+
+        assertTrue(adapterOffCount > 0);
+        assertEquals(1, discoveryFinishedCount);
+        assertFalse(backend.isDiscovering());
+
+        // Comes back on once the flips stop.
+        backend.setAdapterFlipRate(0);
+        backend.generate(100);
+        assertEquals(BluetoothAdapter.STATE_ON, backend.getState());
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.bluetooth_sample.benchmark;
+
+import com.example.bluetooth_sample.BeaconTable;
+import com.example.bluetooth_sample.SimulatedBluetoothBackend;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the recording of a ranging cycle, once every beacon has been seen: run with
+ * {@code -prof gc} to check that it allocates nothing.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BeaconTableBenchmark {
+
+    private static final long UUID_HIGH = 0xF7826DA64FA24E98L;
+    private static final long UUID_LOW = 0x8024BC5B71E0893EL;
+
+    /**
+     * Number of beacons ranged in each cycle.
+     */
+    @Param({"500", "2000"})
+    public int beaconCount;
+
+    private BeaconTable table;
+    private int[] majorMinors;
+    private int[] rssis;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        table = new BeaconTable();
+        majorMinors = new int[beaconCount];
+        rssis = new int[beaconCount];
+        for (int i = 0; i < beaconCount; i++) {
+            majorMinors[i] = random.nextInt();
+            rssis[i] = -40 - random.nextInt(60);
+        }
+        // Every beacon already seen, as after the first cycles.
+        rangeCycle();
+    }
+
+    /**
+     * A cycle of iBeacons sharing a proximity UUID, as deployed by a venue.
+     */
+    @Benchmark
+    public int rangeCycle() {
+        table.beginCycle();
+        for (int i = 0; i < beaconCount; i++) {
+            table.record(BeaconTable.TYPE_IBEACON, UUID_HIGH, UUID_LOW, majorMinors[i],
+                    SimulatedBluetoothBackend.FIRST_ADDRESS + i, rssis[i], -59);
+        }
+        return table.getRangedCount();
+    }
+}
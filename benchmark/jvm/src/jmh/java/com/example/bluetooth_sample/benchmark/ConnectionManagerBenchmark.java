@@ -0,0 +1,151 @@
+package com.example.bluetooth_sample.benchmark;
+
+import com.example.bluetooth_sample.ByteBufferPool;
+import com.example.bluetooth_sample.ConnectionManager;
+import com.example.bluetooth_sample.LoopbackTransport;
+import com.example.bluetooth_sample.RfcommConnection;
+import com.example.bluetooth_sample.RfcommTransport;
+import com.example.bluetooth_sample.SimulatedBluetoothBackend;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Measures the aggregate throughput of a connection manager streaming frames to many simulated
+ * devices over the loopback transport. The manager keeps the same threads whatever the number of
+ * links, so the throughput should not drop as the links are added.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ConnectionManagerBenchmark implements ConnectionManager.TransportFactory {
+
+    /**
+     * Number of frames of each invocation, spread over the links.
+     */
+    private static final int FRAMES = 1024;
+
+    @Param({"1", "4", "16", "32"})
+    public int linkCount;
+
+    @Param({"1024"})
+    public int payloadSize;
+
+    private ConnectionManager manager;
+    private ConnectionManager.Link[] links;
+    private ByteBuffer payload;
+
+    /**
+     * The device ends of the links, drained by a single thread so the devices don't add
+     * threads either.
+     */
+    private final List<RfcommTransport> devices = new CopyOnWriteArrayList<>();
+    private final AtomicLong drained = new AtomicLong();
+    private volatile boolean draining;
+    private Thread drainer;
+
+    @Setup
+    public void setUp() throws InterruptedException {
+        manager = new ConnectionManager(this, new ConnectionManager.Listener() {
+            @Override
+            public void onLinkConnected(ConnectionManager.Link link) {
+            }
+
+            @Override
+            public void onFrameReceived(ConnectionManager.Link link, ByteBuffer frame) {
+            }
+
+            @Override
+            public void onLinkDisconnected(ConnectionManager.Link link, IOException cause, boolean reconnect) {
+            }
+        }, ConnectionManager.DEFAULT_IO_THREADS, new ByteBufferPool(256,
+                RfcommConnection.HEADER_SIZE + payloadSize, true));
+        manager.setIdleTimeoutMillis(0);
+        links = new ConnectionManager.Link[linkCount];
+        for (int i = 0; i < linkCount; i++) {
+            links[i] = manager.open(SimulatedBluetoothBackend.FIRST_ADDRESS + i);
+        }
+        for (ConnectionManager.Link link : links) {
+            while (link.getState() != ConnectionManager.STATE_CONNECTED) {
+                Thread.sleep(1);
+            }
+        }
+        payload = ByteBuffer.allocate(payloadSize);
+
+        draining = true;
+        drainer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        });
+        drainer.start();
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        manager.shutdown();
+        draining = false;
+        drainer.join();
+    }
+
+    @Override
+    public RfcommTransport create(long address) {
+        LoopbackTransport[] pair = LoopbackTransport.createPair();
+        devices.add(pair[1]);
+        return pair[0];
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public void stream() throws IOException, InterruptedException {
+        long target = drained.get() + (long) FRAMES * (RfcommConnection.HEADER_SIZE + payloadSize);
+        for (int i = 0; i < FRAMES; i++) {
+            payload.clear();
+            links[i % linkCount].send(payload, Long.MAX_VALUE);
+        }
+        while (drained.get() < target) {
+            LockSupport.parkNanos(10000);
+        }
+    }
+
+    /**
+     * Reads and drops the bytes received by the devices.
+     */
+    private void drain() {
+        ByteBuffer sink = ByteBuffer.allocateDirect(64 * 1024);
+        try {
+            while (draining) {
+                boolean idle = true;
+                for (RfcommTransport device : devices) {
+                    if (device.available() > 0) {
+                        sink.clear();
+                        drained.addAndGet(device.getInputChannel().read(sink));
+                        idle = false;
+                    }
+                }
+                if (idle) {
+                    LockSupport.parkNanos(10000);
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.example.bluetooth_sample.benchmark;
+
+import com.example.bluetooth_sample.DeviceModel;
+import com.example.bluetooth_sample.DeviceModelCodec;
+import com.example.bluetooth_sample.MacAddress;
+import com.example.bluetooth_sample.SimulatedBluetoothBackend;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the binary encoding of the device models, the JVM side of their transfer, against
+ * the Java serialization of the Serializable model they replaced. The {@link android.os.Parcel}
+ * side, and the sizes of the three forms, are measured on device.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DeviceModelCodecBenchmark {
+
+    /**
+     * Number of UUIDs of each model, a typical phone or headset.
+     */
+    private static final int UUID_COUNT = 8;
+
+    /**
+     * Number of RSSIs of each model.
+     */
+    private static final int RSSI_COUNT = 16;
+
+    /**
+     * Number of models transferred.
+     */
+    @Param({"100", "1000", "10000"})
+    public int deviceCount;
+
+    private DeviceModel[] models;
+    private LegacyDeviceModel[] legacyModels;
+    private ByteBuffer buffer;
+
+    @Setup
+    public void setUp() {
+        models = new DeviceModel[deviceCount];
+        legacyModels = new LegacyDeviceModel[deviceCount];
+        int size = 0;
+        for (int i = 0; i < deviceCount; i++) {
+            long[] uuids = new long[UUID_COUNT * 2];
+            for (int j = 0; j < uuids.length; j++) {
+                uuids[j] = i * 31L + j;
+            }
+            DeviceModel model = new DeviceModel("Device " + i,
+                    MacAddress.toString(SimulatedBluetoothBackend.FIRST_ADDRESS + i), uuids);
+            model.setDeviceClass(0x020C);
+            model.setRssiHistory(new short[RSSI_COUNT]);
+            models[i] = model;
+            legacyModels[i] = new LegacyDeviceModel(model);
+            size += DeviceModelCodec.encodedSize(model);
+        }
+        buffer = ByteBuffer.allocate(size);
+    }
+
+    @Benchmark
+    public void encode() {
+        buffer.clear();
+        for (DeviceModel model : models) {
+            DeviceModelCodec.encode(model, buffer);
+        }
+    }
+
+    @Benchmark
+    public void encodeDecode(Blackhole blackhole) {
+        encode();
+        buffer.flip();
+        for (int i = 0; i < models.length; i++) {
+            blackhole.consume(DeviceModelCodec.decode(buffer));
+        }
+    }
+
+    @Benchmark
+    public void serialize(Blackhole blackhole) throws IOException {
+        for (LegacyDeviceModel model : legacyModels) {
+            blackhole.consume(serialize(model));
+        }
+    }
+
+    @Benchmark
+    public void serializeDeserialize(Blackhole blackhole) throws IOException, ClassNotFoundException {
+        for (LegacyDeviceModel model : legacyModels) {
+            ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialize(model)));
+            blackhole.consume(in.readObject());
+            in.close();
+        }
+    }
+
+    /**
+     * Serializes a model on its own, like {@code Bundle.putSerializable} did at each transfer,
+     * class descriptor included.
+     */
+    private static byte[] serialize(LegacyDeviceModel model) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(model);
+        out.close();
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,106 @@
+package com.example.bluetooth_sample.benchmark;
+
+import android.bluetooth.BluetoothClass;
+
+import com.example.bluetooth_sample.DeviceRegistry;
+import com.example.bluetooth_sample.DeviceSearchIndex;
+import com.example.bluetooth_sample.SimulatedBluetoothBackend;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the search of the device list: the filtered view returned at each keystroke, and the
+ * update of the index at each sighting.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DeviceSearchBenchmark {
+
+    private static final String[] BRANDS = {"Galaxy", "Pixel", "iPhone", "Mi Band", "JBL", "Bose", "ThinkPad"};
+
+    private static final int[] DEVICE_CLASSES = {
+            BluetoothClass.Device.PHONE_SMART,
+            BluetoothClass.Device.COMPUTER_LAPTOP,
+            BluetoothClass.Device.AUDIO_VIDEO_HEADPHONES,
+            BluetoothClass.Device.WEARABLE_WRIST_WATCH
+    };
+
+    /**
+     * Number of devices listed.
+     */
+    @Param({"1000", "10000"})
+    public int deviceCount;
+
+    private DeviceRegistry registry;
+    private DeviceSearchIndex index;
+    private int nextDevice;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        registry = new DeviceRegistry();
+        index = new DeviceSearchIndex(registry);
+        for (int i = 0; i < deviceCount; i++) {
+            String name = BRANDS[random.nextInt(BRANDS.length)] + " " + random.nextInt(10000);
+            int registryIndex = registry.record(SimulatedBluetoothBackend.FIRST_ADDRESS + i, null, name,
+                    DEVICE_CLASSES[random.nextInt(DEVICE_CLASSES.length)], (short) -60, 0);
+            index.update(registryIndex);
+        }
+    }
+
+    /**
+     * The first keystroke, matching a large share of the devices.
+     */
+    @Benchmark
+    public int searchOneCharacter() {
+        return index.search("g", DeviceSearchIndex.ANY_CLASS).size();
+    }
+
+    /**
+     * A few keystrokes in, matching a handful of devices.
+     */
+    @Benchmark
+    public int searchNamePrefix() {
+        return index.search("galaxy 12", DeviceSearchIndex.ANY_CLASS).size();
+    }
+
+    /**
+     * A name prefix within a major class.
+     */
+    @Benchmark
+    public int searchNamePrefixAndClass() {
+        return index.search("pixel 1", BluetoothClass.Device.Major.PHONE).size();
+    }
+
+    /**
+     * An address prefix, with separators.
+     */
+    @Benchmark
+    public int searchAddressPrefix() {
+        return index.search("02:00:00:00:1", DeviceSearchIndex.ANY_CLASS).size();
+    }
+
+    /**
+     * A sighting of a known device renamed, moving it in the name trie.
+     */
+    @Benchmark
+    public int renameDevice() {
+        int device = nextDevice;
+        nextDevice = (nextDevice + 1) % deviceCount;
+        int registryIndex = registry.record(SimulatedBluetoothBackend.FIRST_ADDRESS + device, null,
+                (device & 1) == 0 ? "Galaxy " + device : "Pixel " + device, DeviceRegistry.UNKNOWN_CLASS, (short) -60, 0);
+        index.update(registryIndex);
+        return registryIndex;
+    }
+}
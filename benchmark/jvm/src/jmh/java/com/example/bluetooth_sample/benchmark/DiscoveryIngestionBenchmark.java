@@ -0,0 +1,151 @@
+package com.example.bluetooth_sample.benchmark;
+
+import com.example.bluetooth_sample.BluetoothEvent;
+import com.example.bluetooth_sample.BluetoothEventQueue;
+import com.example.bluetooth_sample.DeviceRegistry;
+import com.example.bluetooth_sample.SimulatedBluetoothBackend;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the ingestion of a discovery burst: the sightings go through the event queue, as the
+ * receiver thread offers them, and are recorded in the registry, as the UI thread dispatches
+ * them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DiscoveryIngestionBenchmark implements BluetoothEventQueue.Dispatcher {
+
+    /**
+     * Capacity of the queue, the one of the app.
+     */
+    private static final int QUEUE_CAPACITY = 256;
+
+    /**
+     * Number of sightings offered between two dispatches, like a receiver thread getting ahead
+     * of the UI thread.
+     */
+    private static final int SIGHTINGS_PER_DISPATCH = 128;
+
+    /**
+     * Number of devices around, each seen twice per burst on average.
+     */
+    @Param({"100", "1000", "10000"})
+    public int deviceCount;
+
+    private long[] addresses;
+    private String[] names;
+    private short[] rssis;
+
+    private Runnable pendingDrain;
+    private BluetoothEventQueue deferredQueue;
+    private BluetoothEventQueue directQueue;
+    private DeviceRegistry registry;
+    private SimulatedBluetoothBackend backend;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        int sightings = deviceCount * 2;
+        addresses = new long[sightings];
+        names = new String[sightings];
+        rssis = new short[sightings];
+        for (int i = 0; i < sightings; i++) {
+            int device = random.nextInt(deviceCount);
+            addresses[i] = SimulatedBluetoothBackend.FIRST_ADDRESS + device;
+            names[i] = "Device " + device;
+            rssis[i] = (short) (-30 - random.nextInt(70));
+        }
+
+        registry = new DeviceRegistry();
+        deferredQueue = new BluetoothEventQueue(QUEUE_CAPACITY, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                pendingDrain = command;
+            }
+        }, this);
+        directQueue = new BluetoothEventQueue(QUEUE_CAPACITY, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        }, this);
+
+        backend = new SimulatedBluetoothBackend(42);
+        backend.setRealTime(false);
+        backend.setDevicePopulation(deviceCount);
+        backend.setEventsPerSecond(SimulatedBluetoothBackend.MAX_EVENTS_PER_SECOND);
+        backend.start(directQueue);
+    }
+
+    @Override
+    public void dispatch(BluetoothEvent event) {
+        if (event.getType() == BluetoothEvent.TYPE_DEVICE_FOUND) {
+            registry.record(event.getAddress(), event.getDevice(), event.getName(),
+                    event.getDeviceClass(), event.getRssi(), 0);
+        }
+    }
+
+    /**
+     * Sightings coalesced in the queue and dispatched in batches.
+     */
+    @Benchmark
+    public int batchedDispatch() {
+        for (int i = 0; i < addresses.length; i++) {
+            deferredQueue.offerDeviceFound(addresses[i], null, names[i],
+                    DeviceRegistry.UNKNOWN_CLASS, rssis[i]);
+            if (i % SIGHTINGS_PER_DISPATCH == SIGHTINGS_PER_DISPATCH - 1) {
+                runPendingDrain();
+            }
+        }
+        runPendingDrain();
+        return registry.size();
+    }
+
+    /**
+     * Sightings dispatched one by one, like broadcasts received on the UI thread.
+     */
+    @Benchmark
+    public int directDispatch() {
+        for (int i = 0; i < addresses.length; i++) {
+            directQueue.offerDeviceFound(addresses[i], null, names[i],
+                    DeviceRegistry.UNKNOWN_CLASS, rssis[i]);
+        }
+        return registry.size();
+    }
+
+    /**
+     * Sightings generated by the simulated stack, dispatched one by one.
+     */
+    @Benchmark
+    public int simulatedDiscovery() {
+        if (!backend.isDiscovering()) {
+            backend.startDiscovery();
+        }
+        backend.generate(addresses.length);
+        return registry.size();
+    }
+
+    /**
+     * Runs the dispatch task submitted by the deferred queue, if any.
+     */
+    private void runPendingDrain() {
+        Runnable drain = pendingDrain;
+        if (drain != null) {
+            pendingDrain = null;
+            drain.run();
+        }
+    }
+}
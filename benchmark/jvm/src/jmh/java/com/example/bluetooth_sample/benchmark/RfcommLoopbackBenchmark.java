@@ -0,0 +1,134 @@
+package com.example.bluetooth_sample.benchmark;
+
+import com.example.bluetooth_sample.ByteBufferPool;
+import com.example.bluetooth_sample.LoopbackTransport;
+import com.example.bluetooth_sample.RfcommConnection;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the frame engine of the RFCOMM connections over the loopback transport, so without
+ * the radio: the throughput of a one way stream, and the round trip latency of a frame echoed by
+ * the remote end. The results bound what the engine adds to the link, which is much slower.
+ */
+public class RfcommLoopbackBenchmark {
+
+    /**
+     * Number of frames of each stream invocation.
+     */
+    private static final int STREAM_FRAMES = 256;
+
+    /**
+     * Two connected connections, the remote one counting or echoing the frames it receives.
+     */
+    @State(Scope.Thread)
+    public static class Link implements RfcommConnection.Listener {
+
+        @Param({"64", "1024", "16380"})
+        public int payloadSize;
+
+        @Param({"false", "true"})
+        public boolean echo;
+
+        RfcommConnection local;
+        RfcommConnection remote;
+        ByteBuffer payload;
+
+        /**
+         * Released for each frame received by the sender, or by the remote end without echo.
+         */
+        final Semaphore received = new Semaphore(0);
+
+        @Setup
+        public void setUp() throws IOException, InterruptedException {
+            LoopbackTransport[] pair = LoopbackTransport.createPair();
+            int bufferSize = RfcommConnection.HEADER_SIZE + payloadSize;
+            local = new RfcommConnection(pair[0], this, new ByteBufferPool(16, bufferSize, true));
+            remote = new RfcommConnection(pair[1], this, new ByteBufferPool(16, bufferSize, true));
+            payload = ByteBuffer.allocateDirect(payloadSize);
+            local.start();
+            remote.start();
+            // Waits for both ends to be connected.
+            received.acquire(2);
+        }
+
+        @TearDown
+        public void tearDown() {
+            local.close();
+            remote.close();
+        }
+
+        @Override
+        public void onConnected(RfcommConnection connection) {
+            received.release();
+        }
+
+        @Override
+        public void onFrameReceived(RfcommConnection connection, ByteBuffer frame) {
+            if (echo && connection == remote) {
+                try {
+                    remote.send(frame, Long.MAX_VALUE);
+                } catch (IOException e) {
+                    // Closed by the tear down.
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return;
+            }
+            received.release();
+        }
+
+        @Override
+        public void onClosed(RfcommConnection connection, IOException cause) {
+        }
+
+        /**
+         * Sends the payload.
+         */
+        void send() throws IOException, InterruptedException {
+            payload.clear();
+            local.send(payload, Long.MAX_VALUE);
+        }
+    }
+
+    /**
+     * Streams frames, the engine keeping the writer busy while the sender waits for buffers.
+     * With echo, the frames also come back, so both directions are loaded.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @OperationsPerInvocation(STREAM_FRAMES)
+    public void stream(Link link) throws IOException, InterruptedException {
+        for (int i = 0; i < STREAM_FRAMES; i++) {
+            link.send();
+        }
+        link.received.acquire(STREAM_FRAMES);
+    }
+
+    /**
+     * Sends a single frame and waits for it to be received, or echoed back: the latency of the
+     * threads handing the frame over.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void roundTrip(Link link) throws IOException, InterruptedException {
+        link.send();
+        link.received.acquire();
+    }
+}
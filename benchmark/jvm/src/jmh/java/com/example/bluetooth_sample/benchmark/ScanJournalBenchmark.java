@@ -0,0 +1,162 @@
+package com.example.bluetooth_sample.benchmark;
+
+import com.example.bluetooth_sample.BluetoothEvent;
+import com.example.bluetooth_sample.BluetoothEventQueue;
+import com.example.bluetooth_sample.DeviceRegistry;
+import com.example.bluetooth_sample.DeviceSnapshot;
+import com.example.bluetooth_sample.ProgressListener;
+import com.example.bluetooth_sample.ScanJournal;
+import com.example.bluetooth_sample.ScanJournalReplayer;
+import com.example.bluetooth_sample.SessionExporter;
+import com.example.bluetooth_sample.SimulatedBluetoothBackend;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the scan journal: the cost added to each event received, and the replay and the
+ * export of a recorded session, of the size of the default journal or of over a million events.
+ * The heap used by the export is shown with {@code -prof gc}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ScanJournalBenchmark implements BluetoothEventQueue.Dispatcher, ProgressListener {
+
+    /**
+     * Number of records of a segment of the recorded session, as in the app.
+     */
+    private static final int SESSION_SEGMENT_RECORDS = 65536;
+
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    /**
+     * Number of events of the recorded session.
+     */
+    @Param({"65536", "1200000"})
+    public int sessionEvents;
+
+    private File appendDirectory;
+    private File sessionDirectory;
+    private File exportDirectory;
+    private DeviceRegistry registry;
+    private SessionExporter exporter;
+    private ScanJournal journal;
+    private long nextEvent;
+    private long dispatchedCount;
+
+    @Setup
+    public void setUp() throws IOException {
+        appendDirectory = Files.createTempDirectory("journal").toFile();
+        journal = new ScanJournal(appendDirectory);
+        sessionDirectory = Files.createTempDirectory("session").toFile();
+        ScanJournal session = new ScanJournal(sessionDirectory, SESSION_SEGMENT_RECORDS,
+                (sessionEvents + SESSION_SEGMENT_RECORDS - 1) / SESSION_SEGMENT_RECORDS);
+        for (int i = 0; i < sessionEvents; i++) {
+            session.append(BluetoothEvent.TYPE_DEVICE_FOUND, SimulatedBluetoothBackend.FIRST_ADDRESS + i % 1000,
+                    0, (short) -60, 0, 0, i * 1000L);
+        }
+        session.close();
+
+        exportDirectory = Files.createTempDirectory("exports").toFile();
+        registry = new DeviceRegistry();
+        for (int i = 0; i < 1000; i++) {
+            registry.record(SimulatedBluetoothBackend.FIRST_ADDRESS + i, null, "Device " + i, 0, (short) -60, 0);
+        }
+        exporter = new SessionExporter(DIRECT_EXECUTOR, DIRECT_EXECUTOR);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        journal.close();
+        for (File directory : new File[]{appendDirectory, sessionDirectory, exportDirectory}) {
+            for (File child : directory.listFiles()) {
+                child.delete();
+            }
+            directory.delete();
+        }
+    }
+
+    /**
+     * A sighting appended, rotating the segments as they fill up.
+     */
+    @Benchmark
+    public long appendEvent() {
+        long event = nextEvent++;
+        journal.append(BluetoothEvent.TYPE_DEVICE_FOUND, SimulatedBluetoothBackend.FIRST_ADDRESS + (event & 1023),
+                0, (short) -60, 0, 0, event);
+        return event;
+    }
+
+    /**
+     * A whole session of {@link #sessionEvents} sightings replayed.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public long replaySession() {
+        ScanJournalReplayer replayer = new ScanJournalReplayer(sessionDirectory);
+        replayer.setRealTime(false);
+        replayer.start(new BluetoothEventQueue(256, DIRECT_EXECUTOR, this));
+        replayer.replay(Integer.MAX_VALUE);
+        return dispatchedCount;
+    }
+
+    /**
+     * A whole session of {@link #sessionEvents} sightings exported to gzipped JSON Lines.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public long exportSession() {
+        File file = new File(exportDirectory, "session.jsonl.gz");
+        exporter.export(sessionDirectory, registry, file, SessionExporter.Format.JSON_LINES, true, this);
+        return file.length();
+    }
+
+    @Override
+    public void dispatch(BluetoothEvent event) {
+        dispatchedCount++;
+    }
+
+    @Override
+    public void startLoading() {
+    }
+
+    @Override
+    public void endLoading() {
+    }
+
+    @Override
+    public void connectedDeviceInfo(DeviceSnapshot snapshot) {
+    }
+
+    @Override
+    public void exportProgress(long exported, long total) {
+    }
+
+    @Override
+    public void exportFinished(File file, long exported, boolean success) {
+    }
+
+    @Override
+    public void devicesRestored(int restored) {
+    }
+}
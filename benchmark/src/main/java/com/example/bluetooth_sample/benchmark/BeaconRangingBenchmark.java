@@ -0,0 +1,116 @@
+package com.example.bluetooth_sample.benchmark;
+
+import com.example.bluetooth_sample.BeaconRanger;
+import com.example.bluetooth_sample.MacAddress;
+import com.example.bluetooth_sample.SimulatedBluetoothBackend;
+
+import org.altbeacon.beacon.Beacon;
+import org.altbeacon.beacon.Identifier;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Measures the recording of the ranging cycles by {@link BeaconRanger}, with the beacons the
+ * library reports: iBeacons of a few venues, and Eddystone-UID beacons of a few namespaces. Like
+ * the library, each cycle brings new beacon and identifier objects, with the values of the
+ * previous cycles.
+ */
+@RunWith(Parameterized.class)
+public class BeaconRangingBenchmark {
+
+    /**
+     * Number of cycles built in advance, reported in turn.
+     */
+    private static final int CYCLE_COUNT = 4;
+
+    /**
+     * Number of venues, sharing a proximity UUID, or of Eddystone namespaces.
+     */
+    private static final int VENUE_COUNT = 8;
+
+    @Parameterized.Parameters(name = "beacons={0}")
+    public static Collection<Object[]> beaconCounts() {
+        return Arrays.asList(new Object[][]{{500}, {2000}});
+    }
+
+    @Rule
+    public BenchmarkRule benchmarkRule = new BenchmarkRule();
+
+    private final int beaconCount;
+
+    private BeaconRanger ranger;
+    private List<List<Beacon>> cycles;
+
+    public BeaconRangingBenchmark(int beaconCount) {
+        this.beaconCount = beaconCount;
+    }
+
+    @Before
+    public void setUp() {
+        ranger = new BeaconRanger(InstrumentationRegistry.getInstrumentation().getTargetContext());
+        cycles = new ArrayList<>(CYCLE_COUNT);
+        for (int cycle = 0; cycle < CYCLE_COUNT; cycle++) {
+            List<Beacon> beacons = new ArrayList<>(beaconCount);
+            for (int i = 0; i < beaconCount; i++) {
+                beacons.add(i % 2 == 0 ? iBeacon(i) : eddystoneUid(i));
+            }
+            cycles.add(beacons);
+        }
+    }
+
+    @Test
+    public void recordCycle() {
+        BenchmarkState state = benchmarkRule.getState();
+        int cycle = 0;
+        while (state.keepRunning()) {
+            ranger.recordCycle(cycles.get(cycle));
+            cycle = (cycle + 1) % CYCLE_COUNT;
+        }
+        assertEquals(beaconCount, ranger.getTable().getRangedCount());
+    }
+
+    private static Beacon iBeacon(int index) {
+        byte[] uuid = new byte[16];
+        uuid[0] = (byte) 0xE2;
+        uuid[15] = (byte) (index % VENUE_COUNT);
+        return new Beacon.Builder()
+                .setIdentifiers(Arrays.asList(Identifier.fromBytes(uuid, 0, uuid.length, false),
+                        Identifier.fromInt(index / 256), Identifier.fromInt(index % 256)))
+                .setBeaconTypeCode(0x0215)
+                .setRssi(-40 - index % 50)
+                .setTxPower(-59)
+                .setBluetoothAddress(MacAddress.toString(SimulatedBluetoothBackend.FIRST_ADDRESS + index))
+                .build();
+    }
+
+    private static Beacon eddystoneUid(int index) {
+        byte[] namespace = new byte[10];
+        namespace[9] = (byte) (index % VENUE_COUNT);
+        byte[] instance = new byte[6];
+        instance[4] = (byte) (index >> 8);
+        instance[5] = (byte) index;
+        return new Beacon.Builder()
+                .setIdentifiers(Arrays.asList(Identifier.fromBytes(namespace, 0, namespace.length, false),
+                        Identifier.fromBytes(instance, 0, instance.length, false)))
+                .setServiceUuid(0xFEAA)
+                .setBeaconTypeCode(0x00)
+                .setRssi(-40 - index % 50)
+                .setTxPower(-20)
+                .setBluetoothAddress(MacAddress.toString(SimulatedBluetoothBackend.FIRST_ADDRESS + index))
+                .build();
+    }
+}
@@ -0,0 +1,22 @@
+package com.example.bluetooth_sample.benchmark;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Parameters shared by the benchmarks, so that their results can be compared.
+ */
+final class BenchmarkParameters {
+
+    private BenchmarkParameters() {
+    }
+
+    /**
+     * Gets the numbers of devices the benchmarks run with: a room, a building, a crowded hall.
+     *
+     * @return the parameters of a {@link org.junit.runners.Parameterized} benchmark.
+     */
+    static Collection<Object[]> deviceCounts() {
+        return Arrays.asList(new Object[][]{{50}, {500}, {5000}});
+    }
+}
@@ -0,0 +1,43 @@
+package com.example.bluetooth_sample.benchmark;
+
+import android.os.Bundle;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+
+/**
+ * Writes the results which {@code BenchmarkState} doesn't measure, as JSON files next to its own.
+ */
+final class BenchmarkReports {
+
+    private static final String TAG = "BenchmarkReports";
+
+    private BenchmarkReports() {
+    }
+
+    /**
+     * Writes a result to the additional test output of the run, or else to the external files of
+     * the benchmark, and logs it.
+     *
+     * @param benchmark the simple name of the benchmark class.
+     * @param name      the name of the result, unique within the benchmark.
+     * @param json      the result, a JSON object.
+     * @throws IOException if the file can't be written.
+     */
+    static void write(String benchmark, String name, String json) throws IOException {
+        Log.i(TAG, benchmark + " " + json);
+        Bundle arguments = InstrumentationRegistry.getArguments();
+        String directory = arguments.getString("additionalTestOutputDir");
+        File file = new File(directory != null ? new File(directory)
+                : InstrumentationRegistry.getInstrumentation().getContext().getExternalFilesDir(null),
+                benchmark + "_" + name + ".json");
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write((json + "\n").getBytes("UTF-8"));
+        }
+    }
+}
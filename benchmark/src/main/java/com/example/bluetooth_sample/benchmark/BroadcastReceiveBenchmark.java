@@ -0,0 +1,136 @@
+package com.example.bluetooth_sample.benchmark;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.content.Context;
+import android.content.Intent;
+
+import com.example.bluetooth_sample.BluetoothEvent;
+import com.example.bluetooth_sample.BluetoothEventQueue;
+import com.example.bluetooth_sample.DeviceRegistry;
+import com.example.bluetooth_sample.MacAddress;
+import com.example.bluetooth_sample.SimulatedBluetoothBackend;
+import com.example.bluetooth_sample.SystemBluetoothBackend;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.Collection;
+import java.util.Random;
+import java.util.concurrent.Executor;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import static org.junit.Assume.assumeNotNull;
+
+/**
+ * Measures the handling of the discovery broadcasts: the extras of each ACTION_FOUND Intent are
+ * digested by the receiver into the event queue, and the batches are recorded in the registry
+ * like {@code BroadcastDelegate} does on the UI thread.
+ */
+@RunWith(Parameterized.class)
+public class BroadcastReceiveBenchmark implements BluetoothEventQueue.Dispatcher {
+
+    /**
+     * Capacity of the queue, the one of the app.
+     */
+    private static final int QUEUE_CAPACITY = 256;
+
+    /**
+     * Number of broadcasts received between two dispatches.
+     */
+    private static final int BROADCASTS_PER_DISPATCH = 128;
+
+    @Parameterized.Parameters(name = "devices={0}")
+    public static Collection<Object[]> deviceCounts() {
+        return BenchmarkParameters.deviceCounts();
+    }
+
+    @Rule
+    public BenchmarkRule benchmarkRule = new BenchmarkRule();
+
+    private final int deviceCount;
+    private final DeviceRegistry registry = new DeviceRegistry();
+
+    private Context context;
+    private Intent[] intents;
+    private Runnable pendingDrain;
+    private SystemBluetoothBackend backend;
+
+    public BroadcastReceiveBenchmark(int deviceCount) {
+        this.deviceCount = deviceCount;
+    }
+
+    @Before
+    public void setUp() {
+        BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+        assumeNotNull(adapter);
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+
+        // Each device is seen twice on average, like during a discovery.
+        Random random = new Random(42);
+        intents = new Intent[deviceCount * 2];
+        for (int i = 0; i < intents.length; i++) {
+            int device = random.nextInt(deviceCount);
+            intents[i] = new Intent(BluetoothDevice.ACTION_FOUND)
+                    .putExtra(BluetoothDevice.EXTRA_DEVICE, adapter.getRemoteDevice(
+                            MacAddress.toString(SimulatedBluetoothBackend.FIRST_ADDRESS + device)))
+                    .putExtra(BluetoothDevice.EXTRA_NAME, "Device " + device)
+                    .putExtra(BluetoothDevice.EXTRA_RSSI, (short) (-30 - random.nextInt(70)));
+        }
+
+        backend = new SystemBluetoothBackend(context, adapter, false);
+        backend.start(new BluetoothEventQueue(QUEUE_CAPACITY, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                pendingDrain = command;
+            }
+        }, this));
+    }
+
+    @After
+    public void tearDown() {
+        if (backend != null) {
+            backend.stop();
+        }
+    }
+
+    @Override
+    public void dispatch(BluetoothEvent event) {
+        if (event.getType() == BluetoothEvent.TYPE_DEVICE_FOUND) {
+            registry.record(event.getAddress(), event.getDevice(), event.getName(),
+                    event.getDeviceClass(), event.getRssi(), 0);
+        }
+    }
+
+    @Test
+    public void receiveDiscoveryBurst() {
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            for (int i = 0; i < intents.length; i++) {
+                backend.onReceive(context, intents[i]);
+                if (i % BROADCASTS_PER_DISPATCH == BROADCASTS_PER_DISPATCH - 1) {
+                    runPendingDrain();
+                }
+            }
+            runPendingDrain();
+        }
+    }
+
+    /**
+     * Runs the dispatch task submitted by the queue, if any.
+     */
+    private void runPendingDrain() {
+        Runnable drain = pendingDrain;
+        if (drain != null) {
+            pendingDrain = null;
+            drain.run();
+        }
+    }
+}
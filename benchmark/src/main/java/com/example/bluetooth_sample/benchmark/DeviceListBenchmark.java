@@ -0,0 +1,312 @@
+package com.example.bluetooth_sample.benchmark;
+
+import android.content.Context;
+import android.util.DisplayMetrics;
+import android.view.Choreographer;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+
+import com.example.bluetooth_sample.DeviceRegistry;
+import com.example.bluetooth_sample.DeviceSnapshot;
+import com.example.bluetooth_sample.ProgressListener;
+import com.example.bluetooth_sample.RecyclerViewAdapter;
+import com.example.bluetooth_sample.SimulatedBluetoothBackend;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import androidx.recyclerview.widget.DividerItemDecoration;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures the device list on the UI thread, frame by frame: the sightings of a frame are
+ * handed to the adapter, then the display frame flushes the coalesced updates to a RecyclerView
+ * laid out in a screen sized parent, which binds the rows it shows.
+ * <p>
+ * The time of each frame, from its start to the end of the layout, and the number of rows bound
+ * are written by {@link BenchmarkReports}, one file per test and device count. The frames are
+ * paced by the display, so they are not timed by {@code BenchmarkState}.
+ */
+@RunWith(Parameterized.class)
+public class DeviceListBenchmark {
+
+    /**
+     * Number of sightings received during a frame, about 2,000 broadcasts per second.
+     */
+    private static final int SIGHTINGS_PER_FRAME = 32;
+
+    /**
+     * Number of discoveries of the whole population, each into an empty list.
+     */
+    private static final int DISCOVERY_ROUNDS = 3;
+
+    /**
+     * Number of frames refreshing the devices already listed.
+     */
+    private static final int REFRESH_FRAMES = 300;
+
+    @Parameterized.Parameters(name = "devices={0}")
+    public static Collection<Object[]> deviceCounts() {
+        return BenchmarkParameters.deviceCounts();
+    }
+
+    private final int deviceCount;
+    private final Random random = new Random(42);
+
+    private DeviceRegistry registry;
+    private CountingAdapter adapter;
+    private FrameLayout parent;
+
+    /**
+     * Start of the frame being measured, on the UI thread.
+     */
+    private long frameStartNanos;
+
+    public DeviceListBenchmark(int deviceCount) {
+        this.deviceCount = deviceCount;
+    }
+
+    /**
+     * Discovers the devices into an empty list, each seen twice on average: the new rows are
+     * inserted at the bottom, then moved to their rank.
+     */
+    @Test
+    public void discoverDevices() throws Exception {
+        int sightingCount = deviceCount * 2;
+        int framesPerRound = (sightingCount + SIGHTINGS_PER_FRAME - 1) / SIGHTINGS_PER_FRAME;
+        FrameStats stats = new FrameStats(framesPerRound * DISCOVERY_ROUNDS);
+        for (int round = 0; round < DISCOVERY_ROUNDS; round++) {
+            createList();
+            final int[] sightings = new int[sightingCount];
+            for (int i = 0; i < sightingCount; i++) {
+                // Every device at least once.
+                sightings[i] = i < deviceCount ? i : random.nextInt(deviceCount);
+            }
+            shuffle(sightings);
+            for (int frame = 0; frame < framesPerRound; frame++) {
+                int from = frame * SIGHTINGS_PER_FRAME;
+                runFrame(sightings, from, Math.min(from + SIGHTINGS_PER_FRAME, sightingCount), stats);
+            }
+            assertEquals(deviceCount, adapter.getItemCount());
+        }
+        stats.report("discoverDevices", deviceCount);
+    }
+
+    /**
+     * Sees again the devices already listed, with a new signal strength: the rows shown are
+     * refreshed, and moved when their rank changes.
+     */
+    @Test
+    public void refreshDevices() throws Exception {
+        createList();
+        int[] everyDevice = new int[deviceCount];
+        for (int i = 0; i < deviceCount; i++) {
+            everyDevice[i] = i;
+        }
+        runFrame(everyDevice, 0, deviceCount, new FrameStats(1));
+
+        FrameStats stats = new FrameStats(REFRESH_FRAMES);
+        int[] sightings = new int[SIGHTINGS_PER_FRAME];
+        for (int frame = 0; frame < REFRESH_FRAMES; frame++) {
+            for (int i = 0; i < sightings.length; i++) {
+                sightings[i] = random.nextInt(deviceCount);
+            }
+            runFrame(sightings, 0, sightings.length, stats);
+        }
+        stats.report("refreshDevices", deviceCount);
+    }
+
+    /**
+     * Creates an empty device list in a parent of the size of the screen, like the one of the
+     * main activity.
+     */
+    private void createList() {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+                registry = new DeviceRegistry();
+                adapter = new CountingAdapter(context, registry);
+                RecyclerView recyclerView = new RecyclerView(context);
+                recyclerView.setLayoutManager(new LinearLayoutManager(context));
+                recyclerView.addItemDecoration(new DividerItemDecoration(context, DividerItemDecoration.VERTICAL));
+                // The animations run after the frame and need a window, which the list hasn't.
+                recyclerView.setItemAnimator(null);
+                recyclerView.setAdapter(adapter);
+                parent = new FrameLayout(context);
+                parent.addView(recyclerView, new FrameLayout.LayoutParams(
+                        ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT));
+                layout();
+            }
+        });
+    }
+
+    /**
+     * Hands sightings to the adapter, then waits for the next display frame to flush them and
+     * lay out the list.
+     *
+     * @param devices the indexes of the devices seen.
+     * @param from    the first index to hand over.
+     * @param to      the end of the indexes to hand over.
+     * @param stats   the statistics receiving the frame.
+     */
+    private void runFrame(final int[] devices, final int from, final int to, final FrameStats stats)
+            throws InterruptedException {
+        final CountDownLatch frameDone = new CountDownLatch(1);
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                Choreographer choreographer = Choreographer.getInstance();
+                // Posted before the update batcher of the adapter, so it runs first in the frame.
+                choreographer.postFrameCallback(new Choreographer.FrameCallback() {
+                    @Override
+                    public void doFrame(long frameTimeNanos) {
+                        frameStartNanos = System.nanoTime();
+                    }
+                });
+                long now = System.currentTimeMillis();
+                for (int i = from; i < to; i++) {
+                    int device = devices[i];
+                    int index = registry.record(SimulatedBluetoothBackend.FIRST_ADDRESS + device, null,
+                            "Device " + device, DeviceRegistry.UNKNOWN_CLASS,
+                            (short) (-30 - random.nextInt(70)), now);
+                    adapter.onDeviceDiscovered(index);
+                }
+                final int bindsBefore = adapter.bindCount;
+                // Posted after the batcher, like the traversal which follows it in a frame.
+                choreographer.postFrameCallback(new Choreographer.FrameCallback() {
+                    @Override
+                    public void doFrame(long frameTimeNanos) {
+                        layout();
+                        stats.add(System.nanoTime() - frameStartNanos, adapter.bindCount - bindsBefore);
+                        frameDone.countDown();
+                    }
+                });
+            }
+        });
+        assertTrue(frameDone.await(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Measures and lays out the list at the size of the screen, binding the rows it shows.
+     */
+    private void layout() {
+        DisplayMetrics metrics = parent.getContext().getResources().getDisplayMetrics();
+        parent.measure(View.MeasureSpec.makeMeasureSpec(metrics.widthPixels, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(metrics.heightPixels, View.MeasureSpec.EXACTLY));
+        parent.layout(0, 0, metrics.widthPixels, metrics.heightPixels);
+    }
+
+    private void shuffle(int[] values) {
+        for (int i = values.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int value = values[i];
+            values[i] = values[j];
+            values[j] = value;
+        }
+    }
+
+    /**
+     * The adapter of the app, counting the rows it binds.
+     */
+    private static class CountingAdapter extends RecyclerViewAdapter {
+
+        int bindCount;
+
+        CountingAdapter(Context context, DeviceRegistry registry) {
+            super(context, new ProgressListener() {
+                @Override
+                public void startLoading() {
+                }
+
+                @Override
+                public void endLoading() {
+                }
+
+                @Override
+                public void connectedDeviceInfo(DeviceSnapshot snapshot) {
+                }
+
+                @Override
+                public void exportProgress(long exported, long total) {
+                }
+
+                @Override
+                public void exportFinished(File file, long exported, boolean success) {
+                }
+
+                @Override
+                public void devicesRestored(int restored) {
+                }
+            }, registry);
+        }
+
+        @Override
+        public void onBindViewHolder(ViewHolder holder, int position) {
+            bindCount++;
+            super.onBindViewHolder(holder, position);
+        }
+    }
+
+    /**
+     * Time and rows bound of the frames of a test.
+     */
+    private static class FrameStats {
+
+        private final long[] frameNanos;
+        private final int[] binds;
+        private int frameCount;
+
+        FrameStats(int capacity) {
+            frameNanos = new long[capacity];
+            binds = new int[capacity];
+        }
+
+        void add(long nanos, int bindCount) {
+            frameNanos[frameCount] = nanos;
+            binds[frameCount] = bindCount;
+            frameCount++;
+        }
+
+        /**
+         * Writes the statistics as JSON.
+         *
+         * @param test        the name of the test.
+         * @param deviceCount the number of devices of the test.
+         */
+        void report(String test, int deviceCount) throws IOException {
+            long[] sorted = Arrays.copyOf(frameNanos, frameCount);
+            Arrays.sort(sorted);
+            long totalBinds = 0;
+            int maxBinds = 0;
+            for (int i = 0; i < frameCount; i++) {
+                totalBinds += binds[i];
+                maxBinds = Math.max(maxBinds, binds[i]);
+            }
+            String json = "{\"name\":\"" + test + "\",\"devices\":" + deviceCount
+                    + ",\"frames\":" + frameCount
+                    + ",\"binds\":{\"total\":" + totalBinds
+                    + ",\"perFrame\":" + (double) totalBinds / frameCount
+                    + ",\"maximum\":" + maxBinds + "}"
+                    + ",\"frameTimeNs\":{\"median\":" + sorted[frameCount / 2]
+                    + ",\"p90\":" + sorted[frameCount * 9 / 10]
+                    + ",\"maximum\":" + sorted[frameCount - 1] + "}}";
+            BenchmarkReports.write("DeviceListBenchmark", test + "_devices=" + deviceCount, json);
+        }
+    }
+}
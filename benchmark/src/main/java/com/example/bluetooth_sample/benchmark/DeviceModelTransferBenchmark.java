@@ -0,0 +1,154 @@
+package com.example.bluetooth_sample.benchmark;
+
+import android.os.Parcel;
+
+import com.example.bluetooth_sample.DeviceModel;
+import com.example.bluetooth_sample.DeviceModelCodec;
+import com.example.bluetooth_sample.MacAddress;
+import com.example.bluetooth_sample.SimulatedBluetoothBackend;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+
+/**
+ * Compares the transfers of the device models: through a {@link Parcel}, as between the
+ * activities, through the binary codec, as in the persisted files, and as a Serializable in a
+ * Parcel, as between the activities before. The sizes of the three forms are written by
+ * {@link BenchmarkReports}.
+ */
+@RunWith(Parameterized.class)
+public class DeviceModelTransferBenchmark {
+
+    /**
+     * Number of UUIDs of each model, a typical phone or headset.
+     */
+    private static final int UUID_COUNT = 8;
+
+    /**
+     * Number of RSSIs of each model.
+     */
+    private static final int RSSI_COUNT = 16;
+
+    @Parameterized.Parameters(name = "devices={0}")
+    public static Collection<Object[]> deviceCounts() {
+        return BenchmarkParameters.deviceCounts();
+    }
+
+    @Rule
+    public BenchmarkRule benchmarkRule = new BenchmarkRule();
+
+    private final int deviceCount;
+
+    private DeviceModel[] models;
+    private LegacyDeviceModel[] legacyModels;
+    private ByteBuffer buffer;
+
+    public DeviceModelTransferBenchmark(int deviceCount) {
+        this.deviceCount = deviceCount;
+    }
+
+    @Before
+    public void setUp() {
+        models = new DeviceModel[deviceCount];
+        legacyModels = new LegacyDeviceModel[deviceCount];
+        int size = 0;
+        for (int i = 0; i < deviceCount; i++) {
+            long[] uuids = new long[UUID_COUNT * 2];
+            for (int j = 0; j < uuids.length; j++) {
+                uuids[j] = i * 31L + j;
+            }
+            DeviceModel model = new DeviceModel("Device " + i,
+                    MacAddress.toString(SimulatedBluetoothBackend.FIRST_ADDRESS + i), uuids);
+            model.setDeviceClass(0x020C);
+            model.setRssiHistory(new short[RSSI_COUNT]);
+            models[i] = model;
+            legacyModels[i] = new LegacyDeviceModel(model);
+            size += DeviceModelCodec.encodedSize(model);
+        }
+        buffer = ByteBuffer.allocate(size);
+    }
+
+    @Test
+    public void parcel() {
+        BenchmarkState state = benchmarkRule.getState();
+        ClassLoader classLoader = DeviceModel.class.getClassLoader();
+        while (state.keepRunning()) {
+            Parcel parcel = Parcel.obtain();
+            for (DeviceModel model : models) {
+                parcel.writeParcelable(model, 0);
+            }
+            parcel.setDataPosition(0);
+            for (int i = 0; i < models.length; i++) {
+                parcel.readParcelable(classLoader);
+            }
+            parcel.recycle();
+        }
+    }
+
+    @Test
+    public void codec() {
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            buffer.clear();
+            for (DeviceModel model : models) {
+                DeviceModelCodec.encode(model, buffer);
+            }
+            buffer.flip();
+            for (int i = 0; i < models.length; i++) {
+                DeviceModelCodec.decode(buffer);
+            }
+        }
+    }
+
+    @Test
+    public void serializable() {
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            Parcel parcel = Parcel.obtain();
+            for (LegacyDeviceModel model : legacyModels) {
+                parcel.writeSerializable(model);
+            }
+            parcel.setDataPosition(0);
+            for (int i = 0; i < legacyModels.length; i++) {
+                parcel.readSerializable();
+            }
+            parcel.recycle();
+        }
+    }
+
+    /**
+     * Writes the sizes of the models transferred in each form, in bytes.
+     */
+    @Test
+    public void encodedSizes() throws IOException {
+        Parcel parcel = Parcel.obtain();
+        for (DeviceModel model : models) {
+            parcel.writeParcelable(model, 0);
+        }
+        int parcelSize = parcel.dataSize();
+        parcel.recycle();
+
+        parcel = Parcel.obtain();
+        for (LegacyDeviceModel model : legacyModels) {
+            parcel.writeSerializable(model);
+        }
+        int serializableSize = parcel.dataSize();
+        parcel.recycle();
+
+        BenchmarkReports.write("DeviceModelTransferBenchmark", "encodedSizes_devices=" + deviceCount,
+                "{\"name\":\"encodedSizes\",\"devices\":" + deviceCount
+                        + ",\"parcelBytes\":" + parcelSize
+                        + ",\"codecBytes\":" + buffer.capacity()
+                        + ",\"serializableBytes\":" + serializableSize + "}");
+    }
+}
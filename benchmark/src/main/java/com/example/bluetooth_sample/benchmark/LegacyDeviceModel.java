@@ -0,0 +1,53 @@
+package com.example.bluetooth_sample.benchmark;
+
+import com.example.bluetooth_sample.DeviceModel;
+
+import java.io.Serializable;
+
+/**
+ * The device model as it was transferred before it became Parcelable: a Serializable whose
+ * service UUIDs are joined as text, one per line. It carries the fields of {@link DeviceModel},
+ * so the Serializable, Parcel and codec forms of a transfer hold the same data.
+ */
+public class LegacyDeviceModel implements Serializable {
+    private String name;
+    private String mac;
+    private String UUID;
+    private int deviceClass;
+    private short[] rssiHistory;
+
+    public LegacyDeviceModel(DeviceModel model) {
+        this.name = model.getName();
+        this.mac = model.getMac();
+        StringBuilder uuids = new StringBuilder();
+        for (int i = 0; i < model.getUuidCount(); i++) {
+            if (i > 0) {
+                uuids.append('\n');
+            }
+            uuids.append(model.getUuid(i));
+        }
+        this.UUID = uuids.toString();
+        this.deviceClass = model.getDeviceClass();
+        this.rssiHistory = model.getRssiHistory();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getMac() {
+        return mac;
+    }
+
+    public String getUUID() {
+        return UUID;
+    }
+
+    public int getDeviceClass() {
+        return deviceClass;
+    }
+
+    public short[] getRssiHistory() {
+        return rssiHistory;
+    }
+}
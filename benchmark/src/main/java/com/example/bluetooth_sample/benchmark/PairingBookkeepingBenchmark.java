@@ -0,0 +1,122 @@
+package com.example.bluetooth_sample.benchmark;
+
+import android.bluetooth.BluetoothDevice;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.example.bluetooth_sample.BluetoothEvent;
+import com.example.bluetooth_sample.BluetoothEventQueue;
+import com.example.bluetooth_sample.BondedDeviceIndex;
+import com.example.bluetooth_sample.PairingResult;
+import com.example.bluetooth_sample.PairingScheduler;
+import com.example.bluetooth_sample.SimulatedBluetoothBackend;
+import com.example.bluetooth_sample.Timers;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.Collection;
+import java.util.concurrent.Executor;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+/**
+ * Measures the bookkeeping of a pairing batch: the scheduling of the bondings and the bond state
+ * changes, handled like {@code BluetoothHelper.onBondStateChanged} does. The bondings are made by
+ * the simulated Bluetooth stack, so only the app side is measured.
+ */
+@RunWith(Parameterized.class)
+public class PairingBookkeepingBenchmark implements BluetoothEventQueue.Dispatcher, PairingScheduler.Listener {
+
+    /**
+     * Simulated duration of each bonding, in ticks.
+     */
+    private static final int BOND_DURATION = 10;
+
+    /**
+     * Number of bondings running at once.
+     */
+    private static final int MAX_CONCURRENT_BONDS = 4;
+
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Parameterized.Parameters(name = "devices={0}")
+    public static Collection<Object[]> deviceCounts() {
+        return BenchmarkParameters.deviceCounts();
+    }
+
+    @Rule
+    public BenchmarkRule benchmarkRule = new BenchmarkRule();
+
+    private final int deviceCount;
+    private final BondedDeviceIndex bondedDevices = new BondedDeviceIndex();
+
+    private SimulatedBluetoothBackend backend;
+    private PairingScheduler pairingScheduler;
+
+    public PairingBookkeepingBenchmark(int deviceCount) {
+        this.deviceCount = deviceCount;
+    }
+
+    @Before
+    public void setUp() {
+        backend = new SimulatedBluetoothBackend(42);
+        backend.setRealTime(false);
+        backend.setEventsPerSecond(1000);
+        backend.setBondDurationMillis(BOND_DURATION);
+        backend.setDevicePopulation(deviceCount);
+        pairingScheduler = new PairingScheduler(MAX_CONCURRENT_BONDS, new Timers(new Handler(Looper.getMainLooper())),
+                backend, this);
+        backend.start(new BluetoothEventQueue(256, DIRECT_EXECUTOR, this));
+    }
+
+    @Override
+    public void dispatch(BluetoothEvent event) {
+        if (event.getType() == BluetoothEvent.TYPE_BOND_STATE_CHANGED) {
+            bondedDevices.onBondStateChanged(event.getAddress(), event.getState());
+            pairingScheduler.onBondStateChanged(event.getAddress(), event.getState(), event.getPreviousState());
+        }
+    }
+
+    @Override
+    public void onPairingFinished(long address, BluetoothDevice device, PairingResult result) {
+    }
+
+    @Override
+    public void onBatchFinished(int bonded, int failed, long elapsedMillis) {
+    }
+
+    @Test
+    public void pairBatch() {
+        final BenchmarkState state = benchmarkRule.getState();
+        // The scheduler runs on the UI thread.
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                int ticks = (deviceCount / MAX_CONCURRENT_BONDS + 1) * (BOND_DURATION + 1);
+                while (state.keepRunning()) {
+                    // A new population forgets the bonds of the previous batch.
+                    state.pauseTiming();
+                    backend.setDevicePopulation(deviceCount);
+                    bondedDevices.resync(backend);
+                    state.resumeTiming();
+
+                    for (int i = 0; i < deviceCount; i++) {
+                        pairingScheduler.submit(SimulatedBluetoothBackend.FIRST_ADDRESS + i, null, 60000);
+                    }
+                    backend.generate(ticks);
+                }
+            }
+        });
+    }
+}